@@ -0,0 +1,91 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tools.AES256;
+import util.ParsedFile;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures in-memory cipher throughput across payload sizes for the container (CBC),
+ * parallel chunked (GCM) and legacy double-Base64 paths. The key is derived once in setup,
+ * so only cipher and codec cost is measured; see {@link FileRoundTripBenchmark} for payloads up to 1 GB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CipherBenchmark {
+    private static final String SECRET = "benchmark-secret";
+
+    @Param({"1024", "65536", "1048576", "16777216", "268435456"})
+    public int size;
+
+    private final byte[] salt = new byte[16];
+    private final String saltBase64 = Base64.getEncoder().encodeToString(salt);
+    private byte[] payload;
+    private ParsedFile payloadFile;
+    private SecretKeySpec key;
+    private byte[] container;
+    private byte[] parallelContainer;
+
+    @Setup
+    public void setup() {
+        payload = new byte[size];
+        new Random(42).nextBytes(payload);
+        payloadFile = ParsedFile.wrap(ByteBuffer.wrap(payload));
+        key = AES256.deriveKey(SECRET, salt);
+        AES256.encryptFile(payloadFile, SECRET, saltBase64); // warms the legacy key cache entry
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size + 1024);
+        AES256.encryptContainer(new ByteArrayInputStream(payload), out, key, salt);
+        container = out.toByteArray();
+        out = new ByteArrayOutputStream(size + 1024);
+        AES256.encryptParallel(new ByteArrayInputStream(payload), out, key, salt);
+        parallelContainer = out.toByteArray();
+    }
+
+    @Benchmark
+    public void encryptContainer() {
+        AES256.encryptContainer(new ByteArrayInputStream(payload), OutputStream.nullOutputStream(), key, salt);
+    }
+
+    @Benchmark
+    public void decryptContainer() {
+        AES256.decryptContainer(new ByteArrayInputStream(container), OutputStream.nullOutputStream(), SECRET);
+    }
+
+    @Benchmark
+    public void encryptParallel() {
+        AES256.encryptParallel(new ByteArrayInputStream(payload), OutputStream.nullOutputStream(), key, salt);
+    }
+
+    @Benchmark
+    public void decryptParallel() {
+        AES256.decryptContainer(new ByteArrayInputStream(parallelContainer), OutputStream.nullOutputStream(), SECRET);
+    }
+
+    @Benchmark
+    public ParsedFile encryptFileLegacy() {
+        return AES256.encryptFile(payloadFile, SECRET, saltBase64);
+    }
+}
@@ -0,0 +1,84 @@
+package benchmarks;
+
+import io.FileParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import util.ParsedFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures FileParser reads from the page cache and ParsedFile file-type detection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FileParserBenchmark {
+    @Param({"1024", "1048576", "67108864"})
+    public int size;
+
+    private Path file;
+    private ByteBuffer pdf;
+    private ByteBuffer text;
+    private ByteBuffer binary;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+        file = Files.createTempFile("parser-benchmark", ".bin");
+        Files.write(file, content);
+
+        pdf = ByteBuffer.wrap("%PDF-1.7\n".getBytes());
+        text = ByteBuffer.wrap("The quick brown fox jumps over the lazy dog.\n".repeat(4).getBytes());
+        binary = ByteBuffer.wrap(content);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public ParsedFile parse() {
+        return FileParser.parse(file.toString());
+    }
+
+    @Benchmark
+    public ParsedFile parseMapped() {
+        return FileParser.parseMapped(file.toString());
+    }
+
+    @Benchmark
+    public String detectPdf() {
+        return ParsedFile.wrap(pdf).getFileType();
+    }
+
+    @Benchmark
+    public String detectText() {
+        return ParsedFile.wrap(text).getFileType();
+    }
+
+    @Benchmark
+    public String detectUnknown() {
+        return ParsedFile.wrap(binary).getFileType();
+    }
+}
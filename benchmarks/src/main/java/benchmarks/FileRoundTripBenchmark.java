@@ -0,0 +1,87 @@
+package benchmarks;
+
+import io.FileOutputParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tools.AES256;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures end-to-end encrypt + decrypt round-trips through FileOutputParser on disk,
+ * for payloads from 1 KB to 1 GB. The key is cached after the first derivation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+public class FileRoundTripBenchmark {
+    private static final String SECRET = "benchmark-secret";
+    private static final String SALT = Base64.getEncoder().encodeToString(new byte[16]);
+
+    @Param({"1024", "1048576", "67108864", "1073741824"})
+    public long size;
+
+    private Path directory;
+    private Path input;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("roundtrip-benchmark");
+        input = directory.resolve("input.bin");
+        Random random = new Random(42);
+        byte[] block = new byte[1024 * 1024];
+        try (OutputStream out = Files.newOutputStream(input)) {
+            for (long written = 0; written < size; written += block.length) {
+                random.nextBytes(block);
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        AES256.deriveKey(SECRET, Base64.getDecoder().decode(SALT));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public String streamRoundTrip() {
+        String encrypted = FileOutputParser.writeEncryptedStream(input.toString(), directory.toString(), SECRET, SALT, "stream");
+        return FileOutputParser.writeDecryptedStream(encrypted, directory.toString(), SECRET, "stream-decrypted");
+    }
+
+    @Benchmark
+    public String parallelRoundTrip() {
+        String encrypted = FileOutputParser.writeEncryptedParallel(input.toString(), directory.toString(), SECRET, SALT, "parallel");
+        return FileOutputParser.writeDecryptedStream(encrypted, directory.toString(), SECRET, "parallel-decrypted");
+    }
+
+    @Benchmark
+    public String pipelinedRoundTrip() {
+        String encrypted = FileOutputParser.writeEncryptedPipelined(input.toString(), directory.toString(), SECRET, SALT, "pipelined");
+        return FileOutputParser.writeDecryptedStream(encrypted, directory.toString(), SECRET, "pipelined-decrypted");
+    }
+}
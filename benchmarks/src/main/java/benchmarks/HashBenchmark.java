@@ -0,0 +1,70 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tools.SHA256;
+import util.Hex;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures SHA256.hash, separating the digest itself from the hex encoding of its result,
+ * and compares per-byte String.format with the table-driven Hex encoder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HashBenchmark {
+    @Param({"16", "1024"})
+    public int length;
+
+    private String plaintext;
+    private byte[] digest;
+    private char[] hexBuffer;
+
+    @Setup
+    public void setup() {
+        plaintext = "x".repeat(length);
+        digest = SHA256.newDigest().digest(plaintext.getBytes(StandardCharsets.UTF_8));
+        hexBuffer = new char[digest.length * 2];
+    }
+
+    @Benchmark
+    public String hashToHex() {
+        return SHA256.hash(plaintext);
+    }
+
+    @Benchmark
+    public byte[] digestOnly() throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(plaintext.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public String hexFormat() {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public char[] hexTableIntoBuffer() {
+        Hex.encode(digest, hexBuffer, 0);
+        return hexBuffer;
+    }
+}
@@ -0,0 +1,84 @@
+package benchmarks;
+
+import io.DecryptingChannel;
+import io.FileOutputParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures reading a 4 KB range at a random offset of a seekable encrypted file through
+ * DecryptingChannel. The channel is opened once, so key derivation is not included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RangeReadBenchmark {
+    private static final String SECRET = "benchmark-secret";
+    private static final String SALT = Base64.getEncoder().encodeToString(new byte[16]);
+
+    @Param({"67108864", "1073741824"})
+    public long size;
+
+    private Path directory;
+    private DecryptingChannel channel;
+    private final ByteBuffer range = ByteBuffer.allocate(4096);
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("range-benchmark");
+        Path input = directory.resolve("input.bin");
+        Random random = new Random(42);
+        byte[] block = new byte[1024 * 1024];
+        try (OutputStream out = Files.newOutputStream(input)) {
+            for (long written = 0; written < size; written += block.length) {
+                random.nextBytes(block);
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        String encrypted = FileOutputParser.writeEncryptedSeekable(input.toString(), directory.toString(), SECRET, SALT, "seekable");
+        Files.delete(input);
+        channel = DecryptingChannel.open(Paths.get(encrypted), SECRET);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        channel.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer readRandomRange() throws IOException {
+        range.clear();
+        channel.position(ThreadLocalRandom.current().nextLong(size - range.capacity()));
+        channel.read(range);
+        return range;
+    }
+}
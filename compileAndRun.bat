@@ -1,2 +1,2 @@
-javac -cp "lib/sqlite-jdbc-3.42.0.0.jar;src/main/resources" --module-path "C:\javafx-sdk-21.0.8\lib" --add-modules javafx.controls,javafx.fxml -d out src/main/java/io/*.java src/main/java/tools/*.java src/main/java/util/*.java src/main/java/ui/*.java
+javac -cp "lib/sqlite-jdbc-3.42.0.0.jar;src/main/resources" --module-path "C:\javafx-sdk-21.0.8\lib" --add-modules javafx.controls,javafx.fxml -d out src/main/java/io/*.java src/main/java/tools/*.java src/main/java/util/*.java src/main/java/ui/*.java src/main/java/cli/*.java
 java -cp "out;lib/sqlite-jdbc-3.42.0.0.jar;src/main/resources" --module-path "C:\javafx-sdk-21.0.8\lib" --add-modules javafx.controls,javafx.fxml ui.Login
\ No newline at end of file
@@ -0,0 +1,755 @@
+package cli;
+
+import io.AtomicFileWriter;
+import io.BatchEncryptor;
+import io.DecryptingChannel;
+import io.EncryptedArchive;
+import io.FileOutputParser;
+import io.InboxWatcher;
+import io.ProgressInputStream;
+import io.ProgressTracker;
+import tools.AES256;
+import tools.Codecs;
+import tools.CryptoContext;
+import tools.SHA256;
+import util.BatchReport;
+import util.Hex;
+import util.Metrics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+/**
+ * Headless command line entry point for the File Encrypter.
+ * Encrypts and decrypts files, directories and stdin/stdout streams without JavaFX,
+ * the login UI or the user database, so it can run in cron jobs and pipelines.
+ */
+public final class Main {
+    private static final String DEFAULT_SECRET_ENV = "FILE_ENCRYPTER_SECRET";
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final long PROGRESS_INTERVAL_MILLIS = 1000;
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_FAILED = 1;
+    private static final int EXIT_USAGE = 2;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java cli.Main (encrypt|decrypt) [options] <file|directory|->...",
+            "       java cli.Main watch [options] <directory>",
+            "",
+            "Use - as the file to stream from stdin to stdout. With --archive, encrypt adds files and directories",
+            "to the archive, and decrypt extracts the named entries, or all entries if none are named.",
+            "watch runs until stopped, encrypting every file dropped into the directory once it is complete.",
+            "",
+            "Options:",
+            "  --secret-env <var>    read the secret key from an environment variable (default " + DEFAULT_SECRET_ENV + ")",
+            "  --secret-file <path>  read the secret key from the first line of a file",
+            "  --salt <base64>       salt for encryption (default: a random 16-byte salt)",
+            "  --out <dir>           output directory (default: next to each input)",
+            "  --parallel            encrypt with parallel chunked AES-GCM",
+            "  --pipelined           encrypt with chunked AES-GCM, overlapping file reads, encryption and writes",
+            "  --seekable            encrypt into the seekable format, which allows decrypting byte ranges",
+            "  --update              encrypt into the seekable format, re-encrypting only the changed chunks",
+            "                        of an existing output file",
+            "  --range <off>:<len>   decrypt only a byte range of a seekable file to stdout",
+            "  --archive <file>      pack files into one encrypted archive, created if it does not exist",
+            "  --delete              with watch, delete each file from the directory once it is encrypted",
+            "  --timing              print one JSON line per file to stderr",
+            "  --checksum            add SHA-256 checksums of input and output to the JSON lines (implies --timing)",
+            "  --progress            print a JSON progress line per target to stderr every second",
+            "  --metrics             print one JSON line per stage (KDF, BASE64, CIPHER, READ, WRITE) to stderr at the end",
+            "  --sync <policy>       when output files are synced to disk: none, file (default for files)",
+            "                        or batch (default for directories, syncs files in groups)");
+
+    private String action;
+    private String secretEnv = DEFAULT_SECRET_ENV;
+    private String secretFile;
+    private String salt;
+    private String outputDirectory;
+    private boolean parallel;
+    private boolean pipelined;
+    private boolean seekable;
+    private boolean update;
+    private String archive;
+    private long rangeOffset = -1;
+    private long rangeLength;
+    private boolean timing;
+    private boolean checksum;
+    private boolean metrics;
+    private boolean progress;
+    private boolean deleteOriginals;
+    private AtomicFileWriter.SyncPolicy syncPolicy;
+    private final List<String> targets = new ArrayList<>();
+
+    /**
+     * Main method of the command line tool.
+     * @param args Command line arguments.
+     */
+    public static void main(String[] args) {
+        System.exit(new Main().run(args));
+    }
+
+    /**
+     * Runs the command line tool.
+     * @param args Command line arguments.
+     * @return The process exit code.
+     */
+    int run(String[] args) {
+        if (!parseArguments(args)) {
+            System.err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        String secretKey;
+        try {
+            secretKey = readSecret();
+        } catch (IOException | IllegalStateException e) {
+            System.err.println("Error: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+        if (salt == null) {
+            byte[] saltBytes = new byte[16];
+            CryptoContext.random().nextBytes(saltBytes);
+            salt = Base64.getEncoder().encodeToString(saltBytes);
+        }
+
+        if (syncPolicy != null) {
+            FileOutputParser.setSyncPolicy(syncPolicy);
+        }
+        boolean failed = false;
+        if (action.equals("watch")) {
+            failed = !processInbox(targets.get(0), secretKey);
+        } else if (archive != null) {
+            failed = !processArchive(secretKey);
+        } else if (rangeOffset >= 0) {
+            failed = !processRange(targets.get(0), secretKey);
+        } else {
+            for (String target : targets) {
+                if (target.equals("-")) {
+                    failed |= !processStream(secretKey);
+                } else if (Files.isDirectory(Paths.get(target))) {
+                    failed |= !processDirectory(target, secretKey);
+                } else {
+                    failed |= !processFile(target, secretKey);
+                }
+            }
+        }
+        if (metrics) {
+            for (Metrics.StageSnapshot stage : Metrics.snapshot().values()) {
+                System.err.println(stage.toJson());
+            }
+        }
+        return failed ? EXIT_FAILED : EXIT_OK;
+    }
+
+    /**
+     * Parses the command line arguments into this instance's fields.
+     * @param args Command line arguments.
+     * @return true if the arguments are valid, false otherwise.
+     */
+    private boolean parseArguments(String[] args) {
+        if (args.length < 2 || !(args[0].equals("encrypt") || args[0].equals("decrypt") || args[0].equals("watch"))) {
+            return false;
+        }
+        action = args[0];
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            boolean hasValue = i + 1 < args.length;
+            switch (arg) {
+                case "--secret-env":
+                    if (!hasValue) return false;
+                    secretEnv = args[++i];
+                    break;
+                case "--secret-file":
+                    if (!hasValue) return false;
+                    secretFile = args[++i];
+                    break;
+                case "--salt":
+                    if (!hasValue) return false;
+                    salt = args[++i];
+                    break;
+                case "--out":
+                    if (!hasValue) return false;
+                    outputDirectory = args[++i];
+                    break;
+                case "--parallel":
+                    parallel = true;
+                    break;
+                case "--pipelined":
+                    pipelined = true;
+                    break;
+                case "--seekable":
+                    seekable = true;
+                    break;
+                case "--update":
+                    update = true;
+                    break;
+                case "--range":
+                    if (!hasValue || !parseRange(args[++i])) return false;
+                    break;
+                case "--archive":
+                    if (!hasValue) return false;
+                    archive = args[++i];
+                    break;
+                case "--delete":
+                    deleteOriginals = true;
+                    break;
+                case "--timing":
+                    timing = true;
+                    break;
+                case "--progress":
+                    progress = true;
+                    break;
+                case "--metrics":
+                    metrics = true;
+                    break;
+                case "--sync":
+                    if (!hasValue) return false;
+                    try {
+                        syncPolicy = AtomicFileWriter.SyncPolicy.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                    } catch (IllegalArgumentException e) {
+                        return false;
+                    }
+                    break;
+                case "--checksum":
+                    checksum = true;
+                    timing = true;
+                    break;
+                default:
+                    if (arg.startsWith("--")) return false;
+                    targets.add(arg);
+            }
+        }
+        if (rangeOffset >= 0 && (!action.equals("decrypt") || targets.size() != 1 || targets.get(0).equals("-"))) {
+            return false;
+        }
+        if (action.equals("watch")) {
+            return targets.size() == 1 && !targets.get(0).equals("-") && archive == null && rangeOffset < 0;
+        }
+        if (archive != null) {
+            // An archive is extracted entry by entry, so there is no stream or range to decrypt
+            return rangeOffset < 0 && !targets.contains("-") && (!targets.isEmpty() || action.equals("decrypt"));
+        }
+        return !targets.isEmpty();
+    }
+
+    /**
+     * Parses a byte range of the form offset:length.
+     * @param range The range argument.
+     * @return true if the range is valid, false otherwise.
+     */
+    private boolean parseRange(String range) {
+        int colon = range.indexOf(':');
+        if (colon < 0) return false;
+        try {
+            rangeOffset = Long.parseLong(range.substring(0, colon));
+            rangeLength = Long.parseLong(range.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return rangeOffset >= 0 && rangeLength >= 0;
+    }
+
+    /**
+     * Reads the secret key from the configured file or environment variable.
+     * @return The secret key.
+     * @throws IOException if the secret file cannot be read.
+     * @throws IllegalStateException if no secret key is configured.
+     */
+    private String readSecret() throws IOException {
+        String secret;
+        if (secretFile != null) {
+            List<String> lines = Files.readAllLines(Paths.get(secretFile), StandardCharsets.UTF_8);
+            secret = lines.isEmpty() ? null : lines.get(0);
+        } else {
+            secret = System.getenv(secretEnv);
+        }
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalStateException("Secret key is required (set " + secretEnv + " or use --secret-file)");
+        }
+        return secret;
+    }
+
+    /**
+     * Encrypts or decrypts stdin to stdout.
+     * @param secretKey The secret key.
+     * @return true if the stream was processed successfully, false otherwise.
+     */
+    private boolean processStream(String secretKey) {
+        long start = System.nanoTime();
+        // Digests are computed as the data passes through, so checksums cost no extra pass
+        BufferedInputStream stdin = new BufferedInputStream(new FileInputStream(FileDescriptor.in), STREAM_BUFFER_SIZE);
+        DigestInputStream digestIn = new DigestInputStream(stdin, SHA256.newDigest());
+        DigestOutputStream digestOut = new DigestOutputStream(
+                new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), STREAM_BUFFER_SIZE), SHA256.newDigest());
+        digestIn.on(checksum);
+        digestOut.on(checksum);
+        CountingInputStream in = new CountingInputStream(digestIn);
+        CountingOutputStream out = new CountingOutputStream(digestOut);
+        ProgressTracker tracker = newTracker("-", -1);
+        InputStream tracked = new ProgressInputStream(in, tracker);
+        try {
+            byte[] saltBytes = Base64.getDecoder().decode(salt);
+            if (action.equals("decrypt")) {
+                FileOutputParser.decryptStream(tracked, out, secretKey);
+            } else if (parallel || pipelined) {
+                // A stream cannot be read ahead through a file channel, so it is encrypted into the same format in parallel
+                AES256.encryptParallel(tracked, out, secretKey, saltBytes);
+            } else {
+                // Peek below the digest and count wrappers, which must only see each byte once
+                AES256.encryptContainer(tracked, out, AES256.deriveKey(secretKey, saltBytes), saltBytes, Codecs.forStream(stdin));
+            }
+            out.flush();
+            tracker.finish();
+            long nanos = System.nanoTime() - start;
+            if (checksum) {
+                report("-", "-", in.count, out.count, nanos, null,
+                        Hex.encode(digestIn.getMessageDigest().digest()), Hex.encode(digestOut.getMessageDigest().digest()));
+            } else {
+                report("-", "-", in.count, out.count, nanos, null, null, null);
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            report("-", null, in.count, out.count, System.nanoTime() - start, e, null, null);
+            return false;
+        }
+    }
+
+    /**
+     * Encrypts or decrypts a single file.
+     * @param file The path of the file.
+     * @param secretKey The secret key.
+     * @return true if the file was processed successfully, false otherwise.
+     */
+    private boolean processFile(String file, String secretKey) {
+        long start = System.nanoTime();
+        Path input = Paths.get(file);
+        String directory = outputDirectory != null ? outputDirectory
+                : input.toAbsolutePath().getParent().toString();
+        String name = input.getFileName().toString();
+        long bytesIn = 0;
+        try {
+            bytesIn = Files.size(input);
+            ProgressTracker tracker = newTracker(file, bytesIn);
+            String output;
+            if (action.equals("decrypt")) {
+                output = FileOutputParser.writeDecryptedStream(file, directory, secretKey, decryptedName(name), tracker);
+            } else if (parallel) {
+                output = FileOutputParser.writeEncryptedParallel(file, directory, secretKey, salt, name, tracker);
+            } else if (pipelined) {
+                output = FileOutputParser.writeEncryptedPipelined(file, directory, secretKey, salt, name, tracker);
+            } else if (update) {
+                output = FileOutputParser.writeEncryptedIncremental(file, directory, secretKey, salt, name, tracker);
+            } else if (seekable) {
+                output = FileOutputParser.writeEncryptedSeekable(file, directory, secretKey, salt, name, tracker);
+            } else {
+                output = FileOutputParser.writeEncryptedStream(file, directory, secretKey, salt, name, tracker);
+            }
+            tracker.finish();
+            long nanos = System.nanoTime() - start;
+            Path outputPath = Paths.get(output);
+            if (checksum) {
+                // Checksummed after the fact through memory-mapped reads, which are served from the page cache
+                report(file, output, bytesIn, Files.size(outputPath), nanos, null,
+                        Hex.encode(SHA256.digest(input)), Hex.encode(SHA256.digest(outputPath)));
+            } else {
+                report(file, output, bytesIn, Files.size(outputPath), nanos, null, null, null);
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            report(file, null, bytesIn, 0, System.nanoTime() - start, e, null, null);
+            return false;
+        }
+    }
+
+    /**
+     * Decrypts a byte range of a seekable encrypted file to stdout.
+     * The range is clipped to the end of the plaintext.
+     * @param file The path of the encrypted file.
+     * @param secretKey The secret key.
+     * @return true if the range was decrypted successfully, false otherwise.
+     */
+    private boolean processRange(String file, String secretKey) {
+        long start = System.nanoTime();
+        long bytesOut = 0;
+        try (DecryptingChannel channel = DecryptingChannel.open(Paths.get(file), secretKey)) {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), STREAM_BUFFER_SIZE);
+            ByteBuffer buffer = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+            channel.position(rangeOffset);
+            while (bytesOut < rangeLength) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), rangeLength - bytesOut));
+                int n = channel.read(buffer);
+                if (n == -1) break;
+                out.write(buffer.array(), 0, n);
+                bytesOut += n;
+            }
+            out.flush();
+            report(file, "-", bytesOut, bytesOut, System.nanoTime() - start, null, null, null);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            report(file, null, 0, bytesOut, System.nanoTime() - start, e, null, null);
+            return false;
+        }
+    }
+
+    /**
+     * Encrypts every file under a directory as one batch.
+     * @param directory The directory to encrypt.
+     * @param secretKey The secret key.
+     * @return true if every file was processed successfully, false otherwise.
+     */
+    private boolean processDirectory(String directory, String secretKey) {
+        if (action.equals("decrypt")) {
+            System.err.println("Error: decrypting directories is not supported: " + directory);
+            return false;
+        }
+        String output = outputDirectory != null ? outputDirectory : directory + ".enc";
+        BatchEncryptor encryptor = new BatchEncryptor(secretKey, salt);
+        if (syncPolicy != null) {
+            encryptor.setSyncPolicy(syncPolicy);
+        }
+        if (progress) {
+            encryptor.setProgressListener(snapshot -> printProgress(directory, snapshot));
+        }
+        BatchReport batch = encryptor.encryptDirectory(directory, output);
+        for (BatchReport.FileResult result : batch.getResults()) {
+            if (timing) {
+                System.err.println(json(result.getPath(), null, result.getBytesIn(), result.getBytesOut(),
+                        result.getDurationNanos(), result.getError(), null, null));
+            } else if (result.getStatus() == BatchReport.Status.FAILED) {
+                System.err.println("Error: " + result);
+            }
+        }
+        return batch.getFailures().isEmpty();
+    }
+
+    /**
+     * Watches a directory and encrypts the files dropped into it until the process is stopped,
+     * e.g. with Ctrl+C, after which the files already being encrypted are finished.
+     * @param directory The directory to watch.
+     * @param secretKey The secret key.
+     * @return true if the directory was watched until the process was stopped, false if watching failed.
+     */
+    private boolean processInbox(String directory, String secretKey) {
+        String output = outputDirectory != null ? outputDirectory : directory;
+        InboxWatcher watcher = new InboxWatcher(directory, output, secretKey, salt);
+        if (syncPolicy != null) {
+            watcher.setSyncPolicy(syncPolicy);
+        }
+        watcher.setDeleteOriginals(deleteOriginals);
+        watcher.setResultListener(result -> {
+            if (timing) {
+                System.err.println(json(result.getPath(), null, result.getBytesIn(), result.getBytesOut(),
+                        result.getDurationNanos(), result.getError(), null, null));
+            } else if (result.getStatus() == BatchReport.Status.FAILED) {
+                System.err.println("Error: " + result);
+            }
+        });
+        // On Ctrl+C the JVM waits in this hook until the files in progress are finished
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            watcher.close();
+            try {
+                stopped.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        try {
+            watcher.run();
+            return true;
+        } catch (RuntimeException e) {
+            report(directory, null, 0, 0, 0, e, null, null);
+            return false;
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    /**
+     * Adds the targets to an encrypted archive, or extracts entries from it.
+     * Files under a directory are added under their path relative to the directory's parent.
+     * @param secretKey The secret key.
+     * @return true if every target or entry was processed successfully, false otherwise.
+     */
+    private boolean processArchive(String secretKey) {
+        Path archivePath = Paths.get(archive);
+        boolean failed = false;
+        try (EncryptedArchive encryptedArchive = action.equals("decrypt")
+                ? EncryptedArchive.open(archivePath, secretKey) : EncryptedArchive.openOrCreate(archivePath, secretKey)) {
+            if (action.equals("decrypt")) {
+                String directory = outputDirectory != null ? outputDirectory
+                        : archivePath.toAbsolutePath().getParent().toString();
+                List<String> names = new ArrayList<>(targets);
+                if (names.isEmpty()) {
+                    for (EncryptedArchive.Entry entry : encryptedArchive.entries()) {
+                        names.add(entry.getName());
+                    }
+                }
+                for (String name : names) {
+                    failed |= !extractEntry(encryptedArchive, name, directory);
+                }
+            } else {
+                Path self = archivePath.toAbsolutePath().normalize();
+                for (String target : targets) {
+                    Path input = Paths.get(target).toAbsolutePath().normalize();
+                    if (!Files.isDirectory(input)) {
+                        failed |= !addEntry(encryptedArchive, target, input.getFileName().toString());
+                        continue;
+                    }
+                    Path base = input.getParent() != null ? input.getParent() : input;
+                    try (Stream<Path> files = Files.walk(input)) {
+                        for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile).sorted()::iterator) {
+                            // The archive itself may live under the directory being added
+                            if (file.equals(self)) continue;
+                            String name = base.relativize(file).toString().replace("\\", "/");
+                            failed |= !addEntry(encryptedArchive, file.toString(), name);
+                        }
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            report(archive, null, 0, 0, 0, e, null, null);
+            return false;
+        }
+        return !failed;
+    }
+
+    /**
+     * Adds a file to an archive.
+     * @param encryptedArchive The archive.
+     * @param file The path of the file.
+     * @param name The name of the entry.
+     * @return true if the file was added successfully, false otherwise.
+     */
+    private boolean addEntry(EncryptedArchive encryptedArchive, String file, String name) {
+        long start = System.nanoTime();
+        long bytesIn = 0;
+        try {
+            bytesIn = Files.size(Paths.get(file));
+            ProgressTracker tracker = newTracker(file, bytesIn);
+            String output = FileOutputParser.writeEncryptedToArchive(file, encryptedArchive, name, tracker);
+            tracker.finish();
+            EncryptedArchive.Entry entry = encryptedArchive.getEntry(name);
+            // The entry's checksum is the SHA-256 of the input, computed while it was added
+            report(file, output + ":" + name, bytesIn, entry.getStoredLength(), System.nanoTime() - start, null,
+                    checksum ? entry.getChecksum() : null, null);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            report(file, null, bytesIn, 0, System.nanoTime() - start, e, null, null);
+            return false;
+        }
+    }
+
+    /**
+     * Extracts an entry of an archive into a directory.
+     * @param encryptedArchive The archive.
+     * @param name The name of the entry.
+     * @param directory The output directory.
+     * @return true if the entry was extracted successfully, false otherwise.
+     */
+    private boolean extractEntry(EncryptedArchive encryptedArchive, String name, String directory) {
+        long start = System.nanoTime();
+        EncryptedArchive.Entry entry = encryptedArchive.getEntry(name);
+        long bytesIn = entry != null ? entry.getStoredLength() : 0;
+        try {
+            ProgressTracker tracker = newTracker(archive + ":" + name, entry != null ? entry.getLength() : -1);
+            String output = FileOutputParser.writeDecryptedFromArchive(encryptedArchive, name, directory, tracker);
+            tracker.finish();
+            Path outputPath = Paths.get(output);
+            report(archive + ":" + name, output, bytesIn, Files.size(outputPath), System.nanoTime() - start, null,
+                    null, checksum ? Hex.encode(SHA256.digest(outputPath)) : null);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            report(archive + ":" + name, null, bytesIn, 0, System.nanoTime() - start, e, null, null);
+            return false;
+        }
+    }
+
+    /**
+     * Creates the progress tracker of a target, which prints progress lines with --progress.
+     * @param target The file being processed, or - for stdin.
+     * @param totalBytes The size of the input, or -1 if unknown.
+     * @return The tracker.
+     */
+    private ProgressTracker newTracker(String target, long totalBytes) {
+        return new ProgressTracker(action, totalBytes, PROGRESS_INTERVAL_MILLIS, snapshot -> {
+            if (progress) printProgress(target, snapshot);
+        });
+    }
+
+    /**
+     * Prints a progress line to stderr.
+     * @param target The file or directory being processed.
+     * @param snapshot The progress.
+     */
+    private static void printProgress(String target, ProgressTracker.Snapshot snapshot) {
+        System.err.println("{\"file\":" + quote(target) + ",\"progress\":" + snapshot.toJson() + "}");
+    }
+
+    /**
+     * Reports the outcome of a target: a JSON line with --timing, otherwise errors only.
+     * @param file The input file.
+     * @param output The output file, or null if it failed.
+     * @param bytesIn The number of bytes read.
+     * @param bytesOut The number of bytes written.
+     * @param nanos The processing time in nanoseconds.
+     * @param error The failure, or null on success.
+     * @param sha256In The hex SHA-256 of the input, or null if not computed.
+     * @param sha256Out The hex SHA-256 of the output, or null if not computed.
+     */
+    private void report(String file, String output, long bytesIn, long bytesOut, long nanos, Exception error,
+                        String sha256In, String sha256Out) {
+        String message = error == null ? null : describe(error);
+        if (timing) {
+            System.err.println(json(file, output, bytesIn, bytesOut, nanos, message, sha256In, sha256Out));
+        } else if (error != null) {
+            System.err.println("Error: " + file + ": " + message);
+        }
+    }
+
+    /**
+     * Formats a timing record as a single JSON line.
+     * @param file The input file.
+     * @param output The output file, or null if unknown.
+     * @param bytesIn The number of bytes read.
+     * @param bytesOut The number of bytes written.
+     * @param nanos The processing time in nanoseconds.
+     * @param error The failure message, or null on success.
+     * @param sha256In The hex SHA-256 of the input, or null if not computed.
+     * @param sha256Out The hex SHA-256 of the output, or null if not computed.
+     * @return The JSON line.
+     */
+    private String json(String file, String output, long bytesIn, long bytesOut, long nanos, String error,
+                        String sha256In, String sha256Out) {
+        double millis = nanos / 1e6;
+        double mbps = nanos == 0 ? 0 : bytesIn / 1e6 / (nanos / 1e9);
+        return "{\"action\":\"" + action + "\""
+                + ",\"file\":" + quote(file)
+                + ",\"output\":" + quote(output)
+                + ",\"status\":\"" + (error == null ? "ok" : "failed") + "\""
+                + ",\"bytesIn\":" + bytesIn
+                + ",\"bytesOut\":" + bytesOut
+                + ",\"millis\":" + String.format(java.util.Locale.ROOT, "%.3f", millis)
+                + ",\"mbps\":" + String.format(java.util.Locale.ROOT, "%.2f", mbps)
+                + ",\"error\":" + quote(error)
+                + (checksum ? ",\"sha256In\":" + quote(sha256In) + ",\"sha256Out\":" + quote(sha256Out) : "")
+                + "}";
+    }
+
+    /**
+     * Returns the name of a decrypted file without the ".enc" suffix and its original extension,
+     * since the extension is re-derived from the decrypted content.
+     * @param encryptedName The name of the encrypted file.
+     * @return The base name for the decrypted file.
+     */
+    private static String decryptedName(String encryptedName) {
+        String name = encryptedName.endsWith(".enc")
+                ? encryptedName.substring(0, encryptedName.length() - 4) : encryptedName + ".dec";
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Describes a failure by its innermost cause.
+     * @param error The failure.
+     * @return The failure message.
+     */
+    private static String describe(Throwable error) {
+        String message = error.getMessage();
+        Throwable cause = error.getCause();
+        while (cause != null) {
+            if (cause.getMessage() != null) message = cause.getMessage();
+            cause = cause.getCause();
+        }
+        return message == null ? error.getClass().getSimpleName() : message;
+    }
+
+    /**
+     * Quotes a string as a JSON string literal.
+     * @param value The string, or null.
+     * @return The JSON literal.
+     */
+    private static String quote(String value) {
+        if (value == null) return "null";
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * InputStream wrapper that counts the bytes read.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+
+    /**
+     * OutputStream wrapper that counts the bytes written.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,490 @@
+package io;
+
+import util.Metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * AtomicFileWriter writes a file so that it appears under its name only once it is complete.
+ * The content goes to a temporary file in the target directory, through a FileChannel and a
+ * direct buffer, so writes are coalesced and not copied again by the channel. {@link #commit()}
+ * then syncs the file according to its {@link SyncPolicy} and renames it into place atomically,
+ * replacing any previous file. Closing a writer that was not committed deletes the temporary
+ * file, so a failed or cancelled write leaves the previous file, if any, untouched:
+ * <pre>
+ * try (AtomicFileWriter out = AtomicFileWriter.open(target, expectedSize, SyncPolicy.FILE)) {
+ *     ... write ...
+ *     out.commit();
+ * }
+ * </pre>
+ * A writer must not be used by several threads at the same time.
+ */
+public final class AtomicFileWriter extends OutputStream {
+    /** The size of the write buffer, unless the expected size is known and smaller. */
+    public static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final int MIN_BUFFER_SIZE = 4096;
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * When committed files are synced to disk.
+     */
+    public enum SyncPolicy {
+        /** Never sync; a crash may lose recently committed files, but never exposes a partial one on journaling file systems. */
+        NONE,
+        /** Sync every file and its directory when it is committed. */
+        FILE,
+        /** Sync files in groups through a {@link SyncGroup}; a writer opened without a group syncs like {@link #FILE}. */
+        BATCH
+    }
+
+    private final Path target;
+    private final Path temp;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final SyncPolicy policy;
+    private final SyncGroup group;
+    private final long preallocated;
+    private long written;
+    private boolean committed;
+
+    private AtomicFileWriter(Path target, long expectedSize, SyncPolicy policy, SyncGroup group) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        this.target = target;
+        this.temp = directory.resolve("." + target.getFileName() + "." + Long.toHexString(RANDOM.nextLong()) + TEMP_SUFFIX);
+        this.policy = policy;
+        this.group = group;
+        if (!Files.isDirectory(directory)) {
+            throw new NoSuchFileException(directory.toString(), null, "Output directory does not exist");
+        }
+        this.channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            // Java has no portable fallocate: extending the file reserves its length, which file systems
+            // that allocate on extension turn into blocks, and others keep sparse until written
+            if (expectedSize > 0) {
+                channel.write(ByteBuffer.allocate(1), expectedSize - 1);
+            }
+        } catch (IOException e) {
+            channel.close();
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        this.preallocated = Math.max(0, expectedSize);
+        int bufferSize = expectedSize <= 0 ? BUFFER_SIZE : (int) Math.max(MIN_BUFFER_SIZE, Math.min(BUFFER_SIZE, expectedSize));
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Opens a writer for a file.
+     * @param target The path the file will have once committed.
+     * @param expectedSize The expected size of the file, reserved up front, or 0 if unknown.
+     * @param policy When the file is synced.
+     * @return The writer.
+     * @throws IOException if the temporary file cannot be created.
+     */
+    public static AtomicFileWriter open(Path target, long expectedSize, SyncPolicy policy) throws IOException {
+        return new AtomicFileWriter(target, expectedSize, policy, null);
+    }
+
+    /**
+     * Opens a writer for a file that is synced and renamed into place together with the other files
+     * of a group (see {@link SyncGroup}).
+     * @param target The path the file will have once committed.
+     * @param expectedSize The expected size of the file, reserved up front, or 0 if unknown.
+     * @param group The group the file is committed with.
+     * @return The writer.
+     * @throws IOException if the temporary file cannot be created.
+     */
+    public static AtomicFileWriter open(Path target, long expectedSize, SyncGroup group) throws IOException {
+        return new AtomicFileWriter(target, expectedSize, SyncPolicy.BATCH, group);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureWritable();
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureWritable();
+        while (len > 0) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int length = Math.min(len, buffer.remaining());
+            buffer.put(b, off, length);
+            off += length;
+            len -= length;
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer. Direct buffers larger than the write buffer,
+     * such as memory-mapped windows, are written to the file without an intermediate copy.
+     * @param src The buffer; it is consumed.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(ByteBuffer src) throws IOException {
+        ensureWritable();
+        if (src.isDirect() && src.remaining() >= buffer.capacity()) {
+            drain();
+            writeToChannel(src);
+            return;
+        }
+        while (src.hasRemaining()) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int length = Math.min(src.remaining(), buffer.remaining());
+            ByteBuffer slice = src.slice();
+            slice.limit(length);
+            buffer.put(slice);
+            src.position(src.position() + length);
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the temporary file, without syncing it.
+     * @throws IOException if the file cannot be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureWritable();
+        drain();
+    }
+
+    /**
+     * Returns the temporary file the content is written to until it is committed,
+     * e.g. to inspect the flushed content before choosing the final name. Until the commit,
+     * the file keeps its preallocated length, so open writers with no expected size to read it.
+     * @return The temporary file.
+     */
+    public Path getTemporaryPath() {
+        return temp;
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     * @return The number of bytes.
+     */
+    public long getBytesWritten() {
+        return written + (buffer == null ? 0 : buffer.position());
+    }
+
+    /**
+     * Returns the capacity of the write buffer, which is {@link #BUFFER_SIZE} unless the expected
+     * size is known and smaller.
+     * @return The buffer size in bytes.
+     */
+    int getBufferSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Completes the file and moves it into place under its target name.
+     * @throws IOException if the file cannot be written, synced or renamed.
+     */
+    public void commit() throws IOException {
+        commit(target);
+    }
+
+    /**
+     * Completes the file and moves it into place under a name chosen after writing, in the
+     * target's directory, e.g. a name carrying an extension detected from the content.
+     * @param finalTarget The path the file will have.
+     * @throws IOException if the file cannot be written, synced or renamed.
+     */
+    public void commit(Path finalTarget) throws IOException {
+        ensureWritable();
+        drain();
+        if (written < preallocated) {
+            channel.truncate(written);
+        }
+        committed = true;
+        if (group != null) {
+            group.add(channel, temp, finalTarget);
+            return;
+        }
+        try {
+            if (policy != SyncPolicy.NONE) {
+                channel.force(false);
+            }
+            channel.close();
+            move(temp, finalTarget);
+        } catch (IOException e) {
+            channel.close();
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        if (policy != SyncPolicy.NONE) {
+            syncDirectory(finalTarget);
+        }
+    }
+
+    /**
+     * Closes the writer. If it was not committed, the temporary file is deleted and the
+     * target is left as it was.
+     * @throws IOException if the temporary file cannot be deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        if (committed || !channel.isOpen()) {
+            return;
+        }
+        channel.close();
+        Files.deleteIfExists(temp);
+    }
+
+    /**
+     * Writes the buffered bytes to the channel.
+     * @throws IOException if the file cannot be written.
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        writeToChannel(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Writes all remaining bytes of a buffer to the channel.
+     * @param src The buffer.
+     * @throws IOException if the file cannot be written.
+     */
+    private void writeToChannel(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            Metrics.Span span = Metrics.start(Metrics.Stage.WRITE);
+            int length = channel.write(src, written);
+            span.end(length);
+            written += length;
+        }
+    }
+
+    /**
+     * Throws if the writer has been committed or closed.
+     * @throws IOException if the writer has been committed or closed.
+     */
+    private void ensureWritable() throws IOException {
+        if (committed || !channel.isOpen()) {
+            throw new IOException("Writer is closed: " + target);
+        }
+    }
+
+    /**
+     * Renames a file into place, atomically where the file system supports it.
+     * @param source The file to rename.
+     * @param destination The new path.
+     * @throws IOException if the file cannot be renamed.
+     */
+    private static void move(Path source, Path destination) throws IOException {
+        try {
+            Files.move(source, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Syncs the directory containing a file, so a rename into it survives a crash.
+     * Platforms that cannot open directories, such as Windows, are skipped.
+     * @param file The file whose directory is synced.
+     */
+    private static void syncDirectory(Path file) {
+        try (FileChannel directory = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // Directory sync is not supported on this platform
+        }
+    }
+
+    /**
+     * SyncGroup commits the files of a batch together: committed files stay open under their
+     * temporary names until the group is committed, then all of them are synced, renamed into
+     * place, and each of their directories is synced once. Syncing the files back to back lets
+     * the file system combine their journal commits, and a batch pays for one directory sync
+     * per directory instead of one per file. The group commits on its own once
+     * {@code maxPending} files are waiting, which also bounds the number of open files.
+     * Files of a batch therefore appear in groups rather than one by one.
+     * A group commit that fails affects files other than the one whose commit triggered it, so every
+     * file it fails for is reported to the failure listener, if one is set.
+     * Writers of a group may be used from several threads.
+     */
+    public static final class SyncGroup implements Closeable {
+        /** The default number of files committed together. */
+        public static final int DEFAULT_MAX_PENDING = 64;
+
+        /**
+         * A committed file waiting for the group commit.
+         */
+        private static final class Pending {
+            private final FileChannel channel;
+            private final Path temp;
+            private final Path target;
+
+            private Pending(FileChannel channel, Path temp, Path target) {
+                this.channel = channel;
+                this.temp = temp;
+                this.target = target;
+            }
+        }
+
+        private final int maxPending;
+        private final List<Pending> pending = new ArrayList<>();
+        private BiConsumer<Path, IOException> failureListener;
+
+        /**
+         * Constructs a SyncGroup that commits every {@value #DEFAULT_MAX_PENDING} files.
+         */
+        public SyncGroup() {
+            this(DEFAULT_MAX_PENDING);
+        }
+
+        /**
+         * Constructs a SyncGroup.
+         * @param maxPending The number of files committed together.
+         */
+        public SyncGroup(int maxPending) {
+            if (maxPending < 1) {
+                throw new IllegalArgumentException("Group size must be positive");
+            }
+            this.maxPending = maxPending;
+        }
+
+        /**
+         * Sets the listener receiving each file a group commit fails for, with the failure.
+         * With a listener set, a failure of the commit triggered by a full group is only reported to the
+         * listener, not thrown from the {@link AtomicFileWriter#commit()} of the file that filled the group.
+         * @param failureListener The listener, called with the target path of each failed file.
+         */
+        public synchronized void setFailureListener(BiConsumer<Path, IOException> failureListener) {
+            this.failureListener = failureListener;
+        }
+
+        /**
+         * Syncs all waiting files, renames them into place and syncs their directories.
+         * If a file cannot be synced, none of the waiting files is renamed.
+         * @throws IOException if a file cannot be synced or renamed.
+         */
+        public synchronized void commit() throws IOException {
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<Pending> files = new ArrayList<>(pending);
+            pending.clear();
+            try {
+                for (Pending file : files) {
+                    file.channel.force(false);
+                }
+            } catch (IOException e) {
+                discard(files);
+                for (Pending file : files) {
+                    failed(file, e);
+                }
+                throw e;
+            }
+            Set<Path> directories = new LinkedHashSet<>();
+            IOException failure = null;
+            for (Pending file : files) {
+                try {
+                    file.channel.close();
+                    move(file.temp, file.target);
+                    directories.add(file.target.toAbsolutePath().getParent());
+                } catch (IOException e) {
+                    Files.deleteIfExists(file.temp);
+                    failed(file, e);
+                    if (failure == null) failure = e;
+                }
+            }
+            for (Path directory : directories) {
+                syncDirectory(directory.resolve("."));
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        /**
+         * Discards all waiting files: their temporary files are closed and deleted, and their
+         * targets are left as they were, e.g. when the batch they belong to fails.
+         */
+        public synchronized void abort() {
+            discard(pending);
+            pending.clear();
+        }
+
+        /**
+         * Commits all waiting files.
+         * @throws IOException if a file cannot be synced or renamed.
+         */
+        @Override
+        public void close() throws IOException {
+            commit();
+        }
+
+        /**
+         * Adds a committed file, committing the group once it is full.
+         * @param channel The open channel of the temporary file.
+         * @param temp The temporary file.
+         * @param target The path the file will have.
+         * @throws IOException if the group commit fails and no failure listener is set.
+         */
+        private synchronized void add(FileChannel channel, Path temp, Path target) throws IOException {
+            pending.add(new Pending(channel, temp, target));
+            if (pending.size() >= maxPending) {
+                try {
+                    commit();
+                } catch (IOException e) {
+                    if (failureListener == null) {
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Reports a file a group commit failed for.
+         * @param file The file.
+         * @param error The failure.
+         */
+        private void failed(Pending file, IOException error) {
+            if (failureListener != null) {
+                failureListener.accept(file.target, error);
+            }
+        }
+
+        /**
+         * Closes and deletes the temporary files of a failed or aborted group commit.
+         * @param files The files.
+         */
+        private static void discard(List<Pending> files) {
+            for (Pending file : files) {
+                try {
+                    file.channel.close();
+                    Files.deleteIfExists(file.temp);
+                } catch (IOException e) {
+                    // Best effort: the temporary file is left behind
+                }
+            }
+        }
+    }
+}
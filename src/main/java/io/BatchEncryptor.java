@@ -0,0 +1,312 @@
+package io;
+
+import tools.AES256;
+import tools.Codec;
+import tools.Codecs;
+import util.BatchReport;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * BatchEncryptor encrypts every regular file under a directory tree.
+ * The key is derived once per batch, and files are encrypted concurrently on virtual
+ * threads where the runtime supports them (Java 21+), or on a fixed pool of platform
+ * threads otherwise. Both the number of files in progress and the total size of the
+ * files in progress are bounded. Encrypted files are written atomically, and by default synced
+ * to disk in groups rather than one by one (see {@link AtomicFileWriter.SyncGroup}).
+ */
+public class BatchEncryptor {
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_CONCURRENCY = 16;
+    private static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 1024L * 1024 * 1024;
+
+    private final String secretKey;
+    private final String salt;
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private long maxInFlightBytes = DEFAULT_MAX_IN_FLIGHT_BYTES;
+    private ProgressListener progressListener;
+    private AtomicFileWriter.SyncPolicy syncPolicy = AtomicFileWriter.SyncPolicy.BATCH;
+
+    /**
+     * Constructs a BatchEncryptor.
+     * @param secretKey The secret key used for encryption.
+     * @param salt The Base64 encoded salt used for key derivation.
+     */
+    public BatchEncryptor(String secretKey, String salt) {
+        this.secretKey = secretKey;
+        this.salt = salt;
+    }
+
+    /**
+     * Sets the maximum number of files encrypted at the same time.
+     * @param concurrency The concurrency limit.
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive");
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Sets the maximum total size of the files encrypted at the same time.
+     * A single file larger than the limit is still processed, on its own.
+     * @param maxInFlightBytes The in-flight byte limit.
+     */
+    public void setMaxInFlightBytes(long maxInFlightBytes) {
+        if (maxInFlightBytes < 1024) {
+            throw new IllegalArgumentException("In-flight byte limit must be at least 1 KB");
+        }
+        this.maxInFlightBytes = maxInFlightBytes;
+    }
+
+    /**
+     * Sets the listener receiving the progress of the whole batch, in bytes of all files.
+     * The total is computed by listing the input tree before the batch starts.
+     * @param progressListener The listener, or null for none.
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Sets when encrypted files are synced to disk: in groups ({@link AtomicFileWriter.SyncPolicy#BATCH},
+     * the default), one by one ({@link AtomicFileWriter.SyncPolicy#FILE}), or never
+     * ({@link AtomicFileWriter.SyncPolicy#NONE}).
+     * @param syncPolicy The sync policy.
+     */
+    public void setSyncPolicy(AtomicFileWriter.SyncPolicy syncPolicy) {
+        this.syncPolicy = syncPolicy;
+    }
+
+    /**
+     * Encrypts every regular file under a directory into an output directory.
+     * The output mirrors the input tree, with ".enc" appended to every file name.
+     * Failures of individual files are recorded in the report and do not stop the batch.
+     * With the batch sync policy, files appear in the output directory group by group, and all of
+     * them have appeared when the method returns; if a group fails to commit, every file it failed
+     * for is recorded as failed.
+     * @param inputDirectory The directory to encrypt.
+     * @param outputDirectory The directory where encrypted files will be saved.
+     * @return The report of the batch.
+     * @throws RuntimeException if the input directory cannot be listed or the batch is interrupted.
+     */
+    public BatchReport encryptDirectory(String inputDirectory, String outputDirectory) {
+        Path inputRoot = Paths.get(sanitize(inputDirectory));
+        Path outputRoot = Paths.get(sanitize(outputDirectory));
+        byte[] saltBytes = java.util.Base64.getDecoder().decode(salt);
+        SecretKeySpec key = AES256.deriveKey(secretKey, saltBytes);
+
+        // The byte budget is tracked in KB so it fits in a semaphore's int permits
+        int budgetKb = (int) Math.min(Integer.MAX_VALUE, maxInFlightBytes / 1024);
+        Semaphore slots = new Semaphore(concurrency);
+        Semaphore budget = new Semaphore(budgetKb);
+        BatchReport report = new BatchReport();
+        List<Future<?>> futures = new ArrayList<>();
+        ProgressTracker tracker = null;
+        AtomicFileWriter.SyncGroup group = syncPolicy == AtomicFileWriter.SyncPolicy.BATCH ? new AtomicFileWriter.SyncGroup() : null;
+        // A group commit can fail for files that were already reported as succeeded, so failures are
+        // collected by input file and applied to the report once all files are done
+        Map<Path, String> inputsByTarget = new ConcurrentHashMap<>();
+        Map<String, String> groupFailures = new ConcurrentHashMap<>();
+        if (group != null) {
+            group.setFailureListener((target, error) -> {
+                String input = inputsByTarget.get(target);
+                if (input != null) {
+                    groupFailures.put(input, String.valueOf(error.getMessage()));
+                }
+            });
+        }
+
+        ExecutorService executor = newExecutor(concurrency);
+        try (Stream<Path> files = Files.walk(inputRoot)) {
+            if (progressListener != null) {
+                tracker = new ProgressTracker("encrypt", totalSize(inputRoot, outputRoot), progressListener);
+            }
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                if (isInside(file, outputRoot)) continue;
+                long size = Files.size(file);
+                int permits = (int) Math.min(budgetKb, Math.max(1, (size + 1023) / 1024));
+                slots.acquire();
+                budget.acquire(permits);
+                Path target = outputRoot.resolve(inputRoot.relativize(file).toString() + ".enc");
+                LongConsumer progress = tracker == null ? bytesRead -> { } : tracker.part();
+                inputsByTarget.put(target, file.toString());
+                futures.add(executor.submit(() -> {
+                    try {
+                        report.add(encryptFile(file, target, key, saltBytes, syncPolicy, group, progress));
+                    } finally {
+                        budget.release(permits);
+                        slots.release();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            if (group != null) {
+                try {
+                    group.commit();
+                } catch (IOException e) {
+                    // Already recorded against every file of the group by the failure listener
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to list directory: " + inputDirectory, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Batch interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Batch task failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+            if (group != null) {
+                // On failure, files already handed to the group must not stay open as hidden temp files
+                awaitTermination(executor);
+                group.abort();
+            }
+        }
+        groupFailures.forEach(report::fail);
+        report.finish();
+        if (tracker != null) {
+            tracker.finish();
+        }
+        return report;
+    }
+
+    /**
+     * Encrypts a single file, recording its outcome instead of throwing.
+     * Also used by {@link InboxWatcher} for the files dropped into an inbox.
+     * @param file The file to encrypt.
+     * @param target The path of the encrypted file.
+     * @param key The derived AES key.
+     * @param saltBytes The salt the key was derived with.
+     * @param syncPolicy When the encrypted file is synced.
+     * @param group The group the file is committed with, or null to commit it on its own.
+     * @param progress The callback receiving the cumulative number of bytes read from the file.
+     * @return The result of the file.
+     */
+    static BatchReport.FileResult encryptFile(Path file, Path target, SecretKeySpec key, byte[] saltBytes,
+                                              AtomicFileWriter.SyncPolicy syncPolicy, AtomicFileWriter.SyncGroup group,
+                                              LongConsumer progress) {
+        long start = System.nanoTime();
+        long bytesIn = 0;
+        long bytesOut;
+        try {
+            bytesIn = Files.size(file);
+            Files.createDirectories(target.getParent());
+            try (InputStream in = new BufferedInputStream(new MeteredInputStream(Files.newInputStream(file)), STREAM_BUFFER_SIZE);
+                 AtomicFileWriter out = group == null ? AtomicFileWriter.open(target, bytesIn, syncPolicy)
+                         : AtomicFileWriter.open(target, bytesIn, group)) {
+                Codec codec = Codecs.forStream(in);
+                AES256.encryptContainer(new ProgressInputStream(in, progress), out, key, saltBytes, codec);
+                // A grouped file is only renamed into place when its group commits
+                bytesOut = out.getBytesWritten();
+                out.commit();
+            }
+            return new BatchReport.FileResult(file.toString(), BatchReport.Status.SUCCEEDED, bytesIn,
+                    bytesOut, System.nanoTime() - start, null);
+        } catch (IOException | RuntimeException e) {
+            return new BatchReport.FileResult(file.toString(), BatchReport.Status.FAILED, bytesIn, 0,
+                    System.nanoTime() - start, String.valueOf(e.getMessage()));
+        }
+    }
+
+    /**
+     * Sums the sizes of the regular files a batch will encrypt.
+     * @param inputRoot The directory to encrypt.
+     * @param outputRoot The output directory, whose files are skipped.
+     * @return The total size in bytes.
+     * @throws IOException if the directory cannot be listed.
+     */
+    private static long totalSize(Path inputRoot, Path outputRoot) throws IOException {
+        long total = 0;
+        try (Stream<Path> files = Files.walk(inputRoot)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                if (!isInside(file, outputRoot)) {
+                    total += Files.size(file);
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Waits for the tasks of a shut down executor to stop, preserving the caller's interrupt status.
+     * @param executor The executor, already shut down.
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Checks whether a file lies inside a directory, comparing absolute, normalized paths so that
+     * a relative input tree and an absolute output directory (or the other way round) still match.
+     * @param file The file.
+     * @param directory The directory.
+     * @return true if the file is inside the directory, false otherwise.
+     */
+    private static boolean isInside(Path file, Path directory) {
+        return file.toAbsolutePath().normalize().startsWith(directory.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Creates the executor for per-file tasks: a virtual-thread-per-task executor when the
+     * runtime provides one, otherwise a fixed pool sized to the concurrency limit.
+     * @param concurrency The concurrency limit.
+     * @return The executor.
+     */
+    private static ExecutorService newExecutor(int concurrency) {
+        try {
+            // Looked up reflectively so the project still builds and runs on Java 17
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(concurrency);
+        }
+    }
+
+    /**
+     * Sanitizes a path to prevent directory traversal attacks.
+     * @param path The path to sanitize.
+     * @return The sanitized path using forward slashes.
+     */
+    private static String sanitize(String path) {
+        return path.replace("\\", "/").replaceAll("\\.\\./", "").replaceAll("\\.\\.", "");
+    }
+
+    @Override
+    /**
+     * Returns a string representation of the BatchEncryptor.
+     * @return A string containing the batch limits.
+     */
+    public String toString() {
+        return "BatchEncryptor{concurrency=" + concurrency + ", maxInFlightBytes=" + maxInFlightBytes + '}';
+    }
+}
@@ -0,0 +1,515 @@
+package io;
+
+import tools.AES256;
+import tools.CryptoContext;
+import util.ContentChunker;
+import util.Hex;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * ChunkStore is a deduplicating store of encrypted files.
+ * Files are split into content-defined chunks, and each distinct chunk is encrypted and
+ * written once; a file is stored as an encrypted manifest listing its chunks in order.
+ * Storing a new version of a file that is mostly unchanged therefore only writes the
+ * changed chunks and a new manifest.
+ *
+ * <p>Layout of the store directory:
+ * <pre>
+ * store.salt                 16 random bytes, the salt of the store's key
+ * chunks/ab/abcd....chunk    nonce (12) || AES-256-GCM(chunk), AAD = chunk id
+ * manifests/NAME.manifest    nonce (12) || AES-256-GCM(manifest), AAD = NAME
+ * </pre>
+ * Chunk ids are HMAC-SHA256 of the plaintext chunk under a key derived from the secret,
+ * so they reveal nothing about the content to anyone without the secret.
+ */
+public class ChunkStore {
+    public static final String MANIFEST_EXTENSION = ".manifest";
+
+    private static final String SALT_FILE = "store.salt";
+    private static final String CHUNK_EXTENSION = ".chunk";
+    private static final int SALT_LENGTH = 16;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final int ID_LENGTH = 32;
+    private static final int MANIFEST_MAGIC = 0x464d414e; // "FMAN"
+    private static final int MANIFEST_VERSION = 1;
+
+    private final Path root;
+    private final Path chunkDir;
+    private final Path manifestDir;
+    private final SecretKeySpec encryptionKey;
+    private final SecretKeySpec idKey;
+
+    /**
+     * The outcome of storing a file.
+     */
+    public static final class PutResult {
+        private final Path manifest;
+        private final int chunks;
+        private final int newChunks;
+        private final long bytes;
+        private final long newBytes;
+
+        PutResult(Path manifest, int chunks, int newChunks, long bytes, long newBytes) {
+            this.manifest = manifest;
+            this.chunks = chunks;
+            this.newChunks = newChunks;
+            this.bytes = bytes;
+            this.newBytes = newBytes;
+        }
+
+        /**
+         * Returns the path of the manifest written for the file.
+         * @return The manifest path.
+         */
+        public Path getManifest() {
+            return manifest;
+        }
+
+        /**
+         * Returns the number of chunks the file was split into.
+         * @return The number of chunks.
+         */
+        public int getChunks() {
+            return chunks;
+        }
+
+        /**
+         * Returns the number of chunks that were not in the store yet.
+         * @return The number of new chunks.
+         */
+        public int getNewChunks() {
+            return newChunks;
+        }
+
+        /**
+         * Returns the size of the file.
+         * @return The number of plaintext bytes.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Returns the plaintext size of the chunks that were not in the store yet.
+         * @return The number of new plaintext bytes.
+         */
+        public long getNewBytes() {
+            return newBytes;
+        }
+
+        @Override
+        /**
+         * Returns a string representation of the PutResult.
+         * @return A string containing the chunk and byte counts.
+         */
+        public String toString() {
+            return manifest + ": " + newChunks + "/" + chunks + " new chunks, " + newBytes + "/" + bytes + " new bytes";
+        }
+    }
+
+    /**
+     * Opens a store, creating its directory and salt if it does not exist yet.
+     * @param root The store directory.
+     * @param secretKey The secret key of the store.
+     * @throws RuntimeException if the store cannot be created or read.
+     */
+    public ChunkStore(Path root, String secretKey) {
+        this.root = root;
+        this.chunkDir = root.resolve("chunks");
+        this.manifestDir = root.resolve("manifests");
+        try {
+            Files.createDirectories(chunkDir);
+            Files.createDirectories(manifestDir);
+            SecretKeySpec masterKey = AES256.deriveKey(secretKey, readOrCreateSalt(root.resolve(SALT_FILE)));
+            this.encryptionKey = new SecretKeySpec(subkey(masterKey, "chunk-store-encryption"), "AES");
+            this.idKey = new SecretKeySpec(subkey(masterKey, "chunk-store-id"), "HmacSHA256");
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open chunk store: " + root, e);
+        }
+    }
+
+    /**
+     * Returns the store directory.
+     * @return The store directory.
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Stores a file under a name, replacing any file previously stored under that name.
+     * Only chunks that are not already in the store are encrypted and written.
+     * @param name The name of the file in the store.
+     * @param in The content of the file. It is not closed.
+     * @return The outcome, including how much of the file was new.
+     * @throws RuntimeException if the content cannot be read or the store cannot be written.
+     */
+    public PutResult put(String name, InputStream in) {
+        Path manifestPath = manifestPath(name);
+        try {
+            ContentChunker chunker = new ContentChunker(in);
+            ByteArrayOutputStream entries = new ByteArrayOutputStream();
+            DataOutputStream entryOut = new DataOutputStream(entries);
+            int chunks = 0;
+            int newChunks = 0;
+            long bytes = 0;
+            long newBytes = 0;
+            Mac mac = CryptoContext.mac(CryptoContext.HMAC_SHA256);
+            mac.init(idKey);
+
+            byte[] chunk;
+            while ((chunk = chunker.next()) != null) {
+                byte[] id = mac.doFinal(chunk);
+                Path chunkPath = chunkPath(id);
+                if (!isIntact(chunkPath, id, chunk.length)) {
+                    Files.createDirectories(chunkPath.getParent());
+                    writeAtomically(chunkPath, seal(chunk, id));
+                    newChunks++;
+                    newBytes += chunk.length;
+                }
+                entryOut.write(id);
+                entryOut.writeInt(chunk.length);
+                chunks++;
+                bytes += chunk.length;
+            }
+
+            ByteArrayOutputStream manifest = new ByteArrayOutputStream(16 + entries.size());
+            DataOutputStream manifestOut = new DataOutputStream(manifest);
+            manifestOut.writeInt(MANIFEST_MAGIC);
+            manifestOut.writeInt(MANIFEST_VERSION);
+            manifestOut.writeLong(bytes);
+            manifestOut.writeInt(chunks);
+            entries.writeTo(manifestOut);
+            writeAtomically(manifestPath, seal(manifest.toByteArray(), name.getBytes(StandardCharsets.UTF_8)));
+            return new PutResult(manifestPath, chunks, newChunks, bytes, newBytes);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to store file: " + name, e);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Encryption failed", e);
+        }
+    }
+
+    /**
+     * Restores a stored file, verifying every chunk against its id.
+     * @param name The name of the file in the store.
+     * @param out The stream receiving the content. It is not closed.
+     * @throws RuntimeException if the file is not in the store, the secret key is wrong,
+     *                          or a chunk is missing or corrupted.
+     */
+    public void get(String name, OutputStream out) {
+        try {
+            Mac mac = CryptoContext.mac(CryptoContext.HMAC_SHA256);
+            mac.init(idKey);
+            for (byte[] entry : readManifest(name)) {
+                byte[] id = new byte[ID_LENGTH];
+                System.arraycopy(entry, 0, id, 0, ID_LENGTH);
+                Path chunkPath = chunkPath(id);
+                if (!Files.exists(chunkPath)) {
+                    throw new IOException("Missing chunk " + Hex.encode(id));
+                }
+                byte[] chunk = open(Files.readAllBytes(chunkPath), id);
+                if (!MessageDigest.isEqual(id, mac.doFinal(chunk))) {
+                    throw new IOException("Corrupted chunk " + Hex.encode(id));
+                }
+                out.write(chunk);
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to restore file: " + name, e);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Decryption failed", e);
+        }
+    }
+
+    /**
+     * Returns the original size of a stored file.
+     * @param name The name of the file in the store.
+     * @return The number of plaintext bytes.
+     * @throws RuntimeException if the file is not in the store or the secret key is wrong.
+     */
+    public long size(String name) {
+        long size = 0;
+        for (byte[] entry : readManifest(name)) {
+            size += ByteBuffer.wrap(entry, ID_LENGTH, 4).getInt();
+        }
+        return size;
+    }
+
+    /**
+     * Lists the names of the stored files.
+     * @return The names, sorted.
+     * @throws RuntimeException if the store cannot be listed.
+     */
+    public List<String> list() {
+        try (Stream<Path> files = Files.list(manifestDir)) {
+            List<String> names = new ArrayList<>();
+            files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.endsWith(MANIFEST_EXTENSION))
+                    .sorted()
+                    .forEach(n -> names.add(n.substring(0, n.length() - MANIFEST_EXTENSION.length())));
+            return names;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to list chunk store: " + root, e);
+        }
+    }
+
+    /**
+     * Removes a stored file. Its chunks stay in the store until {@link #collectGarbage()}.
+     * @param name The name of the file in the store.
+     * @return true if the file was removed, false if it was not in the store.
+     * @throws RuntimeException if the manifest cannot be deleted.
+     */
+    public boolean delete(String name) {
+        try {
+            return Files.deleteIfExists(manifestPath(name));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to delete stored file: " + name, e);
+        }
+    }
+
+    /**
+     * Deletes every chunk that is not referenced by any stored file.
+     * Must not run while files are being stored.
+     * @return The number of chunks deleted.
+     * @throws RuntimeException if the store cannot be read or a chunk cannot be deleted.
+     */
+    public int collectGarbage() {
+        Set<String> referenced = new HashSet<>();
+        for (String name : list()) {
+            for (byte[] entry : readManifest(name)) {
+                byte[] id = new byte[ID_LENGTH];
+                System.arraycopy(entry, 0, id, 0, ID_LENGTH);
+                referenced.add(Hex.encode(id) + CHUNK_EXTENSION);
+            }
+        }
+        int deleted = 0;
+        try (Stream<Path> files = Files.walk(chunkDir)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                if (!referenced.contains(file.getFileName().toString())) {
+                    Files.delete(file);
+                    deleted++;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to collect garbage in chunk store: " + root, e);
+        }
+        return deleted;
+    }
+
+    /**
+     * Returns the path of the manifest of a stored file.
+     * @param name The name of the file in the store.
+     * @return The manifest path.
+     * @throws IllegalArgumentException if the name is empty or contains a path separator.
+     */
+    public Path manifestPath(String name) {
+        if (name.isEmpty() || name.contains("/") || name.contains("\\") || name.equals(".") || name.equals("..")) {
+            throw new IllegalArgumentException("Invalid name: " + name);
+        }
+        return manifestDir.resolve(name + MANIFEST_EXTENSION);
+    }
+
+    /**
+     * Returns the store containing a manifest file, for files picked by path.
+     * @param manifest The path of a manifest in a store's manifests directory.
+     * @return The store directory.
+     */
+    public static Path storeOf(Path manifest) {
+        return manifest.toAbsolutePath().getParent().getParent();
+    }
+
+    /**
+     * Reads and decrypts the manifest of a stored file.
+     * @param name The name of the file in the store.
+     * @return The manifest entries: the chunk id followed by the 4-byte chunk length.
+     * @throws RuntimeException if the manifest is missing, the secret key is wrong or the manifest is corrupted.
+     */
+    private List<byte[]> readManifest(String name) {
+        Path manifestPath = manifestPath(name);
+        try {
+            if (!Files.exists(manifestPath)) {
+                throw new IOException("No such file in store: " + name);
+            }
+            byte[] manifest = open(Files.readAllBytes(manifestPath), name.getBytes(StandardCharsets.UTF_8));
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(manifest));
+            if (in.readInt() != MANIFEST_MAGIC || in.readInt() != MANIFEST_VERSION) {
+                throw new IOException("Unsupported manifest: " + name);
+            }
+            in.readLong();
+            int count = in.readInt();
+            List<byte[]> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] entry = new byte[ID_LENGTH + 4];
+                in.readFully(entry);
+                entries.add(entry);
+            }
+            return entries;
+        } catch (AEADBadTagException e) {
+            throw new RuntimeException("Incorrect secret key or corrupted manifest: " + name, e);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read manifest: " + name, e);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Decryption failed", e);
+        }
+    }
+
+    /**
+     * Returns the path of a chunk, fanned out by the first byte of its id.
+     * @param id The chunk id.
+     * @return The chunk path.
+     */
+    private Path chunkPath(byte[] id) {
+        String hex = Hex.encode(id);
+        return chunkDir.resolve(hex.substring(0, 2)).resolve(hex + CHUNK_EXTENSION);
+    }
+
+    /**
+     * Encrypts data with a fresh random nonce.
+     * @param plaintext The data to encrypt.
+     * @param aad The additional authenticated data binding the ciphertext to its place in the store.
+     * @return The nonce followed by the ciphertext and tag.
+     * @throws GeneralSecurityException if encryption fails.
+     */
+    private byte[] seal(byte[] plaintext, byte[] aad) throws GeneralSecurityException {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        CryptoContext.random().nextBytes(nonce);
+        Cipher cipher = CryptoContext.cipher(CryptoContext.AES_GCM);
+        cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, new GCMParameterSpec(TAG_BITS, nonce));
+        cipher.updateAAD(aad);
+        byte[] sealed = new byte[NONCE_LENGTH + cipher.getOutputSize(plaintext.length)];
+        System.arraycopy(nonce, 0, sealed, 0, NONCE_LENGTH);
+        cipher.doFinal(plaintext, 0, plaintext.length, sealed, NONCE_LENGTH);
+        return sealed;
+    }
+
+    /**
+     * Decrypts data written by {@link #seal}.
+     * @param sealed The nonce followed by the ciphertext and tag.
+     * @param aad The additional authenticated data the data was sealed with.
+     * @return The plaintext.
+     * @throws GeneralSecurityException if the data was tampered with or the key is wrong.
+     */
+    private byte[] open(byte[] sealed, byte[] aad) throws GeneralSecurityException {
+        if (sealed.length < NONCE_LENGTH + TAG_BITS / 8) {
+            throw new AEADBadTagException("Sealed data is truncated");
+        }
+        Cipher cipher = CryptoContext.cipher(CryptoContext.AES_GCM);
+        cipher.init(Cipher.DECRYPT_MODE, encryptionKey, new GCMParameterSpec(TAG_BITS, sealed, 0, NONCE_LENGTH));
+        cipher.updateAAD(aad);
+        return cipher.doFinal(sealed, NONCE_LENGTH, sealed.length - NONCE_LENGTH);
+    }
+
+    /**
+     * Derives a subkey from the store's master key.
+     * @param masterKey The master key.
+     * @param label The purpose of the subkey.
+     * @return The 32-byte subkey.
+     * @throws RuntimeException if HMAC-SHA256 is not available.
+     */
+    private static byte[] subkey(SecretKeySpec masterKey, String label) {
+        try {
+            Mac mac = CryptoContext.mac(CryptoContext.HMAC_SHA256);
+            mac.init(new SecretKeySpec(masterKey.getEncoded(), "HmacSHA256"));
+            return mac.doFinal(label.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Failed to derive store key", e);
+        }
+    }
+
+    /**
+     * Reads the store's salt, creating it on first use.
+     * @param saltPath The path of the salt file.
+     * @return The salt.
+     * @throws IOException if the salt cannot be read or written.
+     */
+    private static byte[] readOrCreateSalt(Path saltPath) throws IOException {
+        if (!Files.exists(saltPath)) {
+            byte[] salt = new byte[SALT_LENGTH];
+            CryptoContext.random().nextBytes(salt);
+            try {
+                Files.write(saltPath, salt, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                return salt;
+            } catch (FileAlreadyExistsException e) {
+                // Created concurrently; use the other writer's salt
+            }
+        }
+        byte[] salt = Files.readAllBytes(saltPath);
+        if (salt.length != SALT_LENGTH) {
+            throw new IOException("Corrupted store salt: " + saltPath);
+        }
+        return salt;
+    }
+
+    /**
+     * Checks whether a chunk is in the store and intact, i.e. has the expected length and decrypts.
+     * A chunk left empty or torn by a crash is written again instead of being trusted by every file
+     * that references it.
+     * @param chunkPath The chunk path.
+     * @param id The chunk id.
+     * @param length The plaintext length of the chunk.
+     * @return true if the chunk can be reused, false if it must be written.
+     * @throws IOException if the chunk exists but cannot be read.
+     */
+    private boolean isIntact(Path chunkPath, byte[] id, int length) throws IOException {
+        try {
+            if (Files.size(chunkPath) != NONCE_LENGTH + length + TAG_BITS / 8) {
+                return false;
+            }
+            open(Files.readAllBytes(chunkPath), id);
+            return true;
+        } catch (NoSuchFileException | GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes a file through a temporary file and an atomic rename, so readers never see a partial file.
+     * The file is synced before it is renamed, whatever the output sync policy: a manifest must never
+     * reach the disk before the chunks it references.
+     * @param target The file to write.
+     * @param content The content of the file.
+     * @throws IOException if the file cannot be written.
+     */
+    private static void writeAtomically(Path target, byte[] content) throws IOException {
+        try (AtomicFileWriter out = AtomicFileWriter.open(target, content.length, AtomicFileWriter.SyncPolicy.FILE)) {
+            out.write(content);
+            out.commit();
+        }
+    }
+
+    @Override
+    /**
+     * Returns a string representation of the ChunkStore.
+     * @return A string containing the store directory.
+     */
+    public String toString() {
+        return "ChunkStore{" + root + '}';
+    }
+}
@@ -0,0 +1,271 @@
+package io;
+
+import tools.ChunkedCipher;
+import util.ContainerHeader;
+import util.Metrics;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.LongConsumer;
+
+/**
+ * CipherPipeline encrypts and decrypts files in the chunked container format (see {@link ChunkedCipher})
+ * with reading, the cipher and writing overlapped, so a single file is processed at roughly the speed of
+ * the slower of the disk and the cipher rather than the two one after another.
+ * <p>
+ * Chunks are read through an {@link AsynchronousFileChannel} into a fixed ring of {@code depth} buffers,
+ * passed to the common ForkJoinPool for the cipher, and written in order by the calling thread. With the
+ * default depth of three, chunk N+1 is being read while chunk N is in the cipher and chunk N-1 is written;
+ * a deeper ring reads further ahead and lets more chunks through the cipher at once. Memory use is bounded
+ * by the ring, whatever the file size. Unlike memory-mapped encryption, every read is an explicit,
+ * sequential request the disk can serve ahead of the cipher.
+ * <p>
+ * The operations can be cancelled by interrupting the calling thread.
+ */
+public final class CipherPipeline {
+    /** The default number of chunk buffers: one being read, one in the cipher, one being written. */
+    public static final int DEFAULT_DEPTH = 3;
+
+    private CipherPipeline() {
+    }
+
+    /**
+     * Encrypts a file into the chunked container format.
+     * @param input The file to encrypt.
+     * @param out The stream receiving the container. It is not closed.
+     * @param key The derived AES key.
+     * @param header The container header, with the base nonce and chunk size.
+     * @param depth The number of chunk buffers, at least 2.
+     * @param progress The callback receiving the cumulative number of plaintext bytes written out.
+     * @throws IOException if the files cannot be read or written, the input changes size while it is read,
+     *                     or the thread is interrupted.
+     */
+    public static void encrypt(Path input, OutputStream out, SecretKeySpec key, ContainerHeader header, int depth,
+                               LongConsumer progress) throws IOException {
+        int chunkSize = ChunkedCipher.chunkSize(header);
+        try (AsynchronousFileChannel channel = AsynchronousFileChannel.open(input, StandardOpenOption.READ)) {
+            long size = channel.size();
+            // An empty file is still one (empty) final chunk, so truncation to nothing is detected
+            long chunks = Math.max(1, (size + chunkSize - 1) / chunkSize);
+            out.write(header.toBytes());
+            run(channel, 0, size, chunkSize, chunks, depth, true, out, (index, last, chunk) ->
+                    ChunkedCipher.encryptChunk(key, header.getIv(), index, last, chunk), progress);
+        }
+    }
+
+    /**
+     * Decrypts the payload of a chunked container file.
+     * @param input The encrypted file.
+     * @param dataStart The offset of the first chunk, i.e. the length of the header.
+     * @param out The stream receiving the decrypted content. It is not closed.
+     * @param key The derived AES key.
+     * @param header The container header.
+     * @param depth The number of chunk buffers, at least 2.
+     * @param progress The callback receiving the cumulative number of encrypted bytes processed.
+     * @throws IOException if the files cannot be read or written, a chunk fails authentication,
+     *                     or the thread is interrupted.
+     */
+    public static void decrypt(Path input, long dataStart, OutputStream out, SecretKeySpec key, ContainerHeader header,
+                               int depth, LongConsumer progress) throws IOException {
+        int chunkSize = ChunkedCipher.chunkSize(header) + ChunkedCipher.TAG_LENGTH;
+        try (AsynchronousFileChannel channel = AsynchronousFileChannel.open(input, StandardOpenOption.READ)) {
+            long size = channel.size() - dataStart;
+            if (size < ChunkedCipher.TAG_LENGTH) {
+                throw new IOException("Encrypted container is truncated");
+            }
+            long chunks = (size + chunkSize - 1) / chunkSize;
+            if (size - (chunks - 1) * chunkSize < ChunkedCipher.TAG_LENGTH) {
+                throw new IOException("Encrypted container is truncated");
+            }
+            run(channel, dataStart, size, chunkSize, chunks, depth, false, out, (index, last, chunk) ->
+                    ChunkedCipher.decryptChunk(key, header.getIv(), index, last, chunk.array(), 0, chunk.remaining()), progress);
+        }
+    }
+
+    /**
+     * The cipher stage: transforms one chunk.
+     */
+    private interface ChunkTransform {
+        byte[] apply(long index, boolean last, ByteBuffer chunk);
+    }
+
+    /**
+     * Runs the pipeline over the chunks of a file region.
+     * @param channel The input channel.
+     * @param start The offset of the region.
+     * @param size The length of the region.
+     * @param chunkSize The length of a full chunk.
+     * @param chunks The number of chunks.
+     * @param depth The number of chunk buffers.
+     * @param direct Whether the buffers are direct; the cipher stage reads heap buffers through their array.
+     * @param out The stream receiving the transformed chunks.
+     * @param transform The cipher stage.
+     * @param progress The callback receiving the cumulative number of input bytes written out.
+     * @throws IOException if the channel or stream fails, a chunk fails, or the thread is interrupted.
+     */
+    private static void run(AsynchronousFileChannel channel, long start, long size, int chunkSize, long chunks,
+                            int depth, boolean direct, OutputStream out, ChunkTransform transform,
+                            LongConsumer progress) throws IOException {
+        if (depth < 2) {
+            throw new IllegalArgumentException("Pipeline depth must be at least 2");
+        }
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        ByteBuffer[] buffers = new ByteBuffer[depth];
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        CompletableFuture<Integer>[] reads = new CompletableFuture[depth];
+        Deque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>(depth);
+        for (int slot = 0; slot < depth && slot < chunks; slot++) {
+            int length = chunkLength(slot, size, chunkSize);
+            int capacity = (int) Math.min(chunkSize, size);
+            buffers[slot] = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+            reads[slot] = read(channel, buffers[slot], start + (long) slot * chunkSize, length);
+        }
+
+        long written = 0;
+        long nextWrite = 0;
+        for (long index = 0; index < chunks; index++) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Pipeline interrupted");
+            }
+            int slot = (int) (index % depth);
+            ByteBuffer chunk = await(channel, reads[slot], buffers[slot], start + index * chunkSize);
+            long chunkIndex = index;
+            boolean last = index == chunks - 1;
+            pending.addLast(pool.submit(() -> transform.apply(chunkIndex, last, chunk)));
+
+            // Once the oldest chunk is through the cipher its buffer is free: start reading into it,
+            // then write the chunk out while that read and the newer chunks' cipher work proceed
+            while (pending.size() >= depth - 1) {
+                byte[] result = join(pending.removeFirst());
+                long refill = nextWrite + depth;
+                if (refill < chunks) {
+                    int refillSlot = (int) (refill % depth);
+                    buffers[refillSlot].clear();
+                    reads[refillSlot] = read(channel, buffers[refillSlot], start + refill * chunkSize,
+                            chunkLength(refill, size, chunkSize));
+                }
+                out.write(result);
+                written += chunkLength(nextWrite, size, chunkSize);
+                nextWrite++;
+                progress.accept(written);
+            }
+        }
+        while (!pending.isEmpty()) {
+            out.write(join(pending.removeFirst()));
+            written += chunkLength(nextWrite, size, chunkSize);
+            nextWrite++;
+            progress.accept(written);
+        }
+        out.flush();
+    }
+
+    /**
+     * Returns the length of a chunk of a region.
+     * @param index The chunk index.
+     * @param size The length of the region.
+     * @param chunkSize The length of a full chunk.
+     * @return The chunk length.
+     */
+    private static int chunkLength(long index, long size, int chunkSize) {
+        return (int) Math.min(chunkSize, Math.max(0, size - index * chunkSize));
+    }
+
+    /**
+     * Starts reading a chunk into a buffer. The buffer's limit is set to the chunk length.
+     * @param channel The input channel.
+     * @param buffer The buffer.
+     * @param position The file offset of the chunk.
+     * @param length The chunk length.
+     * @return The pending read, completing with the number of bytes read or -1 at the end of the file.
+     */
+    private static CompletableFuture<Integer> read(AsynchronousFileChannel channel, ByteBuffer buffer, long position,
+                                                   int length) {
+        buffer.limit(length);
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        if (length == 0) {
+            result.complete(0);
+            return result;
+        }
+        Metrics.Span span = Metrics.start(Metrics.Stage.READ);
+        channel.read(buffer, position, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer count, Void attachment) {
+                span.end(Math.max(0, count));
+                result.complete(count);
+            }
+
+            @Override
+            public void failed(Throwable error, Void attachment) {
+                result.completeExceptionally(error);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Waits for a chunk read, completing it if the channel returned fewer bytes than requested.
+     * @param channel The input channel.
+     * @param read The pending read.
+     * @param buffer The buffer being read into.
+     * @param position The file offset of the chunk.
+     * @return The chunk, flipped for reading.
+     * @throws IOException if the read fails, the file ends early, or the thread is interrupted.
+     */
+    private static ByteBuffer await(AsynchronousFileChannel channel, CompletableFuture<Integer> read, ByteBuffer buffer,
+                                    long position) throws IOException {
+        int count = get(read);
+        while (buffer.hasRemaining()) {
+            if (count < 0) {
+                throw new EOFException("File ended before its expected size");
+            }
+            count = get(read(channel, buffer, position + buffer.position(), buffer.limit()));
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Waits for a read and unwraps its failure.
+     * @param read The pending read.
+     * @return The number of bytes read, or -1 at the end of the file.
+     * @throws IOException if the read fails or the thread is interrupted.
+     */
+    private static int get(CompletableFuture<Integer> read) throws IOException {
+        try {
+            return read.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Pipeline interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * Waits for a chunk task and unwraps its failure.
+     * @param task The chunk task.
+     * @return The chunk result.
+     * @throws IOException if the chunk failed, e.g. authentication.
+     */
+    private static byte[] join(ForkJoinTask<byte[]> task) throws IOException {
+        try {
+            return task.join();
+        } catch (RuntimeException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+}
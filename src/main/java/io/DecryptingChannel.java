@@ -0,0 +1,167 @@
+package io;
+
+import tools.AES256;
+import tools.ChunkedCipher;
+import tools.SeekableCipher;
+import util.ContainerHeader;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * DecryptingChannel is a read-only SeekableByteChannel over the plaintext of a seekable container
+ * (see {@link SeekableCipher}). Reads decrypt only the chunks that cover the requested bytes,
+ * so a small range of a very large file is read in time proportional to the range, not the file.
+ * The most recently decrypted chunk is kept, so sequential small reads decrypt each chunk once.
+ * Like other channels, an instance must not be read by several threads at the same time.
+ */
+public final class DecryptingChannel implements SeekableByteChannel {
+    private final FileChannel channel;
+    private final SecretKeySpec key;
+    private final byte[] fileId;
+    private final int chunkSize;
+    private final long size;
+    private final long chunks;
+    private final long dataStart;
+    private long position;
+    private long cachedIndex = -1;
+    private byte[] cachedChunk;
+
+    private DecryptingChannel(FileChannel channel, SecretKeySpec key, ContainerHeader header, long dataStart) throws IOException {
+        this.channel = channel;
+        this.key = key;
+        this.fileId = header.getIv();
+        this.chunkSize = ChunkedCipher.chunkSize(header);
+        this.size = SeekableCipher.plaintextSize(header);
+        this.chunks = SeekableCipher.chunkCount(size, chunkSize);
+        this.dataStart = dataStart;
+    }
+
+    /**
+     * Opens a seekable container for random-access reading.
+     * @param file The path of the encrypted file.
+     * @param secretKey The secret key used for decryption.
+     * @return The channel, positioned at the start of the plaintext.
+     * @throws IOException if the file cannot be read or is not a seekable container.
+     * @throws tools.WrongKeyException if the secret key does not match the container's key check value.
+     */
+    public static DecryptingChannel open(Path file, String secretKey) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            // The stream reads straight from the channel, so the channel ends up right after the header
+            ContainerHeader header = ContainerHeader.read(Channels.newInputStream(channel));
+            if (header.getCipher() != ContainerHeader.CIPHER_AES_GCM_SEEKABLE) {
+                throw new IOException("Not a seekable container: " + file);
+            }
+            SecretKeySpec key = AES256.deriveKey(secretKey, header);
+            AES256.verifyKey(key, header);
+            return new DecryptingChannel(channel, key, header, channel.position());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+        int total = 0;
+        while (dst.hasRemaining() && position < size) {
+            long index = position / chunkSize;
+            byte[] chunk = chunk(index);
+            int offset = (int) (position - index * chunkSize);
+            int length = Math.min(dst.remaining(), chunk.length - offset);
+            dst.put(chunk, offset, length);
+            position += length;
+            total += length;
+        }
+        return total;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public DecryptingChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        cachedChunk = null;
+        channel.close();
+    }
+
+    /**
+     * Returns a decrypted chunk, reading and decrypting it unless it is the cached one.
+     * @param index The chunk index.
+     * @return The decrypted chunk.
+     * @throws IOException if the chunk cannot be read or fails authentication.
+     */
+    private byte[] chunk(long index) throws IOException {
+        if (index == cachedIndex) {
+            return cachedChunk;
+        }
+        int slotLength = SeekableCipher.chunkLength(size, chunkSize, index) + SeekableCipher.SLOT_OVERHEAD;
+        ByteBuffer slot = ByteBuffer.allocate(slotLength);
+        long slotPosition = dataStart + SeekableCipher.slotOffset(chunkSize, index);
+        while (slot.hasRemaining()) {
+            if (channel.read(slot, slotPosition + slot.position()) == -1) {
+                throw new IOException("Encrypted container is truncated");
+            }
+        }
+        cachedChunk = SeekableCipher.decryptChunk(key, fileId, index, index == chunks - 1, slot.array(), 0, slotLength);
+        cachedIndex = index;
+        return cachedChunk;
+    }
+
+    /**
+     * Throws if the channel has been closed.
+     * @throws ClosedChannelException if the channel has been closed.
+     */
+    private void ensureOpen() throws ClosedChannelException {
+        if (!channel.isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+}
@@ -0,0 +1,707 @@
+package io;
+
+import tools.AES256;
+import tools.ChunkedCipher;
+import tools.CryptoContext;
+import tools.SHA256;
+import tools.SeekableCipher;
+import util.ContainerHeader;
+import util.FileSignatures;
+import util.Hex;
+import util.Metrics;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * EncryptedArchive packs many files into a single encrypted container, so a large number of small
+ * files costs one key derivation and one output file rather than one of each per file.
+ * An encrypted central index lists the entries, and a single entry can be extracted by name
+ * without decrypting any other entry.
+ *
+ * <p>Layout of the archive file:
+ * <pre>
+ * header     container header: cipher 4, the archive id as IV, chunk size and key check value
+ * entries    per entry, its chunks as seekable slots (see {@link SeekableCipher}): nonce (12) ||
+ *            AES-256-GCM(chunk) || tag (16), AAD = entry id || chunk index || final flag
+ * index      nonce (12) || AES-256-GCM(index) || tag (16), AAD = archive id || "index" || index offset
+ * trailer    index offset (8) || index length (4) || "FEAX"
+ * </pre>
+ * Each index record holds the entry's name, offset, length, detected file type, id and the SHA-256
+ * of its content. New entries and a new index are written after the existing trailer, so the index
+ * they supersede stays behind as dead space; if adding an entry fails, the file is cut back to where
+ * the entry started. An entry added under an existing name replaces it in the index.
+ * <p>
+ * The index is forced to the storage device before the trailer that points at it is written. An archive
+ * that does not end with a trailer, because the process died before it was closed, is opened as of the
+ * last complete index before its end; the entries added since are lost, but none before them.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public class EncryptedArchive implements AutoCloseable {
+    public static final String EXTENSION = ".fea";
+
+    private static final int SALT_LENGTH = 16;
+    private static final int ID_LENGTH = SeekableCipher.FILE_ID_LENGTH;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final int TRAILER_LENGTH = 16;
+    private static final int TRAILER_MAGIC = 0x46454158; // "FEAX"
+    private static final int INDEX_MAGIC = 0x46494458; // "FIDX"
+    private static final int INDEX_VERSION = 1;
+    private static final int MAX_INDEX_LENGTH = 1 << 30;
+    // Limit of DataOutputStream.writeUTF, which counts modified UTF-8 bytes
+    private static final int MAX_NAME_LENGTH = 65535;
+    private static final int SCAN_BLOCK_SIZE = 64 * 1024;
+    private static final byte[] INDEX_LABEL = "index".getBytes(StandardCharsets.US_ASCII);
+
+    private final Path file;
+    private final FileChannel channel;
+    private final boolean writable;
+    private final SecretKeySpec key;
+    private final byte[] archiveId;
+    private final int chunkSize;
+    private final Map<String, Entry> entries;
+    private long end;
+    private boolean dirty;
+
+    /**
+     * An entry of the archive.
+     */
+    public static final class Entry {
+        private final String name;
+        private final long offset;
+        private final long length;
+        private final long storedLength;
+        private final String type;
+        private final byte[] id;
+        private final byte[] checksum;
+
+        Entry(String name, long offset, long length, long storedLength, String type, byte[] id, byte[] checksum) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+            this.storedLength = storedLength;
+            this.type = type;
+            this.id = id;
+            this.checksum = checksum;
+        }
+
+        /**
+         * Returns the name of the entry.
+         * @return The entry name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the position of the entry's first chunk slot in the archive.
+         * @return The offset.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Returns the original size of the entry.
+         * @return The number of plaintext bytes.
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Returns the number of bytes the entry's chunk slots occupy in the archive.
+         * @return The number of encrypted bytes.
+         */
+        public long getStoredLength() {
+            return storedLength;
+        }
+
+        /**
+         * Returns the file type detected from the entry's leading bytes when it was added.
+         * @return The file type.
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * Returns the SHA-256 of the entry's content.
+         * @return The checksum, hex-encoded.
+         */
+        public String getChecksum() {
+            return Hex.encode(checksum);
+        }
+
+        @Override
+        /**
+         * Returns a string representation of the Entry.
+         * @return A string containing the name, size and type.
+         */
+        public String toString() {
+            return name + " (" + length + " bytes, " + type + ")";
+        }
+    }
+
+    private EncryptedArchive(Path file, FileChannel channel, boolean writable, SecretKeySpec key, byte[] archiveId,
+                             int chunkSize, Map<String, Entry> entries, long end) {
+        this.file = file;
+        this.channel = channel;
+        this.writable = writable;
+        this.key = key;
+        this.archiveId = archiveId;
+        this.chunkSize = chunkSize;
+        this.entries = entries;
+        this.end = end;
+    }
+
+    /**
+     * Creates a new, empty archive with a fresh random salt, so the key is derived once for all its entries.
+     * The empty archive is complete on disk when this returns; entries added to it are listed once it is closed.
+     * @param file The archive file, which must not exist yet.
+     * @param secretKey The secret key of the archive.
+     * @return The archive, open for adding entries.
+     * @throws RuntimeException if the file exists or cannot be created.
+     */
+    public static EncryptedArchive create(Path file, String secretKey) {
+        byte[] salt = CryptoContext.randomBytes(SALT_LENGTH);
+        SecretKeySpec key = AES256.deriveKey(secretKey, salt);
+        ContainerHeader header = AES256.archiveHeader(key, salt, CryptoContext.randomBytes(ID_LENGTH),
+                SeekableCipher.DEFAULT_CHUNK_SIZE);
+        try {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                byte[] headerBytes = header.toBytes();
+                writeFully(channel, ByteBuffer.wrap(headerBytes), 0);
+                EncryptedArchive archive = new EncryptedArchive(file, channel, true, key, header.getIv(),
+                        SeekableCipher.DEFAULT_CHUNK_SIZE, new LinkedHashMap<>(), headerBytes.length);
+                archive.writeIndex();
+                return archive;
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                channel.close();
+                Files.deleteIfExists(file);
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create archive: " + file, e);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Encryption failed", e);
+        }
+    }
+
+    /**
+     * Opens an existing archive and reads its index. The archive is opened for adding entries
+     * unless the file is read-only. If the archive does not end with a trailer, it is opened as of
+     * the last complete index before its end, and entries added after that index are overwritten.
+     * @param file The archive file.
+     * @param secretKey The secret key of the archive.
+     * @return The archive.
+     * @throws tools.WrongKeyException if the secret key does not match the archive.
+     * @throws RuntimeException if the file is not an archive, or cannot be read, or its index is corrupted.
+     */
+    public static EncryptedArchive open(Path file, String secretKey) {
+        boolean writable = Files.isWritable(file);
+        FileChannel channel = null;
+        try {
+            channel = writable
+                    ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                    : FileChannel.open(file, StandardOpenOption.READ);
+            ContainerHeader header = ContainerHeader.read(Channels.newInputStream(channel.position(0)));
+            if (header.getCipher() != ContainerHeader.CIPHER_AES_GCM_ARCHIVE) {
+                throw new IOException("Not an encrypted archive");
+            }
+            SecretKeySpec key = AES256.deriveKey(secretKey, header);
+            AES256.verifyKey(key, header);
+            int chunkSize = ChunkedCipher.chunkSize(header);
+
+            long size = channel.size();
+            long dataStart = header.toBytes().length;
+            if (size < dataStart + TRAILER_LENGTH) {
+                throw new IOException("Archive is truncated or has no index");
+            }
+            long indexOffset = trailerIndexOffset(channel, dataStart, size);
+            long end = size;
+            Map<String, Entry> entries = null;
+            if (indexOffset >= 0) {
+                // A trailer is only written once its index is on disk, so a bad index here is corruption
+                entries = readIndex(channel, key, header.getIv(), chunkSize, indexOffset, end);
+            }
+            while (entries == null) {
+                // The archive was not closed: fall back to the last index that was completely written
+                end = findTrailer(channel, dataStart, end - 1);
+                if (end < 0) {
+                    throw new IOException("Archive is truncated or has no index");
+                }
+                indexOffset = trailerIndexOffset(channel, dataStart, end);
+                if (indexOffset >= 0) {
+                    try {
+                        entries = readIndex(channel, key, header.getIv(), chunkSize, indexOffset, end);
+                    } catch (AEADBadTagException e) {
+                        // Trailer magic occurring by chance inside encrypted data; keep looking
+                    }
+                }
+            }
+            return new EncryptedArchive(file, channel, writable, key, header.getIv(), chunkSize, entries, end);
+        } catch (AEADBadTagException e) {
+            closeQuietly(channel);
+            throw new RuntimeException("Archive index is corrupted: " + file, e);
+        } catch (IOException e) {
+            closeQuietly(channel);
+            throw new RuntimeException("Failed to open archive: " + file, e);
+        } catch (GeneralSecurityException e) {
+            closeQuietly(channel);
+            throw new RuntimeException("Decryption failed", e);
+        } catch (RuntimeException e) {
+            closeQuietly(channel);
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an archive, creating it if the file does not exist yet.
+     * @param file The archive file.
+     * @param secretKey The secret key of the archive.
+     * @return The archive.
+     * @throws tools.WrongKeyException if the archive exists and the secret key does not match it.
+     * @throws RuntimeException if the archive cannot be created or read.
+     */
+    public static EncryptedArchive openOrCreate(Path file, String secretKey) {
+        return Files.exists(file) ? open(file, secretKey) : create(file, secretKey);
+    }
+
+    /**
+     * Returns the archive file.
+     * @return The archive path.
+     */
+    public Path getPath() {
+        return file;
+    }
+
+    /**
+     * Lists the entries of the archive.
+     * @return The entries, in the order they were added.
+     */
+    public List<Entry> entries() {
+        return Collections.unmodifiableList(new ArrayList<>(entries.values()));
+    }
+
+    /**
+     * Returns an entry of the archive.
+     * @param name The entry name.
+     * @return The entry, or null if the archive has no entry by that name.
+     */
+    public Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Adds a file to the archive under its file name.
+     * @param name The entry name.
+     * @param file The file to add.
+     * @return The new entry.
+     * @throws RuntimeException if the file cannot be read or the archive cannot be written.
+     */
+    public Entry add(String name, Path file) {
+        try (InputStream in = Files.newInputStream(file)) {
+            return add(name, in);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read file: " + file, e);
+        }
+    }
+
+    /**
+     * Adds an entry to the archive, replacing any entry of the same name. The entry's chunks are written
+     * straight away; it is listed in the archive's index once the archive is closed. Until then, the
+     * archive opens without it.
+     * @param name The entry name.
+     * @param in The content of the entry. It is not closed.
+     * @return The new entry.
+     * @throws IllegalArgumentException if the name is empty or too long.
+     * @throws RuntimeException if the content cannot be read or the archive cannot be written.
+     */
+    public Entry add(String name, InputStream in) {
+        if (name.isEmpty() || modifiedUtf8Length(name) > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Invalid entry name: " + name);
+        }
+        if (!writable) {
+            throw new RuntimeException("Archive is read-only: " + file);
+        }
+        long offset = end;
+        try {
+            byte[] id = CryptoContext.randomBytes(ID_LENGTH);
+            MessageDigest digest = SHA256.newDigest();
+            String type = null;
+            long length = 0;
+            long index = 0;
+            byte[] chunk = in.readNBytes(chunkSize);
+            while (true) {
+                // Read one chunk ahead, since the final chunk is authenticated as such
+                byte[] next = chunk.length < chunkSize ? new byte[0] : in.readNBytes(chunkSize);
+                boolean last = next.length == 0;
+                if (type == null) {
+                    type = FileSignatures.detect(chunk);
+                }
+                digest.update(chunk);
+                byte[] slot = SeekableCipher.encryptChunk(key, id, index++, last, ByteBuffer.wrap(chunk));
+                writeFully(channel, ByteBuffer.wrap(slot), end);
+                end += slot.length;
+                length += chunk.length;
+                if (last) {
+                    break;
+                }
+                chunk = next;
+            }
+            Entry entry = new Entry(name, offset, length, end - offset, type, id, digest.digest());
+            entries.remove(name);
+            entries.put(name, entry);
+            dirty = true;
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            // Cut off the slots written so far, so the archive still ends with its last index
+            end = offset;
+            try {
+                channel.truncate(offset);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new RuntimeException("Failed to add entry: " + name, e);
+        }
+    }
+
+    /**
+     * Extracts an entry, decrypting only its own chunks and verifying its checksum.
+     * @param name The entry name.
+     * @param out The stream receiving the content. It is not closed.
+     * @throws RuntimeException if the archive has no such entry, the entry is corrupted,
+     *                          or the content cannot be written.
+     */
+    public void extract(String name, OutputStream out) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            throw new RuntimeException("No such entry in archive: " + name);
+        }
+        try {
+            MessageDigest digest = SHA256.newDigest();
+            long chunks = SeekableCipher.chunkCount(entry.length, chunkSize);
+            ByteBuffer slot = ByteBuffer.allocate(chunkSize + SeekableCipher.SLOT_OVERHEAD);
+            for (long index = 0; index < chunks; index++) {
+                int slotLength = SeekableCipher.chunkLength(entry.length, chunkSize, index) + SeekableCipher.SLOT_OVERHEAD;
+                slot.clear().limit(slotLength);
+                readFully(channel, slot, entry.offset + SeekableCipher.slotOffset(chunkSize, index));
+                byte[] chunk = SeekableCipher.decryptChunk(key, entry.id, index, index == chunks - 1,
+                        slot.array(), 0, slotLength);
+                digest.update(chunk);
+                out.write(chunk);
+            }
+            if (!MessageDigest.isEqual(entry.checksum, digest.digest())) {
+                throw new IOException("Checksum mismatch");
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to extract entry: " + name, e);
+        }
+    }
+
+    /**
+     * Writes the index of the archive if entries were added, and closes the file.
+     * @throws RuntimeException if the index cannot be written.
+     */
+    @Override
+    public void close() {
+        try {
+            try {
+                if (dirty) {
+                    writeIndex();
+                }
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write archive index: " + file, e);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Encryption failed", e);
+        }
+    }
+
+    /**
+     * Writes the sealed index and the trailer after the last entry, cuts off anything beyond them,
+     * and forces the archive to the storage device. The entries and index are forced before the
+     * trailer is written, so a trailer never points at an index that did not reach the device.
+     * @throws IOException if the archive cannot be written.
+     * @throws GeneralSecurityException if encryption fails.
+     */
+    private void writeIndex() throws IOException, GeneralSecurityException {
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(index);
+        indexOut.writeInt(INDEX_MAGIC);
+        indexOut.writeInt(INDEX_VERSION);
+        indexOut.writeInt(entries.size());
+        for (Entry entry : entries.values()) {
+            indexOut.writeUTF(entry.name);
+            indexOut.writeLong(entry.offset);
+            indexOut.writeLong(entry.length);
+            indexOut.writeUTF(entry.type);
+            indexOut.write(entry.id);
+            indexOut.write(entry.checksum);
+        }
+
+        long indexOffset = end;
+        byte[] sealed = seal(key, index.toByteArray(), indexAad(archiveId, indexOffset));
+        writeFully(channel, ByteBuffer.wrap(sealed), indexOffset);
+        channel.force(false);
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_LENGTH);
+        trailer.putLong(indexOffset).putInt(sealed.length).putInt(TRAILER_MAGIC).flip();
+        writeFully(channel, trailer, indexOffset + sealed.length);
+        channel.truncate(indexOffset + sealed.length + TRAILER_LENGTH);
+        channel.force(false);
+        end = channel.size();
+        dirty = false;
+    }
+
+    /**
+     * Reads the trailer ending at a position and checks that it points at an index directly before it.
+     * @param channel The archive channel.
+     * @param dataStart The offset of the first entry.
+     * @param trailerEnd The position the trailer ends at.
+     * @return The offset of the index, or -1 if there is no consistent trailer at the position.
+     * @throws IOException if the file cannot be read.
+     */
+    private static long trailerIndexOffset(FileChannel channel, long dataStart, long trailerEnd) throws IOException {
+        if (trailerEnd < dataStart + TRAILER_LENGTH) {
+            return -1;
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_LENGTH);
+        readFully(channel, trailer, trailerEnd - TRAILER_LENGTH);
+        trailer.flip();
+        long indexOffset = trailer.getLong();
+        int indexLength = trailer.getInt();
+        if (trailer.getInt() != TRAILER_MAGIC || indexOffset < dataStart || indexLength < NONCE_LENGTH + TAG_BITS / 8
+                || indexLength > MAX_INDEX_LENGTH || indexOffset + indexLength != trailerEnd - TRAILER_LENGTH) {
+            return -1;
+        }
+        return indexOffset;
+    }
+
+    /**
+     * Searches backwards for the trailer magic.
+     * @param channel The archive channel.
+     * @param dataStart The offset of the first entry.
+     * @param limit The position the magic must end at or before.
+     * @return The position just past the last magic ending at or before the limit, or -1 if there is none.
+     * @throws IOException if the file cannot be read.
+     */
+    private static long findTrailer(FileChannel channel, long dataStart, long limit) throws IOException {
+        byte[] magic = ByteBuffer.allocate(Integer.BYTES).putInt(TRAILER_MAGIC).array();
+        long low = dataStart + TRAILER_LENGTH - magic.length;
+        ByteBuffer block = ByteBuffer.allocate(SCAN_BLOCK_SIZE);
+        long blockEnd = limit;
+        while (blockEnd - magic.length >= low) {
+            long blockStart = Math.max(low, blockEnd - SCAN_BLOCK_SIZE);
+            block.clear().limit((int) (blockEnd - blockStart));
+            readFully(channel, block, blockStart);
+            byte[] bytes = block.array();
+            for (int i = block.limit() - magic.length; i >= 0; i--) {
+                if (bytes[i] == magic[0] && bytes[i + 1] == magic[1] && bytes[i + 2] == magic[2]
+                        && bytes[i + 3] == magic[3]) {
+                    return blockStart + i + magic.length;
+                }
+            }
+            // Overlap the blocks so a magic across their boundary is found
+            blockEnd = blockStart + magic.length - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads and decrypts the index ending where its trailer starts.
+     * @param channel The archive channel.
+     * @param key The archive key.
+     * @param archiveId The archive id.
+     * @param chunkSize The chunk size of the archive.
+     * @param indexOffset The offset of the index.
+     * @param trailerEnd The position the index's trailer ends at.
+     * @return The entries by name, in the order they were added.
+     * @throws AEADBadTagException if the index was tampered with.
+     * @throws IOException if the file cannot be read or the index is malformed.
+     * @throws GeneralSecurityException if decryption fails.
+     */
+    private static Map<String, Entry> readIndex(FileChannel channel, SecretKeySpec key, byte[] archiveId, int chunkSize,
+                                                long indexOffset, long trailerEnd)
+            throws IOException, GeneralSecurityException {
+        ByteBuffer sealed = ByteBuffer.allocate((int) (trailerEnd - TRAILER_LENGTH - indexOffset));
+        readFully(channel, sealed, indexOffset);
+        return readIndex(open(key, sealed.array(), indexAad(archiveId, indexOffset)), chunkSize, indexOffset);
+    }
+
+    /**
+     * Parses a decrypted index.
+     * @param index The decrypted index.
+     * @param chunkSize The chunk size of the archive.
+     * @param limit The offset of the index, before which every entry must end.
+     * @return The entries by name, in the order they were added.
+     * @throws IOException if the index is malformed.
+     */
+    private static Map<String, Entry> readIndex(byte[] index, int chunkSize, long limit) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+        if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+            throw new IOException("Unsupported archive index");
+        }
+        int count = in.readInt();
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            long offset = in.readLong();
+            long length = in.readLong();
+            String type = in.readUTF();
+            byte[] id = new byte[ID_LENGTH];
+            in.readFully(id);
+            byte[] checksum = new byte[SHA256.newDigest().getDigestLength()];
+            in.readFully(checksum);
+            long storedLength = length + SeekableCipher.chunkCount(length, chunkSize) * SeekableCipher.SLOT_OVERHEAD;
+            if (offset < 0 || length < 0 || offset + storedLength > limit) {
+                throw new IOException("Archive index is corrupted");
+            }
+            entries.put(name, new Entry(name, offset, length, storedLength, type, id, checksum));
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the number of bytes {@link DataOutputStream#writeUTF} encodes a string in: modified UTF-8
+     * takes two bytes for NUL, and three for each half of a surrogate pair.
+     * @param s The string.
+     * @return The encoded length, without the two-byte length prefix.
+     */
+    private static long modifiedUtf8Length(String s) {
+        long length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+        }
+        return length;
+    }
+
+    /**
+     * Returns the additional authenticated data of an index, binding it to its archive and position.
+     * @param archiveId The archive id.
+     * @param indexOffset The offset of the index.
+     * @return The AAD.
+     */
+    private static byte[] indexAad(byte[] archiveId, long indexOffset) {
+        return ByteBuffer.allocate(archiveId.length + INDEX_LABEL.length + Long.BYTES)
+                .put(archiveId).put(INDEX_LABEL).putLong(indexOffset).array();
+    }
+
+    /**
+     * Encrypts data with a fresh random nonce.
+     * @param key The archive key.
+     * @param plaintext The data to encrypt.
+     * @param aad The additional authenticated data.
+     * @return The nonce followed by the ciphertext and tag.
+     * @throws GeneralSecurityException if encryption fails.
+     */
+    private static byte[] seal(SecretKeySpec key, byte[] plaintext, byte[] aad) throws GeneralSecurityException {
+        byte[] nonce = CryptoContext.randomBytes(NONCE_LENGTH);
+        Cipher cipher = CryptoContext.cipher(CryptoContext.AES_GCM);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, nonce));
+        cipher.updateAAD(aad);
+        byte[] sealed = new byte[NONCE_LENGTH + cipher.getOutputSize(plaintext.length)];
+        System.arraycopy(nonce, 0, sealed, 0, NONCE_LENGTH);
+        cipher.doFinal(plaintext, 0, plaintext.length, sealed, NONCE_LENGTH);
+        return sealed;
+    }
+
+    /**
+     * Decrypts data written by {@link #seal}.
+     * @param key The archive key.
+     * @param sealed The nonce followed by the ciphertext and tag.
+     * @param aad The additional authenticated data the data was sealed with.
+     * @return The plaintext.
+     * @throws GeneralSecurityException if the data was tampered with.
+     */
+    private static byte[] open(SecretKeySpec key, byte[] sealed, byte[] aad) throws GeneralSecurityException {
+        Cipher cipher = CryptoContext.cipher(CryptoContext.AES_GCM);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, sealed, 0, NONCE_LENGTH));
+        cipher.updateAAD(aad);
+        return cipher.doFinal(sealed, NONCE_LENGTH, sealed.length - NONCE_LENGTH);
+    }
+
+    /**
+     * Reads bytes at a position until the buffer is full.
+     * @param channel The archive channel.
+     * @param buffer The buffer to fill.
+     * @param position The file position.
+     * @throws IOException if the file cannot be read or ends first.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        Metrics.Span span = Metrics.start(Metrics.Stage.READ);
+        int total = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total - buffer.remaining());
+            if (read < 0) {
+                throw new EOFException("Archive ended before its expected size");
+            }
+        }
+        span.end(total);
+    }
+
+    /**
+     * Writes a buffer at a position.
+     * @param channel The archive channel.
+     * @param buffer The buffer to write.
+     * @param position The file position.
+     * @throws IOException if the file cannot be written.
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        Metrics.Span span = Metrics.start(Metrics.Stage.WRITE);
+        int total = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + total - buffer.remaining());
+        }
+        span.end(total);
+    }
+
+    /**
+     * Closes a channel, ignoring failures, after opening an archive failed.
+     * @param channel The channel, or null.
+     */
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // The original failure is more useful
+            }
+        }
+    }
+}
@@ -1,15 +1,52 @@
 package io;
 
+import util.ContainerHeader;
+import util.FileSignatures;
 import util.ParsedFile;
 import tools.AES256;
+import tools.Codec;
+import tools.Codecs;
 
-import java.io.FileOutputStream;
+import javax.crypto.spec.SecretKeySpec;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.function.LongConsumer;
 
 /**
  * FileOutputParser class provides methods to write ParsedFile content to disk.
+ * Every output file is written through an {@link AtomicFileWriter}: it only appears under its
+ * name once complete, and a failed or cancelled write leaves any previous file of that name untouched.
  */
 public class FileOutputParser {
+    private static final int SALT_LENGTH = 16;
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private static volatile AtomicFileWriter.SyncPolicy syncPolicy = AtomicFileWriter.SyncPolicy.FILE;
+
+    /**
+     * Sets when output files are synced to disk. The default, {@link AtomicFileWriter.SyncPolicy#FILE},
+     * syncs every file as it is completed; {@link AtomicFileWriter.SyncPolicy#NONE} leaves it to the
+     * operating system. Single files have no batch to be grouped with, so
+     * {@link AtomicFileWriter.SyncPolicy#BATCH} syncs them like {@code FILE}.
+     * @param policy The sync policy.
+     */
+    public static void setSyncPolicy(AtomicFileWriter.SyncPolicy policy) {
+        syncPolicy = policy;
+    }
+
     /**
      * Writes the content of a ParsedFile to the specified file path.
      * @param filePath The path to write the file to.
@@ -17,8 +54,9 @@ public class FileOutputParser {
      * @throws RuntimeException if the file cannot be written.
      */
     public static void write(String filePath, ParsedFile parsedFile) {
-        try (FileOutputStream fos = new FileOutputStream(filePath)) {
-            fos.write(parsedFile.getContent());
+        try (AtomicFileWriter out = openOutput(filePath, parsedFile.size())) {
+            out.write(parsedFile.getBuffer());
+            out.commit();
         } catch (IOException e) {
             throw new RuntimeException("Failed to write file: " + filePath, e);
         }
@@ -39,7 +77,8 @@ public class FileOutputParser {
 
     /**
      * Writes the encrypted content of a ParsedFile to a specified directory with a given output file name.
-     * The file is saved with the specified output file name in the specified directory.
+     * The file is saved with the specified output file name in the specified directory,
+     * in the binary container format (see {@link util.ContainerHeader}).
      * @param fileDirectory The directory where the encrypted file will be saved.
      * @param parsedFile The ParsedFile object containing the content to encrypt.
      * @param secretKey The secret key used for encryption.
@@ -48,17 +87,30 @@ public class FileOutputParser {
      * @throws RuntimeException if the file cannot be written or encryption fails.
      * */
     public static void writeEncryptedWithFileName(String fileDirectory, ParsedFile parsedFile, String secretKey, String salt, String outputFileName) {
-        ParsedFile encryptedFile = AES256.encryptFile(parsedFile, secretKey, salt);
-        String filePath = fileDirectory.replace("\\", "/").replaceAll("\\.\\./", "").replaceAll("\\.\\.", "");
+        writeEncryptedWithFileName(fileDirectory, parsedFile, secretKey, salt, outputFileName, bytesRead -> { });
+    }
+
+    /**
+     * Writes the encrypted content of a ParsedFile to a specified directory with a given output file name,
+     * reporting progress.
+     * @param fileDirectory The directory where the encrypted file will be saved.
+     * @param parsedFile The ParsedFile object containing the content to encrypt.
+     * @param secretKey The secret key used for encryption.
+     * @param salt The salt used for key derivation.
+     * @param outputFileName The name of the output file to save the encrypted content.
+     * @param progress The callback receiving the cumulative number of content bytes processed.
+     * @throws RuntimeException if the file cannot be written or encryption fails.
+     */
+    public static void writeEncryptedWithFileName(String fileDirectory, ParsedFile parsedFile, String secretKey, String salt, String outputFileName,
+                                                  LongConsumer progress) {
+        String filePath = sanitize(fileDirectory);
         filePath += "/" + outputFileName + ".enc";
 
-        try (FileOutputStream fos = new FileOutputStream(filePath)) {
+        try (AtomicFileWriter out = openOutput(filePath, parsedFile.size())) {
             byte[] saltBytes = java.util.Base64.getDecoder().decode(salt);
-            byte[] encryptedBytes = encryptedFile.getContent();
-
-            // Write salt first, then encrypted content
-            fos.write(saltBytes);
-            fos.write(encryptedBytes);
+            AES256.encryptContainer(new ProgressInputStream(parsedFile.openStream(), progress), out,
+                    AES256.deriveKey(secretKey, saltBytes), saltBytes, Codecs.forFileType(parsedFile.getFileType()));
+            out.commit();
         } catch (IOException e) {
             throw new RuntimeException("Failed to write encrypted file: " + filePath, e);
         }
@@ -79,6 +131,7 @@ public class FileOutputParser {
 
     /** * Writes the decrypted content of a ParsedFile to a specified directory with a given output file name.
      * The file is saved with the specified output file name in the specified directory.
+     * Both the binary container format and the legacy salt + Base64 layout are accepted.
      * @param fileDirectory The directory where the decrypted file will be saved.
      * @param parsedFile The ParsedFile object containing the content to decrypt.
      * @param secretKey The secret key used for decryption.
@@ -87,30 +140,520 @@ public class FileOutputParser {
      * @throws RuntimeException if the file cannot be written or decryption fails.
      * */
     public static void writeDecryptedWithFileName(String fileDirectory, ParsedFile parsedFile, String secretKey, String ignoredSalt, String outputFileName) {
-        byte[] fullContent = parsedFile.getContent();
-
-        // Split salt and encrypted content
-        byte[] saltBytes = new byte[16]; // 16 raw bytes = 128-bit salt
-        byte[] encryptedBytes = new byte[fullContent.length - 16];
+        writeDecryptedWithFileName(fileDirectory, parsedFile, secretKey, ignoredSalt, outputFileName, bytesRead -> { });
+    }
 
-        System.arraycopy(fullContent, 0, saltBytes, 0, 16);
-        System.arraycopy(fullContent, 16, encryptedBytes, 0, encryptedBytes.length);
+    /**
+     * Writes the decrypted content of a ParsedFile to a specified directory with a given output file name,
+     * reporting progress. Content in the legacy layout is decrypted in one step, so its progress
+     * is only reported once it is done.
+     * @param fileDirectory The directory where the decrypted file will be saved.
+     * @param parsedFile The ParsedFile object containing the content to decrypt.
+     * @param secretKey The secret key used for decryption.
+     * @param ignoredSalt Ignored salt parameter, not used in this method.
+     * @param outputFileName The name of the output file to save the decrypted content.
+     * @param progress The callback receiving the cumulative number of encrypted bytes processed.
+     * @throws RuntimeException if the file cannot be written or decryption fails.
+     */
+    public static void writeDecryptedWithFileName(String fileDirectory, ParsedFile parsedFile, String secretKey, String ignoredSalt, String outputFileName,
+                                                  LongConsumer progress) {
+        ParsedFile decryptedFile;
 
-        String extractedSalt = java.util.Base64.getEncoder().encodeToString(saltBytes);
-        ParsedFile encryptedFile = new ParsedFile(encryptedBytes);
+        if (ContainerHeader.isContainer(parsedFile.slice(0, Math.min(parsedFile.size(), SALT_LENGTH)).getContent())) {
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream(parsedFile.size());
+            AES256.decryptContainer(new ProgressInputStream(parsedFile.openStream(), progress), decrypted, secretKey);
+            decryptedFile = ParsedFile.wrap(ByteBuffer.wrap(decrypted.toByteArray()));
+        } else {
+            // Legacy layout: salt, then Base64 encoded encrypted content
+            byte[] saltBytes = parsedFile.slice(0, SALT_LENGTH).getContent(); // 16 raw bytes = 128-bit salt
+            ParsedFile encryptedFile = parsedFile.slice(SALT_LENGTH, parsedFile.size() - SALT_LENGTH);
 
-        ParsedFile decryptedFile = AES256.decryptFile(encryptedFile, secretKey, extractedSalt);
+            String extractedSalt = java.util.Base64.getEncoder().encodeToString(saltBytes);
+            decryptedFile = AES256.decryptFile(encryptedFile, secretKey, extractedSalt);
+            progress.accept(parsedFile.size());
+        }
 
-        String filePath = fileDirectory.replace("\\", "/").replaceAll("\\.\\./", "").replaceAll("\\.\\.", "");
+        String filePath = sanitize(fileDirectory);
         filePath += "/" + outputFileName + "." + decryptedFile.getFileType();
 
-        try (FileOutputStream fos = new FileOutputStream(filePath)) {
-            fos.write(decryptedFile.getContent());
+        try (AtomicFileWriter out = openOutput(filePath, decryptedFile.size())) {
+            out.write(decryptedFile.getBuffer());
+            out.commit();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write decrypted file: " + filePath, e);
+        }
+    }
+
+    /**
+     * Streams a file from disk through AES-256 encryption into a specified directory.
+     * The output uses the same container format as {@link #writeEncryptedWithFileName}, but the input
+     * is never loaded into memory as a whole, so heap usage stays bounded for any file size.
+     * Text and document files are compressed before encryption; images and archives are not.
+     * @param inputFilePath The path of the file to encrypt.
+     * @param fileDirectory The directory where the encrypted file will be saved.
+     * @param secretKey The secret key used for encryption.
+     * @param salt The salt used for key derivation.
+     * @param outputFileName The name of the output file to save the encrypted content.
+     * @return The path of the encrypted file.
+     * @throws RuntimeException if the files cannot be read or written or encryption fails.
+     */
+    public static String writeEncryptedStream(String inputFilePath, String fileDirectory, String secretKey, String salt, String outputFileName) {
+        return writeEncryptedStream(inputFilePath, fileDirectory, secretKey, salt, outputFileName, bytesRead -> { });
+    }
+
+    /**
+     * Streams a file from disk through AES-256 encryption into a specified directory, reporting progress.
+     * The operation can be cancelled by interrupting the calling thread; the partial output is then discarded.
+     * @param inputFilePath The path of the file to encrypt.
+     * @param fileDirectory The directory where the encrypted file will be saved.
+     * @param secretKey The secret key used for encryption.
+     * @param salt The salt used for key derivation.
+     * @param outputFileName The name of the output file to save the encrypted content.
+     * @param progress The callback receiving the cumulative number of input bytes processed.
+     * @return The path of the encrypted file.
+     * @throws RuntimeException if the files cannot be read or written, encryption fails, or the thread is interrupted.
+     */
+    public static String writeEncryptedStream(String inputFilePath, String fileDirectory, String secretKey, String salt, String outputFileName, LongConsumer progress) {
+        String filePath = sanitize(fileDirectory) + "/" + outputFileName + ".enc";
+        Path input = Paths.get(sanitize(inputFilePath));
+
+        try (InputStream in = new BufferedInputStream(new MeteredInputStream(Files.newInputStream(input)), STREAM_BUFFER_SIZE);
+             AtomicFileWriter out = openOutput(filePath, Files.size(input))) {
+            byte[] saltBytes = java.util.Base64.getDecoder().decode(salt);
+            Codec codec = Codecs.forStream(in);
+            AES256.encryptContainer(new ProgressInputStream(in, progress), out, AES256.deriveKey(secretKey, saltBytes), saltBytes, codec);
+            out.commit();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write encrypted file: " + filePath, e);
+        }
+        return filePath;
+    }
+
+    /**
+     * Streams a file from disk through parallel chunked AES-256-GCM encryption into a specified directory.
+     * The input is memory-mapped in windows, so files of any size (including over 2 GB) are
+     * encrypted without copying them onto the heap, and chunks are encrypted on all available cores.
+     * The result is decrypted by {@link #writeDecryptedStream}.
+     * @param inputFilePath The path of the file to encrypt.
+     * @param fileDirectory The directory where the encrypted file will be saved.
+     * @param secretKey The secret key used for encryption.
+     * @param salt The salt used for key derivation.
+     * @param outputFileName The name of the output file to save the encrypted content.
+     * @return The path of the encrypted file.
+     * @throws RuntimeException if the files cannot be read or written or encryption fails.
+     */
+    public static String writeEncryptedParallel(String inputFilePath, String fileDirectory, String secretKey, String salt, String outputFileName) {
+        return writeEncryptedParallel(inputFilePath, fileDirectory, secretKey, salt, outputFileName, bytesRead -> { });
+    }
+
+    /**
+     * Streams a file from disk through parallel chunked AES-256-GCM encryption, reporting progress
+     * each time a mapped window has been handed to the encryption workers.
+     * @param inputFilePath The path of the file to encrypt.
+     * @param fileDirectory The directory where the encrypted file will be saved.
+     * @param secretKey The secret key used for encryption.
+     * @param salt The salt used for key derivation.
+     * @param outputFileName The name of the output file to save the encrypted content.
+     * @param progress The callback receiving the cumulative number of input bytes processed.
+     * @return The path of the encrypted file.
+     * @throws RuntimeException if the files cannot be read or written or encryption fails.
+     */
+    public static String writeEncryptedParallel(String inputFilePath, String fileDirectory, String secretKey, String salt, String outputFileName,
+                                                LongConsumer progress) {
+        String filePath = sanitize(fileDirectory) + "/" + outputFileName + ".enc";
+
+        try (MappedFile in = FileParser.map(inputFilePath);
+             AtomicFileWriter out = openOutput(filePath, in.size())) {
+            byte[] saltBytes = java.util.Base64.getDecoder().decode(salt);
+            Iterator<ByteBuffer> windows = in.iterator();
+            long[] handedOver = new long[1];
+            // A window is reported once the next one is requested, i.e. when its chunks have been submitted
+            Iterator<ByteBuffer> tracked = new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return windows.hasNext();
+                }
+
+                @Override
+                public ByteBuffer next() {
+                    progress.accept(handedOver[0]);
+                    ByteBuffer window = windows.next();
+                    handedOver[0] += window.remaining();
+                    return window;
+                }
+            };
+            AES256.encryptParallel(tracked, out, AES256.deriveKey(secretKey, saltBytes), saltBytes);
+            out.commit();
+            progress.accept(handedOver[0]);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write encrypted file: " + filePath, e);
+        }
+        return filePath;
+    }
+
+    /**
+     * Encrypts a file into the chunked container format through a {@link CipherPipeline}, which reads the
+     * next chunk while the current one is encrypted and the previous one written, with memory bounded by
+     * a few chunk buffers. The output is the same format as {@link #writeEncryptedParallel} and is
+     * decrypted by {@link #writeDecryptedStream}.
+     * @param inputFilePath The path of the file to encrypt.
+     * @param fileDirectory The directory where the encrypted file will be saved.
+     * @param secretKey The secret key used for encryption.
+     * @param salt The salt used for key derivation.
+     * @param outputFileName The name of the output file to save the encrypted content.
+     * @return The path of the encrypted file.
+     * @throws RuntimeException if the files cannot be read or written or encryption fails.
+     */
+    public static String writeEncryptedPipelined(String inputFilePath, String fileDirectory, String secretKey, String salt, String outputFileName) {
+        return writeEncryptedPipelined(inputFilePath, fileDirectory, secretKey, salt, outputFileName, bytesRead -> { });
+    }
+
+    /**
+     * Encrypts a file into the chunked container format through a {@link CipherPipeline}, reporting progress
+     * as chunks are written. The operation can be cancelled by interrupting the calling thread; the partial
+     * output is then discarded.
+     * @param inputFilePath The path of the file to encrypt.
+     * @param fileDirectory The directory where the encrypted file will be saved.
+     * @param secretKey The secret key used for encryption.
+     * @param salt The salt used for key derivation.
+     * @param outputFileName The name of the output file to save the encrypted content.
+     * @param progress The callback receiving the cumulative number of input bytes processed.
+     * @return The path of the encrypted file.
+     * @throws RuntimeException if the files cannot be read or written, encryption fails, or the thread is interrupted.
+     */
+    public static String writeEncryptedPipelined(String inputFilePath, String fileDirectory, String secretKey, String salt, String outputFileName,
+                                                 LongConsumer progress) {
+        String filePath = sanitize(fileDirectory) + "/" + outputFileName + ".enc";
+        Path input = Paths.get(sanitize(inputFilePath));
+
+        try (AtomicFileWriter out = openOutput(filePath, Files.size(input))) {
+            byte[] saltBytes = java.util.Base64.getDecoder().decode(salt);
+            SecretKeySpec key = AES256.deriveKey(secretKey, saltBytes);
+            CipherPipeline.encrypt(input, out, key, AES256.chunkedHeader(key, saltBytes), CipherPipeline.DEFAULT_DEPTH, progress);
+            out.commit();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write encrypted file: " + filePath, e);
+        }
+        return filePath;
+    }
+
+    /**
+     * Encrypts a file into the seekable container format, in which any byte range can later be
+     * decrypted on its own with {@link DecryptingChannel}. The whole file is decrypted by {@link #writeDecryptedStream}.
+     * @param inputFilePath The path of the file to encrypt.
+     * @param fileDirectory The directory where the encrypted file will be saved.
+     * @param secretKey The secret key used for encryption.
+     * @param salt The salt used for key derivation.
+     * @param outputFileName The name of the output file to save the encrypted content.
+     * @return The path of the encrypted file.
+     * @throws RuntimeException if the files cannot be read or written or encryption fails.
+     */
+    public static String writeEncryptedSeekable(String inputFilePath, String fileDirectory, String secretKey, String salt, String outputFileName) {
+        return writeEncryptedSeekable(inputFilePath, fileDirectory, secretKey, salt, outputFileName, bytesRead -> { });
+    }
+
+    /**
+     * Encrypts a file into the seekable container format, reporting progress.
+     * The operation can be cancelled by interrupting the calling thread; the partial output is then discarded.
+     * @param inputFilePath The path of the file to encrypt.
+     * @param fileDirectory The directory where the encrypted file will be saved.
+     * @param secretKey The secret key used for encryption.
+     * @param salt The salt used for key derivation.
+     * @param outputFileName The name of the output file to save the encrypted content.
+     * @param progress The callback receiving the cumulative number of input bytes processed.
+     * @return The path of the encrypted file.
+     * @throws RuntimeException if the files cannot be read or written, encryption fails, or the thread is interrupted.
+     */
+    public static String writeEncryptedSeekable(String inputFilePath, String fileDirectory, String secretKey, String salt, String outputFileName, LongConsumer progress) {
+        String filePath = sanitize(fileDirectory) + "/" + outputFileName + ".enc";
+        Path input = Paths.get(sanitize(inputFilePath));
+
+        try (InputStream in = new ProgressInputStream(new BufferedInputStream(new MeteredInputStream(Files.newInputStream(input)), STREAM_BUFFER_SIZE), progress);
+             AtomicFileWriter out = openOutput(filePath, Files.size(input))) {
+            byte[] saltBytes = java.util.Base64.getDecoder().decode(salt);
+            AES256.encryptSeekable(in, Files.size(input), out, AES256.deriveKey(secretKey, saltBytes), saltBytes);
+            out.commit();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write encrypted file: " + filePath, e);
+        }
+        return filePath;
+    }
+
+    /**
+     * Encrypts a file into the seekable container format, updating an existing encrypted file of the
+     * same name in place when possible: only the chunks whose content changed since the last
+     * encryption are re-encrypted and written, so re-encrypting a large, mostly unchanged file costs
+     * roughly as much as the change. The existing file keeps its salt, so the given salt is only used
+     * when the file is written from scratch, which happens when it does not exist or is in another
+     * format. An existing seekable file encrypted with another key is never overwritten.
+     * Unlike the other writers, an update is made in place rather than through an {@link AtomicFileWriter}:
+     * if the operation is cancelled or fails during an update, the encrypted file may hold a mix of old
+     * and new content and should be encrypted again.
+     * @param inputFilePath The path of the file to encrypt.
+     * @param fileDirectory The directory where the encrypted file will be saved.
+     * @param secretKey The secret key used for encryption.
+     * @param salt The salt used for key derivation of a new encrypted file.
+     * @param outputFileName The name of the output file to save the encrypted content.
+     * @param progress The callback receiving the cumulative number of input bytes processed.
+     * @return The path of the encrypted file.
+     * @throws tools.WrongKeyException if the existing file was encrypted with another secret key.
+     * @throws RuntimeException if the files cannot be read or written, encryption fails, or the thread is interrupted.
+     */
+    public static String writeEncryptedIncremental(String inputFilePath, String fileDirectory, String secretKey, String salt, String outputFileName, LongConsumer progress) {
+        String filePath = sanitize(fileDirectory) + "/" + outputFileName + ".enc";
+        Path input = Paths.get(sanitize(inputFilePath));
+        Path output = Paths.get(filePath);
+        if (!Files.isRegularFile(output)) {
+            return writeEncryptedSeekable(inputFilePath, fileDirectory, secretKey, salt, outputFileName, progress);
+        }
+
+        long written;
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             InputStream in = new ProgressInputStream(new BufferedInputStream(new MeteredInputStream(Files.newInputStream(input)), STREAM_BUFFER_SIZE), progress)) {
+            written = AES256.updateSeekable(channel, in, Files.size(input), secretKey);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to update encrypted file: " + filePath, e);
+        }
+        if (written < 0) {
+            return writeEncryptedSeekable(inputFilePath, fileDirectory, secretKey, salt, outputFileName, progress);
+        }
+        return filePath;
+    }
+
+    /**
+     * Streams an encrypted file from disk through AES-256 decryption into a specified directory.
+     * Both the binary container format and the legacy salt + Base64 layout are accepted.
+     * The decrypted content is written to a temporary file first; once complete, its file type
+     * is detected from the header and the file is committed under the matching extension.
+     * Chunked containers are decrypted through a {@link CipherPipeline}, overlapping reads, decryption and writes.
+     * @param inputFilePath The path of the encrypted file.
+     * @param fileDirectory The directory where the decrypted file will be saved.
+     * @param secretKey The secret key used for decryption.
+     * @param outputFileName The name of the output file, without extension.
+     * @return The path of the decrypted file.
+     * @throws RuntimeException if the files cannot be read or written or decryption fails.
+     */
+    public static String writeDecryptedStream(String inputFilePath, String fileDirectory, String secretKey, String outputFileName) {
+        return writeDecryptedStream(inputFilePath, fileDirectory, secretKey, outputFileName, bytesRead -> { });
+    }
+
+    /**
+     * Streams an encrypted file from disk through AES-256 decryption into a specified directory, reporting progress.
+     * The operation can be cancelled by interrupting the calling thread; the partial output is then discarded.
+     * @param inputFilePath The path of the encrypted file.
+     * @param fileDirectory The directory where the decrypted file will be saved.
+     * @param secretKey The secret key used for decryption.
+     * @param outputFileName The name of the output file, without extension.
+     * @param progress The callback receiving the cumulative number of input bytes processed.
+     * @return The path of the decrypted file.
+     * @throws RuntimeException if the files cannot be read or written, decryption fails, or the thread is interrupted.
+     */
+    public static String writeDecryptedStream(String inputFilePath, String fileDirectory, String secretKey, String outputFileName, LongConsumer progress) {
+        String basePath = sanitize(fileDirectory) + "/" + outputFileName;
+        Path input = Paths.get(sanitize(inputFilePath));
+
+        // The decrypted size is not known up front, so nothing is preallocated
+        try (AtomicFileWriter out = openOutput(basePath, 0)) {
+            if (!decryptPipelined(input, out, secretKey, progress)) {
+                try (InputStream in = new ProgressInputStream(new MeteredInputStream(new FileInputStream(input.toFile())), progress)) {
+                    decryptStream(in, out, secretKey);
+                }
+            }
+            return finishDecrypted(out, basePath);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write decrypted file: " + basePath, e);
+        }
+    }
+
+    /**
+     * Streams a file from disk into a deduplicating chunk store.
+     * Only the parts of the file that are not already in the store are encrypted and written.
+     * The operation can be cancelled by interrupting the calling thread.
+     * @param inputFilePath The path of the file to store.
+     * @param store The chunk store.
+     * @param outputFileName The name of the file in the store.
+     * @param progress The callback receiving the cumulative number of input bytes processed.
+     * @return The path of the manifest written for the file.
+     * @throws RuntimeException if the file cannot be read, the store cannot be written, or the thread is interrupted.
+     */
+    public static String writeEncryptedToStore(String inputFilePath, ChunkStore store, String outputFileName, LongConsumer progress) {
+        try (InputStream in = new ProgressInputStream(new MeteredInputStream(new FileInputStream(sanitize(inputFilePath))), progress)) {
+            return store.put(outputFileName, in).getManifest().toString().replace("\\", "/");
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read file: " + inputFilePath, e);
+        }
+    }
+
+    /**
+     * Restores a file from a deduplicating chunk store into a specified directory.
+     * Like {@link #writeDecryptedStream}, the content is written to a temporary file first and
+     * committed under the extension matching its detected file type.
+     * @param store The chunk store.
+     * @param name The name of the file in the store.
+     * @param fileDirectory The directory where the decrypted file will be saved.
+     * @param outputFileName The name of the output file, without extension.
+     * @param progress The callback receiving the cumulative number of bytes restored.
+     * @return The path of the decrypted file.
+     * @throws RuntimeException if the file cannot be restored or written.
+     */
+    public static String writeDecryptedFromStore(ChunkStore store, String name, String fileDirectory, String outputFileName, LongConsumer progress) {
+        String basePath = sanitize(fileDirectory) + "/" + outputFileName;
+
+        try (AtomicFileWriter out = openOutput(basePath, 0)) {
+            store.get(name, new ProgressOutputStream(out, progress));
+            return finishDecrypted(out, basePath);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write decrypted file: " + basePath, e);
+        }
+    }
+
+    /**
+     * Streams a file from disk into an encrypted archive as a new entry, replacing any entry of the same name.
+     * The operation can be cancelled by interrupting the calling thread.
+     * @param inputFilePath The path of the file to add.
+     * @param archive The archive.
+     * @param entryName The name of the entry in the archive.
+     * @param progress The callback receiving the cumulative number of input bytes processed.
+     * @return The path of the archive.
+     * @throws RuntimeException if the file cannot be read, the archive cannot be written, or the thread is interrupted.
+     */
+    public static String writeEncryptedToArchive(String inputFilePath, EncryptedArchive archive, String entryName, LongConsumer progress) {
+        try (InputStream in = new ProgressInputStream(new MeteredInputStream(new FileInputStream(sanitize(inputFilePath))), progress)) {
+            archive.add(entryName, in);
+            return archive.getPath().toString().replace("\\", "/");
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read file: " + inputFilePath, e);
+        }
+    }
+
+    /**
+     * Extracts an entry of an encrypted archive into a specified directory, under the entry's name.
+     * Only the entry's own chunks are read and decrypted, and the file is written atomically.
+     * @param archive The archive.
+     * @param name The name of the entry in the archive.
+     * @param fileDirectory The directory where the extracted file will be saved.
+     * @param progress The callback receiving the cumulative number of bytes extracted.
+     * @return The path of the extracted file.
+     * @throws RuntimeException if the archive has no such entry, or it cannot be extracted or written.
+     */
+    public static String writeDecryptedFromArchive(EncryptedArchive archive, String name, String fileDirectory, LongConsumer progress) {
+        EncryptedArchive.Entry entry = archive.getEntry(name);
+        if (entry == null) {
+            throw new RuntimeException("No such entry in archive: " + name);
+        }
+        String filePath = sanitize(fileDirectory) + "/" + sanitize(name);
+
+        try {
+            Files.createDirectories(Paths.get(filePath).toAbsolutePath().getParent());
+            try (AtomicFileWriter out = openOutput(filePath, entry.getLength())) {
+                archive.extract(name, new ProgressOutputStream(out, progress));
+                out.commit();
+            }
+            return filePath;
         } catch (IOException e) {
             throw new RuntimeException("Failed to write decrypted file: " + filePath, e);
         }
     }
 
+    /**
+     * Decrypts an encrypted stream of any supported format into an output stream.
+     * The format is detected from the first bytes: the binary container format, or the
+     * legacy salt + Base64 layout. Neither stream is closed.
+     * @param in The input stream positioned at the start of the encrypted content.
+     * @param out The output stream receiving the decrypted content.
+     * @param secretKey The secret key used for decryption.
+     * @throws RuntimeException if the streams cannot be read or written or decryption fails.
+     */
+    public static void decryptStream(InputStream in, OutputStream out, String secretKey) {
+        try {
+            InputStream source = new BufferedInputStream(in, STREAM_BUFFER_SIZE);
+            source.mark(SALT_LENGTH);
+            byte[] saltBytes = source.readNBytes(SALT_LENGTH);
+            if (saltBytes.length != SALT_LENGTH) {
+                throw new IOException("Encrypted content is truncated");
+            }
+
+            if (ContainerHeader.isContainer(saltBytes)) {
+                source.reset();
+                AES256.decryptContainer(source, out, secretKey);
+            } else {
+                // Legacy layout: salt, then Base64 encoded encrypted content
+                String extractedSalt = java.util.Base64.getEncoder().encodeToString(saltBytes);
+                AES256.decryptStream(source, out, secretKey, extractedSalt);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to decrypt stream", e);
+        }
+    }
+
+    /**
+     * Decrypts a chunked container file through a {@link CipherPipeline}, if the file is one.
+     * Compressed chunked containers are left to the stream path, which decompresses as it decrypts.
+     * @param input The encrypted file.
+     * @param out The stream receiving the decrypted content.
+     * @param secretKey The secret key used for decryption.
+     * @param progress The callback receiving the cumulative number of input bytes processed.
+     * @return true if the file was decrypted, false if it is not an uncompressed chunked container.
+     * @throws IOException if the file cannot be read, the output cannot be written, or a chunk fails authentication.
+     */
+    private static boolean decryptPipelined(Path input, OutputStream out, String secretKey, LongConsumer progress) throws IOException {
+        ContainerHeader header;
+        long dataStart;
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            try {
+                // The stream reads straight from the channel, so the channel ends up right after the header
+                header = ContainerHeader.read(Channels.newInputStream(channel));
+            } catch (IOException e) {
+                return false;
+            }
+            dataStart = channel.position();
+        }
+        if (header.getCipher() != ContainerHeader.CIPHER_AES_GCM_CHUNKED
+                || header.getExtension(ContainerHeader.EXT_CODEC) != null) {
+            return false;
+        }
+        SecretKeySpec key = AES256.deriveKey(secretKey, header);
+        AES256.verifyKey(key, header);
+        progress.accept(dataStart);
+        CipherPipeline.decrypt(input, dataStart, out, key, header, CipherPipeline.DEFAULT_DEPTH,
+                bytesRead -> progress.accept(dataStart + bytesRead));
+        return true;
+    }
+
+    /**
+     * Detects the file type of a completed decrypted file and commits it under the matching extension.
+     * @param out The writer holding the decrypted content.
+     * @param basePath The path of the output file, without extension.
+     * @return The path of the decrypted file.
+     * @throws IOException if the file cannot be read or committed.
+     */
+    private static String finishDecrypted(AtomicFileWriter out, String basePath) throws IOException {
+        out.flush();
+        Path filePath = Paths.get(basePath + "." + FileSignatures.detect(out.getTemporaryPath()));
+        out.commit(filePath);
+        return filePath.toString().replace("\\", "/");
+    }
+
+    /**
+     * Opens an atomic writer for an output file, using the configured sync policy.
+     * @param filePath The path of the output file.
+     * @param expectedSize The expected size of the file, or 0 if unknown.
+     * @return The writer.
+     * @throws IOException if the temporary file cannot be created.
+     */
+    private static AtomicFileWriter openOutput(String filePath, long expectedSize) throws IOException {
+        return AtomicFileWriter.open(Paths.get(filePath), expectedSize, syncPolicy);
+    }
+
+    /**
+     * Sanitizes a path to prevent directory traversal attacks.
+     * @param path The path to sanitize.
+     * @return The sanitized path using forward slashes.
+     */
+    private static String sanitize(String path) {
+        return path.replace("\\", "/").replaceAll("\\.\\./", "").replaceAll("\\.\\.", "");
+    }
+
     @Override
     /**
      * Returns a string representation of the FileOutputParser class.
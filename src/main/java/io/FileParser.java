@@ -1,42 +1,125 @@
 package io;
 
+import util.Metrics;
 import util.ParsedFile;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
-import java.util.Arrays;
-import java.io.FileReader;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.FileNotFoundException;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongConsumer;
 
 /**
  * Parser class provides methods to parse files and return their content.
  */
 public final class FileParser {
+    // Largest array size the JVM reliably allocates
+    private static final long MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    // Reads are capped so progress is reported while large files load
+    private static final int READ_SIZE = 4 * 1024 * 1024;
+
     /**
      * Parses a file and returns a ParsedFile object containing its content.
      * The file path is sanitized to prevent directory traversal attacks.
+     * Files too large to fit in a byte array must be read with {@link #map} instead.
      * @param filePath The path to the file to be parsed.
      * @return A ParsedFile object containing the file's content.
      * @throws RuntimeException if the file cannot be read or parsed.
      */
     public static ParsedFile parse(String filePath) {
-        String path = filePath.replace("\\", "/").replaceAll("\\.\\./", "").replaceAll("\\.\\.", "");
+        return parse(filePath, bytesRead -> { });
+    }
+
+    /**
+     * Parses a file and returns a ParsedFile object containing its content, reporting progress.
+     * @param filePath The path to the file to be parsed.
+     * @param progress The callback receiving the cumulative number of bytes read.
+     * @return A ParsedFile object containing the file's content.
+     * @throws RuntimeException if the file cannot be read or parsed.
+     */
+    public static ParsedFile parse(String filePath, LongConsumer progress) {
+        String path = sanitize(filePath);
         File file = new File(path);
 
-        try (FileInputStream fis = new FileInputStream(file)) {
-            byte[] content = new byte[(int) file.length()];
-            int bytesRead = fis.read(content);
-            if (bytesRead != content.length) {
-                throw new IOException("File read incomplete");
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAX_ARRAY_SIZE) {
+                throw new IOException("File is too large to load into memory (" + size + " bytes); use FileParser.map");
+            }
+            ByteBuffer content = ByteBuffer.allocate((int) size);
+            // A single read may return fewer bytes than requested, so keep reading until full
+            while (content.position() < content.capacity()) {
+                content.limit((int) Math.min(content.capacity(), (long) content.position() + READ_SIZE));
+                Metrics.Span span = Metrics.start(Metrics.Stage.READ);
+                int read = channel.read(content);
+                span.end(Math.max(read, 0));
+                if (read == -1) {
+                    throw new IOException("File read incomplete");
+                }
+                progress.accept(content.position());
+            }
+            content.flip();
+            return ParsedFile.wrap(content);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to parse file: " + filePath, e);
+        }
+    }
+
+    /**
+     * Parses a file into a ParsedFile backed by a read-only memory mapping of the file,
+     * so the content is never copied onto the heap.
+     * The file path is sanitized to prevent directory traversal attacks.
+     * @param filePath The path to the file to be parsed.
+     * @return A ParsedFile object viewing the file's content.
+     * @throws RuntimeException if the file cannot be mapped or is larger than 2 GB.
+     */
+    public static ParsedFile parseMapped(String filePath) {
+        try (MappedFile file = map(filePath)) {
+            if (file.size() > MAX_ARRAY_SIZE) {
+                throw new IOException("File is too large to map as a single buffer (" + file.size() + " bytes)");
             }
-            return new ParsedFile(content);
+            // The mapping stays valid after the channel is closed
+            return ParsedFile.wrap(file.map(0, (int) file.size()));
         } catch (IOException e) {
             throw new RuntimeException("Failed to parse file: " + filePath, e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Opens a file for memory-mapped reading in windows of the default size.
+     * The file path is sanitized to prevent directory traversal attacks.
+     * @param filePath The path to the file to be mapped.
+     * @return A MappedFile over the file, which the caller must close.
+     * @throws RuntimeException if the file cannot be opened.
+     */
+    public static MappedFile map(String filePath) {
+        return map(filePath, MappedFile.DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Opens a file for memory-mapped reading in windows of the given size.
+     * The file path is sanitized to prevent directory traversal attacks.
+     * @param filePath The path to the file to be mapped.
+     * @param windowSize The size of each mapped window.
+     * @return A MappedFile over the file, which the caller must close.
+     * @throws RuntimeException if the file cannot be opened.
+     */
+    public static MappedFile map(String filePath, int windowSize) {
+        try {
+            return new MappedFile(Paths.get(sanitize(filePath)), windowSize);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to map file: " + filePath, e);
+        }
+    }
+
+    /**
+     * Sanitizes a path to prevent directory traversal attacks.
+     * @param path The path to sanitize.
+     * @return The sanitized path using forward slashes.
+     */
+    private static String sanitize(String path) {
+        return path.replace("\\", "/").replaceAll("\\.\\./", "").replaceAll("\\.\\.", "");
+    }
+}
@@ -0,0 +1,422 @@
+package io;
+
+import tools.AES256;
+import util.BatchReport;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * InboxWatcher encrypts the files dropped into an inbox directory, such as a user's
+ * {@code users/<username>/} folder, as they arrive, without anyone starting a job.
+ * <p>
+ * A file is picked up once no change has been reported for it for a quiet period (half a second by
+ * default) and its size and modification time are still those of its last change, so a file that is
+ * still being written or copied is not encrypted half-way. All the events of a burst of writes to a
+ * file are coalesced into a single encryption.
+ * <p>
+ * Files that are ready are handed to a fixed pool of workers through a bounded queue. While the queue
+ * is full, ready files wait in the watcher, which keeps draining change events so the operating
+ * system's event queue does not overflow. If it overflows anyway, the inbox is rescanned, as it is
+ * on start, so no file is missed.
+ * <p>
+ * Only the regular files directly in the inbox are encrypted, each into {@code <name>.enc} in the
+ * output directory; subdirectories, hidden files (such as the temporary files of atomic writes) and
+ * {@code .enc} files are ignored. An encrypted file gets the modification time of the content it was
+ * encrypted from, so a file is only encrypted again once it changes, and rescans and restarts do not
+ * encrypt anything twice. The key is derived once, when the watcher is created.
+ */
+public class InboxWatcher implements AutoCloseable {
+    private static final long DEFAULT_QUIET_MILLIS = 500;
+    private static final long MIN_POLL_MILLIS = 10;
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    private static final String ENCRYPTED_EXTENSION = ".enc";
+
+    private final Path inbox;
+    private final Path outputRoot;
+    private final SecretKeySpec key;
+    private final byte[] saltBytes;
+    // Files waiting for their quiet period to end, in order of due time; used by the watching thread only
+    private final Map<Path, Pending> pending = new LinkedHashMap<>();
+    private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+    private long quietMillis = DEFAULT_QUIET_MILLIS;
+    private int concurrency = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private boolean deleteOriginals;
+    private AtomicFileWriter.SyncPolicy syncPolicy = AtomicFileWriter.SyncPolicy.FILE;
+    private Consumer<BatchReport.FileResult> resultListener = result -> { };
+    private volatile WatchService watchService;
+    private volatile boolean closed;
+
+    /**
+     * The last observed state of a file waiting for its quiet period to end.
+     */
+    private static final class Pending {
+        private final long size;
+        private final FileTime modified;
+        private final long due;
+
+        Pending(BasicFileAttributes attributes, long due) {
+            this.size = attributes.size();
+            this.modified = attributes.lastModifiedTime();
+            this.due = due;
+        }
+
+        /**
+         * Checks whether a file is unchanged since this state was observed.
+         * @param attributes The current attributes of the file.
+         * @return true if the size and modification time are the same, false otherwise.
+         */
+        boolean matches(BasicFileAttributes attributes) {
+            return attributes.size() == size && attributes.lastModifiedTime().equals(modified);
+        }
+    }
+
+    /**
+     * Constructs an InboxWatcher.
+     * @param inboxDirectory The directory to watch.
+     * @param outputDirectory The directory where encrypted files will be saved; may be the inbox itself.
+     * @param secretKey The secret key used for encryption.
+     * @param salt The Base64 encoded salt used for key derivation.
+     */
+    public InboxWatcher(String inboxDirectory, String outputDirectory, String secretKey, String salt) {
+        this.inbox = Paths.get(sanitize(inboxDirectory));
+        this.outputRoot = Paths.get(sanitize(outputDirectory));
+        this.saltBytes = java.util.Base64.getDecoder().decode(salt);
+        this.key = AES256.deriveKey(secretKey, saltBytes);
+    }
+
+    /**
+     * Sets how long a file must be left alone before it is encrypted.
+     * @param quietMillis The quiet period in milliseconds.
+     */
+    public void setQuietPeriod(long quietMillis) {
+        if (quietMillis < 0) {
+            throw new IllegalArgumentException("Quiet period must not be negative");
+        }
+        this.quietMillis = quietMillis;
+    }
+
+    /**
+     * Sets the number of worker threads encrypting files.
+     * @param concurrency The number of workers.
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive");
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Sets the number of ready files that may wait for a worker before the watcher holds them back.
+     * @param queueCapacity The queue capacity.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Sets whether a file is deleted from the inbox once it has been encrypted. A file that changed
+     * while it was encrypted is kept, and encrypted again.
+     * @param deleteOriginals true to delete encrypted files, false to keep them.
+     */
+    public void setDeleteOriginals(boolean deleteOriginals) {
+        this.deleteOriginals = deleteOriginals;
+    }
+
+    /**
+     * Sets when encrypted files are synced to disk: one by one ({@link AtomicFileWriter.SyncPolicy#FILE},
+     * the default) or never ({@link AtomicFileWriter.SyncPolicy#NONE}). Files arrive one at a time,
+     * so {@link AtomicFileWriter.SyncPolicy#BATCH} syncs them one by one too.
+     * @param syncPolicy The sync policy.
+     */
+    public void setSyncPolicy(AtomicFileWriter.SyncPolicy syncPolicy) {
+        this.syncPolicy = syncPolicy == AtomicFileWriter.SyncPolicy.BATCH ? AtomicFileWriter.SyncPolicy.FILE : syncPolicy;
+    }
+
+    /**
+     * Sets the listener receiving the result of every file, on the worker thread that encrypted it.
+     * @param resultListener The listener.
+     */
+    public void setResultListener(Consumer<BatchReport.FileResult> resultListener) {
+        this.resultListener = resultListener;
+    }
+
+    /**
+     * Watches the inbox and encrypts the files dropped into it until {@link #close()} is called from
+     * another thread, then waits for the files already handed to the workers. Files that are in the
+     * inbox when the watcher starts are encrypted first.
+     * @throws RuntimeException if the inbox cannot be watched or listed, or stops being accessible.
+     */
+    public void run() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "inbox-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.prestartAllCoreThreads();
+        try (WatchService service = inbox.getFileSystem().newWatchService()) {
+            watchService = service;
+            Files.createDirectories(outputRoot);
+            inbox.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            rescan();
+            while (!closed) {
+                WatchKey watchKey = service.poll(pollMillis(executor), TimeUnit.MILLISECONDS);
+                if (watchKey != null) {
+                    for (WatchEvent<?> event : watchKey.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // Events were lost, so the directory listing is the only reliable source
+                            rescan();
+                        } else {
+                            changed(inbox.resolve((Path) event.context()));
+                        }
+                    }
+                    if (!watchKey.reset()) {
+                        throw new IOException("Inbox is no longer accessible");
+                    }
+                }
+                dispatch(executor);
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Closed by close() while waiting for events
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to watch inbox: " + inbox, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+            awaitWorkers(executor);
+        }
+    }
+
+    /**
+     * Stops watching the inbox. {@link #run()} returns once the files already handed to the workers are encrypted.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        WatchService service = watchService;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException ignored) {
+                // The watch loop stops on the closed flag regardless
+            }
+        }
+    }
+
+    /**
+     * Queues every candidate file in the inbox as if it had just changed.
+     * @throws IOException if the inbox cannot be listed.
+     */
+    private void rescan() throws IOException {
+        try (Stream<Path> files = Files.list(inbox)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                changed(file);
+            }
+        }
+    }
+
+    /**
+     * Records a change to a file, restarting its quiet period.
+     * @param file The file that changed.
+     */
+    private void changed(Path file) {
+        pending.remove(file);
+        BasicFileAttributes attributes = candidateAttributes(file);
+        if (attributes != null) {
+            pending.put(file, new Pending(attributes, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(quietMillis)));
+        }
+    }
+
+    /**
+     * Hands the files whose quiet period has ended to the workers, as long as the queue has room.
+     * Files that changed since their last event, or are still being encrypted, wait another quiet period.
+     * @param executor The worker pool.
+     */
+    private void dispatch(ThreadPoolExecutor executor) {
+        long now = System.nanoTime();
+        List<Path> deferred = new ArrayList<>();
+        Iterator<Map.Entry<Path, Pending>> entries = pending.entrySet().iterator();
+        while (entries.hasNext() && executor.getQueue().remainingCapacity() > 0) {
+            Map.Entry<Path, Pending> entry = entries.next();
+            if (entry.getValue().due > now) {
+                break;
+            }
+            entries.remove();
+            Path file = entry.getKey();
+            BasicFileAttributes attributes = candidateAttributes(file);
+            if (attributes == null) {
+                continue;
+            }
+            if (!entry.getValue().matches(attributes) || inFlight.contains(file)) {
+                deferred.add(file);
+            } else if (isOutdated(file, attributes)) {
+                inFlight.add(file);
+                executor.execute(() -> encrypt(file, attributes));
+            }
+        }
+        for (Path file : deferred) {
+            changed(file);
+        }
+    }
+
+    /**
+     * Returns how long to wait for events: until the first pending file is due, within bounds.
+     * @param executor The worker pool.
+     * @return The time to wait in milliseconds.
+     */
+    private long pollMillis(ThreadPoolExecutor executor) {
+        if (pending.isEmpty()) {
+            return Math.max(MIN_POLL_MILLIS, quietMillis);
+        }
+        long untilDue = TimeUnit.NANOSECONDS.toMillis(pending.values().iterator().next().due - System.nanoTime());
+        return Math.max(MIN_POLL_MILLIS, Math.min(untilDue, quietMillis));
+    }
+
+    /**
+     * Encrypts a file on a worker thread and reports the result.
+     * @param file The file to encrypt.
+     * @param attributes The attributes of the file when it was found ready.
+     */
+    private void encrypt(Path file, BasicFileAttributes attributes) {
+        try {
+            Path target = target(file);
+            BatchReport.FileResult result = BatchEncryptor.encryptFile(file, target, key, saltBytes, syncPolicy, null,
+                    bytesRead -> { });
+            if (result.getStatus() == BatchReport.Status.SUCCEEDED) {
+                try {
+                    // A file changed during encryption is newer than its encrypted copy, and is picked up again
+                    Files.setLastModifiedTime(target, attributes.lastModifiedTime());
+                    if (deleteOriginals && unchanged(file, attributes)) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (IOException e) {
+                    result = new BatchReport.FileResult(result.getPath(), BatchReport.Status.FAILED, result.getBytesIn(),
+                            result.getBytesOut(), result.getDurationNanos(), String.valueOf(e.getMessage()));
+                }
+            }
+            resultListener.accept(result);
+        } finally {
+            inFlight.remove(file);
+        }
+    }
+
+    /**
+     * Checks whether a file has no encrypted copy yet, or changed since it was encrypted.
+     * @param file The file in the inbox.
+     * @param attributes The current attributes of the file.
+     * @return true if the file needs to be encrypted, false otherwise.
+     */
+    private boolean isOutdated(Path file, BasicFileAttributes attributes) {
+        try {
+            return Files.getLastModifiedTime(target(file)).compareTo(attributes.lastModifiedTime()) < 0;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Checks whether a file still has the given size and modification time.
+     * @param file The file.
+     * @param attributes The earlier attributes of the file.
+     * @return true if the file is unchanged, false if it changed or is gone.
+     */
+    private static boolean unchanged(Path file, BasicFileAttributes attributes) {
+        try {
+            BasicFileAttributes current = Files.readAttributes(file, BasicFileAttributes.class);
+            return current.size() == attributes.size() && current.lastModifiedTime().equals(attributes.lastModifiedTime());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the attributes of a file if it is one the watcher encrypts: a regular, non-hidden file
+     * that is not itself encrypted.
+     * @param file The file in the inbox.
+     * @return The attributes, or null if the file is not a candidate or no longer exists.
+     */
+    private static BasicFileAttributes candidateAttributes(Path file) {
+        String name = file.getFileName().toString();
+        if (name.startsWith(".") || name.endsWith(ENCRYPTED_EXTENSION)) {
+            return null;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.isRegularFile() ? attributes : null;
+        } catch (IOException e) {
+            // Deleted or renamed since the event
+            return null;
+        }
+    }
+
+    /**
+     * Returns the path of the encrypted copy of a file.
+     * @param file The file in the inbox.
+     * @return The path of the encrypted file.
+     */
+    private Path target(Path file) {
+        return outputRoot.resolve(file.getFileName().toString() + ENCRYPTED_EXTENSION);
+    }
+
+    /**
+     * Waits for the workers to finish the files they were handed.
+     * @param executor The worker pool, already shut down.
+     */
+    private static void awaitWorkers(ThreadPoolExecutor executor) {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Keep waiting: every queued file is finished rather than left half-encrypted
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sanitizes a path to prevent directory traversal attacks.
+     * @param path The path to sanitize.
+     * @return The sanitized path using forward slashes.
+     */
+    private static String sanitize(String path) {
+        return path.replace("\\", "/").replaceAll("\\.\\./", "").replaceAll("\\.\\.", "");
+    }
+
+    @Override
+    /**
+     * Returns a string representation of the InboxWatcher.
+     * @return A string containing the inbox and the worker limits.
+     */
+    public String toString() {
+        return "InboxWatcher{inbox=" + inbox + ", concurrency=" + concurrency + ", queueCapacity=" + queueCapacity + '}';
+    }
+}
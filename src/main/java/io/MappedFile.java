@@ -0,0 +1,117 @@
+package io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * MappedFile provides read-only, memory-mapped access to a file of any size.
+ * The file is mapped in fixed-size windows, so files larger than 2 GB can be processed
+ * without copying their content onto the heap. Iterating a MappedFile yields its
+ * consecutive windows; only the last window may be shorter than the window size.
+ */
+public final class MappedFile implements AutoCloseable, Iterable<ByteBuffer> {
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private final int windowSize;
+
+    /**
+     * Opens a file for mapped reading.
+     * @param path The path of the file.
+     * @param windowSize The size of each mapped window.
+     * @throws IOException if the file cannot be opened.
+     */
+    MappedFile(Path path, int windowSize) throws IOException {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be positive");
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Returns the size of the file.
+     * @return The file size in bytes.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the size of the mapped windows.
+     * @return The window size in bytes.
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Maps a region of the file.
+     * @param position The offset of the region in the file.
+     * @param length The length of the region.
+     * @return A read-only buffer over the region.
+     * @throws IOException if the region cannot be mapped.
+     */
+    public ByteBuffer map(long position, int length) throws IOException {
+        if (position < 0 || length < 0 || position + length > size) {
+            throw new IndexOutOfBoundsException("Region out of bounds: " + position + "+" + length);
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+    }
+
+    @Override
+    /**
+     * Returns an iterator over the consecutive mapped windows of the file.
+     * @return An iterator of read-only buffers.
+     * @throws UncheckedIOException from next() if a window cannot be mapped.
+     */
+    public Iterator<ByteBuffer> iterator() {
+        return new Iterator<>() {
+            private long position;
+
+            @Override
+            public boolean hasNext() {
+                return position < size;
+            }
+
+            @Override
+            public ByteBuffer next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                int length = (int) Math.min(windowSize, size - position);
+                try {
+                    ByteBuffer window = map(position, length);
+                    position += length;
+                    return window;
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to map file window at " + position, e);
+                }
+            }
+        };
+    }
+
+    @Override
+    /**
+     * Closes the underlying channel. Buffers already handed out remain valid.
+     * @throws IOException if the channel cannot be closed.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    /**
+     * Returns a string representation of the MappedFile.
+     * @return A string containing the file and window sizes.
+     */
+    public String toString() {
+        return "MappedFile{size=" + size + ", windowSize=" + windowSize + '}';
+    }
+}
@@ -0,0 +1,50 @@
+package io;
+
+import util.Metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * MeteredInputStream records the time and bytes of every read from the wrapped stream
+ * as a {@link Metrics} stage. It should wrap the stream closest to the device, e.g. a
+ * FileInputStream below any buffering, so each recorded call is one read from the file.
+ */
+public class MeteredInputStream extends FilterInputStream {
+    private final Metrics.Stage stage;
+
+    /**
+     * Constructs a MeteredInputStream recording file reads.
+     * @param in The stream to read from.
+     */
+    public MeteredInputStream(InputStream in) {
+        this(in, Metrics.Stage.READ);
+    }
+
+    /**
+     * Constructs a MeteredInputStream.
+     * @param in The stream to read from.
+     * @param stage The stage reads are recorded as.
+     */
+    public MeteredInputStream(InputStream in, Metrics.Stage stage) {
+        super(in);
+        this.stage = stage;
+    }
+
+    @Override
+    public int read() throws IOException {
+        Metrics.Span span = Metrics.start(stage);
+        int b = in.read();
+        span.end(b == -1 ? 0 : 1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Metrics.Span span = Metrics.start(stage);
+        int read = in.read(b, off, len);
+        span.end(Math.max(read, 0));
+        return read;
+    }
+}
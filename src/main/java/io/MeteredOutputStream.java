@@ -0,0 +1,48 @@
+package io;
+
+import util.Metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * MeteredOutputStream records the time and bytes of every write to the wrapped stream
+ * as a {@link Metrics} stage. It should wrap the stream closest to the device, e.g. a
+ * FileOutputStream below any buffering, so each recorded call is one write to the file.
+ */
+public class MeteredOutputStream extends FilterOutputStream {
+    private final Metrics.Stage stage;
+
+    /**
+     * Constructs a MeteredOutputStream recording file writes.
+     * @param out The stream to write to.
+     */
+    public MeteredOutputStream(OutputStream out) {
+        this(out, Metrics.Stage.WRITE);
+    }
+
+    /**
+     * Constructs a MeteredOutputStream.
+     * @param out The stream to write to.
+     * @param stage The stage writes are recorded as.
+     */
+    public MeteredOutputStream(OutputStream out, Metrics.Stage stage) {
+        super(out);
+        this.stage = stage;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        Metrics.Span span = Metrics.start(stage);
+        out.write(b);
+        span.end(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Metrics.Span span = Metrics.start(stage);
+        out.write(b, off, len);
+        span.end(len);
+    }
+}
@@ -0,0 +1,77 @@
+package io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.function.LongConsumer;
+
+/**
+ * ProgressInputStream reports the cumulative number of bytes read to a callback,
+ * and aborts with an InterruptedIOException once the reading thread is interrupted,
+ * so long-running operations can be cancelled between reads.
+ */
+public class ProgressInputStream extends FilterInputStream {
+    private final LongConsumer progress;
+    private long bytesRead;
+
+    /**
+     * Constructs a ProgressInputStream.
+     * @param in The stream to read from.
+     * @param progress The callback receiving the cumulative number of bytes read.
+     */
+    public ProgressInputStream(InputStream in, LongConsumer progress) {
+        super(in);
+        this.progress = progress;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkInterrupted();
+        int b = super.read();
+        if (b != -1) {
+            progress.accept(++bytesRead);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkInterrupted();
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            bytesRead += n;
+            progress.accept(bytesRead);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        checkInterrupted();
+        long skipped = super.skip(n);
+        if (skipped > 0) {
+            bytesRead += skipped;
+            progress.accept(bytesRead);
+        }
+        return skipped;
+    }
+
+    /**
+     * Returns the number of bytes read so far.
+     * @return The number of bytes read.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Throws if the current thread has been interrupted.
+     * @throws InterruptedIOException if the current thread has been interrupted.
+     */
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Operation cancelled");
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package io;
+
+/**
+ * ProgressListener receives periodic progress reports from a {@link ProgressTracker}.
+ * Reports are delivered on the thread doing the work, so a listener should return quickly
+ * and hand the report over to another thread if it needs to do more, e.g. update a UI.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+    /**
+     * Receives a progress report.
+     * @param snapshot The progress at the time of the report.
+     */
+    void onProgress(ProgressTracker.Snapshot snapshot);
+}
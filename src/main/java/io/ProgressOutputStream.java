@@ -0,0 +1,60 @@
+package io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.function.LongConsumer;
+
+/**
+ * ProgressOutputStream reports the cumulative number of bytes written to a callback,
+ * and aborts with an InterruptedIOException once the writing thread is interrupted,
+ * so long-running operations can be cancelled between writes.
+ */
+public class ProgressOutputStream extends FilterOutputStream {
+    private final LongConsumer progress;
+    private long bytesWritten;
+
+    /**
+     * Constructs a ProgressOutputStream.
+     * @param out The stream to write to.
+     * @param progress The callback receiving the cumulative number of bytes written.
+     */
+    public ProgressOutputStream(OutputStream out, LongConsumer progress) {
+        super(out);
+        this.progress = progress;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkInterrupted();
+        out.write(b);
+        progress.accept(++bytesWritten);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkInterrupted();
+        out.write(b, off, len);
+        bytesWritten += len;
+        progress.accept(bytesWritten);
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     * @return The number of bytes written.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Throws if the current thread has been interrupted.
+     * @throws InterruptedIOException if the current thread has been interrupted.
+     */
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Operation cancelled");
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package io;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * ProgressTracker turns the byte counts of a long-running operation into periodic progress
+ * reports with the current stage, instantaneous and average throughput, and the estimated time
+ * remaining. It is a LongConsumer of cumulative byte counts, so it can be passed to every
+ * operation that takes a progress callback; for operations made of several streams, such as
+ * a batch of files, {@link #part()} returns one callback per stream.
+ * Recording progress costs one clock read, and the listener is only called once per interval,
+ * so the tracker can be fed from hot loops. {@link #snapshot()} may be called from any thread,
+ * e.g. by a supervisor checking for stalls, which the idle time of a snapshot shows.
+ */
+public final class ProgressTracker implements LongConsumer {
+    /** The default interval between reports. */
+    public static final long DEFAULT_INTERVAL_MILLIS = 500;
+
+    /**
+     * The progress of an operation at one point in time.
+     */
+    public static final class Snapshot {
+        private final String stage;
+        private final long bytesProcessed;
+        private final long totalBytes;
+        private final long elapsedNanos;
+        private final long idleNanos;
+        private final double instantMBps;
+        private final double averageMBps;
+
+        private Snapshot(String stage, long bytesProcessed, long totalBytes, long elapsedNanos, long idleNanos,
+                         double instantMBps, double averageMBps) {
+            this.stage = stage;
+            this.bytesProcessed = bytesProcessed;
+            this.totalBytes = totalBytes;
+            this.elapsedNanos = elapsedNanos;
+            this.idleNanos = idleNanos;
+            this.instantMBps = instantMBps;
+            this.averageMBps = averageMBps;
+        }
+
+        /**
+         * Returns the current stage of the operation.
+         * @return The stage name.
+         */
+        public String getStage() {
+            return stage;
+        }
+
+        /**
+         * Returns the number of bytes processed so far.
+         * @return The number of bytes.
+         */
+        public long getBytesProcessed() {
+            return bytesProcessed;
+        }
+
+        /**
+         * Returns the total number of bytes the operation will process.
+         * @return The number of bytes, or -1 if unknown.
+         */
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        /**
+         * Returns the fraction of the operation completed.
+         * @return The fraction between 0 and 1, or -1 if the total is unknown.
+         */
+        public double getFraction() {
+            if (totalBytes < 0) return -1;
+            return totalBytes == 0 ? 1 : Math.min(1, (double) bytesProcessed / totalBytes);
+        }
+
+        /**
+         * Returns the time since the operation started.
+         * @return The elapsed time in milliseconds.
+         */
+        public long getElapsedMillis() {
+            return elapsedNanos / 1_000_000;
+        }
+
+        /**
+         * Returns the time since bytes were last processed; a growing value means the operation is stalled.
+         * @return The idle time in milliseconds.
+         */
+        public long getIdleMillis() {
+            return idleNanos / 1_000_000;
+        }
+
+        /**
+         * Returns the throughput since the previous report.
+         * @return The throughput in MB/s.
+         */
+        public double getInstantMBps() {
+            return instantMBps;
+        }
+
+        /**
+         * Returns the throughput since the operation started.
+         * @return The throughput in MB/s.
+         */
+        public double getAverageMBps() {
+            return averageMBps;
+        }
+
+        /**
+         * Returns the estimated time until the operation completes, at the average throughput.
+         * @return The estimated time in milliseconds, or -1 if the total or the throughput is unknown.
+         */
+        public long getEtaMillis() {
+            if (totalBytes < 0 || averageMBps <= 0) return -1;
+            return (long) (Math.max(0, totalBytes - bytesProcessed) / (averageMBps * 1e3));
+        }
+
+        /**
+         * Returns the snapshot as a JSON object.
+         * @return The JSON representation.
+         */
+        public String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"stage\":\"%s\",\"bytes\":%d,\"totalBytes\":%d,\"fraction\":%.4f,\"elapsedMillis\":%d,"
+                            + "\"idleMillis\":%d,\"instantMBps\":%.2f,\"averageMBps\":%.2f,\"etaMillis\":%d}",
+                    stage, bytesProcessed, totalBytes, getFraction(), getElapsedMillis(), getIdleMillis(),
+                    instantMBps, averageMBps, getEtaMillis());
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(stage);
+            if (totalBytes >= 0) {
+                sb.append(String.format(Locale.ROOT, " %.0f%%", getFraction() * 100));
+            } else {
+                sb.append(String.format(Locale.ROOT, " %.1f MB", bytesProcessed / 1e6));
+            }
+            sb.append(String.format(Locale.ROOT, ", %.1f MB/s", averageMBps));
+            long eta = getEtaMillis();
+            if (eta >= 0) {
+                long seconds = (eta + 999) / 1000;
+                sb.append(String.format(Locale.ROOT, ", %d:%02d left", seconds / 60, seconds % 60));
+            }
+            return sb.toString();
+        }
+    }
+
+    private final ProgressListener listener;
+    private final long totalBytes;
+    private final long intervalNanos;
+    private final long startNanos;
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile String stage;
+    private volatile long lastProgressNanos;
+    private volatile long nextReportNanos;
+    // Guarded by this
+    private long lastReportNanos;
+    private long lastReportBytes;
+
+    /**
+     * Constructs a ProgressTracker reporting at the default interval.
+     * @param stage The initial stage name.
+     * @param totalBytes The total number of bytes, or -1 if unknown.
+     * @param listener The listener receiving the reports.
+     */
+    public ProgressTracker(String stage, long totalBytes, ProgressListener listener) {
+        this(stage, totalBytes, DEFAULT_INTERVAL_MILLIS, listener);
+    }
+
+    /**
+     * Constructs a ProgressTracker.
+     * @param stage The initial stage name.
+     * @param totalBytes The total number of bytes, or -1 if unknown.
+     * @param intervalMillis The minimum interval between reports.
+     * @param listener The listener receiving the reports.
+     */
+    public ProgressTracker(String stage, long totalBytes, long intervalMillis, ProgressListener listener) {
+        if (intervalMillis < 0) {
+            throw new IllegalArgumentException("Negative report interval: " + intervalMillis);
+        }
+        this.stage = stage;
+        this.totalBytes = totalBytes;
+        this.intervalNanos = intervalMillis * 1_000_000;
+        this.listener = listener;
+        this.startNanos = System.nanoTime();
+        this.lastProgressNanos = startNanos;
+        this.lastReportNanos = startNanos;
+        this.nextReportNanos = startNanos + intervalNanos;
+    }
+
+    @Override
+    /**
+     * Records the cumulative number of bytes processed by a single-stream operation.
+     * @param bytesProcessed The number of bytes processed so far.
+     */
+    public void accept(long bytesProcessed) {
+        bytes.set(bytesProcessed);
+        progressed();
+    }
+
+    /**
+     * Records bytes processed by one of several streams of an operation. Safe to call from several threads.
+     * @param delta The number of bytes processed since the last call.
+     */
+    public void add(long delta) {
+        bytes.addAndGet(delta);
+        progressed();
+    }
+
+    /**
+     * Returns a progress callback for one stream of an operation made of several streams,
+     * which converts that stream's cumulative byte counts into increments of this tracker.
+     * @return The callback, to be used by a single stream.
+     */
+    public LongConsumer part() {
+        return new LongConsumer() {
+            private long last;
+
+            @Override
+            public void accept(long bytesProcessed) {
+                add(bytesProcessed - last);
+                last = bytesProcessed;
+            }
+        };
+    }
+
+    /**
+     * Moves the operation to a new stage and reports it immediately.
+     * @param stage The stage name.
+     */
+    public void setStage(String stage) {
+        this.stage = stage;
+        report(System.nanoTime(), true);
+    }
+
+    /**
+     * Reports the final progress of the operation, regardless of the interval.
+     */
+    public void finish() {
+        report(System.nanoTime(), true);
+    }
+
+    /**
+     * Returns the current progress without reporting it.
+     * @return The progress.
+     */
+    public synchronized Snapshot snapshot() {
+        return snapshot(System.nanoTime());
+    }
+
+    /**
+     * Reports progress once the interval since the last report has passed.
+     */
+    private void progressed() {
+        long now = System.nanoTime();
+        lastProgressNanos = now;
+        if (now - nextReportNanos >= 0) {
+            report(now, false);
+        }
+    }
+
+    /**
+     * Reports the current progress to the listener.
+     * @param now The current time.
+     * @param force Whether to report even if the interval has not passed, e.g. because another thread just reported.
+     */
+    private synchronized void report(long now, boolean force) {
+        if (!force && now - nextReportNanos < 0) {
+            return;
+        }
+        Snapshot snapshot = snapshot(now);
+        lastReportNanos = now;
+        lastReportBytes = snapshot.getBytesProcessed();
+        nextReportNanos = now + intervalNanos;
+        listener.onProgress(snapshot);
+    }
+
+    /**
+     * Computes the progress at a point in time.
+     * @param now The current time.
+     * @return The progress.
+     */
+    private Snapshot snapshot(long now) {
+        long processed = bytes.get();
+        long elapsed = now - startNanos;
+        long sinceReport = now - lastReportNanos;
+        double instant = sinceReport <= 0 ? 0 : (processed - lastReportBytes) * 1e3 / sinceReport;
+        double average = elapsed <= 0 ? 0 : processed * 1e3 / elapsed;
+        return new Snapshot(stage, processed, totalBytes, elapsed, Math.max(0, now - lastProgressNanos), instant, average);
+    }
+}
@@ -1,17 +1,30 @@
 package tools;
 
+import util.ContainerHeader;
+import util.Metrics;
 import util.ParsedFile;
 
 import javax.crypto.Cipher;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
-import java.security.spec.KeySpec;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -21,6 +34,15 @@ public class AES256 {
 
     private static final int KEY_LENGTH = 256;
     private static final int ITERATION_COUNT = 65536;
+    private static final int IV_LENGTH = 16;
+    // Multiple of 3 so every full chunk Base64-encodes without padding
+    private static final int STREAM_CHUNK_SIZE = 48 * 1024;
+    private static final int KEY_CACHE_SIZE = 64;
+    private static final long KEY_CACHE_TTL_MILLIS = 10 * 60 * 1000L;
+    private static final KeyCache KEY_CACHE = new KeyCache(KEY_CACHE_SIZE, KEY_CACHE_TTL_MILLIS);
+    private static final int KEY_CHECK_LENGTH = 16;
+    private static final byte[] KEY_CHECK_LABEL = "file-encrypter key check".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_CHECK_SUBKEY_LABEL = "kcv".getBytes(StandardCharsets.UTF_8);
 
     /**
      * Encrypts a string using AES-256 encryption with a given secret key and salt.
@@ -34,29 +56,32 @@ public class AES256 {
     public static String encrypt(String strToEncrypt, String secretKey, String salt) {
         try {
             // Generate a random IV
-            SecureRandom secureRandom = new SecureRandom();
+            SecureRandom secureRandom = CryptoContext.random();
             byte[] iv = new byte[16];
             secureRandom.nextBytes(iv);
             IvParameterSpec ivspec = new IvParameterSpec(iv);
             
             // Derive the key using PBKDF2 with HMAC SHA-256
-            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-            KeySpec spec = new PBEKeySpec(secretKey.toCharArray(), salt.getBytes(), ITERATION_COUNT, KEY_LENGTH);
-            SecretKey tmp = factory.generateSecret(spec);
-            SecretKeySpec secretKeySpec = new SecretKeySpec(tmp.getEncoded(), "AES");
+            SecretKeySpec secretKeySpec = deriveKey(secretKey, salt);
             
             // Initialize the cipher for encryption
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            Cipher cipher = CryptoContext.cipher(CryptoContext.AES_CBC);
             cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, ivspec);
 
             // Encrypt the data
-            byte[] cipherText = cipher.doFinal(strToEncrypt.getBytes("UTF-8"));
+            byte[] plainText = strToEncrypt.getBytes("UTF-8");
+            Metrics.Span cipherSpan = Metrics.start(Metrics.Stage.CIPHER);
+            byte[] cipherText = cipher.doFinal(plainText);
+            cipherSpan.end(plainText.length);
             byte[] encryptedData = new byte[iv.length + cipherText.length];
             System.arraycopy(iv, 0, encryptedData, 0, iv.length);
             System.arraycopy(cipherText, 0, encryptedData, iv.length, cipherText.length);
             
             // Encode the result as Base64
-            return Base64.getEncoder().encodeToString(encryptedData);
+            Metrics.Span base64Span = Metrics.start(Metrics.Stage.BASE64);
+            String encoded = Base64.getEncoder().encodeToString(encryptedData);
+            base64Span.end(encryptedData.length);
+            return encoded;
         } catch (Exception e) {
             throw new RuntimeException("AES-256 not available", e);
         }
@@ -73,7 +98,9 @@ public class AES256 {
     public static String decrypt(String strToDecrypt, String secretKey, String salt) {
         try {
             // Decode the Base64 encoded string
+            Metrics.Span base64Span = Metrics.start(Metrics.Stage.BASE64);
             byte[] encryptedData = Base64.getDecoder().decode(strToDecrypt);
+            base64Span.end(encryptedData.length);
 
             // Extract the IV from the encrypted data
             byte[] iv = new byte[16];
@@ -81,19 +108,18 @@ public class AES256 {
             IvParameterSpec ivspec = new IvParameterSpec(iv);
 
             // Derive the key using PBKDF2 with HMAC SHA-256
-            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-            KeySpec spec = new PBEKeySpec(secretKey.toCharArray(), salt.getBytes(), ITERATION_COUNT, KEY_LENGTH);
-            SecretKey tmp = factory.generateSecret(spec);
-            SecretKeySpec secretKeySpec = new SecretKeySpec(tmp.getEncoded(), "AES");
+            SecretKeySpec secretKeySpec = deriveKey(secretKey, salt);
 
             // Initialize the cipher for decryption
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            Cipher cipher = CryptoContext.cipher(CryptoContext.AES_CBC);
             cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, ivspec);
 
             // Decrypt the data
             byte[] cipherText = new byte[encryptedData.length - iv.length];
             System.arraycopy(encryptedData, iv.length, cipherText, 0, cipherText.length);
+            Metrics.Span cipherSpan = Metrics.start(Metrics.Stage.CIPHER);
             byte[] decryptedData = cipher.doFinal(cipherText);
+            cipherSpan.end(cipherText.length);
 
             // Convert the decrypted data to a string
             return new String(decryptedData, "UTF-8");
@@ -110,10 +136,13 @@ public class AES256 {
      * @return A new ParsedFile containing the encrypted content.
      */
     public static ParsedFile encryptFile(ParsedFile file, String secretKey, String salt) {
-        byte[] content = file.getContent();
-        String base64 = Base64.getEncoder().encodeToString(content);
-        String encrypted = encrypt(base64, secretKey, salt);
-        return new ParsedFile(encrypted.getBytes(StandardCharsets.UTF_8));
+        Metrics.Span span = Metrics.start(Metrics.Stage.BASE64);
+        ByteBuffer content = file.getBuffer();
+        int length = content.remaining();
+        ByteBuffer base64 = Base64.getEncoder().encode(content);
+        span.end(length);
+        String encrypted = encrypt(new String(base64.array(), StandardCharsets.ISO_8859_1), secretKey, salt);
+        return ParsedFile.wrap(ByteBuffer.wrap(encrypted.getBytes(StandardCharsets.UTF_8)));
     }
 
     /**
@@ -124,10 +153,620 @@ public class AES256 {
      * @return A new ParsedFile containing the decrypted content.
      */
     public static ParsedFile decryptFile(ParsedFile file, String secretKey, String salt) {
-        String encryptedString = new String(file.getContent(), StandardCharsets.UTF_8);
+        String encryptedString = StandardCharsets.UTF_8.decode(file.getBuffer()).toString();
         String decryptedBase64 = decrypt(encryptedString, secretKey, salt);
+        Metrics.Span span = Metrics.start(Metrics.Stage.BASE64);
         byte[] originalBytes = Base64.getDecoder().decode(decryptedBase64);
-        return new ParsedFile(originalBytes);
+        span.end(originalBytes.length);
+        return ParsedFile.wrap(ByteBuffer.wrap(originalBytes));
+    }
+
+    /**
+     * Encrypts a stream using AES-256 encryption with a given secret key and salt.
+     * The output has the same layout as {@link #encryptFile}, but the input is read,
+     * encrypted and written in fixed-size chunks so heap usage stays bounded
+     * regardless of the input size. Neither stream is closed.
+     * @param in The plaintext input stream.
+     * @param out The output stream receiving the Base64 encoded encrypted data.
+     * @param secretKey The secret key used for encryption.
+     * @param salt The salt used for key derivation.
+     * @throws RuntimeException if the streams cannot be read or written, or encryption fails.
+     */
+    public static void encryptStream(InputStream in, OutputStream out, String secretKey, String salt) {
+        try {
+            byte[] iv = new byte[IV_LENGTH];
+            CryptoContext.random().nextBytes(iv);
+            Cipher cipher = CryptoContext.cipher(CryptoContext.AES_CBC);
+            cipher.init(Cipher.ENCRYPT_MODE, deriveKey(secretKey, salt), new IvParameterSpec(iv));
+
+            Base64.Encoder encoder = Base64.getEncoder();
+            byte[] plain = new byte[STREAM_CHUNK_SIZE];
+            byte[] encoded = new byte[STREAM_CHUNK_SIZE / 3 * 4];
+            byte[] cipherText = new byte[cipher.getOutputSize(encoded.length)];
+
+            try (OutputStream encodedOut = encoder.wrap(new NonClosingOutputStream(out))) {
+                encodedOut.write(iv);
+                int read;
+                while ((read = in.readNBytes(plain, 0, plain.length)) > 0) {
+                    // Only the last chunk can be short, and only it may carry Base64 padding
+                    Metrics.Span base64Span = Metrics.start(Metrics.Stage.BASE64);
+                    int encodedLength = read == plain.length
+                            ? encoder.encode(plain, encoded)
+                            : encoder.encode(Arrays.copyOf(plain, read), encoded);
+                    base64Span.end(read);
+                    Metrics.Span cipherSpan = Metrics.start(Metrics.Stage.CIPHER);
+                    int cipherLength = cipher.update(encoded, 0, encodedLength, cipherText);
+                    cipherSpan.end(encodedLength);
+                    encodedOut.write(cipherText, 0, cipherLength);
+                    if (read < plain.length) break;
+                }
+                Metrics.Span cipherSpan = Metrics.start(Metrics.Stage.CIPHER);
+                byte[] last = cipher.doFinal();
+                cipherSpan.end(0);
+                encodedOut.write(last);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encrypt stream", e);
+        } catch (Exception e) {
+            throw new RuntimeException("AES-256 not available", e);
+        }
+    }
+
+    /**
+     * Decrypts a stream produced by {@link #encryptStream} or {@link #encryptFile}
+     * using AES-256 decryption with a given secret key and salt.
+     * The input is processed in fixed-size chunks so heap usage stays bounded
+     * regardless of the input size. Neither stream is closed.
+     * @param in The input stream containing the Base64 encoded encrypted data.
+     * @param out The output stream receiving the decrypted content.
+     * @param secretKey The secret key used for decryption.
+     * @param salt The salt used for key derivation.
+     * @throws RuntimeException if the streams cannot be read or written, or decryption fails.
+     */
+    public static void decryptStream(InputStream in, OutputStream out, String secretKey, String salt) {
+        try {
+            InputStream encodedIn = Base64.getDecoder().wrap(new BufferedInputStream(in, STREAM_CHUNK_SIZE));
+            byte[] iv = encodedIn.readNBytes(IV_LENGTH);
+            if (iv.length != IV_LENGTH) {
+                throw new IOException("Encrypted stream is truncated");
+            }
+            Cipher cipher = CryptoContext.cipher(CryptoContext.AES_CBC);
+            cipher.init(Cipher.DECRYPT_MODE, deriveKey(secretKey, salt), new IvParameterSpec(iv));
+
+            Base64StreamDecoder decoder = new Base64StreamDecoder(out);
+            byte[] cipherText = new byte[STREAM_CHUNK_SIZE];
+            int read;
+            while ((read = encodedIn.read(cipherText)) != -1) {
+                Metrics.Span span = Metrics.start(Metrics.Stage.CIPHER);
+                byte[] decrypted = cipher.update(cipherText, 0, read);
+                span.end(read);
+                if (decrypted != null) decoder.write(decrypted);
+            }
+            Metrics.Span span = Metrics.start(Metrics.Stage.CIPHER);
+            byte[] last = cipher.doFinal();
+            span.end(0);
+            decoder.write(last);
+            decoder.finish();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to decrypt stream", e);
+        } catch (Exception e) {
+            throw new RuntimeException("AES-256 not available", e);
+        }
+    }
+
+    /**
+     * Encrypts a stream into the binary container format using AES-256 encryption.
+     * The output is a {@link ContainerHeader} followed by the raw ciphertext, without any
+     * Base64 encoding. The raw salt bytes are used for key derivation and stored in the header.
+     * Neither stream is closed.
+     * @param in The plaintext input stream.
+     * @param out The output stream receiving the container.
+     * @param secretKey The secret key used for encryption.
+     * @param salt The salt used for key derivation.
+     * @throws RuntimeException if the streams cannot be read or written, or encryption fails.
+     */
+    public static void encryptContainer(InputStream in, OutputStream out, String secretKey, byte[] salt) {
+        encryptContainer(in, out, deriveKey(secretKey, salt), salt);
+    }
+
+    /**
+     * Encrypts a stream into the binary container format using a key derived beforehand
+     * with {@link #deriveKey(String, byte[])}, so a batch of files can share one derivation.
+     * Neither stream is closed.
+     * @param in The plaintext input stream.
+     * @param out The output stream receiving the container.
+     * @param key The derived AES key.
+     * @param salt The salt the key was derived with, recorded in the header.
+     * @throws RuntimeException if the streams cannot be read or written, or encryption fails.
+     */
+    public static void encryptContainer(InputStream in, OutputStream out, SecretKeySpec key, byte[] salt) {
+        encryptContainer(in, out, key, salt, null);
+    }
+
+    /**
+     * Encrypts a stream into the binary container format, compressing the plaintext first.
+     * The codec is recorded in the header, and {@link #decryptContainer} reverses it.
+     * Neither stream is closed.
+     * @param in The plaintext input stream.
+     * @param out The output stream receiving the container.
+     * @param key The derived AES key.
+     * @param salt The salt the key was derived with, recorded in the header.
+     * @param codec The compression codec, or null to encrypt the plaintext as is.
+     * @throws RuntimeException if the streams cannot be read or written, or encryption fails.
+     */
+    public static void encryptContainer(InputStream in, OutputStream out, SecretKeySpec key, byte[] salt, Codec codec) {
+        try {
+            byte[] iv = new byte[IV_LENGTH];
+            CryptoContext.random().nextBytes(iv);
+            ContainerHeader header = new ContainerHeader(ContainerHeader.KDF_PBKDF2_SHA256, ITERATION_COUNT,
+                    salt, ContainerHeader.CIPHER_AES_CBC, iv);
+            if (codec != null) {
+                header.putExtension(ContainerHeader.EXT_CODEC, new byte[]{(byte) codec.getId()});
+            }
+            header.putExtension(ContainerHeader.EXT_KEY_CHECK, keyCheck(key, header));
+            Cipher cipher = CryptoContext.cipher(CryptoContext.AES_CBC);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+
+            out.write(header.toBytes());
+            if (codec == null) {
+                transform(cipher, in, out);
+            } else {
+                try (InputStream compressed = codec.compress(in)) {
+                    transform(cipher, compressed, out);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encrypt stream", e);
+        } catch (Exception e) {
+            throw new RuntimeException("AES-256 not available", e);
+        }
+    }
+
+    /**
+     * Decrypts a stream in the binary container format produced by {@link #encryptContainer}
+     * or {@link #encryptParallel}.
+     * The salt, iteration count and IV are taken from the container header.
+     * If the header carries a key check value, a wrong secret key is rejected before any
+     * encrypted content is read. Neither stream is closed.
+     * @param in The input stream positioned at the start of the container.
+     * @param out The output stream receiving the decrypted content.
+     * @param secretKey The secret key used for decryption.
+     * @throws WrongKeyException if the secret key does not match the container's key check value.
+     * @throws RuntimeException if the streams cannot be read or written, or decryption fails.
+     */
+    public static void decryptContainer(InputStream in, OutputStream out, String secretKey) {
+        try {
+            ContainerHeader header = ContainerHeader.read(in);
+            if (header.getKdf() != ContainerHeader.KDF_PBKDF2_SHA256) {
+                throw new IOException("Unsupported container: " + header);
+            }
+            SecretKeySpec key = deriveKey(secretKey, header.getSalt(), header.getIterations());
+            verifyKey(key, header);
+
+            // Decompress the plaintext as it is decrypted, if it was compressed before encryption
+            OutputStream sink = out;
+            byte[] codecId = header.getExtension(ContainerHeader.EXT_CODEC);
+            if (codecId != null) {
+                Codec codec = codecId.length == 1 ? Codecs.forId(codecId[0] & 0xFF) : null;
+                if (codec == null) {
+                    throw new IOException("Unsupported codec in container: " + header);
+                }
+                sink = codec.decompress(new NonClosingOutputStream(out));
+            }
+
+            if (header.getCipher() == ContainerHeader.CIPHER_AES_CBC) {
+                Cipher cipher = CryptoContext.cipher(CryptoContext.AES_CBC);
+                cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(header.getIv()));
+                transform(cipher, in, sink);
+            } else if (header.getCipher() == ContainerHeader.CIPHER_AES_GCM_CHUNKED) {
+                ChunkedCipher.decrypt(in, sink, key, header, ForkJoinPool.commonPool());
+            } else if (header.getCipher() == ContainerHeader.CIPHER_AES_GCM_SEEKABLE) {
+                SeekableCipher.decrypt(in, sink, key, header);
+            } else {
+                throw new IOException("Unsupported container: " + header);
+            }
+            if (sink != out) {
+                sink.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to decrypt stream", e);
+        } catch (WrongKeyException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("AES-256 not available", e);
+        }
+    }
+
+    /**
+     * Encrypts a stream into the chunked binary container format using AES-256-GCM.
+     * The input is split into independently encrypted chunks that are processed on the
+     * common ForkJoinPool and written in order, so large inputs use all available cores.
+     * Neither stream is closed.
+     * @param in The plaintext input stream.
+     * @param out The output stream receiving the container.
+     * @param secretKey The secret key used for encryption.
+     * @param salt The salt used for key derivation.
+     * @throws RuntimeException if the streams cannot be read or written, or encryption fails.
+     */
+    public static void encryptParallel(InputStream in, OutputStream out, String secretKey, byte[] salt) {
+        encryptParallel(in, out, deriveKey(secretKey, salt), salt);
+    }
+
+    /**
+     * Encrypts a stream into the chunked binary container format using a key derived beforehand
+     * with {@link #deriveKey(String, byte[])}. Neither stream is closed.
+     * @param in The plaintext input stream.
+     * @param out The output stream receiving the container.
+     * @param key The derived AES key.
+     * @param salt The salt the key was derived with, recorded in the header.
+     * @throws RuntimeException if the streams cannot be read or written, or encryption fails.
+     */
+    public static void encryptParallel(InputStream in, OutputStream out, SecretKeySpec key, byte[] salt) {
+        try {
+            ChunkedCipher.encrypt(in, out, key, chunkedHeader(key, salt), ChunkedCipher.DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encrypt stream", e);
+        }
+    }
+
+    /**
+     * Encrypts a sequence of buffers, such as the memory-mapped windows of a large file,
+     * into the chunked binary container format. Chunks are encrypted in parallel directly
+     * from the buffers, so the plaintext is never copied onto the heap.
+     * Every buffer except the last must hold a multiple of {@link ChunkedCipher#DEFAULT_CHUNK_SIZE}
+     * bytes. The output stream is not closed.
+     * @param windows The plaintext buffers, in order.
+     * @param out The output stream receiving the container.
+     * @param key The derived AES key.
+     * @param salt The salt the key was derived with, recorded in the header.
+     * @throws RuntimeException if the buffers cannot be read, the output cannot be written, or encryption fails.
+     */
+    public static void encryptParallel(Iterator<ByteBuffer> windows, OutputStream out, SecretKeySpec key, byte[] salt) {
+        try {
+            ChunkedCipher.encrypt(windows, out, key, chunkedHeader(key, salt), ChunkedCipher.DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encrypt stream", e);
+        }
+    }
+
+    /**
+     * Encrypts a stream of known size into the seekable container format, in which any byte range
+     * can later be decrypted on its own (see {@link SeekableCipher}). Chunks are encrypted in parallel.
+     * Neither stream is closed.
+     * @param in The plaintext input stream.
+     * @param size The exact number of bytes the stream will provide.
+     * @param out The output stream receiving the container.
+     * @param key The derived AES key.
+     * @param salt The salt the key was derived with, recorded in the header.
+     * @throws RuntimeException if the streams cannot be read or written, or the size does not match.
+     */
+    public static void encryptSeekable(InputStream in, long size, OutputStream out, SecretKeySpec key, byte[] salt) {
+        byte[] fileId = new byte[SeekableCipher.FILE_ID_LENGTH];
+        CryptoContext.random().nextBytes(fileId);
+        ContainerHeader header = new ContainerHeader(ContainerHeader.KDF_PBKDF2_SHA256, ITERATION_COUNT,
+                salt, ContainerHeader.CIPHER_AES_GCM_SEEKABLE, fileId);
+        header.putExtension(ContainerHeader.EXT_CHUNK_SIZE,
+                ByteBuffer.allocate(Integer.BYTES).putInt(SeekableCipher.DEFAULT_CHUNK_SIZE).array());
+        header.putExtension(ContainerHeader.EXT_PLAINTEXT_SIZE,
+                ByteBuffer.allocate(Long.BYTES).putLong(size).array());
+        header.putExtension(ContainerHeader.EXT_CHUNK_INDEX, new byte[0]);
+        header.putExtension(ContainerHeader.EXT_KEY_CHECK, keyCheck(key, header));
+        try {
+            SeekableCipher.encrypt(in, out, key, header, ForkJoinPool.commonPool());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encrypt stream", e);
+        }
+    }
+
+    /**
+     * Updates a seekable container in place with new content, re-encrypting only the chunks that
+     * changed (see {@link SeekableCipher#update}). The container keeps its salt and key.
+     * The input stream is not closed.
+     * @param channel The container, open for reading and writing.
+     * @param in The new plaintext.
+     * @param size The exact number of bytes the stream will provide.
+     * @param secretKey The secret key the container was encrypted with.
+     * @return The number of chunks written, or -1 if the file cannot be updated in place because it
+     *         is not a seekable container with a chunk index.
+     * @throws WrongKeyException if the secret key does not match the container's key check value.
+     * @throws RuntimeException if the container cannot be read or written, its chunk index fails
+     *                          authentication, or the size does not match.
+     */
+    public static long updateSeekable(FileChannel channel, InputStream in, long size, String secretKey) {
+        try {
+            channel.position(0);
+            ContainerHeader header;
+            try {
+                // The stream reads straight from the channel, so the channel ends up right after the header
+                header = ContainerHeader.read(Channels.newInputStream(channel));
+            } catch (IOException e) {
+                return -1;
+            }
+            if (header.getCipher() != ContainerHeader.CIPHER_AES_GCM_SEEKABLE
+                    || header.getExtension(ContainerHeader.EXT_CHUNK_INDEX) == null) {
+                return -1;
+            }
+            long dataStart = channel.position();
+            SecretKeySpec key = deriveKey(secretKey, header);
+            verifyKey(key, header);
+            byte[] hashes = SeekableCipher.readIndex(channel, key, header, dataStart);
+            return SeekableCipher.update(channel, in, size, key, header, dataStart, hashes);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to update encrypted container", e);
+        }
+    }
+
+    /**
+     * Checks a derived key against the key check value in a container header, so a wrong
+     * secret key is rejected right after key derivation instead of after decrypting the content,
+     * where CBC would not even reliably detect it. The comparison runs in constant time.
+     * Containers written before key check values were introduced are not checked.
+     * @param key The derived AES key.
+     * @param header The container header.
+     * @throws WrongKeyException if the key does not match the key check value.
+     */
+    public static void verifyKey(SecretKeySpec key, ContainerHeader header) {
+        if (!checkKey(key, header)) {
+            throw new WrongKeyException("Wrong secret key");
+        }
+    }
+
+    /**
+     * Checks a derived key against the key check value in a container header.
+     * @param key The derived AES key.
+     * @param header The container header.
+     * @return false if the header has a key check value the key does not match, true otherwise.
+     */
+    private static boolean checkKey(SecretKeySpec key, ContainerHeader header) {
+        byte[] expected = header.getExtension(ContainerHeader.EXT_KEY_CHECK);
+        return expected == null || MessageDigest.isEqual(expected, keyCheck(key, header));
+    }
+
+    /**
+     * Computes the key check value of a container: a truncated HMAC-SHA256 of the header's fixed
+     * fields under a subkey derived from the AES key, so the content key itself is never used for
+     * anything but encryption. The value reveals nothing about the key beyond a match, and
+     * because it covers the salt and IV it cannot be copied from another container.
+     * @param key The derived AES key.
+     * @param header The container header.
+     * @return The key check value.
+     * @throws RuntimeException if HMAC-SHA256 is not available.
+     */
+    private static byte[] keyCheck(SecretKeySpec key, ContainerHeader header) {
+        byte[] subkey = null;
+        try {
+            Mac mac = CryptoContext.mac(CryptoContext.HMAC_SHA256);
+            mac.init(new SecretKeySpec(key.getEncoded(), CryptoContext.HMAC_SHA256));
+            subkey = mac.doFinal(KEY_CHECK_SUBKEY_LABEL);
+            mac.init(new SecretKeySpec(subkey, CryptoContext.HMAC_SHA256));
+            mac.update(KEY_CHECK_LABEL);
+            mac.update(ByteBuffer.allocate(6).put((byte) header.getKdf()).putInt(header.getIterations())
+                    .put((byte) header.getCipher()).array());
+            mac.update((byte) header.getSalt().length);
+            mac.update(header.getSalt());
+            mac.update((byte) header.getIv().length);
+            mac.update(header.getIv());
+            return Arrays.copyOf(mac.doFinal(), KEY_CHECK_LENGTH);
+        } catch (Exception e) {
+            throw new RuntimeException("HMAC-SHA256 not available", e);
+        } finally {
+            if (subkey != null) {
+                Arrays.fill(subkey, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Creates the header of a chunked container with a random base nonce and the default chunk size,
+     * e.g. for callers that produce the chunks themselves (see {@link ChunkedCipher#encryptChunk}).
+     * @param key The derived AES key, used for the key check value.
+     * @param salt The salt used for key derivation.
+     * @return The container header.
+     */
+    public static ContainerHeader chunkedHeader(SecretKeySpec key, byte[] salt) {
+        byte[] nonce = new byte[ChunkedCipher.NONCE_LENGTH];
+        CryptoContext.random().nextBytes(nonce);
+        ContainerHeader header = new ContainerHeader(ContainerHeader.KDF_PBKDF2_SHA256, ITERATION_COUNT,
+                salt, ContainerHeader.CIPHER_AES_GCM_CHUNKED, nonce);
+        header.putExtension(ContainerHeader.EXT_CHUNK_SIZE,
+                ByteBuffer.allocate(Integer.BYTES).putInt(ChunkedCipher.DEFAULT_CHUNK_SIZE).array());
+        header.putExtension(ContainerHeader.EXT_KEY_CHECK, keyCheck(key, header));
+        return header;
+    }
+
+    /**
+     * Creates the header of an encrypted archive (see {@code io.EncryptedArchive}), whose entries are
+     * stored as seekable chunk slots (see {@link SeekableCipher#encryptChunk}).
+     * @param key The derived AES key, used for the key check value.
+     * @param salt The salt used for key derivation.
+     * @param archiveId The random id of the archive, recorded as the IV.
+     * @param chunkSize The plaintext size of each chunk.
+     * @return The container header.
+     */
+    public static ContainerHeader archiveHeader(SecretKeySpec key, byte[] salt, byte[] archiveId, int chunkSize) {
+        ContainerHeader header = new ContainerHeader(ContainerHeader.KDF_PBKDF2_SHA256, ITERATION_COUNT,
+                salt, ContainerHeader.CIPHER_AES_GCM_ARCHIVE, archiveId);
+        header.putExtension(ContainerHeader.EXT_CHUNK_SIZE, ByteBuffer.allocate(Integer.BYTES).putInt(chunkSize).array());
+        header.putExtension(ContainerHeader.EXT_KEY_CHECK, keyCheck(key, header));
+        return header;
+    }
+
+    /**
+     * Runs all remaining bytes of a stream through an initialized cipher in fixed-size chunks.
+     * @param cipher The initialized cipher.
+     * @param in The input stream.
+     * @param out The output stream.
+     * @throws Exception if the streams cannot be read or written, or the cipher fails.
+     */
+    private static void transform(Cipher cipher, InputStream in, OutputStream out) throws Exception {
+        byte[] input = new byte[STREAM_CHUNK_SIZE];
+        byte[] output = new byte[cipher.getOutputSize(input.length)];
+        int read;
+        while ((read = in.read(input)) != -1) {
+            Metrics.Span span = Metrics.start(Metrics.Stage.CIPHER);
+            int length = cipher.update(input, 0, read, output);
+            span.end(read);
+            out.write(output, 0, length);
+        }
+        Metrics.Span span = Metrics.start(Metrics.Stage.CIPHER);
+        byte[] last = cipher.doFinal();
+        span.end(0);
+        out.write(last);
+        out.flush();
+    }
+
+    /**
+     * Derives the AES key for the binary container format from the secret key and raw salt bytes.
+     * Derived keys are cached, so a batch of files sharing a secret and salt pays for the
+     * 65,536-iteration PBKDF2 derivation only once; the returned key can also be passed
+     * directly to {@link #encryptContainer(InputStream, OutputStream, SecretKeySpec, byte[])}.
+     * @param secretKey The secret key.
+     * @param salt The salt used for key derivation.
+     * @return The derived AES key.
+     * @throws RuntimeException if PBKDF2 is not available.
+     */
+    public static SecretKeySpec deriveKey(String secretKey, byte[] salt) {
+        try {
+            return deriveKey(secretKey, salt, ITERATION_COUNT);
+        } catch (Exception e) {
+            throw new RuntimeException("PBKDF2 not available", e);
+        }
+    }
+
+    /**
+     * Derives the AES key of an existing container from the secret key and the salt and
+     * iteration count recorded in its header. Derived keys are cached.
+     * @param secretKey The secret key.
+     * @param header The container header.
+     * @return The derived AES key.
+     * @throws IllegalArgumentException if the header uses an unsupported key derivation function
+     *         or iteration count.
+     * @throws RuntimeException if PBKDF2 is not available.
+     */
+    public static SecretKeySpec deriveKey(String secretKey, ContainerHeader header) {
+        if (header.getKdf() != ContainerHeader.KDF_PBKDF2_SHA256) {
+            throw new IllegalArgumentException("Unsupported container: " + header);
+        }
+        if (header.getIterations() < ContainerHeader.MIN_ITERATIONS
+                || header.getIterations() > ContainerHeader.MAX_ITERATIONS) {
+            throw new IllegalArgumentException("Unsupported iteration count: " + header.getIterations());
+        }
+        try {
+            return deriveKey(secretKey, header.getSalt(), header.getIterations());
+        } catch (Exception e) {
+            throw new RuntimeException("PBKDF2 not available", e);
+        }
+    }
+
+    /**
+     * Removes and zeroes all cached derived keys, e.g. when the user logs out.
+     */
+    public static void clearKeyCache() {
+        KEY_CACHE.clear();
+    }
+
+    /**
+     * Derives the AES key from the secret key and salt using PBKDF2 with HMAC SHA-256.
+     * @param secretKey The secret key.
+     * @param salt The salt used for key derivation.
+     * @return The derived AES key.
+     * @throws Exception if PBKDF2 is not available.
+     */
+    private static SecretKeySpec deriveKey(String secretKey, String salt) throws Exception {
+        return deriveKey(secretKey, salt.getBytes(), ITERATION_COUNT);
+    }
+
+    /**
+     * Derives the AES key from the secret key and raw salt bytes using PBKDF2 with HMAC SHA-256.
+     * @param secretKey The secret key.
+     * @param salt The salt used for key derivation.
+     * @param iterations The PBKDF2 iteration count.
+     * @return The derived AES key.
+     * @throws Exception if PBKDF2 is not available.
+     */
+    private static SecretKeySpec deriveKey(String secretKey, byte[] salt, int iterations) throws Exception {
+        String fingerprint = KEY_CACHE.fingerprint(secretKey, salt, iterations);
+        byte[] encoded = KEY_CACHE.get(fingerprint);
+        if (encoded == null) {
+            Metrics.Span span = Metrics.start(Metrics.Stage.KDF);
+            SecretKeyFactory factory = CryptoContext.keyFactory(CryptoContext.PBKDF2);
+            PBEKeySpec spec = new PBEKeySpec(secretKey.toCharArray(), salt, iterations, KEY_LENGTH);
+            SecretKey tmp = factory.generateSecret(spec);
+            spec.clearPassword();
+            encoded = tmp.getEncoded();
+            span.end(0);
+            KEY_CACHE.put(fingerprint, encoded);
+        }
+        SecretKeySpec secretKeySpec = new SecretKeySpec(encoded, "AES");
+        Arrays.fill(encoded, (byte) 0);
+        return secretKeySpec;
+    }
+
+    /**
+     * OutputStream wrapper that flushes instead of closing the wrapped stream,
+     * so encoder streams can be closed without closing the caller's stream.
+     */
+    private static final class NonClosingOutputStream extends OutputStream {
+        private final OutputStream out;
+
+        NonClosingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * Incremental Base64 decoder that decodes complete 4-character groups as they
+     * arrive and carries any remainder over to the next write.
+     */
+    private static final class Base64StreamDecoder {
+        private final OutputStream out;
+        private final Base64.Decoder decoder = Base64.getDecoder();
+        private byte[] pending = new byte[0];
+        private int pendingLength;
+
+        Base64StreamDecoder(OutputStream out) {
+            this.out = out;
+        }
+
+        void write(byte[] data) throws IOException {
+            if (pending.length < pendingLength + data.length) {
+                pending = Arrays.copyOf(pending, pendingLength + data.length);
+            }
+            System.arraycopy(data, 0, pending, pendingLength, data.length);
+            pendingLength += data.length;
+
+            int complete = pendingLength - pendingLength % 4;
+            if (complete > 0) {
+                Metrics.Span span = Metrics.start(Metrics.Stage.BASE64);
+                ByteBuffer decoded = decoder.decode(ByteBuffer.wrap(pending, 0, complete));
+                span.end(decoded.remaining());
+                out.write(decoded.array(), decoded.arrayOffset(), decoded.remaining());
+                System.arraycopy(pending, complete, pending, 0, pendingLength - complete);
+                pendingLength -= complete;
+            }
+        }
+
+        void finish() throws IOException {
+            if (pendingLength != 0) {
+                throw new IOException("Decrypted content is not valid Base64");
+            }
+            out.flush();
+        }
     }
 
     @Override
@@ -0,0 +1,295 @@
+package tools;
+
+import util.ContainerHeader;
+import util.Metrics;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * ChunkedCipher splits content into fixed-size chunks that are encrypted independently
+ * with AES-256-GCM, so chunks can be processed in parallel.
+ * Each chunk uses a nonce derived from the base nonce in the container header and the
+ * chunk index, and its authentication tag covers a flag marking the final chunk, so
+ * reordered, duplicated or truncated chunks are detected.
+ * The encrypted payload is the sequence of chunks, each being the ciphertext followed by
+ * its 16-byte tag; only the final chunk may be shorter than the chunk size.
+ */
+public final class ChunkedCipher {
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    public static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+    public static final int NONCE_LENGTH = 12;
+    public static final int TAG_LENGTH = 16;
+
+    private static final byte[] AAD_INTERMEDIATE = {0};
+    private static final byte[] AAD_FINAL = {1};
+
+    private ChunkedCipher() {
+    }
+
+    /**
+     * Encrypts a stream into the chunked container format, encrypting chunks in parallel.
+     * A bounded window of chunks is in flight at any time, and chunks are written in order.
+     * Neither stream is closed.
+     * @param in The plaintext input stream.
+     * @param out The output stream receiving the container.
+     * @param key The derived AES key.
+     * @param header The container header; its IV is used as the base nonce.
+     * @param chunkSize The plaintext size of each chunk.
+     * @param pool The pool that encrypts the chunks.
+     * @throws IOException if the streams cannot be read or written.
+     */
+    public static void encrypt(InputStream in, OutputStream out, SecretKeySpec key, ContainerHeader header,
+                               int chunkSize, ForkJoinPool pool) throws IOException {
+        byte[] baseNonce = header.getIv();
+        int window = pool.getParallelism() * 2;
+        Deque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>(window);
+        PushbackInputStream source = new PushbackInputStream(in, 1);
+
+        out.write(header.toBytes());
+        long index = 0;
+        boolean last = false;
+        while (!last) {
+            byte[] chunk = source.readNBytes(chunkSize);
+            last = chunk.length < chunkSize || isExhausted(source);
+            long chunkIndex = index++;
+            boolean finalChunk = last;
+            pending.addLast(pool.submit(() -> encryptChunk(key, baseNonce, chunkIndex, finalChunk, chunk, 0, chunk.length)));
+            if (pending.size() >= window) {
+                out.write(join(pending.removeFirst()));
+            }
+        }
+        while (!pending.isEmpty()) {
+            out.write(join(pending.removeFirst()));
+        }
+        out.flush();
+    }
+
+    /**
+     * Encrypts a sequence of buffers, such as the mapped windows of a file, into the chunked
+     * container format, encrypting chunks in parallel directly from the buffers.
+     * Every buffer except the last must hold a multiple of the chunk size.
+     * The output stream is not closed.
+     * @param windows The plaintext buffers, in order.
+     * @param out The output stream receiving the container.
+     * @param key The derived AES key.
+     * @param header The container header; its IV is used as the base nonce.
+     * @param chunkSize The plaintext size of each chunk.
+     * @param pool The pool that encrypts the chunks.
+     * @throws IOException if the output cannot be written.
+     */
+    public static void encrypt(Iterator<ByteBuffer> windows, OutputStream out, SecretKeySpec key,
+                               ContainerHeader header, int chunkSize, ForkJoinPool pool) throws IOException {
+        byte[] baseNonce = header.getIv();
+        int window = pool.getParallelism() * 2;
+        Deque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>(window);
+
+        out.write(header.toBytes());
+        ByteBuffer current = windows.hasNext() ? windows.next() : ByteBuffer.allocate(0);
+        long index = 0;
+        boolean last = false;
+        while (!last) {
+            int length = Math.min(chunkSize, current.remaining());
+            ByteBuffer chunk = current.slice();
+            chunk.limit(length);
+            current.position(current.position() + length);
+            last = !current.hasRemaining() && !windows.hasNext();
+            if (!last && length < chunkSize) {
+                throw new IllegalArgumentException("Buffer size is not a multiple of the chunk size");
+            }
+
+            long chunkIndex = index++;
+            boolean finalChunk = last;
+            pending.addLast(pool.submit(() -> encryptChunk(key, baseNonce, chunkIndex, finalChunk, chunk)));
+            if (pending.size() >= window) {
+                out.write(join(pending.removeFirst()));
+            }
+            if (!last && !current.hasRemaining()) {
+                current = windows.next();
+            }
+        }
+        while (!pending.isEmpty()) {
+            out.write(join(pending.removeFirst()));
+        }
+        out.flush();
+    }
+
+    /**
+     * Decrypts the payload of a chunked container, decrypting chunks in parallel.
+     * The stream must be positioned after the container header. Neither stream is closed.
+     * @param in The input stream positioned at the first chunk.
+     * @param out The output stream receiving the decrypted content.
+     * @param key The derived AES key.
+     * @param header The container header.
+     * @param pool The pool that decrypts the chunks.
+     * @throws IOException if the streams cannot be read or written, or a chunk fails authentication.
+     */
+    public static void decrypt(InputStream in, OutputStream out, SecretKeySpec key, ContainerHeader header,
+                               ForkJoinPool pool) throws IOException {
+        byte[] baseNonce = header.getIv();
+        int encryptedChunkSize = chunkSize(header) + TAG_LENGTH;
+        int window = pool.getParallelism() * 2;
+        Deque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>(window);
+        PushbackInputStream source = new PushbackInputStream(in, 1);
+
+        long index = 0;
+        boolean last = false;
+        while (!last) {
+            byte[] chunk = source.readNBytes(encryptedChunkSize);
+            if (chunk.length < TAG_LENGTH) {
+                throw new IOException("Encrypted container is truncated");
+            }
+            last = chunk.length < encryptedChunkSize || isExhausted(source);
+            long chunkIndex = index++;
+            boolean finalChunk = last;
+            pending.addLast(pool.submit(() -> decryptChunk(key, baseNonce, chunkIndex, finalChunk, chunk, 0, chunk.length)));
+            if (pending.size() >= window) {
+                out.write(join(pending.removeFirst()));
+            }
+        }
+        while (!pending.isEmpty()) {
+            out.write(join(pending.removeFirst()));
+        }
+        out.flush();
+    }
+
+    /**
+     * Returns the plaintext chunk size recorded in a container header.
+     * @param header The container header.
+     * @return The chunk size.
+     * @throws IOException if the chunk size is missing or out of range.
+     */
+    public static int chunkSize(ContainerHeader header) throws IOException {
+        byte[] value = header.getExtension(ContainerHeader.EXT_CHUNK_SIZE);
+        if (value == null || value.length != Integer.BYTES) {
+            throw new IOException("Container header has no chunk size");
+        }
+        int chunkSize = ByteBuffer.wrap(value).getInt();
+        if (chunkSize < 1 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IOException("Invalid chunk size: " + chunkSize);
+        }
+        return chunkSize;
+    }
+
+    /**
+     * Encrypts a single chunk.
+     * @param key The derived AES key.
+     * @param baseNonce The base nonce from the container header.
+     * @param index The chunk index.
+     * @param last Whether this is the final chunk.
+     * @param data The array containing the plaintext.
+     * @param offset The offset of the plaintext in the array.
+     * @param length The length of the plaintext.
+     * @return The ciphertext followed by the authentication tag.
+     */
+    public static byte[] encryptChunk(SecretKeySpec key, byte[] baseNonce, long index, boolean last,
+                                      byte[] data, int offset, int length) {
+        return encryptChunk(key, baseNonce, index, last, ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Encrypts a single chunk read from a buffer, which may be direct or memory-mapped.
+     * @param key The derived AES key.
+     * @param baseNonce The base nonce from the container header.
+     * @param index The chunk index.
+     * @param last Whether this is the final chunk.
+     * @param data The buffer whose remaining bytes are the plaintext; it is consumed.
+     * @return The ciphertext followed by the authentication tag.
+     */
+    public static byte[] encryptChunk(SecretKeySpec key, byte[] baseNonce, long index, boolean last, ByteBuffer data) {
+        try {
+            Cipher cipher = CryptoContext.cipher(CryptoContext.AES_GCM);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, chunkNonce(baseNonce, index)));
+            cipher.updateAAD(last ? AAD_FINAL : AAD_INTERMEDIATE);
+            ByteBuffer output = ByteBuffer.allocate(cipher.getOutputSize(data.remaining()));
+            Metrics.Span span = Metrics.start(Metrics.Stage.CIPHER);
+            int length = data.remaining();
+            cipher.doFinal(data, output);
+            span.end(length);
+            return output.array();
+        } catch (Exception e) {
+            throw new RuntimeException("AES-256-GCM not available", e);
+        }
+    }
+
+    /**
+     * Decrypts a single chunk.
+     * @param key The derived AES key.
+     * @param baseNonce The base nonce from the container header.
+     * @param index The chunk index.
+     * @param last Whether this is the final chunk.
+     * @param data The array containing the ciphertext and tag.
+     * @param offset The offset of the ciphertext in the array.
+     * @param length The length of the ciphertext including the tag.
+     * @return The decrypted chunk.
+     * @throws RuntimeException if the chunk fails authentication.
+     */
+    public static byte[] decryptChunk(SecretKeySpec key, byte[] baseNonce, long index, boolean last,
+                                      byte[] data, int offset, int length) {
+        try {
+            Cipher cipher = CryptoContext.cipher(CryptoContext.AES_GCM);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, chunkNonce(baseNonce, index)));
+            cipher.updateAAD(last ? AAD_FINAL : AAD_INTERMEDIATE);
+            Metrics.Span span = Metrics.start(Metrics.Stage.CIPHER);
+            byte[] plain = cipher.doFinal(data, offset, length);
+            span.end(length);
+            return plain;
+        } catch (javax.crypto.AEADBadTagException e) {
+            throw new RuntimeException("Chunk " + index + " failed authentication", e);
+        } catch (Exception e) {
+            throw new RuntimeException("AES-256-GCM not available", e);
+        }
+    }
+
+    /**
+     * Derives the nonce of a chunk by XOR-ing the chunk index into the last 8 bytes of the base nonce.
+     * @param baseNonce The base nonce.
+     * @param index The chunk index.
+     * @return The chunk nonce.
+     */
+    static byte[] chunkNonce(byte[] baseNonce, long index) {
+        byte[] nonce = baseNonce.clone();
+        for (int i = 0; i < Long.BYTES; i++) {
+            nonce[nonce.length - 1 - i] ^= (byte) (index >>> (8 * i));
+        }
+        return nonce;
+    }
+
+    /**
+     * Checks whether a stream has no more data, without consuming any.
+     * @param in The stream to check.
+     * @return true if the stream is at its end, false otherwise.
+     * @throws IOException if the stream cannot be read.
+     */
+    private static boolean isExhausted(PushbackInputStream in) throws IOException {
+        int next = in.read();
+        if (next == -1) return true;
+        in.unread(next);
+        return false;
+    }
+
+    /**
+     * Waits for a chunk task and unwraps I/O failures.
+     * @param task The chunk task.
+     * @return The chunk result.
+     * @throws IOException if the chunk failed authentication.
+     */
+    private static byte[] join(ForkJoinTask<byte[]> task) throws IOException {
+        try {
+            return task.join();
+        } catch (RuntimeException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+}
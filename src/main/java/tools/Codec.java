@@ -0,0 +1,41 @@
+package tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Codec is a compression stage applied to plaintext before encryption.
+ * The codec id is recorded in the container header so decryption can reverse it.
+ */
+public interface Codec {
+    /**
+     * Returns the id recorded in the container header; 1 to 255.
+     * @return The codec id.
+     */
+    int getId();
+
+    /**
+     * Returns the name of the codec.
+     * @return The codec name.
+     */
+    String getName();
+
+    /**
+     * Wraps a plaintext stream so that reading it yields the compressed content.
+     * Closing the returned stream releases the codec's resources but does not close the wrapped stream.
+     * @param in The plaintext stream.
+     * @return The stream of compressed content.
+     */
+    InputStream compress(InputStream in);
+
+    /**
+     * Wraps a plaintext sink so that compressed content written to it is decompressed.
+     * Closing the returned stream writes any remaining output and closes the wrapped stream,
+     * and fails if the compressed content ended early.
+     * @param out The stream receiving the decompressed content.
+     * @return The stream accepting compressed content.
+     * @throws IOException if the codec cannot be initialized.
+     */
+    OutputStream decompress(OutputStream out) throws IOException;
+}
@@ -0,0 +1,75 @@
+package tools;
+
+import util.FileSignatures;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Codecs is the registry of compression codecs, and decides which files are worth compressing.
+ * Text and office documents compress well; images, archives and other already-compressed
+ * formats do not, and compressing them only costs CPU time.
+ */
+public final class Codecs {
+    private static final Map<Integer, Codec> REGISTRY = new ConcurrentHashMap<>();
+    private static final Set<String> COMPRESSIBLE_TYPES = Set.of("txt", "doc", "ps", "pdf");
+
+    static {
+        register(new DeflateCodec());
+    }
+
+    private Codecs() {
+    }
+
+    /**
+     * Registers a codec, replacing any codec registered with the same id.
+     * @param codec The codec.
+     */
+    public static void register(Codec codec) {
+        if (codec.getId() < 1 || codec.getId() > 255) {
+            throw new IllegalArgumentException("Codec id must be between 1 and 255: " + codec.getId());
+        }
+        REGISTRY.put(codec.getId(), codec);
+    }
+
+    /**
+     * Returns the codec with a given id.
+     * @param id The codec id from a container header.
+     * @return The codec, or null if no codec is registered with the id.
+     */
+    public static Codec forId(int id) {
+        return REGISTRY.get(id);
+    }
+
+    /**
+     * Returns the codec to use for a file type.
+     * @param fileType The file type, as detected by {@link FileSignatures}.
+     * @return The Deflate codec for compressible types, or null to store the content uncompressed.
+     */
+    public static Codec forFileType(String fileType) {
+        return COMPRESSIBLE_TYPES.contains(fileType) ? forId(DeflateCodec.ID) : null;
+    }
+
+    /**
+     * Returns the codec to use for content, judged from its first bytes.
+     * @param header The first bytes of the content.
+     * @return The codec, or null to store the content uncompressed.
+     */
+    public static Codec forContent(byte[] header) {
+        return forFileType(FileSignatures.detect(header));
+    }
+
+    /**
+     * Returns the codec to use for a stream, judged from its first bytes.
+     * The stream is reset to where it was, so nothing is consumed.
+     * @param in The stream; it must support mark and reset.
+     * @return The codec, or null to store the content uncompressed.
+     * @throws IOException if the stream cannot be read.
+     */
+    public static Codec forStream(InputStream in) throws IOException {
+        return forFileType(FileSignatures.detect(in));
+    }
+}
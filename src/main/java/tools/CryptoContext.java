@@ -0,0 +1,106 @@
+package tools;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * CryptoContext hands out reusable JCA objects, so small operations do not pay for a provider
+ * lookup and a fresh CSPRNG on every call. Cipher, Mac and SecretKeyFactory instances are kept
+ * per thread and per algorithm; a single SecureRandom, which is thread-safe, is shared by all threads.
+ * <p>
+ * The instances are not reset between uses: callers must initialize a Cipher or Mac before each
+ * operation, as every {@code init} discards the previous state. An instance belongs to its thread
+ * for the duration of one operation only, so an operation holding one must not call code that
+ * takes the same algorithm's instance on the same thread. Threads that run a single task, such as
+ * virtual threads, get no reuse, but no extra cost either.
+ */
+public final class CryptoContext {
+    /** The transformation of the CBC container and legacy formats. */
+    public static final String AES_CBC = "AES/CBC/PKCS5Padding";
+    /** The transformation of the chunked and seekable formats and the chunk store. */
+    public static final String AES_GCM = "AES/GCM/NoPadding";
+    /** The MAC algorithm used for chunk ids and key fingerprints. */
+    public static final String HMAC_SHA256 = "HmacSHA256";
+    /** The key derivation algorithm. */
+    public static final String PBKDF2 = "PBKDF2WithHmacSHA256";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ThreadLocal<Map<String, Cipher>> CIPHERS = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Map<String, Mac>> MACS = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Map<String, SecretKeyFactory>> KEY_FACTORIES = ThreadLocal.withInitial(HashMap::new);
+
+    private CryptoContext() {
+    }
+
+    /**
+     * Returns the calling thread's Cipher for a transformation, to be initialized before use.
+     * @param transformation The transformation, e.g. {@link #AES_GCM}.
+     * @return The Cipher.
+     * @throws GeneralSecurityException if the transformation is not available.
+     */
+    public static Cipher cipher(String transformation) throws GeneralSecurityException {
+        Map<String, Cipher> ciphers = CIPHERS.get();
+        Cipher cipher = ciphers.get(transformation);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation);
+            ciphers.put(transformation, cipher);
+        }
+        return cipher;
+    }
+
+    /**
+     * Returns the calling thread's Mac for an algorithm, to be initialized before use.
+     * @param algorithm The algorithm, e.g. {@link #HMAC_SHA256}.
+     * @return The Mac.
+     * @throws GeneralSecurityException if the algorithm is not available.
+     */
+    public static Mac mac(String algorithm) throws GeneralSecurityException {
+        Map<String, Mac> macs = MACS.get();
+        Mac mac = macs.get(algorithm);
+        if (mac == null) {
+            mac = Mac.getInstance(algorithm);
+            macs.put(algorithm, mac);
+        }
+        return mac;
+    }
+
+    /**
+     * Returns the calling thread's SecretKeyFactory for an algorithm.
+     * @param algorithm The algorithm, e.g. {@link #PBKDF2}.
+     * @return The SecretKeyFactory.
+     * @throws GeneralSecurityException if the algorithm is not available.
+     */
+    public static SecretKeyFactory keyFactory(String algorithm) throws GeneralSecurityException {
+        Map<String, SecretKeyFactory> factories = KEY_FACTORIES.get();
+        SecretKeyFactory factory = factories.get(algorithm);
+        if (factory == null) {
+            factory = SecretKeyFactory.getInstance(algorithm);
+            factories.put(algorithm, factory);
+        }
+        return factory;
+    }
+
+    /**
+     * Returns the shared SecureRandom.
+     * @return The SecureRandom.
+     */
+    public static SecureRandom random() {
+        return RANDOM;
+    }
+
+    /**
+     * Returns fresh random bytes from the shared SecureRandom, e.g. for an IV, nonce or salt.
+     * @param length The number of bytes.
+     * @return The random bytes.
+     */
+    public static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        RANDOM.nextBytes(bytes);
+        return bytes;
+    }
+}
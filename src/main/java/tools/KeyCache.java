@@ -0,0 +1,147 @@
+package tools;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * KeyCache is a bounded cache of derived keys, keyed on a fingerprint of the
+ * secret, salt and iteration count.
+ * Entries are evicted least-recently-used once the cache is full, and when their
+ * time-to-live expires. Evicted key material is zeroed.
+ * Fingerprints are HMACs under a random per-process key, so they cannot be used
+ * to test password guesses outside this process.
+ */
+public final class KeyCache {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final byte[] fingerprintKey = new byte[32];
+
+    /**
+     * A cached key together with its expiry time.
+     */
+    private static final class Entry {
+        private final byte[] key;
+        private final long expiresAt;
+
+        Entry(byte[] key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Constructs a KeyCache with the given limits.
+     * @param maxEntries The maximum number of cached keys.
+     * @param ttlMillis The time-to-live of a cached key in milliseconds.
+     */
+    public KeyCache(int maxEntries, long ttlMillis) {
+        if (maxEntries < 1 || ttlMillis < 1) {
+            throw new IllegalArgumentException("Cache size and TTL must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        CryptoContext.random().nextBytes(fingerprintKey);
+    }
+
+    /**
+     * Computes the cache fingerprint of a key derivation input.
+     * @param secretKey The secret key.
+     * @param salt The salt used for key derivation.
+     * @param iterations The key derivation iteration count.
+     * @return The fingerprint as a Base64 string.
+     */
+    public String fingerprint(String secretKey, byte[] salt, int iterations) {
+        try {
+            Mac mac = CryptoContext.mac(CryptoContext.HMAC_SHA256);
+            mac.init(new SecretKeySpec(fingerprintKey, "HmacSHA256"));
+            byte[] secretBytes = secretKey.getBytes(StandardCharsets.UTF_8);
+            // Length-prefix the variable-size fields so distinct inputs cannot collide
+            mac.update(ByteBuffer.allocate(12).putInt(secretBytes.length).putInt(salt.length).putInt(iterations).array());
+            mac.update(secretBytes);
+            mac.update(salt);
+            Arrays.fill(secretBytes, (byte) 0);
+            return Base64.getEncoder().encodeToString(mac.doFinal());
+        } catch (Exception e) {
+            throw new RuntimeException("HMAC-SHA256 not available", e);
+        }
+    }
+
+    /**
+     * Returns a cached key.
+     * @param fingerprint The fingerprint of the key derivation input.
+     * @return A copy of the key, or null if it is not cached or has expired.
+     */
+    public synchronized byte[] get(String fingerprint) {
+        evictExpired();
+        Entry entry = entries.get(fingerprint);
+        return entry == null ? null : entry.key.clone();
+    }
+
+    /**
+     * Caches a key, evicting the least recently used key if the cache is full.
+     * @param fingerprint The fingerprint of the key derivation input.
+     * @param key The derived key. The cache keeps its own copy.
+     */
+    public synchronized void put(String fingerprint, byte[] key) {
+        evictExpired();
+        Entry previous = entries.put(fingerprint, new Entry(key.clone(), System.nanoTime() + ttlNanos));
+        if (previous != null) {
+            Arrays.fill(previous.key, (byte) 0);
+        }
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            Arrays.fill(it.next().key, (byte) 0);
+            it.remove();
+        }
+    }
+
+    /**
+     * Removes and zeroes all cached keys.
+     */
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            Arrays.fill(entry.key, (byte) 0);
+        }
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of cached keys, including any that have expired but not yet been evicted.
+     * @return The number of cached keys.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes and zeroes all expired keys.
+     */
+    private void evictExpired() {
+        long now = System.nanoTime();
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (now - entry.expiresAt >= 0) {
+                Arrays.fill(entry.key, (byte) 0);
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    /**
+     * Returns a string representation of the KeyCache.
+     * @return A string containing the cache limits and size.
+     */
+    public String toString() {
+        return "KeyCache{maxEntries=" + maxEntries + ", size=" + size() + '}';
+    }
+}
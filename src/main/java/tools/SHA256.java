@@ -1,13 +1,41 @@
 package tools;
 
+import util.Hex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * SHA256 class provides methods to generate SHA-256 hashes.
+ * Besides hashing strings, it digests streams, channels, buffers and files without
+ * loading them into memory, and offers a parallel tree hash for very large files.
  */
 public class SHA256 {
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+
+    /** Size of the leaves of the tree hash. */
+    public static final int TREE_LEAF_SIZE = 4 * 1024 * 1024;
+
+    /** Prefix of a tree hash leaf, separating leaf digests from the root digest. */
+    private static final byte TREE_LEAF_PREFIX = 0x00;
+
+    /** Prefix of the tree hash root. */
+    private static final byte TREE_ROOT_PREFIX = 0x01;
+
     /**
      * Generates a SHA-256 hash of the given plaintext.
      * * @param plaintext The input string to hash.
@@ -15,19 +43,143 @@ public class SHA256 {
      * @throws RuntimeException if SHA-256 is not available.
      */
     public static String hash(String plaintext) {
-        try {
-            // Create a SHA-256 MessageDigest instance
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hashBytes = md.digest(plaintext.getBytes(StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder();
-
-            // Convert the byte array to a hexadecimal string
-            for (byte b : hashBytes) {
-                sb.append(String.format("%02x", b));
+        byte[] hashBytes = newDigest().digest(plaintext.getBytes(StandardCharsets.UTF_8));
+
+        // Convert the byte array to a hexadecimal string
+        return Hex.encode(hashBytes);
+    }
+
+    /**
+     * Digests everything remaining in a stream. The stream is not closed.
+     * @param in The stream to digest.
+     * @return The 32-byte SHA-256 digest.
+     * @throws IOException if reading fails.
+     */
+    public static byte[] digest(InputStream in) throws IOException {
+        MessageDigest md = newDigest();
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            md.update(buffer, 0, n);
+        }
+        return md.digest();
+    }
+
+    /**
+     * Digests the whole content of a file channel, independent of its current position,
+     * by reading it through a direct buffer.
+     * @param channel The channel to digest.
+     * @return The 32-byte SHA-256 digest.
+     * @throws IOException if reading fails.
+     */
+    public static byte[] digest(FileChannel channel) throws IOException {
+        MessageDigest md = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE);
+        long position = 0;
+        int n;
+        while ((n = channel.read(buffer, position)) != -1) {
+            position += n;
+            buffer.flip();
+            md.update(buffer);
+            buffer.clear();
+        }
+        return md.digest();
+    }
+
+    /**
+     * Digests the remaining bytes of a buffer, such as a memory-mapped region.
+     * The buffer's position is not changed.
+     * @param buffer The buffer to digest.
+     * @return The 32-byte SHA-256 digest.
+     */
+    public static byte[] digest(ByteBuffer buffer) {
+        MessageDigest md = newDigest();
+        md.update(buffer.duplicate());
+        return md.digest();
+    }
+
+    /**
+     * Digests a file by mapping it into memory one window at a time.
+     * @param file The file to digest.
+     * @return The 32-byte SHA-256 digest.
+     * @throws IOException if the file cannot be read.
+     */
+    public static byte[] digest(Path file) throws IOException {
+        MessageDigest md = newDigest();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAP_WINDOW_SIZE) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAP_WINDOW_SIZE, size - position));
+                md.update(window);
+            }
+        }
+        return md.digest();
+    }
+
+    /**
+     * Computes the tree hash of a file using the common ForkJoinPool.
+     * @param file The file to hash.
+     * @return The 32-byte root digest.
+     * @throws IOException if the file cannot be read.
+     * @see #treeDigest(Path, ForkJoinPool)
+     */
+    public static byte[] treeDigest(Path file) throws IOException {
+        return treeDigest(file, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Computes the tree hash of a file, digesting its leaves in parallel.
+     * The file is split into leaves of {@link #TREE_LEAF_SIZE} bytes (an empty file has one empty leaf).
+     * Each leaf digest is SHA-256(0x00 || leaf), and the root is SHA-256(0x01 || leaf digests in order).
+     * The result differs from {@link #digest(Path)}, so a tree hash must always be compared with a tree hash.
+     * @param file The file to hash.
+     * @param pool The pool the leaves are digested on.
+     * @return The 32-byte root digest.
+     * @throws IOException if the file cannot be read.
+     */
+    public static byte[] treeDigest(Path file, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long leaves = Math.max(1, (size + TREE_LEAF_SIZE - 1) / TREE_LEAF_SIZE);
+            List<Future<byte[]>> digests = new ArrayList<>();
+            for (long i = 0; i < leaves; i++) {
+                long position = i * TREE_LEAF_SIZE;
+                long length = Math.min(TREE_LEAF_SIZE, size - position);
+                digests.add(pool.submit(() -> {
+                    MessageDigest md = newDigest();
+                    md.update(TREE_LEAF_PREFIX);
+                    md.update(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+                    return md.digest();
+                }));
+            }
+
+            MessageDigest root = newDigest();
+            root.update(TREE_ROOT_PREFIX);
+            for (Future<byte[]> digest : digests) {
+                root.update(digest.get());
             }
-            
-            // Return the hexadecimal string
-            return sb.toString();
+            return root.digest();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Tree hash interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new RuntimeException("Tree hash failed", cause);
+        }
+    }
+
+    /**
+     * Creates a new SHA-256 MessageDigest, for example to use with
+     * java.security.DigestInputStream or DigestOutputStream while another operation
+     * reads or writes the data.
+     * @return A new SHA-256 MessageDigest.
+     * @throws RuntimeException if SHA-256 is not available.
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException("SHA-256 not available", e);
         }
@@ -37,7 +189,7 @@ public class SHA256 {
     @Override
     /**
      * Returns a string representation of the SHA256 class.
-     * @return A string indicating the class name. 
+     * @return A string indicating the class name.
      */
     public String toString() {
         return "SHA256";
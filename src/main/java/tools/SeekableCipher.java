@@ -0,0 +1,450 @@
+package tools;
+
+import util.ContainerHeader;
+import util.Metrics;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * SeekableCipher implements the seekable chunked container format, in which any byte range
+ * can be decrypted without reading the chunks before it.
+ * The plaintext is split into chunks of the chunk size recorded in the header, and each chunk
+ * is stored in a slot of fixed size, so the slot of any chunk is found by arithmetic:
+ * <pre>
+ * slot i    at header length + i * (chunk size + 28)
+ * slot      nonce (12 bytes, random) || AES-256-GCM ciphertext || tag (16 bytes)
+ * </pre>
+ * The plaintext size is recorded in the header, so the number of chunks and the length of the
+ * final chunk are known before reading any of them. The authentication tag of each chunk covers
+ * the file id (the header IV), the chunk index and a flag marking the final chunk, so chunks
+ * cannot be moved within or between files, and truncation is detected.
+ * Every chunk has its own random nonce, so a single chunk can later be re-encrypted in place.
+ * When the header carries the chunk index extension, the final slot is followed by the index:
+ * <pre>
+ * index     nonce (12 bytes) || AES-256-GCM(SHA-256 of each plaintext chunk, in order) || tag (16 bytes)
+ * </pre>
+ * The index is what {@link #update} compares new content against to find the changed chunks.
+ */
+public final class SeekableCipher {
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    public static final int FILE_ID_LENGTH = 16;
+    public static final int NONCE_LENGTH = 12;
+    public static final int TAG_LENGTH = 16;
+    public static final int SLOT_OVERHEAD = NONCE_LENGTH + TAG_LENGTH;
+    public static final int HASH_LENGTH = 32;
+
+    private static final byte[] INDEX_LABEL = "index".getBytes(StandardCharsets.US_ASCII);
+
+
+    private SeekableCipher() {
+    }
+
+    /**
+     * Encrypts a stream of known size into the seekable container format, encrypting chunks in parallel.
+     * Neither stream is closed.
+     * @param in The plaintext input stream.
+     * @param out The output stream receiving the container.
+     * @param key The derived AES key.
+     * @param header The container header; must carry the plaintext size and chunk size extensions.
+     * @param pool The pool that encrypts the chunks.
+     * @throws IOException if the streams cannot be read or written, or the input size does not match the header.
+     */
+    public static void encrypt(InputStream in, OutputStream out, SecretKeySpec key, ContainerHeader header,
+                               ForkJoinPool pool) throws IOException {
+        byte[] fileId = header.getIv();
+        int chunkSize = ChunkedCipher.chunkSize(header);
+        long size = plaintextSize(header);
+        long chunks = chunkCount(size, chunkSize);
+        int window = pool.getParallelism() * 2;
+        Deque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>(window);
+        boolean indexed = header.getExtension(ContainerHeader.EXT_CHUNK_INDEX) != null;
+        byte[] hashes = indexed ? new byte[Math.toIntExact(chunks * HASH_LENGTH)] : null;
+
+        out.write(header.toBytes());
+        for (long index = 0; index < chunks; index++) {
+            int length = chunkLength(size, chunkSize, index);
+            byte[] chunk = in.readNBytes(length);
+            if (chunk.length != length) {
+                throw new IOException("Input is shorter than the recorded size");
+            }
+            long chunkIndex = index;
+            boolean last = index == chunks - 1;
+            pending.addLast(pool.submit(() -> {
+                if (indexed) {
+                    System.arraycopy(hash(chunk), 0, hashes, (int) chunkIndex * HASH_LENGTH, HASH_LENGTH);
+                }
+                return encryptChunk(key, fileId, chunkIndex, last, ByteBuffer.wrap(chunk));
+            }));
+            if (pending.size() >= window) {
+                out.write(join(pending.removeFirst()));
+            }
+        }
+        while (!pending.isEmpty()) {
+            out.write(join(pending.removeFirst()));
+        }
+        if (in.read() != -1) {
+            throw new IOException("Input is longer than the recorded size");
+        }
+        if (indexed) {
+            out.write(sealIndex(key, fileId, hashes, chunks));
+        }
+        out.flush();
+    }
+
+    /**
+     * Decrypts the chunks of a seekable container sequentially.
+     * The stream must be positioned after the container header; anything after the
+     * final chunk is left unread. Neither stream is closed.
+     * @param in The input stream positioned at the first slot.
+     * @param out The output stream receiving the decrypted content.
+     * @param key The derived AES key.
+     * @param header The container header.
+     * @throws IOException if the streams cannot be read or written, or a chunk fails authentication.
+     */
+    public static void decrypt(InputStream in, OutputStream out, SecretKeySpec key, ContainerHeader header) throws IOException {
+        byte[] fileId = header.getIv();
+        int chunkSize = ChunkedCipher.chunkSize(header);
+        long size = plaintextSize(header);
+        long chunks = chunkCount(size, chunkSize);
+        for (long index = 0; index < chunks; index++) {
+            int slotLength = chunkLength(size, chunkSize, index) + SLOT_OVERHEAD;
+            byte[] slot = in.readNBytes(slotLength);
+            if (slot.length != slotLength) {
+                throw new IOException("Encrypted container is truncated");
+            }
+            out.write(decryptChunk(key, fileId, index, index == chunks - 1, slot, 0, slot.length));
+        }
+        out.flush();
+    }
+
+    /**
+     * Re-encrypts a seekable container in place with new content, rewriting only the chunks whose
+     * content differs from the chunk hashes in the container's index. Chunks beyond the old end
+     * are appended, and the index, the plaintext size and the file length are updated last.
+     * Each rewritten chunk gets a fresh nonce. The update is not atomic: if it is interrupted,
+     * the container may hold a mix of old and new chunks, which still authenticate individually,
+     * and must be updated again.
+     * @param channel The container, open for reading and writing.
+     * @param in The new plaintext. It is not closed.
+     * @param size The exact number of bytes the stream will provide.
+     * @param key The container's AES key.
+     * @param header The container header, which must carry the chunk index extension.
+     * @param dataStart The position of the first slot, which is the header length.
+     * @param oldHashes The container's chunk index, as returned by {@link #readIndex}.
+     * @return The number of chunks written.
+     * @throws IOException if the container cannot be written, or the input size does not match.
+     */
+    public static long update(FileChannel channel, InputStream in, long size, SecretKeySpec key,
+                              ContainerHeader header, long dataStart, byte[] oldHashes) throws IOException {
+        byte[] fileId = header.getIv();
+        int chunkSize = ChunkedCipher.chunkSize(header);
+        long oldSize = plaintextSize(header);
+        long oldChunks = chunkCount(oldSize, chunkSize);
+        long chunks = chunkCount(size, chunkSize);
+        byte[] hashes = new byte[Math.toIntExact(chunks * HASH_LENGTH)];
+
+        long written = 0;
+        for (long index = 0; index < chunks; index++) {
+            int length = chunkLength(size, chunkSize, index);
+            byte[] chunk = in.readNBytes(length);
+            if (chunk.length != length) {
+                throw new IOException("Input is shorter than the recorded size");
+            }
+            byte[] hash = hash(chunk);
+            System.arraycopy(hash, 0, hashes, (int) index * HASH_LENGTH, HASH_LENGTH);
+
+            // A chunk whose final flag changes must be rewritten even if its content did not
+            boolean last = index == chunks - 1;
+            boolean unchanged = index < oldChunks && last == (index == oldChunks - 1)
+                    && Arrays.equals(oldHashes, (int) index * HASH_LENGTH, (int) (index + 1) * HASH_LENGTH,
+                    hash, 0, HASH_LENGTH);
+            if (!unchanged) {
+                writeFully(channel, ByteBuffer.wrap(encryptChunk(key, fileId, index, last, ByteBuffer.wrap(chunk))),
+                        dataStart + slotOffset(chunkSize, index));
+                written++;
+            }
+        }
+        if (in.read() != -1) {
+            throw new IOException("Input is longer than the recorded size");
+        }
+
+        long indexPosition = indexOffset(dataStart, size, chunkSize);
+        byte[] index = sealIndex(key, fileId, hashes, chunks);
+        writeFully(channel, ByteBuffer.wrap(index), indexPosition);
+        header.putExtension(ContainerHeader.EXT_PLAINTEXT_SIZE, ByteBuffer.allocate(Long.BYTES).putLong(size).array());
+        byte[] headerBytes = header.toBytes();
+        if (headerBytes.length != dataStart) {
+            throw new IOException("Container header changed length");
+        }
+        writeFully(channel, ByteBuffer.wrap(headerBytes), 0);
+        channel.truncate(indexPosition + index.length);
+        channel.force(false);
+        return written;
+    }
+
+    /**
+     * Reads and decrypts the chunk index of a seekable container.
+     * @param channel The container.
+     * @param key The container's AES key.
+     * @param header The container header.
+     * @param dataStart The position of the first slot.
+     * @return The SHA-256 hashes of the plaintext chunks, concatenated in order.
+     * @throws IOException if the container has no index, or the index cannot be read or fails authentication.
+     */
+    public static byte[] readIndex(FileChannel channel, SecretKeySpec key, ContainerHeader header, long dataStart) throws IOException {
+        if (header.getExtension(ContainerHeader.EXT_CHUNK_INDEX) == null) {
+            throw new IOException("Container has no chunk index");
+        }
+        int chunkSize = ChunkedCipher.chunkSize(header);
+        long size = plaintextSize(header);
+        long chunks = chunkCount(size, chunkSize);
+        ByteBuffer sealed = ByteBuffer.allocate(Math.toIntExact(chunks * HASH_LENGTH + SLOT_OVERHEAD));
+        long position = indexOffset(dataStart, size, chunkSize);
+        while (sealed.hasRemaining()) {
+            if (channel.read(sealed, position + sealed.position()) == -1) {
+                throw new IOException("Chunk index is truncated");
+            }
+        }
+        try {
+            Cipher cipher = CryptoContext.cipher(CryptoContext.AES_GCM);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, sealed.array(), 0, NONCE_LENGTH));
+            cipher.updateAAD(indexAad(fileId(header), chunks));
+            return cipher.doFinal(sealed.array(), NONCE_LENGTH, sealed.capacity() - NONCE_LENGTH);
+        } catch (AEADBadTagException e) {
+            throw new IOException("Chunk index failed authentication", e);
+        } catch (Exception e) {
+            throw new RuntimeException("AES-256-GCM not available", e);
+        }
+    }
+
+    /**
+     * Encrypts a single chunk with a fresh random nonce.
+     * @param key The derived AES key.
+     * @param fileId The file id from the container header.
+     * @param index The chunk index.
+     * @param last Whether this is the final chunk.
+     * @param data The buffer whose remaining bytes are the plaintext; it is consumed.
+     * @return The slot: nonce, ciphertext and tag.
+     */
+    public static byte[] encryptChunk(SecretKeySpec key, byte[] fileId, long index, boolean last, ByteBuffer data) {
+        try {
+            byte[] nonce = new byte[NONCE_LENGTH];
+            CryptoContext.random().nextBytes(nonce);
+            Cipher cipher = CryptoContext.cipher(CryptoContext.AES_GCM);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+            cipher.updateAAD(aad(fileId, index, last));
+            ByteBuffer slot = ByteBuffer.allocate(NONCE_LENGTH + cipher.getOutputSize(data.remaining()));
+            slot.put(nonce);
+            Metrics.Span span = Metrics.start(Metrics.Stage.CIPHER);
+            int length = data.remaining();
+            cipher.doFinal(data, slot);
+            span.end(length);
+            return slot.array();
+        } catch (Exception e) {
+            throw new RuntimeException("AES-256-GCM not available", e);
+        }
+    }
+
+    /**
+     * Decrypts a single chunk.
+     * @param key The derived AES key.
+     * @param fileId The file id from the container header.
+     * @param index The chunk index.
+     * @param last Whether this is the final chunk.
+     * @param slot The array containing the slot.
+     * @param offset The offset of the slot in the array.
+     * @param length The length of the slot.
+     * @return The decrypted chunk.
+     * @throws IOException if the chunk fails authentication.
+     */
+    public static byte[] decryptChunk(SecretKeySpec key, byte[] fileId, long index, boolean last,
+                                      byte[] slot, int offset, int length) throws IOException {
+        if (length < SLOT_OVERHEAD) {
+            throw new IOException("Chunk " + index + " is truncated");
+        }
+        try {
+            Cipher cipher = CryptoContext.cipher(CryptoContext.AES_GCM);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, slot, offset, NONCE_LENGTH));
+            cipher.updateAAD(aad(fileId, index, last));
+            Metrics.Span span = Metrics.start(Metrics.Stage.CIPHER);
+            byte[] plain = cipher.doFinal(slot, offset + NONCE_LENGTH, length - NONCE_LENGTH);
+            span.end(length);
+            return plain;
+        } catch (AEADBadTagException e) {
+            throw new IOException("Chunk " + index + " failed authentication", e);
+        } catch (Exception e) {
+            throw new RuntimeException("AES-256-GCM not available", e);
+        }
+    }
+
+    /**
+     * Returns the plaintext size recorded in a container header.
+     * @param header The container header.
+     * @return The plaintext size.
+     * @throws IOException if the size is missing or negative.
+     */
+    public static long plaintextSize(ContainerHeader header) throws IOException {
+        byte[] value = header.getExtension(ContainerHeader.EXT_PLAINTEXT_SIZE);
+        if (value == null || value.length != Long.BYTES) {
+            throw new IOException("Container header has no plaintext size");
+        }
+        long size = ByteBuffer.wrap(value).getLong();
+        if (size < 0) {
+            throw new IOException("Invalid plaintext size: " + size);
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of chunks of a plaintext; empty content has one empty chunk.
+     * @param size The plaintext size.
+     * @param chunkSize The chunk size.
+     * @return The number of chunks.
+     */
+    public static long chunkCount(long size, int chunkSize) {
+        return Math.max(1, (size + chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * Returns the plaintext length of a chunk.
+     * @param size The plaintext size.
+     * @param chunkSize The chunk size.
+     * @param index The chunk index.
+     * @return The chunk length.
+     */
+    public static int chunkLength(long size, int chunkSize, long index) {
+        return (int) Math.min(chunkSize, size - index * chunkSize);
+    }
+
+    /**
+     * Returns the offset of a chunk's slot from the start of the first slot.
+     * @param chunkSize The chunk size.
+     * @param index The chunk index.
+     * @return The slot offset.
+     */
+    public static long slotOffset(int chunkSize, long index) {
+        return index * (chunkSize + (long) SLOT_OVERHEAD);
+    }
+
+    /**
+     * Returns the position of the chunk index, right after the final slot.
+     * @param dataStart The position of the first slot.
+     * @param size The plaintext size.
+     * @param chunkSize The chunk size.
+     * @return The index position.
+     */
+    private static long indexOffset(long dataStart, long size, int chunkSize) {
+        long last = chunkCount(size, chunkSize) - 1;
+        return dataStart + slotOffset(chunkSize, last) + chunkLength(size, chunkSize, last) + SLOT_OVERHEAD;
+    }
+
+    /**
+     * Encrypts the chunk index with a fresh random nonce.
+     * @param key The AES key.
+     * @param fileId The file id.
+     * @param hashes The chunk hashes, concatenated in order.
+     * @param chunks The number of chunks.
+     * @return The sealed index: nonce, ciphertext and tag.
+     */
+    private static byte[] sealIndex(SecretKeySpec key, byte[] fileId, byte[] hashes, long chunks) {
+        try {
+            byte[] nonce = new byte[NONCE_LENGTH];
+            CryptoContext.random().nextBytes(nonce);
+            Cipher cipher = CryptoContext.cipher(CryptoContext.AES_GCM);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+            cipher.updateAAD(indexAad(fileId, chunks));
+            byte[] sealed = new byte[NONCE_LENGTH + cipher.getOutputSize(hashes.length)];
+            System.arraycopy(nonce, 0, sealed, 0, NONCE_LENGTH);
+            cipher.doFinal(hashes, 0, hashes.length, sealed, NONCE_LENGTH);
+            return sealed;
+        } catch (Exception e) {
+            throw new RuntimeException("AES-256-GCM not available", e);
+        }
+    }
+
+    /**
+     * Builds the additional authenticated data of the chunk index, which differs in length
+     * from that of any chunk.
+     * @param fileId The file id.
+     * @param chunks The number of chunks.
+     * @return The AAD bytes.
+     */
+    private static byte[] indexAad(byte[] fileId, long chunks) {
+        return ByteBuffer.allocate(fileId.length + INDEX_LABEL.length + Long.BYTES)
+                .put(fileId).put(INDEX_LABEL).putLong(chunks).array();
+    }
+
+    /**
+     * Returns the file id of a container.
+     * @param header The container header.
+     * @return The file id.
+     */
+    private static byte[] fileId(ContainerHeader header) {
+        return header.getIv();
+    }
+
+    /**
+     * Returns the SHA-256 hash of a plaintext chunk.
+     * @param chunk The chunk.
+     * @return The hash.
+     */
+    private static byte[] hash(byte[] chunk) {
+        return SHA256.newDigest().digest(chunk);
+    }
+
+    /**
+     * Writes a buffer at a position of a channel, retrying short writes.
+     * @param channel The channel.
+     * @param buffer The data to write.
+     * @param position The position to write at.
+     * @throws IOException if the channel cannot be written.
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            Metrics.Span span = Metrics.start(Metrics.Stage.WRITE);
+            int written = channel.write(buffer, position);
+            span.end(written);
+            position += written;
+        }
+    }
+
+    /**
+     * Builds the additional authenticated data of a chunk.
+     * @param fileId The file id.
+     * @param index The chunk index.
+     * @param last Whether this is the final chunk.
+     * @return The AAD bytes.
+     */
+    private static byte[] aad(byte[] fileId, long index, boolean last) {
+        return ByteBuffer.allocate(fileId.length + Long.BYTES + 1)
+                .put(fileId).putLong(index).put((byte) (last ? 1 : 0)).array();
+    }
+
+    /**
+     * Waits for a chunk task and unwraps failures.
+     * @param task The chunk task.
+     * @return The chunk result.
+     * @throws IOException if the chunk could not be encrypted.
+     */
+    private static byte[] join(ForkJoinTask<byte[]> task) throws IOException {
+        try {
+            return task.join();
+        } catch (RuntimeException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package tools;
+
+/**
+ * WrongKeyException is thrown when the secret key does not match the key check value recorded
+ * in an encrypted container's header (see {@link AES256#verifyKey}). It is raised right after key
+ * derivation, before any of the encrypted content is read or decrypted.
+ */
+public class WrongKeyException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a WrongKeyException.
+     * @param message The detail message.
+     */
+    public WrongKeyException(String message) {
+        super(message);
+    }
+}
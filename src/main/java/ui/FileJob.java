@@ -0,0 +1,174 @@
+package ui;
+
+import io.ChunkStore;
+import io.FileOutputParser;
+import io.ProgressTracker;
+import javafx.concurrent.Task;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * FileJob encrypts or decrypts a single file on a background thread.
+ * Progress is reported in input bytes processed, with the throughput and the estimated
+ * time left shown in the job's message, and cancelling the job
+ * interrupts it between reads and removes its partial output.
+ * Files can also be stored into, and restored from, a deduplicating ChunkStore, or encrypted
+ * incrementally, updating only the changed chunks of an existing encrypted file.
+ */
+public class FileJob extends Task<String> {
+    private final boolean encrypt;
+    private final String filePath;
+    private final String outputDir;
+    private final String secretKey;
+    private final String salt;
+    private final String outputFileName;
+    private final String storeDirectory;
+    private boolean incremental;
+
+    /**
+     * Constructs a FileJob.
+     * @param encrypt true to encrypt the file, false to decrypt it.
+     * @param filePath The path of the input file.
+     * @param outputDir The directory where the output file will be saved.
+     * @param secretKey The secret key.
+     * @param salt The salt used for key derivation; ignored when decrypting.
+     * @param outputFileName The name of the output file.
+     */
+    public FileJob(boolean encrypt, String filePath, String outputDir, String secretKey, String salt, String outputFileName) {
+        this(encrypt, filePath, outputDir, secretKey, salt, outputFileName, null);
+    }
+
+    /**
+     * Constructs a FileJob that encrypts into a deduplicating chunk store.
+     * Decrypting a ".manifest" file always restores it from the store containing it.
+     * @param encrypt true to encrypt the file, false to decrypt it.
+     * @param filePath The path of the input file.
+     * @param outputDir The directory where the output file will be saved.
+     * @param secretKey The secret key.
+     * @param salt The salt used for key derivation; ignored when decrypting or storing.
+     * @param outputFileName The name of the output file.
+     * @param storeDirectory The chunk store to encrypt into, or null to write a standalone file.
+     */
+    public FileJob(boolean encrypt, String filePath, String outputDir, String secretKey, String salt, String outputFileName,
+                   String storeDirectory) {
+        this.encrypt = encrypt;
+        this.filePath = filePath;
+        this.outputDir = outputDir;
+        this.secretKey = secretKey;
+        this.salt = salt;
+        this.outputFileName = outputFileName;
+        this.storeDirectory = storeDirectory;
+        updateTitle((encrypt ? "Encrypt " : "Decrypt ") + new File(filePath).getName());
+        updateMessage("Queued");
+    }
+
+    @Override
+    /**
+     * Encrypts or decrypts the file.
+     * @return The path of the output file.
+     * @throws Exception if the operation fails or is cancelled.
+     */
+    protected String call() throws Exception {
+        long total = new File(filePath).length();
+        String stage = encrypt ? "Encrypting" : "Decrypting";
+        updateMessage(stage + "...");
+        updateProgress(0, Math.max(1, total));
+
+        if (encrypt && storeDirectory != null) {
+            ChunkStore store = new ChunkStore(Paths.get(storeDirectory), secretKey);
+            return FileOutputParser.writeEncryptedToStore(filePath, store, outputFileName, newTracker(stage, total));
+        }
+        if (!encrypt && filePath.endsWith(ChunkStore.MANIFEST_EXTENSION)) {
+            Path manifest = Paths.get(filePath);
+            String fileName = manifest.getFileName().toString();
+            String name = fileName.substring(0, fileName.length() - ChunkStore.MANIFEST_EXTENSION.length());
+            ChunkStore store = new ChunkStore(ChunkStore.storeOf(manifest), secretKey);
+            return FileOutputParser.writeDecryptedFromStore(store, name, outputDir, outputFileName,
+                    newTracker("Restoring", store.size(name)));
+        }
+        if (encrypt && incremental) {
+            return FileOutputParser.writeEncryptedIncremental(filePath, outputDir, secretKey, salt, outputFileName,
+                    newTracker(stage, total));
+        }
+        if (encrypt) {
+            return FileOutputParser.writeEncryptedStream(filePath, outputDir, secretKey, salt, outputFileName,
+                    newTracker(stage, total));
+        }
+        return FileOutputParser.writeDecryptedStream(filePath, outputDir, secretKey, outputFileName,
+                newTracker(stage, total));
+    }
+
+    /**
+     * Creates a progress tracker that updates the job's progress, and its message with the
+     * throughput and the time left.
+     * @param stage The stage shown in the message.
+     * @param totalBytes The number of bytes the operation will process.
+     * @return The tracker.
+     */
+    private ProgressTracker newTracker(String stage, long totalBytes) {
+        return new ProgressTracker(stage, totalBytes, snapshot -> {
+            updateProgress(snapshot.getBytesProcessed(), Math.max(1, totalBytes));
+            updateMessage(snapshot.toString());
+        });
+    }
+
+    @Override
+    /**
+     * Marks the job as done in its status message.
+     */
+    protected void succeeded() {
+        updateMessage("Done");
+    }
+
+    @Override
+    /**
+     * Records the failure in the job's status message.
+     */
+    protected void failed() {
+        Throwable error = getException();
+        updateMessage("Failed: " + (error == null ? "unknown error" : error.getMessage()));
+    }
+
+    @Override
+    /**
+     * Marks the job as cancelled in its status message.
+     */
+    protected void cancelled() {
+        updateMessage("Cancelled");
+    }
+
+    /**
+     * Sets whether this job encrypts incrementally into the seekable format, re-encrypting only the
+     * chunks that changed when the output file already exists. Must be set before the job runs.
+     * @param incremental true to encrypt incrementally.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Returns whether this job encrypts its file.
+     * @return true if the job encrypts, false if it decrypts.
+     */
+    public boolean isEncrypt() {
+        return encrypt;
+    }
+
+    /**
+     * Returns whether this job encrypts into a chunk store.
+     * @return true if the job stores its file in a chunk store.
+     */
+    public boolean isStored() {
+        return encrypt && storeDirectory != null;
+    }
+
+    /**
+     * Returns the salt used for encryption.
+     * @return The salt.
+     */
+    public String getSalt() {
+        return salt;
+    }
+}
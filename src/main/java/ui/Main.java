@@ -1,9 +1,8 @@
 package ui;
 
-import io.FileParser;
-import io.FileOutputParser;
-import util.ParsedFile;
 import javafx.application.Application;
+import javafx.beans.binding.Bindings;
+import javafx.concurrent.Worker;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -12,6 +11,8 @@ import javafx.scene.layout.*;
 import javafx.stage.*;
 
 import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Main UI for the File Encrypter/Decrypter application.
@@ -20,6 +21,14 @@ import java.io.File;
 public class Main extends Application {
     private static String currentUser;
 
+    // Jobs run one at a time, in the order they were queued, off the FX application thread
+    private final ExecutorService jobExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "file-job-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private FileJob currentJob;
+
     /**
      * Launches the application with the specified user.
      * This method sets the current user and starts the JavaFX application.
@@ -75,8 +84,31 @@ public class Main extends Application {
         ComboBox<String> actionComboBox = new ComboBox<>();
         actionComboBox.getItems().addAll("Encrypt", "Decrypt");
         actionComboBox.setValue("Encrypt");
+        CheckBox dedupBox = new CheckBox("Deduplicate into user store");
+        CheckBox updateBox = new CheckBox("Update changed parts only");
+        // Both options choose how the file is written, so at most one can be selected
+        dedupBox.setOnAction(e -> updateBox.setSelected(updateBox.isSelected() && !dedupBox.isSelected()));
+        updateBox.setOnAction(e -> dedupBox.setSelected(dedupBox.isSelected() && !updateBox.isSelected()));
 
         Button runBtn = new Button("Run");
+        Button cancelBtn = new Button("Cancel");
+        cancelBtn.setDisable(true);
+        ProgressBar progressBar = new ProgressBar(0);
+        progressBar.setMaxWidth(Double.MAX_VALUE);
+        ListView<FileJob> jobList = new ListView<>();
+        jobList.setPrefHeight(100);
+        jobList.setCellFactory(list -> new ListCell<>() {
+            @Override
+            protected void updateItem(FileJob job, boolean empty) {
+                super.updateItem(job, empty);
+                textProperty().unbind();
+                if (empty || job == null) {
+                    setText(null);
+                } else {
+                    textProperty().bind(Bindings.concat(job.titleProperty(), " - ", job.messageProperty()));
+                }
+            }
+        });
         TextArea resultArea = new TextArea();
         resultArea.setEditable(false);
 
@@ -92,7 +124,7 @@ public class Main extends Application {
 
         generateSaltBtn.setOnAction(e -> {
             byte[] saltBytes = new byte[16];
-            new java.security.SecureRandom().nextBytes(saltBytes);
+            tools.CryptoContext.random().nextBytes(saltBytes);
             String salt = java.util.Base64.getEncoder().encodeToString(saltBytes);
             saltField.setText(salt);
         });
@@ -101,61 +133,86 @@ public class Main extends Application {
             boolean encrypting = actionComboBox.getValue().equals("Encrypt");
             saltField.setDisable(!encrypting);
             generateSaltBtn.setDisable(!encrypting);
+            dedupBox.setDisable(!encrypting);
+            updateBox.setDisable(!encrypting);
         });
 
         runBtn.setOnAction(e -> {
-            try {
-                String filePath = filePathField.getText();
-                String outputDir = outputDirField.getText();
-                String secretKey = passwordField.getText();
-                String action = actionComboBox.getValue();
-                String outputFileName = outputFileNameField.getText().trim();
-
-                if (secretKey == null || secretKey.isEmpty()) {
-                    resultArea.setText("Error: Secret key is required.");
-                    return;
-                }
+            String filePath = filePathField.getText();
+            String outputDir = outputDirField.getText();
+            String secretKey = passwordField.getText();
+            String action = actionComboBox.getValue();
+            String outputFileName = outputFileNameField.getText().trim();
+
+            if (secretKey == null || secretKey.isEmpty()) {
+                resultArea.setText("Error: Secret key is required.");
+                return;
+            }
 
-                if (filePath == null || filePath.isEmpty()) {
-                    resultArea.setText("Error: Please select a file.");
-                    return;
-                }
+            if (filePath == null || filePath.isEmpty()) {
+                resultArea.setText("Error: Please select a file.");
+                return;
+            }
 
-                if (outputFileName.isEmpty()) {
-                    resultArea.setText("Please enter a valid output file name.");
-                    return;
-                }
+            if (outputFileName.isEmpty()) {
+                resultArea.setText("Please enter a valid output file name.");
+                return;
+            }
 
-                if (action.equals("Encrypt")) {
-                    String salt = saltField.getText();
-                    if (salt == null || salt.isEmpty()) {
-                        resultArea.setText("Error: Salt is required for encryption.");
-                        return;
-                    }
-
-                    ParsedFile originalFile = FileParser.parse(filePath);
-                    FileOutputParser.writeEncryptedWithFileName(outputDir, originalFile, secretKey, salt, outputFileName);
-
-                    String encryptedPath = outputDir + outputFileName + ".enc";
-                    resultArea.setText("Encryption complete.\nEncrypted: " + encryptedPath + "\nSalt used: " + salt);
-
-                } else if (action.equals("Decrypt")) {
-                    ParsedFile encryptedFile = FileParser.parse(filePath);
-                    try {
-                        FileOutputParser.writeDecryptedWithFileName(outputDir, encryptedFile, secretKey, null, outputFileName);
-                        String fileType = new ParsedFile(encryptedFile.getContent()).getFileType();
-                        String decryptedPath = outputDir + "/" + outputFileName + ".enc";
-
-                        resultArea.setText("Decryption successful.\nDecrypted: " + decryptedPath);
-                    } catch (Exception ex) {
-                        resultArea.setText("Incorrect password or corrupted file.\n" + ex.getMessage());
-                    }
+            boolean encrypting = action.equals("Encrypt");
+            boolean deduplicating = encrypting && dedupBox.isSelected();
+            String salt = saltField.getText();
+            if (encrypting && !deduplicating && (salt == null || salt.isEmpty())) {
+                resultArea.setText("Error: Salt is required for encryption.");
+                return;
+            }
+
+            // The user store keeps its own salt, so no salt is needed when deduplicating
+            String storeDir = deduplicating ? new File(userDir, "store").getAbsolutePath() : null;
+            FileJob job = new FileJob(encrypting, filePath, outputDir, secretKey, salt, outputFileName, storeDir);
+            job.setIncremental(encrypting && updateBox.isSelected());
+            job.setOnRunning(ev -> {
+                currentJob = job;
+                progressBar.progressProperty().bind(job.progressProperty());
+                cancelBtn.setDisable(false);
+            });
+            job.setOnSucceeded(ev -> {
+                if (job.isStored()) {
+                    resultArea.setText("Encryption complete.\nStored: " + job.getValue());
+                } else if (job.isEncrypt()) {
+                    resultArea.setText("Encryption complete.\nEncrypted: " + job.getValue() + "\nSalt used: " + job.getSalt());
+                } else {
+                    resultArea.setText("Decryption successful.\nDecrypted: " + job.getValue());
                 }
-            } catch (Exception ex) {
-                resultArea.setText("Error: " + ex.getMessage());
+                finishJob(job, progressBar, cancelBtn);
+            });
+            job.setOnFailed(ev -> {
+                Throwable error = job.getException();
+                String message = error == null ? "" : error.getMessage();
+                resultArea.setText(job.isEncrypt() ? "Error: " + message
+                        : "Incorrect password or corrupted file.\n" + message);
+                finishJob(job, progressBar, cancelBtn);
+            });
+            job.setOnCancelled(ev -> {
+                resultArea.setText(job.getTitle() + " cancelled.");
+                finishJob(job, progressBar, cancelBtn);
+            });
+
+            jobList.getItems().add(job);
+            jobExecutor.submit(job);
+        });
+
+        cancelBtn.setOnAction(e -> {
+            // Cancel the selected queued job if there is one, otherwise the running job
+            FileJob selected = jobList.getSelectionModel().getSelectedItem();
+            FileJob target = selected != null && !selected.isDone() ? selected : currentJob;
+            if (target != null) {
+                target.cancel(true);
             }
         });
 
+        primaryStage.setOnHidden(e -> jobExecutor.shutdownNow());
+
         // Layout
         GridPane grid = new GridPane();
         grid.setPadding(new Insets(20));
@@ -182,14 +239,17 @@ public class Main extends Application {
 
         grid.add(actionLabel, 0, 5);
         grid.add(actionComboBox, 1, 5);
+        grid.add(dedupBox, 2, 5);
+        grid.add(updateBox, 2, 6);
 
-        grid.add(runBtn, 1, 6);
+        grid.add(runBtn, 1, 7);
+        grid.add(cancelBtn, 2, 7);
 
-        VBox vbox = new VBox(10, grid, resultArea);
+        VBox vbox = new VBox(10, grid, progressBar, jobList, resultArea);
         vbox.setPadding(new Insets(20));
         vbox.setAlignment(Pos.TOP_CENTER);
 
-        Scene scene = new Scene(vbox, 600, 400);
+        Scene scene = new Scene(vbox, 600, 560);
         try {
             scene.getStylesheets().add(getClass().getResource("/main.css").toExternalForm());
         } catch (Exception e) {
@@ -200,6 +260,21 @@ public class Main extends Application {
         primaryStage.show();
     }
 
+    /**
+     * Resets the progress controls after a job has finished, unless another job has started since.
+     * @param job The finished job.
+     * @param progressBar The progress bar bound to the running job.
+     * @param cancelBtn The cancel button.
+     */
+    private void finishJob(FileJob job, ProgressBar progressBar, Button cancelBtn) {
+        if (currentJob == job) {
+            currentJob = null;
+            progressBar.progressProperty().unbind();
+            progressBar.setProgress(job.getState() == Worker.State.SUCCEEDED ? 1 : 0);
+            cancelBtn.setDisable(true);
+        }
+    }
+
     /**
      * Starts the application for a specific user.
      * This method is called after a successful login to set the current user and start the main UI.
@@ -0,0 +1,224 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * BatchReport aggregates the per-file results of a batch job.
+ * Results may be added concurrently by the job's worker threads.
+ */
+public final class BatchReport {
+    /**
+     * The outcome of processing a single file.
+     */
+    public enum Status { SUCCEEDED, FAILED }
+
+    /**
+     * The result of processing a single file.
+     */
+    public static final class FileResult {
+        private final String path;
+        private final Status status;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long durationNanos;
+        private final String error;
+
+        /**
+         * Constructs a FileResult.
+         * @param path The path of the input file.
+         * @param status The outcome.
+         * @param bytesIn The number of bytes read.
+         * @param bytesOut The number of bytes written.
+         * @param durationNanos The processing time in nanoseconds.
+         * @param error The failure message, or null if the file succeeded.
+         */
+        public FileResult(String path, Status status, long bytesIn, long bytesOut, long durationNanos, String error) {
+            this.path = path;
+            this.status = status;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.durationNanos = durationNanos;
+            this.error = error;
+        }
+
+        /**
+         * Returns the path of the input file.
+         * @return The path of the input file.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the outcome.
+         * @return The outcome.
+         */
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Returns the number of bytes read.
+         * @return The number of bytes read.
+         */
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        /**
+         * Returns the number of bytes written.
+         * @return The number of bytes written.
+         */
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        /**
+         * Returns the processing time in nanoseconds.
+         * @return The processing time in nanoseconds.
+         */
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        /**
+         * Returns the failure message, or null if the file succeeded.
+         * @return The failure message, or null if the file succeeded.
+         */
+        public String getError() {
+            return error;
+        }
+
+        @Override
+        /**
+         * Returns a string representation of the FileResult.
+         * @return A string containing the path, status, sizes and duration.
+         */
+        public String toString() {
+            return path + ": " + status + ", " + bytesIn + " -> " + bytesOut + " bytes in "
+                    + durationNanos / 1_000_000 + " ms" + (error == null ? "" : " (" + error + ")");
+        }
+    }
+
+    private final List<FileResult> results = Collections.synchronizedList(new ArrayList<>());
+    private final long startNanos = System.nanoTime();
+    private volatile long elapsedNanos = -1;
+
+    /**
+     * Records the result of a file.
+     * @param result The file result.
+     */
+    public void add(FileResult result) {
+        results.add(result);
+    }
+
+    /**
+     * Marks a file that was recorded as succeeded as failed, e.g. when its output was lost in a later
+     * step of the batch. Its byte counts and duration are kept, except that nothing was written.
+     * @param path The path of the input file.
+     * @param error The failure message.
+     */
+    public void fail(String path, String error) {
+        synchronized (results) {
+            for (int i = 0; i < results.size(); i++) {
+                FileResult result = results.get(i);
+                if (result.getPath().equals(path) && result.getStatus() == Status.SUCCEEDED) {
+                    results.set(i, new FileResult(path, Status.FAILED, result.getBytesIn(), 0,
+                            result.getDurationNanos(), error));
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the batch as finished, fixing its elapsed time.
+     */
+    public void finish() {
+        elapsedNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Returns the file results, sorted by path.
+     * @return A snapshot of the results.
+     */
+    public List<FileResult> getResults() {
+        List<FileResult> snapshot;
+        synchronized (results) {
+            snapshot = new ArrayList<>(results);
+        }
+        snapshot.sort(Comparator.comparing(FileResult::getPath));
+        return snapshot;
+    }
+
+    /**
+     * Returns the results of the files that failed.
+     * @return The failed file results, sorted by path.
+     */
+    public List<FileResult> getFailures() {
+        List<FileResult> failures = getResults();
+        failures.removeIf(r -> r.getStatus() != Status.FAILED);
+        return failures;
+    }
+
+    /**
+     * Returns the number of files that succeeded.
+     * @return The number of succeeded files.
+     */
+    public int getSucceeded() {
+        return getResults().size() - getFailures().size();
+    }
+
+    /**
+     * Returns the total number of input bytes of all processed files.
+     * @return The total input bytes.
+     */
+    public long getTotalBytesIn() {
+        return getResults().stream().mapToLong(FileResult::getBytesIn).sum();
+    }
+
+    /**
+     * Returns the total number of bytes written for all processed files.
+     * @return The total output bytes.
+     */
+    public long getTotalBytesOut() {
+        return getResults().stream().mapToLong(FileResult::getBytesOut).sum();
+    }
+
+    /**
+     * Returns the wall-clock time of the batch, or the time so far if it has not finished.
+     * @return The elapsed time in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        long elapsed = elapsedNanos;
+        return elapsed >= 0 ? elapsed : System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Returns the input throughput of the batch.
+     * @return The throughput in MB/s.
+     */
+    public double getThroughputMBps() {
+        double seconds = getElapsedNanos() / 1e9;
+        return seconds == 0 ? 0 : getTotalBytesIn() / 1e6 / seconds;
+    }
+
+    @Override
+    /**
+     * Returns a summary of the batch followed by one line per file.
+     * @return The report as text.
+     */
+    public String toString() {
+        List<FileResult> snapshot = getResults();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d files, %d succeeded, %d failed, %d bytes in %d ms (%.1f MB/s)%n",
+                snapshot.size(), getSucceeded(), getFailures().size(), getTotalBytesIn(),
+                getElapsedNanos() / 1_000_000, getThroughputMBps()));
+        for (FileResult result : snapshot) {
+            sb.append(result).append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+}
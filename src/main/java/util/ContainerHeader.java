@@ -0,0 +1,250 @@
+package util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ContainerHeader represents the header of the binary (version 2) encrypted file format.
+ * The header is followed directly by the raw ciphertext:
+ * <pre>
+ * magic        4 bytes   "FENC"
+ * version      1 byte    2
+ * kdf          1 byte    key derivation function id
+ * iterations   4 bytes   key derivation iteration count
+ * salt length  1 byte, followed by the salt
+ * cipher       1 byte    cipher id
+ * iv length    1 byte, followed by the IV or nonce
+ * ext length   2 bytes, followed by tagged extension fields (tag 1 byte, length 2 bytes, value)
+ * </pre>
+ * All multi-byte integers are big-endian.
+ */
+public final class ContainerHeader {
+    public static final byte[] MAGIC = {'F', 'E', 'N', 'C'};
+    public static final int VERSION = 2;
+
+    public static final int KDF_PBKDF2_SHA256 = 1;
+    // Iteration counts accepted from a header; anything else is corrupt or hostile
+    public static final int MIN_ITERATIONS = 10_000;
+    public static final int MAX_ITERATIONS = 10_000_000;
+    public static final int CIPHER_AES_CBC = 1;
+    public static final int CIPHER_AES_GCM_CHUNKED = 2;
+    public static final int CIPHER_AES_GCM_SEEKABLE = 3;
+    public static final int CIPHER_AES_GCM_ARCHIVE = 4;
+
+    public static final int EXT_CHUNK_SIZE = 1;
+    public static final int EXT_CODEC = 2;
+    public static final int EXT_PLAINTEXT_SIZE = 3;
+    public static final int EXT_CHUNK_INDEX = 4;
+    public static final int EXT_KEY_CHECK = 5;
+
+    private final int kdf;
+    private final int iterations;
+    private final byte[] salt;
+    private final int cipher;
+    private final byte[] iv;
+    private final Map<Integer, byte[]> extensions = new TreeMap<>();
+
+    /**
+     * Constructs a ContainerHeader with the given parameters.
+     * @param kdf The key derivation function id.
+     * @param iterations The key derivation iteration count.
+     * @param salt The salt used for key derivation.
+     * @param cipher The cipher id.
+     * @param iv The IV or nonce used by the cipher.
+     */
+    public ContainerHeader(int kdf, int iterations, byte[] salt, int cipher, byte[] iv) {
+        if (salt.length > 255 || iv.length > 255) {
+            throw new IllegalArgumentException("Salt and IV must be at most 255 bytes");
+        }
+        this.kdf = kdf;
+        this.iterations = iterations;
+        this.salt = salt.clone();
+        this.cipher = cipher;
+        this.iv = iv.clone();
+    }
+
+    /**
+     * Returns the key derivation function id.
+     * @return The key derivation function id.
+     */
+    public int getKdf() {
+        return kdf;
+    }
+
+    /**
+     * Returns the key derivation iteration count.
+     * @return The iteration count.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Returns the salt used for key derivation.
+     * @return A copy of the salt.
+     */
+    public byte[] getSalt() {
+        return salt.clone();
+    }
+
+    /**
+     * Returns the cipher id.
+     * @return The cipher id.
+     */
+    public int getCipher() {
+        return cipher;
+    }
+
+    /**
+     * Returns the IV or nonce used by the cipher.
+     * @return A copy of the IV.
+     */
+    public byte[] getIv() {
+        return iv.clone();
+    }
+
+    /**
+     * Returns the value of an extension field.
+     * @param tag The extension tag.
+     * @return A copy of the value, or null if the field is not present.
+     */
+    public byte[] getExtension(int tag) {
+        byte[] value = extensions.get(tag);
+        return value == null ? null : value.clone();
+    }
+
+    /**
+     * Sets the value of an extension field, replacing any previous value.
+     * @param tag The extension tag.
+     * @param value The value of the field.
+     */
+    public void putExtension(int tag, byte[] value) {
+        if (tag < 0 || tag > 255 || value.length > 0xFFFF) {
+            throw new IllegalArgumentException("Invalid extension field: " + tag);
+        }
+        extensions.put(tag, value.clone());
+    }
+
+    /**
+     * Serializes the header.
+     * @return The header bytes.
+     */
+    public byte[] toBytes() {
+        try {
+            ByteArrayOutputStream ext = new ByteArrayOutputStream();
+            DataOutputStream extOut = new DataOutputStream(ext);
+            for (Map.Entry<Integer, byte[]> field : extensions.entrySet()) {
+                extOut.writeByte(field.getKey());
+                extOut.writeShort(field.getValue().length);
+                extOut.write(field.getValue());
+            }
+            if (ext.size() > 0xFFFF) {
+                throw new IllegalStateException("Header extensions are too large");
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(kdf);
+            out.writeInt(iterations);
+            out.writeByte(salt.length);
+            out.write(salt);
+            out.writeByte(cipher);
+            out.writeByte(iv.length);
+            out.write(iv);
+            out.writeShort(ext.size());
+            ext.writeTo(out);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // cannot happen for in-memory streams
+        }
+    }
+
+    /**
+     * Reads a header from a stream, including the magic bytes.
+     * The stream is left positioned at the first ciphertext byte.
+     * @param in The stream to read from.
+     * @return The parsed header.
+     * @throws IOException if the stream cannot be read or does not contain a valid header.
+     */
+    public static ContainerHeader read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            data.readFully(magic);
+            int version = data.readUnsignedByte();
+            if (!startsWithMagic(magic) || version != VERSION) {
+                throw new IOException("Not a supported encrypted container");
+            }
+            int kdf = data.readUnsignedByte();
+            int iterations = data.readInt();
+            if (iterations < MIN_ITERATIONS || iterations > MAX_ITERATIONS) {
+                throw new IOException("Unsupported iteration count: " + iterations);
+            }
+            byte[] salt = new byte[data.readUnsignedByte()];
+            data.readFully(salt);
+            int cipher = data.readUnsignedByte();
+            byte[] iv = new byte[data.readUnsignedByte()];
+            data.readFully(iv);
+
+            ContainerHeader header = new ContainerHeader(kdf, iterations, salt, cipher, iv);
+            int remaining = data.readUnsignedShort();
+            while (remaining > 0) {
+                int tag = data.readUnsignedByte();
+                byte[] value = new byte[data.readUnsignedShort()];
+                data.readFully(value);
+                header.extensions.put(tag, value);
+                remaining -= 3 + value.length;
+            }
+            if (remaining != 0) {
+                throw new IOException("Corrupted container header extensions");
+            }
+            return header;
+        } catch (EOFException e) {
+            throw new IOException("Encrypted container header is truncated", e);
+        }
+    }
+
+    /**
+     * Checks whether the given prefix starts with the container magic bytes and version.
+     * Legacy files start with a random salt, so a false positive has a chance of 2^-40.
+     * @param prefix The first bytes of a file.
+     * @return true if the prefix identifies a container, false otherwise.
+     */
+    public static boolean isContainer(byte[] prefix) {
+        return prefix.length > MAGIC.length && startsWithMagic(prefix) && prefix[MAGIC.length] == VERSION;
+    }
+
+    /**
+     * Checks if the byte array starts with the container magic bytes.
+     * @param data The byte array to check.
+     * @return true if the data starts with the magic bytes, false otherwise.
+     */
+    private static boolean startsWithMagic(byte[] data) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    @Override
+    /**
+     * Returns a string representation of the ContainerHeader.
+     * @return A string containing the header fields.
+     */
+    public String toString() {
+        return "ContainerHeader{" +
+                "kdf=" + kdf +
+                ", iterations=" + iterations +
+                ", cipher=" + cipher +
+                ", extensions=" + extensions.keySet() +
+                '}';
+    }
+}
@@ -0,0 +1,132 @@
+package util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * ContentChunker splits a stream into content-defined chunks using a gear rolling hash
+ * with normalized chunking (FastCDC). Chunk boundaries depend only on the bytes near them,
+ * so an insertion or deletion in a file only changes the chunks around the edit, and the
+ * remaining chunks are identical to those of the previous version.
+ */
+public final class ContentChunker {
+    public static final int DEFAULT_MIN_SIZE = 16 * 1024;
+    public static final int DEFAULT_AVERAGE_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_SIZE = 256 * 1024;
+
+    // The gear table must never change: it defines where existing stores cut their chunks
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x46454e4347454152L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final InputStream in;
+    private final int minSize;
+    private final int averageSize;
+    private final int maxSize;
+    private final long maskSmall;
+    private final long maskLarge;
+    private final byte[] buffer;
+    private int start;
+    private int end;
+    private boolean eof;
+
+    /**
+     * Constructs a ContentChunker with the default chunk sizes.
+     * @param in The stream to split. It is not closed.
+     */
+    public ContentChunker(InputStream in) {
+        this(in, DEFAULT_MIN_SIZE, DEFAULT_AVERAGE_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructs a ContentChunker.
+     * @param in The stream to split. It is not closed.
+     * @param minSize The minimum chunk size.
+     * @param averageSize The target average chunk size; must be a power of two.
+     * @param maxSize The maximum chunk size.
+     * @throws IllegalArgumentException if the sizes are not ordered or the average is not a power of two.
+     */
+    public ContentChunker(InputStream in, int minSize, int averageSize, int maxSize) {
+        if (minSize < 64 || minSize >= averageSize || averageSize >= maxSize || Integer.bitCount(averageSize) != 1) {
+            throw new IllegalArgumentException("Invalid chunk sizes: " + minSize + "/" + averageSize + "/" + maxSize);
+        }
+        this.in = in;
+        this.minSize = minSize;
+        this.averageSize = averageSize;
+        this.maxSize = maxSize;
+        int bits = Integer.numberOfTrailingZeros(averageSize);
+        // Masks use the high bits of the hash, which depend on the last 64 bytes rather than the last few
+        this.maskSmall = -1L << (64 - (bits + 2));
+        this.maskLarge = -1L << (64 - (bits - 2));
+        this.buffer = new byte[maxSize * 2];
+    }
+
+    /**
+     * Reads the next chunk.
+     * @return The next chunk, or null at the end of the stream.
+     * @throws IOException if the stream cannot be read.
+     */
+    public byte[] next() throws IOException {
+        fill();
+        if (start == end) {
+            return null;
+        }
+        int length = cutPoint(start, end - start);
+        byte[] chunk = Arrays.copyOfRange(buffer, start, start + length);
+        start += length;
+        return chunk;
+    }
+
+    /**
+     * Ensures at least maxSize bytes are buffered, unless the stream has ended.
+     * @throws IOException if the stream cannot be read.
+     */
+    private void fill() throws IOException {
+        if (eof || end - start >= maxSize) return;
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        while (end < buffer.length) {
+            int n = in.read(buffer, end, buffer.length - end);
+            if (n == -1) {
+                eof = true;
+                return;
+            }
+            end += n;
+        }
+    }
+
+    /**
+     * Finds the length of the chunk starting at an offset of the buffer.
+     * Below the average size a stricter mask is used and above it a looser one,
+     * which keeps chunk sizes close to the average.
+     * @param offset The start of the chunk in the buffer.
+     * @param available The number of buffered bytes from the offset.
+     * @return The chunk length.
+     */
+    private int cutPoint(int offset, int available) {
+        if (available <= minSize) return available;
+        int limit = Math.min(available, maxSize);
+        int normal = Math.min(limit, averageSize);
+        long hash = 0;
+        int i = minSize;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[buffer[offset + i] & 0xff];
+            if ((hash & maskSmall) == 0) return i + 1;
+        }
+        for (; i < limit; i++) {
+            hash = (hash << 1) + GEAR[buffer[offset + i] & 0xff];
+            if ((hash & maskLarge) == 0) return i + 1;
+        }
+        return limit;
+    }
+}
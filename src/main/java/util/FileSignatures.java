@@ -0,0 +1,331 @@
+package util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * FileSignatures detects file types from the signature ("magic") bytes at the start of a file.
+ * Signatures are registered with the offset they appear at, and compiled into one byte trie
+ * per offset, so a header is matched against every signature in a single walk per offset;
+ * the longest matching signature wins. A refiner registered for a type can inspect the header
+ * further, e.g. to tell an Office document from a plain zip archive, or reject the match.
+ * Only the first {@link #PEEK_SIZE} bytes of a file are ever inspected.
+ */
+public final class FileSignatures {
+    /** The number of leading bytes inspected. */
+    public static final int PEEK_SIZE = 4096;
+
+    /** The type returned when no signature matches and the content is not text. */
+    public static final String UNKNOWN = "unknown";
+
+    private static final int TEXT_SAMPLE_SIZE = 100;
+
+    /**
+     * Refines a detected type by inspecting the header further.
+     */
+    @FunctionalInterface
+    public interface Refiner {
+        /**
+         * Refines a detected type.
+         * @param header The header, positioned at the start of the file; must not be modified.
+         * @param type The type matched by its signature.
+         * @return The refined type, the given type if it cannot be refined, or null if the header
+         *         is not of that type after all, in which case it is checked for text.
+         */
+        String refine(ByteBuffer header, String type);
+    }
+
+    /**
+     * A node of a signature trie.
+     */
+    private static final class Node {
+        private final Node[] next = new Node[256];
+        private String type;
+    }
+
+    private static final Map<Integer, Map<String, String>> SIGNATURES = new TreeMap<>();
+    private static final Map<String, Refiner> REFINERS = new HashMap<>();
+    private static volatile Map<Integer, Node> tries = Map.of();
+    private static volatile Map<String, Refiner> refiners = Map.of();
+
+    static {
+        register("pdf", 0, bytes(0x25, 0x50, 0x44, 0x46));
+        register("jpg", 0, bytes(0xFF, 0xD8, 0xFF));
+        register("png", 0, bytes(0x89, 0x50, 0x4E, 0x47));
+        register("gif", 0, bytes(0x47, 0x49, 0x46, 0x38));
+        register("zip", 0, bytes(0x50, 0x4B, 0x03, 0x04));
+        register("ps", 0, bytes(0x25, 0x21));
+        register("doc", 0, bytes(0xD0, 0xCF, 0x11, 0xE0)); // Could be DOC or XLS pre-2003
+        register("txt", 0, bytes(0xEF, 0xBB, 0xBF));
+        register("gz", 0, bytes(0x1F, 0x8B));
+        register("7z", 0, bytes(0x37, 0x7A, 0xBC, 0xAF, 0x27, 0x1C));
+        register("xz", 0, bytes(0xFD, 0x37, 0x7A, 0x58, 0x5A, 0x00));
+        // Short ASCII signatures are followed by a format byte that text would not have
+        for (char blockSize = '1'; blockSize <= '9'; blockSize++) {
+            register("bz2", 0, ascii("BZh" + blockSize));
+        }
+        register("rar", 0, ascii("Rar!\u001A\u0007"));
+        for (int version = 2; version <= 4; version++) {
+            register("mp3", 0, bytes('I', 'D', '3', version));
+        }
+        register("ogg", 0, ascii("OggS"));
+        register("flac", 0, ascii("fLaC"));
+        register("riff", 0, ascii("RIFF"));
+        register("mp4", 4, ascii("ftyp"));
+        register("tar", 257, ascii("ustar"));
+
+        registerRefiner("zip", FileSignatures::refineZip);
+        registerRefiner("mp4", FileSignatures::refineFtyp);
+        registerRefiner("riff", FileSignatures::refineRiff);
+    }
+
+    private FileSignatures() {
+    }
+
+    /**
+     * Registers a signature, replacing any signature with the same bytes at the same offset.
+     * @param type The file type, used as the file extension.
+     * @param offset The offset of the signature in the file; less than {@link #PEEK_SIZE}.
+     * @param signature The signature bytes.
+     */
+    public static synchronized void register(String type, int offset, byte[] signature) {
+        if (offset < 0 || signature.length == 0 || offset + signature.length > PEEK_SIZE) {
+            throw new IllegalArgumentException("Invalid signature for " + type + " at offset " + offset);
+        }
+        SIGNATURES.computeIfAbsent(offset, o -> new HashMap<>())
+                .put(new String(signature, StandardCharsets.ISO_8859_1), type);
+        compile();
+    }
+
+    /**
+     * Registers a refiner for a type, replacing any previous refiner for it.
+     * @param type The file type to refine.
+     * @param refiner The refiner.
+     */
+    public static synchronized void registerRefiner(String type, Refiner refiner) {
+        REFINERS.put(type, refiner);
+        refiners = Map.copyOf(REFINERS);
+    }
+
+    /**
+     * Detects the file type of content from its leading bytes.
+     * @param header The content, or a prefix of it.
+     * @return The detected file type.
+     */
+    public static String detect(byte[] header) {
+        return detect(ByteBuffer.wrap(header));
+    }
+
+    /**
+     * Detects the file type of the remaining bytes of a buffer, without copying them.
+     * The buffer's position is not changed.
+     * @param content The content, or a prefix of it.
+     * @return The detected file type.
+     */
+    public static String detect(ByteBuffer content) {
+        ByteBuffer header = content.slice();
+        if (header.remaining() > PEEK_SIZE) {
+            header.limit(PEEK_SIZE);
+        }
+
+        String type = null;
+        int matchedLength = 0;
+        for (Map.Entry<Integer, Node> trie : tries.entrySet()) {
+            int offset = trie.getKey();
+            Node node = trie.getValue();
+            for (int i = offset; i < header.limit(); i++) {
+                node = node.next[header.get(i) & 0xFF];
+                if (node == null) break;
+                if (node.type != null && i - offset + 1 > matchedLength) {
+                    type = node.type;
+                    matchedLength = i - offset + 1;
+                }
+            }
+        }
+
+        if (type != null) {
+            Refiner refiner = refiners.get(type);
+            String refined = refiner == null ? type : refiner.refine(header.duplicate(), type);
+            if (refined != null) {
+                return refined;
+            }
+        }
+        return isProbablyText(header) ? "txt" : UNKNOWN;
+    }
+
+    /**
+     * Detects the file type of a stream from its leading bytes, without consuming them.
+     * @param in The stream; it must support mark and reset.
+     * @return The detected file type.
+     * @throws IOException if the stream cannot be read.
+     */
+    public static String detect(InputStream in) throws IOException {
+        if (!in.markSupported()) {
+            throw new IllegalArgumentException("Stream must support mark and reset");
+        }
+        in.mark(PEEK_SIZE);
+        byte[] header = in.readNBytes(PEEK_SIZE);
+        in.reset();
+        return detect(header);
+    }
+
+    /**
+     * Detects the file type of a file, reading only its leading bytes.
+     * @param file The file.
+     * @return The detected file type.
+     * @throws IOException if the file cannot be read.
+     */
+    public static String detect(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(PEEK_SIZE);
+            while (header.hasRemaining() && channel.read(header) != -1) {
+                // keep reading until the peek is full or the file ends
+            }
+            return detect(header.flip());
+        }
+    }
+
+    /**
+     * Rebuilds the tries from the registered signatures.
+     * Readers keep using the previous tries until the new ones are published.
+     */
+    private static void compile() {
+        Map<Integer, Node> compiled = new TreeMap<>();
+        for (Map.Entry<Integer, Map<String, String>> group : SIGNATURES.entrySet()) {
+            Node root = new Node();
+            for (Map.Entry<String, String> signature : group.getValue().entrySet()) {
+                Node node = root;
+                for (char c : signature.getKey().toCharArray()) {
+                    if (node.next[c] == null) node.next[c] = new Node();
+                    node = node.next[c];
+                }
+                node.type = signature.getValue();
+            }
+            compiled.put(group.getKey(), root);
+        }
+        tries = compiled;
+    }
+
+    /**
+     * Tells Office Open XML documents from plain zip archives by the entry names near the
+     * start of the archive, which follow the "[Content_Types].xml" entry.
+     * @param header The header.
+     * @param type The matched type.
+     * @return "docx", "xlsx" or "pptx" for Office documents, otherwise the matched type.
+     */
+    private static String refineZip(ByteBuffer header, String type) {
+        if (contains(header, ascii("word/"))) return "docx";
+        if (contains(header, ascii("xl/"))) return "xlsx";
+        if (contains(header, ascii("ppt/"))) return "pptx";
+        return type;
+    }
+
+    /**
+     * Tells ISO base media files apart by their major brand, which follows "ftyp".
+     * @param header The header.
+     * @param type The matched type.
+     * @return "mov" for QuickTime, "heic" for HEIF images, otherwise the matched type.
+     */
+    private static String refineFtyp(ByteBuffer header, String type) {
+        if (header.limit() < 12) return type;
+        String brand = new String(new byte[]{header.get(8), header.get(9), header.get(10), header.get(11)},
+                StandardCharsets.ISO_8859_1);
+        switch (brand) {
+            case "qt  ":
+                return "mov";
+            case "heic":
+            case "heix":
+            case "mif1":
+                return "heic";
+            default:
+                return type;
+        }
+    }
+
+    /**
+     * Tells RIFF containers apart by their form type at offset 8.
+     * @param header The header.
+     * @param type The matched type.
+     * @return "webp", "wav" or "avi", or null for other forms, which are more likely text starting
+     *         with "RIFF" than a RIFF form the encrypter does not know.
+     */
+    private static String refineRiff(ByteBuffer header, String type) {
+        if (header.limit() < 12) return null;
+        String form = new String(new byte[]{header.get(8), header.get(9), header.get(10), header.get(11)},
+                StandardCharsets.ISO_8859_1);
+        switch (form) {
+            case "WEBP":
+                return "webp";
+            case "WAVE":
+                return "wav";
+            case "AVI ":
+                return "avi";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Checks if the header is likely to be text.
+     * Only the first 100 bytes are checked for control characters other than whitespace.
+     * @param header The header.
+     * @return true if the header is likely text, false otherwise.
+     */
+    private static boolean isProbablyText(ByteBuffer header) {
+        int limit = Math.min(header.limit(), TEXT_SAMPLE_SIZE);
+        for (int i = 0; i < limit; i++) {
+            byte b = header.get(i);
+            if (b < 0x09 || (b > 0x0D && b < 0x20)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the header contains a byte sequence.
+     * @param header The header.
+     * @param pattern The byte sequence.
+     * @return true if the sequence occurs in the header, false otherwise.
+     */
+    private static boolean contains(ByteBuffer header, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= header.limit() - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (header.get(i + j) != pattern[j]) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Converts unsigned byte values to a byte array.
+     * @param values The byte values, 0 to 255.
+     * @return The bytes.
+     */
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    /**
+     * Converts a string of single-byte characters to a byte array.
+     * @param value The string.
+     * @return The bytes.
+     */
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,74 @@
+package util;
+
+/**
+ * Hex provides lowercase hexadecimal encoding and decoding of byte arrays.
+ * Encoding uses a lookup table instead of per-byte formatting, and can write
+ * into a caller-supplied buffer so hot paths do not allocate.
+ */
+public final class Hex {
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private Hex() {
+    }
+
+    /**
+     * Encodes bytes as a lowercase hexadecimal string.
+     * @param bytes The bytes to encode.
+     * @return The hexadecimal string, two characters per byte.
+     */
+    public static String encode(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        encode(bytes, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Encodes bytes as lowercase hexadecimal characters into an existing buffer.
+     * @param bytes The bytes to encode.
+     * @param dst The buffer receiving the characters.
+     * @param offset The position in the buffer of the first character.
+     * @return The number of characters written, always twice the number of bytes.
+     * @throws IndexOutOfBoundsException if the buffer is too small.
+     */
+    public static int encode(byte[] bytes, char[] dst, int offset) {
+        if (offset < 0 || dst.length - offset < bytes.length * 2) {
+            throw new IndexOutOfBoundsException("Buffer too small for " + bytes.length + " bytes");
+        }
+        for (byte b : bytes) {
+            dst[offset++] = DIGITS[(b >> 4) & 0x0f];
+            dst[offset++] = DIGITS[b & 0x0f];
+        }
+        return bytes.length * 2;
+    }
+
+    /**
+     * Decodes a hexadecimal string, accepting upper and lower case digits.
+     * @param hex The hexadecimal string.
+     * @return The decoded bytes.
+     * @throws IllegalArgumentException if the string has an odd length or a non-hex character.
+     */
+    public static byte[] decode(CharSequence hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Hex string has odd length");
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((digit(hex.charAt(2 * i)) << 4) | digit(hex.charAt(2 * i + 1)));
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the value of a single hexadecimal digit.
+     * @param c The digit.
+     * @return The value, from 0 to 15.
+     * @throws IllegalArgumentException if the character is not a hex digit.
+     */
+    private static int digit(char c) {
+        int value = Character.digit(c, 16);
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid hex character: " + c);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,340 @@
+package util;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics records where the time of encryption and decryption goes, per stage: key derivation,
+ * Base64 coding, the cipher itself, and file reads and writes. For every stage it keeps a call count,
+ * a byte count, the total time and a latency histogram, and each measured call is also emitted as a
+ * JDK Flight Recorder event ({@link StageEvent}), so production jobs can be profiled by starting a
+ * recording instead of attaching a profiler. The counters are published as the JMX MBean
+ * {@value #OBJECT_NAME}.
+ * A stage's time includes any nested work it drives, e.g. a Base64 encoder writing through to a file.
+ * Recording is thread-safe and does not block.
+ */
+public final class Metrics {
+    /** The JMX object name the metrics are published under. */
+    public static final String OBJECT_NAME = "file.encrypter:type=Metrics";
+
+    /**
+     * A measured stage of the encryption path.
+     */
+    public enum Stage { KDF, BASE64, CIPHER, READ, WRITE }
+
+    // Latencies are bucketed by their highest bits: 8 buckets per power of two, so each bucket
+    // spans at most 12.5% of its value, up to the largest positive long
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private static final StageStats[] STATS = new StageStats[Stage.values().length];
+
+    static {
+        for (Stage stage : Stage.values()) {
+            STATS[stage.ordinal()] = new StageStats();
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException e) {
+            // Metrics are still recorded and available through snapshot()
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * A running measurement of one stage call, ended with {@link #end(long)}.
+     */
+    public static final class Span {
+        private final Stage stage;
+        private final long start;
+        private final StageEvent event;
+
+        private Span(Stage stage) {
+            this.stage = stage;
+            this.event = new StageEvent();
+            this.event.begin();
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * Ends the measurement and records it.
+         * @param bytes The number of bytes the call processed.
+         */
+        public void end(long bytes) {
+            long nanos = System.nanoTime() - start;
+            STATS[stage.ordinal()].record(nanos, bytes);
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = stage.name();
+                event.bytes = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * A point-in-time view of the counters of one stage.
+     */
+    public static final class StageSnapshot {
+        private final String stage;
+        private final long count;
+        private final long bytes;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long p50Nanos;
+        private final long p90Nanos;
+        private final long p99Nanos;
+
+        private StageSnapshot(String stage, long count, long bytes, long totalNanos, long maxNanos,
+                              long p50Nanos, long p90Nanos, long p99Nanos) {
+            this.stage = stage;
+            this.count = count;
+            this.bytes = bytes;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.p50Nanos = p50Nanos;
+            this.p90Nanos = p90Nanos;
+            this.p99Nanos = p99Nanos;
+        }
+
+        /**
+         * Returns the stage name.
+         * @return The stage name.
+         */
+        public String getStage() {
+            return stage;
+        }
+
+        /**
+         * Returns the number of recorded calls.
+         * @return The number of calls.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the number of bytes processed by all calls.
+         * @return The number of bytes.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Returns the total time spent in the stage.
+         * @return The total time in milliseconds.
+         */
+        public double getTotalMillis() {
+            return totalNanos / 1e6;
+        }
+
+        /**
+         * Returns the mean latency of a call.
+         * @return The mean latency in microseconds, or 0 if there were no calls.
+         */
+        public double getMeanMicros() {
+            return count == 0 ? 0 : totalNanos / 1e3 / count;
+        }
+
+        /**
+         * Returns the median latency of a call, accurate to 12.5%.
+         * @return The median latency in microseconds.
+         */
+        public double getP50Micros() {
+            return p50Nanos / 1e3;
+        }
+
+        /**
+         * Returns the 90th percentile latency of a call, accurate to 12.5%.
+         * @return The 90th percentile latency in microseconds.
+         */
+        public double getP90Micros() {
+            return p90Nanos / 1e3;
+        }
+
+        /**
+         * Returns the 99th percentile latency of a call, accurate to 12.5%.
+         * @return The 99th percentile latency in microseconds.
+         */
+        public double getP99Micros() {
+            return p99Nanos / 1e3;
+        }
+
+        /**
+         * Returns the highest latency of a call.
+         * @return The highest latency in microseconds.
+         */
+        public double getMaxMicros() {
+            return maxNanos / 1e3;
+        }
+
+        /**
+         * Returns the throughput of the stage while it was running.
+         * @return The throughput in MB/s, or 0 if no time was recorded.
+         */
+        public double getThroughputMBps() {
+            return totalNanos == 0 ? 0 : bytes * 1e3 / totalNanos;
+        }
+
+        /**
+         * Returns the snapshot as a JSON object.
+         * @return The JSON representation.
+         */
+        public String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"stage\":\"%s\",\"count\":%d,\"bytes\":%d,\"totalMillis\":%.3f,\"meanMicros\":%.1f,"
+                            + "\"p50Micros\":%.1f,\"p90Micros\":%.1f,\"p99Micros\":%.1f,\"maxMicros\":%.1f,\"mbps\":%.2f}",
+                    stage, count, bytes, getTotalMillis(), getMeanMicros(), getP50Micros(), getP90Micros(),
+                    getP99Micros(), getMaxMicros(), getThroughputMBps());
+        }
+    }
+
+    /**
+     * Starts measuring a call of a stage.
+     * @param stage The stage.
+     * @return The running measurement, to be ended when the call returns.
+     */
+    public static Span start(Stage stage) {
+        return new Span(stage);
+    }
+
+    /**
+     * Returns the counters of a stage.
+     * @param stage The stage.
+     * @return The snapshot.
+     */
+    public static StageSnapshot snapshot(Stage stage) {
+        return STATS[stage.ordinal()].snapshot(stage.name());
+    }
+
+    /**
+     * Returns the counters of all stages.
+     * @return The snapshots by stage name, in stage order.
+     */
+    public static Map<String, StageSnapshot> snapshot() {
+        Map<String, StageSnapshot> snapshots = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            snapshots.put(stage.name(), snapshot(stage));
+        }
+        return snapshots;
+    }
+
+    /**
+     * Resets the counters of all stages.
+     */
+    public static void reset() {
+        for (StageStats stats : STATS) {
+            stats.reset();
+        }
+    }
+
+    /**
+     * Returns the histogram bucket of a latency.
+     * @param nanos The latency in nanoseconds.
+     * @return The bucket index.
+     */
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(0, nanos);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the highest latency that falls into a histogram bucket.
+     * @param bucket The bucket index.
+     * @return The latency in nanoseconds.
+     */
+    static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * The counters of one stage.
+     */
+    private static final class StageStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        void record(long duration, long processed) {
+            count.increment();
+            bytes.add(processed);
+            nanos.add(duration);
+            max.accumulateAndGet(duration, Math::max);
+            histogram.incrementAndGet(bucket(duration));
+        }
+
+        StageSnapshot snapshot(String stage) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = histogram.get(i);
+                total += counts[i];
+            }
+            long maxNanos = max.get();
+            // A bucket's upper bound can lie above the highest latency actually recorded
+            return new StageSnapshot(stage, count.sum(), bytes.sum(), nanos.sum(), maxNanos,
+                    Math.min(maxNanos, percentile(counts, total, 0.50)),
+                    Math.min(maxNanos, percentile(counts, total, 0.90)),
+                    Math.min(maxNanos, percentile(counts, total, 0.99)));
+        }
+
+        void reset() {
+            count.reset();
+            bytes.reset();
+            nanos.reset();
+            max.set(0);
+            for (int i = 0; i < BUCKETS; i++) {
+                histogram.set(i, 0);
+            }
+        }
+
+        private static long percentile(long[] counts, long total, double fraction) {
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return bucketUpperBound(i);
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * The JMX view of the metrics.
+     */
+    private static final class MBean implements MetricsMXBean {
+        @Override
+        public Map<String, StageSnapshot> getStages() {
+            return snapshot();
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
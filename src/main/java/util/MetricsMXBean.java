@@ -0,0 +1,19 @@
+package util;
+
+import java.util.Map;
+
+/**
+ * MetricsMXBean is the JMX management interface of {@link Metrics}.
+ */
+public interface MetricsMXBean {
+    /**
+     * Returns the counters of all stages.
+     * @return The snapshots by stage name.
+     */
+    Map<String, Metrics.StageSnapshot> getStages();
+
+    /**
+     * Resets the counters of all stages.
+     */
+    void reset();
+}
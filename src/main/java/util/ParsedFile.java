@@ -1,15 +1,18 @@
 package util;
 
-import java.util.Arrays;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 
 /**
  * ParsedFile class represents a file with its content and type.
  * It provides methods to retrieve the file type and content.
+ * The content is held in a read-only buffer, which may be on-heap or memory-mapped;
+ * views of it can be taken without copying.
  */
 public final class ParsedFile {
-    private final byte[] content;
-    private final String fileType;
+    private final ByteBuffer content;
+    private volatile String fileType;
 
 
     /**Constructs a ParsedFile with the given content.
@@ -18,101 +21,141 @@ public final class ParsedFile {
      * @param content The byte array representing the file content.
      */ 
     public ParsedFile(byte[] content) {
-        this.content = content.clone(); // defensive copy
-        this.fileType = detectFileType();
+        this(ByteBuffer.wrap(content.clone())); // defensive copy
+    }
+
+    /**
+     * Constructs a ParsedFile backed by a read-only view of the given buffer.
+     * @param content The buffer whose remaining bytes are the file content.
+     */
+    private ParsedFile(ByteBuffer content) {
+        this.content = content.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Creates a ParsedFile backed by the remaining bytes of a buffer, without copying them.
+     * The buffer may be on-heap, direct or memory-mapped. The caller must not modify the
+     * buffer's content afterwards.
+     * @param content The buffer whose remaining bytes are the file content.
+     * @return A ParsedFile viewing the buffer.
+     */
+    public static ParsedFile wrap(ByteBuffer content) {
+        return new ParsedFile(content);
     }
 
     /**
      * Returns the file type of the ParsedFile.
+     * The type is detected on first use from the header only.
      *
      * @return The file type as a string.
      */
     public String getFileType() {
-        return fileType;
+        String type = fileType;
+        if (type == null) {
+            type = FileSignatures.detect(content);
+            fileType = type;
+        }
+        return type;
     }
 
     /**
      * Returns the content of the ParsedFile.
      * The content is returned as a defensive copy to prevent external modification. 
+     * Prefer {@link #getBuffer()} or {@link #openStream()}, which do not copy.
      * @return The content of the file as a byte array.
      */
     public byte[] getContent() {
-        return content.clone();
+        byte[] copy = new byte[content.capacity()];
+        content.duplicate().get(copy);
+        return copy;
     }
 
-    @Override
     /**
-     * Returns a string representation of the ParsedFile.
-     * @return A string containing the file type and content length.
+     * Returns a read-only view of the content, without copying it.
+     * Each call returns an independent view positioned at the start of the content.
+     * @return A read-only buffer over the content.
      */
-    public String toString() {
-        return "ParsedFile{" +
-                "fileType='" + fileType + '\'' +
-                ", contentLength=" + content.length +
-                '}';
-    }  
+    public ByteBuffer getBuffer() {
+        return content.duplicate();
+    }
 
     /**
-     * Detects the file type based on the content's byte signature.
-     * This method checks for common file signatures to determine the type. 
-     * @return The detected file type as a string.
+     * Returns a ParsedFile viewing a region of this file's content, without copying it.
+     * @param offset The offset of the region.
+     * @param length The length of the region.
+     * @return A ParsedFile over the region.
      */
-    private String detectFileType() {
-        if (startsWith(content, new byte[]{0x25, 0x50, 0x44, 0x46})) {
-            return "pdf";
-        } else if (startsWith(content, new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF})) {
-            return "jpg";
-        } else if (startsWith(content, new byte[]{(byte) 0x89, 0x50, 0x4E, 0x47})) {
-            return "png";
-        } else if (startsWith(content, new byte[]{0x47, 0x49, 0x46, 0x38})) {
-            return "gif";
-        } else if (startsWith(content, new byte[]{0x50, 0x4B, 0x03, 0x04})) {
-            return "zip";
-        } else if (startsWith(content, new byte[]{0x25, 0x21})) {
-            return "ps";
-        } else if (startsWith(content, new byte[]{(byte) 0xD0, (byte) 0xCF, 0x11, (byte) 0xE0})) {
-            return "doc"; // Could be DOC or XLS pre-2003
-        } else if (startsWith(content, new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF})
-                || isProbablyAscii(content)) {
-            return "txt";
+    public ParsedFile slice(int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > content.capacity()) {
+            throw new IndexOutOfBoundsException("Region out of bounds: " + offset + "+" + length);
         }
-        return "unknown";
+        return new ParsedFile(content.duplicate().position(offset).limit(offset + length));
     }
 
     /**
-     * Checks if the byte array starts with the specified signature.
-     * @param data The byte array to check.
-     * @param signature The byte array representing the signature to check against.
-     * @return true if the data starts with the signature, false otherwise.
+     * Returns the length of the content.
+     * @return The content length in bytes.
      */
-    private boolean startsWith(byte[] data, byte[] signature) {
-        if (data.length < signature.length) return false;
-        for (int i = 0; i < signature.length; i++) {
-            if (data[i] != signature[i]) return false;
-        }
-        return true;
+    public int size() {
+        return content.capacity();
     }
 
     /**
-     * Checks if the byte array is likely to be ASCII text.
-     * This method checks the first 100 bytes for common ASCII characters. 
-     * @param data The byte array to check.
-     * @return true if the data is likely ASCII, false otherwise.
+     * Opens a stream over the content, without copying it.
+     * @return An input stream reading the content.
      */
-    private boolean isProbablyAscii(byte[] data) {
-        int limit = Math.min(data.length, 100);
-        for (int i = 0; i < limit; i++) {
-            if (data[i] < 0x09 || (data[i] > 0x0D && data[i] < 0x20)) {
-                return false;
+    public InputStream openStream() {
+        ByteBuffer view = content.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return view.hasRemaining() ? view.get() & 0xFF : -1;
             }
-        }
-        return true;
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) return 0;
+                if (!view.hasRemaining()) return -1;
+                int n = Math.min(len, view.remaining());
+                view.get(b, off, n);
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return view.remaining();
+            }
+        };
+    }
+
+    @Override
+    /**
+     * Returns a string representation of the ParsedFile.
+     * @return A string containing the file type and content length.
+     */
+    public String toString() {
+        return "ParsedFile{" +
+                "fileType='" + getFileType() + '\'' +
+                ", contentLength=" + content.capacity() +
+                '}';
+    }  
+
+    /**
+     * Detects the file type based on the content's byte signature.
+     * Detection is delegated to {@link FileSignatures}; only the leading bytes are
+     * inspected, so a header prefix is sufficient.
+     * @param content The file content, or a prefix of it.
+     * @return The detected file type as a string.
+     */
+    public static String detectFileType(byte[] content) {
+        return FileSignatures.detect(content);
     }
 
     @Override
     /**
      * Checks if this ParsedFile is equal to another object.
-     * Two ParsedFile objects are considered equal if their content and file type are the same.
+     * Two ParsedFile objects are considered equal if their content is the same;
+     * the file type is derived from the content.
      * @param o The object to compare with.
      * @return true if the objects are equal, false otherwise.
      */
@@ -120,6 +163,15 @@ public final class ParsedFile {
         if (this == o) return true;
         if (!(o instanceof ParsedFile)) return false;
         ParsedFile that = (ParsedFile) o;
-        return Arrays.equals(content, that.content) && fileType.equals(that.fileType);
+        return content.equals(that.content);
+    }
+
+    @Override
+    /**
+     * Returns a hash code consistent with {@link #equals(Object)}.
+     * @return The hash code of the content.
+     */
+    public int hashCode() {
+        return content.hashCode();
     }
 }
@@ -0,0 +1,27 @@
+package util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * StageEvent is the JDK Flight Recorder event emitted for each measured stage call
+ * (see {@link Metrics}). It is enabled by default, so a recording started with
+ * {@code -XX:StartFlightRecording} shows every stage call; a threshold can be set in the
+ * recording settings to keep only the slow ones.
+ */
+@Name("file.encrypter.Stage")
+@Label("Encryption Stage")
+@Category({"File Encrypter"})
+@Description("A key derivation, Base64, cipher, read or write call on the encryption path")
+class StageEvent extends Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
@@ -2,13 +2,25 @@ package util;
 
 import java.io.File;
 import java.sql.*;
+import java.util.Map;
 import tools.SHA256;
 
 /**
  * UserDB handles local user authentication using SQLite and SHA-256 hashing.
+ * A single connection is opened on first use and kept for the life of the process,
+ * with the schema created once, the database in WAL mode and the statements prepared once.
+ * The connection is not safe for concurrent use, so all access is synchronized.
+ * The database file is "users.db" in the working directory, unless the "userdb.path" system property names another.
  */
 public class UserDB {
-    private static final String DB_PATH = "users.db";
+    private static final String DB_PATH = System.getProperty("userdb.path", "users.db");
+    private static final int BUSY_TIMEOUT_MS = 5000;
+
+    private static Connection connection;
+    private static PreparedStatement insertStmt;
+    private static PreparedStatement insertIfAbsentStmt;
+    private static PreparedStatement selectStmt;
+    private static boolean shutdownHookRegistered;
 
     /**
      * Registers a new user in the database.
@@ -16,58 +28,77 @@ public class UserDB {
      * @param password The plaintext password to hash.
      * @return true if user registered successfully, false if already exists or failed.
      */
-    public static boolean registerUser(String username, String password) {
+    public static synchronized boolean registerUser(String username, String password) {
         try {
-            // Show where the database file will be created
-            File dbFile = new File(DB_PATH);
-            System.out.println("Attempting DB connection at: " + dbFile.getAbsolutePath());
-
-            Connection conn = DriverManager.getConnection("jdbc:sqlite:" + DB_PATH);
-            ensureUsersTableExists(conn);
-
-            PreparedStatement pstmt = conn.prepareStatement(
-                "INSERT INTO users (username, password) VALUES (?, ?)"
-            );
-            pstmt.setString(1, username);
-            pstmt.setString(2, SHA256.hash(password));
-
-            int rows = pstmt.executeUpdate();
-            conn.close();
-
-            return rows == 1;
+            open();
+            insertStmt.setString(1, username);
+            insertStmt.setString(2, SHA256.hash(password));
+            return insertStmt.executeUpdate() == 1;
         } catch (SQLException e) {
             System.out.println("Registration failed: " + e.getMessage());
             return false;
         }
     }
 
+    /**
+     * Registers several users in a single transaction.
+     * Users whose username already exists are skipped; any other failure rolls back the whole batch.
+     * @param users The plaintext passwords keyed by username.
+     * @return The number of users registered, or -1 if the batch failed.
+     */
+    public static synchronized int registerUsers(Map<String, String> users) {
+        try {
+            open();
+        } catch (SQLException e) {
+            System.out.println("Registration failed: " + e.getMessage());
+            return -1;
+        }
+        try {
+            connection.setAutoCommit(false);
+            for (Map.Entry<String, String> user : users.entrySet()) {
+                insertIfAbsentStmt.setString(1, user.getKey());
+                insertIfAbsentStmt.setString(2, SHA256.hash(user.getValue()));
+                insertIfAbsentStmt.addBatch();
+            }
+            int registered = 0;
+            for (int rows : insertIfAbsentStmt.executeBatch()) {
+                if (rows > 0) registered++;
+            }
+            connection.commit();
+            return registered;
+        } catch (SQLException e) {
+            try {
+                insertIfAbsentStmt.clearBatch();
+                connection.rollback();
+            } catch (SQLException rollbackError) {
+                e.addSuppressed(rollbackError);
+            }
+            System.out.println("Bulk registration failed: " + e.getMessage());
+            return -1;
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                System.out.println("Failed to restore auto-commit: " + e.getMessage());
+            }
+        }
+    }
+
     /**
      * Validates a user's login credentials.
      * @param username The username.
      * @param password The plaintext password to check.
      * @return true if the credentials match, false otherwise.
      */
-    public static boolean validateUser(String username, String password) {
+    public static synchronized boolean validateUser(String username, String password) {
         try {
-            File dbFile = new File(DB_PATH);
-            System.out.println("Attempting DB connection at: " + dbFile.getAbsolutePath());
-
-            Connection conn = DriverManager.getConnection("jdbc:sqlite:" + DB_PATH);
-            ensureUsersTableExists(conn);
-
-            PreparedStatement pstmt = conn.prepareStatement(
-                "SELECT password FROM users WHERE username = ?"
-            );
-            pstmt.setString(1, username);
-            ResultSet rs = pstmt.executeQuery();
-
-            if (rs.next()) {
-                String hashedPassword = rs.getString("password");
-                boolean valid = SHA256.hash(password).equals(hashedPassword);
-                conn.close();
-                return valid;
-            } else {
-                conn.close();
+            open();
+            selectStmt.setString(1, username);
+            try (ResultSet rs = selectStmt.executeQuery()) {
+                if (rs.next()) {
+                    String hashedPassword = rs.getString("password");
+                    return SHA256.hash(password).equals(hashedPassword);
+                }
                 return false;
             }
         } catch (SQLException e) {
@@ -76,13 +107,66 @@ public class UserDB {
         }
     }
 
+    /**
+     * Closes the shared connection and its statements.
+     * The next call reopens the database.
+     */
+    public static synchronized void close() {
+        if (connection == null) return;
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.out.println("Failed to close database: " + e.getMessage());
+        } finally {
+            connection = null;
+            insertStmt = null;
+            insertIfAbsentStmt = null;
+            selectStmt = null;
+        }
+    }
+
+    /**
+     * Opens the shared connection if it is not open yet, configures it,
+     * creates the schema and prepares the statements.
+     * @throws SQLException if the database cannot be opened.
+     */
+    private static void open() throws SQLException {
+        if (connection != null) return;
+
+        // Show where the database file will be created
+        File dbFile = new File(DB_PATH);
+        System.out.println("Opening database at: " + dbFile.getAbsolutePath());
+
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + DB_PATH);
+        try {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA journal_mode=WAL");
+                stmt.execute("PRAGMA synchronous=NORMAL");
+                stmt.execute("PRAGMA busy_timeout=" + BUSY_TIMEOUT_MS);
+            }
+            ensureUsersTableExists(conn);
+            insertStmt = conn.prepareStatement("INSERT INTO users (username, password) VALUES (?, ?)");
+            insertIfAbsentStmt = conn.prepareStatement("INSERT OR IGNORE INTO users (username, password) VALUES (?, ?)");
+            selectStmt = conn.prepareStatement("SELECT password FROM users WHERE username = ?");
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        connection = conn;
+        if (!shutdownHookRegistered) {
+            Runtime.getRuntime().addShutdownHook(new Thread(UserDB::close, "userdb-close"));
+            shutdownHookRegistered = true;
+        }
+    }
+
     /**
      * Ensures the users table exists before inserting or querying.
      * @param conn The database connection.
      * @throws SQLException if table creation fails.
      */
     private static void ensureUsersTableExists(Connection conn) throws SQLException {
-        Statement stmt = conn.createStatement();
-        stmt.executeUpdate("CREATE TABLE IF NOT EXISTS users (username TEXT PRIMARY KEY, password TEXT)");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS users (username TEXT PRIMARY KEY, password TEXT)");
+        }
     }
 }
@@ -0,0 +1,178 @@
+package io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static util.TestData.randomBytes;
+
+class AtomicFileWriterTest {
+    @TempDir
+    Path dir;
+
+    private List<Path> files() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private static AtomicFileWriter write(Path target, byte[] content, AtomicFileWriter.SyncGroup group) throws IOException {
+        AtomicFileWriter out = AtomicFileWriter.open(target, content.length, group);
+        out.write(content);
+        out.commit();
+        return out;
+    }
+
+    @Test
+    void fileAppearsOnlyOnceCommitted() throws IOException {
+        Path target = dir.resolve("file");
+        byte[] content = randomBytes(AtomicFileWriter.BUFFER_SIZE * 3 + 5);
+        try (AtomicFileWriter out = AtomicFileWriter.open(target, content.length, AtomicFileWriter.SyncPolicy.FILE)) {
+            out.write(content);
+            out.flush();
+            assertFalse(Files.exists(target));
+            assertEquals(content.length, out.getBytesWritten());
+            out.commit();
+        }
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(List.of(target), files());
+    }
+
+    @Test
+    void unknownSizeUsesTheFullBuffer() throws IOException {
+        Path target = dir.resolve("file");
+        byte[] content = randomBytes(AtomicFileWriter.BUFFER_SIZE * 2 + 1);
+        try (AtomicFileWriter out = AtomicFileWriter.open(target, 0, AtomicFileWriter.SyncPolicy.NONE)) {
+            assertEquals(AtomicFileWriter.BUFFER_SIZE, out.getBufferSize());
+            out.write(content);
+            out.commit();
+        }
+        assertArrayEquals(content, Files.readAllBytes(target));
+
+        try (AtomicFileWriter small = AtomicFileWriter.open(dir.resolve("small"), 100, AtomicFileWriter.SyncPolicy.NONE);
+             AtomicFileWriter large = AtomicFileWriter.open(dir.resolve("large"), 1 << 20, AtomicFileWriter.SyncPolicy.NONE)) {
+            assertTrue(small.getBufferSize() < AtomicFileWriter.BUFFER_SIZE);
+            assertEquals(AtomicFileWriter.BUFFER_SIZE, large.getBufferSize());
+        }
+    }
+
+    @Test
+    void commitTruncatesThePreallocatedFile() throws IOException {
+        Path target = dir.resolve("file");
+        byte[] content = randomBytes(100);
+        try (AtomicFileWriter out = AtomicFileWriter.open(target, 10_000, AtomicFileWriter.SyncPolicy.FILE)) {
+            assertEquals(10_000, Files.size(out.getTemporaryPath()));
+            out.write(content);
+            out.commit();
+        }
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    @Test
+    void closeWithoutCommitLeavesTheTargetUntouched() throws IOException {
+        Path target = Files.write(dir.resolve("file"), randomBytes(10, 1));
+        Path temp;
+        try (AtomicFileWriter out = AtomicFileWriter.open(target, 1000, AtomicFileWriter.SyncPolicy.FILE)) {
+            temp = out.getTemporaryPath();
+            out.write(randomBytes(1000, 2));
+            out.flush();
+            assertTrue(Files.exists(temp));
+        }
+
+        assertFalse(Files.exists(temp));
+        assertArrayEquals(randomBytes(10, 1), Files.readAllBytes(target));
+        assertEquals(List.of(target), files());
+    }
+
+    @Test
+    void committedWriterRejectsWrites() throws IOException {
+        try (AtomicFileWriter out = AtomicFileWriter.open(dir.resolve("file"), 0, AtomicFileWriter.SyncPolicy.NONE)) {
+            out.commit();
+            assertThrows(IOException.class, () -> out.write(1));
+            assertThrows(IOException.class, out::commit);
+        }
+    }
+
+    @Test
+    void groupRenamesFilesWhenCommitted() throws IOException {
+        try (AtomicFileWriter.SyncGroup group = new AtomicFileWriter.SyncGroup(3)) {
+            write(dir.resolve("a"), randomBytes(100, 1), group);
+            write(dir.resolve("b"), randomBytes(100, 2), group);
+            assertFalse(Files.exists(dir.resolve("a")));
+            assertFalse(Files.exists(dir.resolve("b")));
+
+            // The third file fills the group, which commits on its own
+            write(dir.resolve("c"), randomBytes(100, 3), group);
+            assertEquals(List.of(dir.resolve("a"), dir.resolve("b"), dir.resolve("c")), files());
+
+            write(dir.resolve("d"), randomBytes(100, 4), group);
+            assertFalse(Files.exists(dir.resolve("d")));
+        }
+
+        assertArrayEquals(randomBytes(100, 4), Files.readAllBytes(dir.resolve("d")));
+        assertEquals(4, files().size());
+    }
+
+    @Test
+    void abortDiscardsWaitingFiles() throws IOException {
+        Path existing = Files.write(dir.resolve("a"), randomBytes(10, 1));
+        AtomicFileWriter.SyncGroup group = new AtomicFileWriter.SyncGroup();
+        write(existing, randomBytes(100, 2), group);
+        write(dir.resolve("b"), randomBytes(100, 3), group);
+
+        group.abort();
+        group.commit();
+
+        assertEquals(List.of(existing), files());
+        assertArrayEquals(randomBytes(10, 1), Files.readAllBytes(existing));
+    }
+
+    @Test
+    void failedGroupCommitReportsEveryFile() throws IOException {
+        // A file cannot replace a non-empty directory, so every rename of the group fails
+        List<Path> targets = new ArrayList<>();
+        for (String name : new String[]{"a", "b", "c"}) {
+            Path target = Files.createDirectory(dir.resolve(name));
+            Files.createFile(target.resolve("keep"));
+            targets.add(target);
+        }
+        List<Path> failed = new ArrayList<>();
+        AtomicFileWriter.SyncGroup group = new AtomicFileWriter.SyncGroup(targets.size());
+        group.setFailureListener((target, error) -> failed.add(target));
+
+        for (Path target : targets) {
+            // The commit of the file filling the group does not throw, since the listener is told
+            write(target, randomBytes(100), group);
+        }
+
+        assertEquals(targets, failed);
+        assertEquals(targets, files());
+    }
+
+    @Test
+    void failedGroupCommitThrowsWithoutAListener() throws IOException {
+        Path blocked = Files.createDirectory(dir.resolve("a"));
+        Files.createFile(blocked.resolve("keep"));
+        AtomicFileWriter.SyncGroup group = new AtomicFileWriter.SyncGroup();
+        write(blocked, randomBytes(100, 1), group);
+        write(dir.resolve("b"), randomBytes(100, 2), group);
+
+        assertThrows(IOException.class, group::commit);
+        // The other file of the group is still renamed into place
+        assertArrayEquals(randomBytes(100, 2), Files.readAllBytes(dir.resolve("b")));
+        assertEquals(List.of(blocked, dir.resolve("b")), files());
+    }
+}
@@ -0,0 +1,94 @@
+package io;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tools.AES256;
+import util.BatchReport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static util.TestData.SECRET;
+import static util.TestData.randomBytes;
+import static util.TestData.salt;
+
+class BatchEncryptorTest {
+    // Under the working directory rather than the system temp directory, so it can be named by a relative path
+    private Path root;
+    private Path input;
+
+    @BeforeEach
+    void createInput() throws IOException {
+        Files.createDirectories(Path.of("target"));
+        root = Files.createTempDirectory(Path.of("target"), "batch-test");
+        input = Files.createDirectories(root.resolve("in"));
+        Files.write(input.resolve("a.txt"), "Some text to encrypt\n".getBytes());
+        Files.createDirectories(input.resolve("sub"));
+        Files.write(input.resolve("sub/b.bin"), randomBytes(10_000));
+    }
+
+    @AfterEach
+    void deleteInput() throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static BatchReport encrypt(String inputDirectory, String outputDirectory) {
+        return new BatchEncryptor(SECRET, Base64.getEncoder().encodeToString(salt()))
+                .encryptDirectory(inputDirectory, outputDirectory);
+    }
+
+    private static List<String> files(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile)
+                    .map(file -> directory.relativize(file).toString().replace('\\', '/'))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private void assertEncryptedOnce(BatchReport report) throws IOException {
+        assertEquals(2, report.getResults().size(), report.toString());
+        assertEquals(2, report.getSucceeded());
+        assertEquals(List.of("a.txt.enc", "sub/b.bin.enc"), files(input.resolve("out")));
+        try (InputStream in = Files.newInputStream(input.resolve("out/sub/b.bin.enc"))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            AES256.decryptContainer(in, out, SECRET);
+            assertArrayEquals(randomBytes(10_000), out.toByteArray());
+        }
+    }
+
+    @Test
+    void outputInsideInputIsNotEncryptedAgain() throws IOException {
+        String absoluteInput = input.toAbsolutePath().toString();
+        String relativeInput = input.toString();
+        assertFalse(input.isAbsolute());
+
+        // Every run sees the output of the previous one inside the input tree
+        String[][] runs = {
+                {absoluteInput, absoluteInput + "/out"},
+                {relativeInput, absoluteInput + "/out"},
+                {absoluteInput, relativeInput + "/out"},
+                {relativeInput, relativeInput + "/out"},
+                {absoluteInput + "/./", absoluteInput + "/./out/"},
+                {relativeInput + "//.", "./" + relativeInput + "/out/."},
+        };
+        for (String[] run : runs) {
+            assertEncryptedOnce(encrypt(run[0], run[1]));
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static util.TestData.SECRET;
+import static util.TestData.randomBytes;
+
+class ChunkStoreTest {
+    @TempDir
+    Path root;
+
+    private static byte[] get(ChunkStore store, String name) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        store.get(name, out);
+        return out.toByteArray();
+    }
+
+    private List<Path> chunkFiles() throws IOException {
+        try (Stream<Path> files = Files.walk(root.resolve("chunks"))) {
+            return files.filter(Files::isRegularFile).toList();
+        }
+    }
+
+    @Test
+    void roundTrips() {
+        ChunkStore store = new ChunkStore(root, SECRET);
+        byte[] content = randomBytes(1_000_000, 1);
+        store.put("big", new ByteArrayInputStream(content));
+        store.put("empty", new ByteArrayInputStream(new byte[0]));
+
+        assertArrayEquals(content, get(store, "big"));
+        assertArrayEquals(new byte[0], get(store, "empty"));
+        assertEquals(content.length, store.size("big"));
+        assertEquals(List.of("big", "empty"), store.list());
+    }
+
+    @Test
+    void reopenedStoreReadsExistingFiles() {
+        byte[] content = randomBytes(100_000, 2);
+        new ChunkStore(root, SECRET).put("file", new ByteArrayInputStream(content));
+
+        assertArrayEquals(content, get(new ChunkStore(root, SECRET), "file"));
+    }
+
+    @Test
+    void identicalContentIsStoredOnce() {
+        ChunkStore store = new ChunkStore(root, SECRET);
+        byte[] content = randomBytes(1_000_000, 3);
+        ChunkStore.PutResult first = store.put("a", new ByteArrayInputStream(content));
+        ChunkStore.PutResult second = store.put("b", new ByteArrayInputStream(content));
+
+        assertEquals(first.getChunks(), first.getNewChunks());
+        assertEquals(0, second.getNewChunks());
+        assertEquals(0, second.getNewBytes());
+        assertArrayEquals(content, get(store, "b"));
+    }
+
+    @Test
+    void tornChunksAreWrittenAgain() throws IOException {
+        ChunkStore store = new ChunkStore(root, SECRET);
+        byte[] content = randomBytes(1000, 11);
+        store.put("a", new ByteArrayInputStream(content));
+        // A chunk cut short by a crash, and one of the right length whose content never reached the disk
+        Path chunk = chunkFiles().get(0);
+        byte[] sealed = Files.readAllBytes(chunk);
+        Files.write(chunk, Arrays.copyOf(sealed, sealed.length / 2));
+        ChunkStore.PutResult truncated = store.put("b", new ByteArrayInputStream(content));
+        Files.write(chunk, new byte[sealed.length]);
+        ChunkStore.PutResult zeroed = store.put("c", new ByteArrayInputStream(content));
+
+        assertEquals(1, truncated.getNewChunks());
+        assertEquals(1, zeroed.getNewChunks());
+        assertArrayEquals(content, get(store, "a"));
+        assertArrayEquals(content, get(store, "c"));
+    }
+
+    @Test
+    void editedFileOnlyWritesChangedChunks() {
+        ChunkStore store = new ChunkStore(root, SECRET);
+        byte[] content = randomBytes(2_000_000, 4);
+        store.put("file", new ByteArrayInputStream(content));
+        // Insert bytes in the middle, which shifts everything after them
+        byte[] edited = new byte[content.length + 10];
+        System.arraycopy(content, 0, edited, 0, 1_000_000);
+        System.arraycopy(content, 1_000_000, edited, 1_000_010, 1_000_000);
+        ChunkStore.PutResult result = store.put("file", new ByteArrayInputStream(edited));
+
+        assertTrue(result.getNewChunks() <= 2, result.toString());
+        assertArrayEquals(edited, get(store, "file"));
+    }
+
+    @Test
+    void wrongKeyFails() {
+        new ChunkStore(root, SECRET).put("file", new ByteArrayInputStream(randomBytes(1000, 5)));
+        ChunkStore store = new ChunkStore(root, "wrong");
+
+        assertThrows(RuntimeException.class, () -> get(store, "file"));
+    }
+
+    @Test
+    void tamperedChunkIsDetected() throws IOException {
+        ChunkStore store = new ChunkStore(root, SECRET);
+        store.put("file", new ByteArrayInputStream(randomBytes(1000, 6)));
+        Path chunk = chunkFiles().get(0);
+        byte[] bytes = Files.readAllBytes(chunk);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(chunk, bytes);
+
+        assertThrows(RuntimeException.class, () -> get(store, "file"));
+    }
+
+    @Test
+    void truncatedOrMissingChunkIsDetected() throws IOException {
+        ChunkStore store = new ChunkStore(root, SECRET);
+        store.put("file", new ByteArrayInputStream(randomBytes(1000, 7)));
+        Path chunk = chunkFiles().get(0);
+        byte[] bytes = Files.readAllBytes(chunk);
+        Files.write(chunk, Arrays.copyOf(bytes, bytes.length - 1));
+        assertThrows(RuntimeException.class, () -> get(store, "file"));
+
+        Files.delete(chunk);
+        assertThrows(RuntimeException.class, () -> get(store, "file"));
+    }
+
+    @Test
+    void manifestIsBoundToItsName() throws IOException {
+        ChunkStore store = new ChunkStore(root, SECRET);
+        store.put("a", new ByteArrayInputStream(randomBytes(1000, 8)));
+        Files.copy(store.manifestPath("a"), store.manifestPath("b"));
+
+        assertThrows(RuntimeException.class, () -> get(store, "b"));
+    }
+
+    @Test
+    void garbageCollectionKeepsReferencedChunks() throws IOException {
+        ChunkStore store = new ChunkStore(root, SECRET);
+        byte[] shared = randomBytes(500_000, 9);
+        store.put("keep", new ByteArrayInputStream(shared));
+        store.put("drop", new ByteArrayInputStream(randomBytes(500_000, 10)));
+        int before = chunkFiles().size();
+
+        assertTrue(store.delete("drop"));
+        assertFalse(store.delete("drop"));
+        int deleted = store.collectGarbage();
+
+        assertTrue(deleted > 0);
+        assertEquals(before - deleted, chunkFiles().size());
+        assertArrayEquals(shared, get(store, "keep"));
+    }
+
+    @Test
+    void rejectsNamesThatLeaveTheStore() {
+        ChunkStore store = new ChunkStore(root, SECRET);
+        assertThrows(IllegalArgumentException.class, () -> store.manifestPath("../escape"));
+        assertThrows(IllegalArgumentException.class, () -> store.manifestPath(""));
+    }
+}
@@ -0,0 +1,152 @@
+package io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tools.AES256;
+import tools.ChunkedCipher;
+import tools.CryptoContext;
+import util.ContainerHeader;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static util.TestData.SECRET;
+import static util.TestData.randomBytes;
+import static util.TestData.salt;
+
+class CipherPipelineTest {
+    private static final int CHUNK_SIZE = 1000;
+    private static final int ENCRYPTED_CHUNK_SIZE = CHUNK_SIZE + ChunkedCipher.TAG_LENGTH;
+    private static final int CHUNKS = 5;
+    private static final SecretKeySpec KEY = AES256.deriveKey(SECRET, salt());
+
+    @TempDir
+    Path dir;
+
+    private static ContainerHeader header() {
+        ContainerHeader header = new ContainerHeader(ContainerHeader.KDF_PBKDF2_SHA256, 65536, salt(),
+                ContainerHeader.CIPHER_AES_GCM_CHUNKED, CryptoContext.randomBytes(ChunkedCipher.NONCE_LENGTH));
+        header.putExtension(ContainerHeader.EXT_CHUNK_SIZE, ByteBuffer.allocate(Integer.BYTES).putInt(CHUNK_SIZE).array());
+        return header;
+    }
+
+    private byte[] encrypt(byte[] plaintext, int depth) throws IOException {
+        Path input = Files.write(dir.resolve("plain"), plaintext);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CipherPipeline.encrypt(input, out, KEY, header(), depth, written -> { });
+        return out.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] container, int depth) throws IOException {
+        Path input = Files.write(dir.resolve("container"), container);
+        ContainerHeader header = ContainerHeader.read(new ByteArrayInputStream(container));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CipherPipeline.decrypt(input, header.toBytes().length, out, KEY, header, depth, read -> { });
+        return out.toByteArray();
+    }
+
+    private static byte[] encryptChunked(byte[] plaintext) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChunkedCipher.encrypt(new ByteArrayInputStream(plaintext), out, KEY, header(), CHUNK_SIZE, ForkJoinPool.commonPool());
+        return out.toByteArray();
+    }
+
+    private static byte[] decryptChunked(byte[] container) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(container);
+        ContainerHeader header = ContainerHeader.read(in);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChunkedCipher.decrypt(in, out, KEY, header, ForkJoinPool.commonPool());
+        return out.toByteArray();
+    }
+
+    private static int headerLength(byte[] container) throws IOException {
+        return ContainerHeader.read(new ByteArrayInputStream(container)).toBytes().length;
+    }
+
+    @Test
+    void interoperatesWithChunkedCipher() throws IOException {
+        for (int length : new int[]{0, 1, CHUNK_SIZE, CHUNKS * CHUNK_SIZE, CHUNKS * CHUNK_SIZE + 1}) {
+            byte[] plaintext = randomBytes(length);
+
+            assertArrayEquals(plaintext, decryptChunked(encrypt(plaintext, CipherPipeline.DEFAULT_DEPTH)), "length " + length);
+            assertArrayEquals(plaintext, decrypt(encryptChunked(plaintext), CipherPipeline.DEFAULT_DEPTH), "length " + length);
+        }
+    }
+
+    @Test
+    void roundTripsAtEveryDepth() throws IOException {
+        byte[] plaintext = randomBytes(CHUNKS * CHUNK_SIZE + 1);
+        // From the minimum depth to a ring larger than the number of chunks
+        for (int depth : new int[]{2, 3, CHUNKS, CHUNKS + 1, 4 * CHUNKS}) {
+            assertArrayEquals(plaintext, decrypt(encrypt(plaintext, depth), depth), "depth " + depth);
+        }
+        byte[] small = randomBytes(1);
+        assertArrayEquals(small, decrypt(encrypt(small, 2 * CHUNKS), 2 * CHUNKS));
+        assertThrows(IllegalArgumentException.class, () -> encrypt(plaintext, 1));
+    }
+
+    @Test
+    void reportsProgressInOrder() throws IOException {
+        byte[] plaintext = randomBytes(CHUNKS * CHUNK_SIZE + 1);
+        Path input = Files.write(dir.resolve("plain"), plaintext);
+        long[] last = {0};
+        CipherPipeline.encrypt(input, new ByteArrayOutputStream(), KEY, header(), 2, written -> {
+            assertTrue(written > last[0]);
+            last[0] = written;
+        });
+
+        assertEquals(plaintext.length, last[0]);
+    }
+
+    @Test
+    void rejectsTruncatedContainers() throws IOException {
+        byte[] container = encrypt(randomBytes(CHUNKS * CHUNK_SIZE + 1), CipherPipeline.DEFAULT_DEPTH);
+        int dataStart = headerLength(container);
+        // Without the final chunk, mid-chunk, and without any chunk
+        for (int length : new int[]{container.length - 1 - ChunkedCipher.TAG_LENGTH, container.length - 500,
+                dataStart + ENCRYPTED_CHUNK_SIZE, dataStart + 3, dataStart}) {
+            byte[] truncated = Arrays.copyOf(container, length);
+            assertThrows(IOException.class, () -> decrypt(truncated, CipherPipeline.DEFAULT_DEPTH), "length " + length);
+        }
+    }
+
+    @Test
+    void rejectsTamperedContainers() throws IOException {
+        byte[] container = encrypt(randomBytes(CHUNKS * CHUNK_SIZE), CipherPipeline.DEFAULT_DEPTH);
+        int dataStart = headerLength(container);
+        for (int offset : new int[]{dataStart, dataStart + 2 * ENCRYPTED_CHUNK_SIZE + 10, container.length - 1}) {
+            byte[] tampered = container.clone();
+            tampered[offset] ^= 1;
+            assertThrows(IOException.class, () -> decrypt(tampered, CipherPipeline.DEFAULT_DEPTH), "offset " + offset);
+        }
+    }
+
+    @Test
+    void interruptionCancelsThePipeline() throws IOException {
+        byte[] plaintext = randomBytes(CHUNKS * CHUNK_SIZE);
+        Path input = Files.write(dir.resolve("plain"), plaintext);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            // Interrupt the calling thread once the first chunk is written
+            assertThrows(InterruptedIOException.class, () -> CipherPipeline.encrypt(input, out, KEY, header(), 2,
+                    written -> Thread.currentThread().interrupt()));
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+        assertTrue(out.size() < headerLength(out.toByteArray()) + CHUNKS * ENCRYPTED_CHUNK_SIZE);
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+}
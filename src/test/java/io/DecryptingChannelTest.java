@@ -0,0 +1,151 @@
+package io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tools.AES256;
+import tools.SeekableCipher;
+import util.ContainerHeader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static util.TestData.SECRET;
+import static util.TestData.randomBytes;
+import static util.TestData.salt;
+
+class DecryptingChannelTest {
+    private static final int CHUNK_SIZE = SeekableCipher.DEFAULT_CHUNK_SIZE;
+    private static final int SLOT_SIZE = CHUNK_SIZE + SeekableCipher.SLOT_OVERHEAD;
+
+    @TempDir
+    Path dir;
+
+    static Path encryptSeekable(Path file, byte[] plaintext) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AES256.encryptSeekable(new ByteArrayInputStream(plaintext), plaintext.length, out,
+                AES256.deriveKey(SECRET, salt()), salt());
+        return Files.write(file, out.toByteArray());
+    }
+
+    static byte[] decryptContainer(Path file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = Files.newInputStream(file)) {
+            AES256.decryptContainer(in, out, SECRET);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] read(DecryptingChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        channel.position(position);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // keep reading until the range is complete or the plaintext ends
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private static int dataStart(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return ContainerHeader.read(in).toBytes().length;
+        }
+    }
+
+    @Test
+    void streamRoundTrips() throws IOException {
+        for (int length : new int[]{0, 1, CHUNK_SIZE, CHUNK_SIZE + 1, 5 * CHUNK_SIZE - 3}) {
+            byte[] plaintext = randomBytes(length, length);
+            Path file = encryptSeekable(dir.resolve(length + ".enc"), plaintext);
+
+            assertArrayEquals(plaintext, decryptContainer(file), "length " + length);
+        }
+    }
+
+    @Test
+    void readsArbitraryRanges() throws IOException {
+        byte[] plaintext = randomBytes(5 * CHUNK_SIZE - 3, 1);
+        Path file = encryptSeekable(dir.resolve("file.enc"), plaintext);
+        Random random = new Random(2);
+        try (DecryptingChannel channel = DecryptingChannel.open(file, SECRET)) {
+            assertEquals(plaintext.length, channel.size());
+            for (int i = 0; i < 50; i++) {
+                int position = random.nextInt(plaintext.length);
+                int length = random.nextInt(3 * CHUNK_SIZE);
+                int end = Math.min(plaintext.length, position + length);
+
+                assertArrayEquals(Arrays.copyOfRange(plaintext, position, end), read(channel, position, length));
+            }
+            // Ranges across chunk boundaries, and reading at and past the end
+            assertArrayEquals(Arrays.copyOfRange(plaintext, CHUNK_SIZE - 1, CHUNK_SIZE + 1), read(channel, CHUNK_SIZE - 1, 2));
+            assertEquals(-1, channel.position(plaintext.length).read(ByteBuffer.allocate(1)));
+            assertEquals(-1, channel.position(plaintext.length + 100L).read(ByteBuffer.allocate(1)));
+        }
+    }
+
+    @Test
+    void rangeDecryptionReadsOnlyTheChunksItNeeds() throws IOException {
+        byte[] plaintext = randomBytes(3 * CHUNK_SIZE, 3);
+        Path file = encryptSeekable(dir.resolve("file.enc"), plaintext);
+        // Corrupt the first chunk: the last chunk must still decrypt on its own
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[dataStart(file) + 100] ^= 1;
+        Files.write(file, bytes);
+
+        try (DecryptingChannel channel = DecryptingChannel.open(file, SECRET)) {
+            assertArrayEquals(Arrays.copyOfRange(plaintext, 2 * CHUNK_SIZE, 2 * CHUNK_SIZE + 10),
+                    read(channel, 2 * CHUNK_SIZE, 10));
+            assertThrows(IOException.class, () -> read(channel, 0, 10));
+        }
+    }
+
+    @Test
+    void swappedSlotsAreDetected() throws IOException {
+        byte[] plaintext = randomBytes(3 * CHUNK_SIZE, 4);
+        Path file = encryptSeekable(dir.resolve("file.enc"), plaintext);
+        byte[] bytes = Files.readAllBytes(file);
+        int first = dataStart(file);
+        byte[] swapped = bytes.clone();
+        System.arraycopy(bytes, first, swapped, first + SLOT_SIZE, SLOT_SIZE);
+        System.arraycopy(bytes, first + SLOT_SIZE, swapped, first, SLOT_SIZE);
+        Files.write(file, swapped);
+
+        try (DecryptingChannel channel = DecryptingChannel.open(file, SECRET)) {
+            assertThrows(IOException.class, () -> read(channel, 0, 10));
+            assertThrows(IOException.class, () -> read(channel, CHUNK_SIZE, 10));
+        }
+        assertThrows(RuntimeException.class, () -> decryptContainer(file));
+    }
+
+    @Test
+    void truncationIsDetected() throws IOException {
+        byte[] plaintext = randomBytes(3 * CHUNK_SIZE, 5);
+        Path file = encryptSeekable(dir.resolve("file.enc"), plaintext);
+        int dataStart = dataStart(file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, dataStart + 2 * SLOT_SIZE));
+
+        assertThrows(RuntimeException.class, () -> decryptContainer(file));
+        try (DecryptingChannel channel = DecryptingChannel.open(file, SECRET)) {
+            assertThrows(IOException.class, () -> read(channel, 2 * CHUNK_SIZE, 10));
+        }
+    }
+
+    @Test
+    void rejectsOtherContainers() throws IOException {
+        Path file = dir.resolve("cbc.enc");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AES256.encryptContainer(new ByteArrayInputStream(new byte[100]), out, SECRET, salt());
+        Files.write(file, out.toByteArray());
+
+        assertThrows(IOException.class, () -> DecryptingChannel.open(file, SECRET));
+    }
+}
@@ -0,0 +1,222 @@
+package io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tools.WrongKeyException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static util.TestData.SECRET;
+import static util.TestData.randomBytes;
+
+class EncryptedArchiveTest {
+    @TempDir
+    Path dir;
+
+    private static EncryptedArchive.Entry add(EncryptedArchive archive, String name, byte[] content) {
+        return archive.add(name, new ByteArrayInputStream(content));
+    }
+
+    private static byte[] extract(EncryptedArchive archive, String name) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        archive.extract(name, out);
+        return out.toByteArray();
+    }
+
+    private static List<String> names(EncryptedArchive archive) {
+        return archive.entries().stream().map(EncryptedArchive.Entry::getName).toList();
+    }
+
+    @Test
+    void roundTripsEntries() {
+        Path file = dir.resolve("a.fea");
+        byte[] big = randomBytes(200_000, 1);
+        try (EncryptedArchive archive = EncryptedArchive.create(file, SECRET)) {
+            add(archive, "big.bin", big);
+            add(archive, "empty", new byte[0]);
+            add(archive, "docs/note.txt", "hello".getBytes());
+        }
+
+        try (EncryptedArchive archive = EncryptedArchive.open(file, SECRET)) {
+            assertEquals(List.of("big.bin", "empty", "docs/note.txt"), names(archive));
+            assertArrayEquals(big, extract(archive, "big.bin"));
+            assertArrayEquals(new byte[0], extract(archive, "empty"));
+            assertArrayEquals("hello".getBytes(), extract(archive, "docs/note.txt"));
+            assertEquals("txt", archive.getEntry("docs/note.txt").getType());
+            assertEquals(200_000, archive.getEntry("big.bin").getLength());
+            assertNull(archive.getEntry("missing"));
+            assertThrows(RuntimeException.class, () -> extract(archive, "missing"));
+        }
+    }
+
+    @Test
+    void reopenedArchiveAppendsAndReplaces() {
+        Path file = dir.resolve("a.fea");
+        try (EncryptedArchive archive = EncryptedArchive.create(file, SECRET)) {
+            add(archive, "one", "first".getBytes());
+            add(archive, "two", "second".getBytes());
+        }
+        try (EncryptedArchive archive = EncryptedArchive.openOrCreate(file, SECRET)) {
+            add(archive, "one", "replaced".getBytes());
+            add(archive, "three", "third".getBytes());
+        }
+
+        try (EncryptedArchive archive = EncryptedArchive.open(file, SECRET)) {
+            assertEquals(List.of("two", "one", "three"), names(archive));
+            assertArrayEquals("replaced".getBytes(), extract(archive, "one"));
+            assertArrayEquals("second".getBytes(), extract(archive, "two"));
+        }
+    }
+
+    @Test
+    void wrongKeyIsRejected() {
+        Path file = dir.resolve("a.fea");
+        try (EncryptedArchive archive = EncryptedArchive.create(file, SECRET)) {
+            add(archive, "one", "first".getBytes());
+        }
+
+        assertThrows(WrongKeyException.class, () -> EncryptedArchive.open(file, "wrong"));
+    }
+
+    @Test
+    void tamperedEntryIsDetected() throws IOException {
+        Path file = dir.resolve("a.fea");
+        EncryptedArchive.Entry entry;
+        try (EncryptedArchive archive = EncryptedArchive.create(file, SECRET)) {
+            add(archive, "one", randomBytes(1000, 2));
+            entry = add(archive, "two", randomBytes(1000, 3));
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[(int) entry.getOffset() + 100] ^= 1;
+        Files.write(file, bytes);
+
+        try (EncryptedArchive archive = EncryptedArchive.open(file, SECRET)) {
+            assertArrayEquals(randomBytes(1000, 2), extract(archive, "one"));
+            assertThrows(RuntimeException.class, () -> extract(archive, "two"));
+        }
+    }
+
+    @Test
+    void tamperedIndexIsDetected() throws IOException {
+        Path file = dir.resolve("a.fea");
+        try (EncryptedArchive archive = EncryptedArchive.create(file, SECRET)) {
+            add(archive, "one", "first".getBytes());
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 30] ^= 1;
+        Files.write(file, bytes);
+
+        assertThrows(RuntimeException.class, () -> EncryptedArchive.open(file, SECRET));
+    }
+
+    @Test
+    void unclosedArchiveOpensWithItsLastIndex() throws IOException {
+        Path file = dir.resolve("a.fea");
+        Path crashed = dir.resolve("crashed.fea");
+        try (EncryptedArchive archive = EncryptedArchive.create(file, SECRET)) {
+            add(archive, "one", "first".getBytes());
+        }
+        try (EncryptedArchive archive = EncryptedArchive.open(file, SECRET)) {
+            add(archive, "two", randomBytes(300_000, 4));
+            // A copy taken before close() is what a crash at this point leaves behind
+            Files.copy(file, crashed);
+        }
+
+        try (EncryptedArchive archive = EncryptedArchive.open(crashed, SECRET)) {
+            assertEquals(List.of("one"), names(archive));
+            assertArrayEquals("first".getBytes(), extract(archive, "one"));
+            add(archive, "three", "third".getBytes());
+        }
+        try (EncryptedArchive archive = EncryptedArchive.open(crashed, SECRET)) {
+            assertEquals(List.of("one", "three"), names(archive));
+            assertArrayEquals("third".getBytes(), extract(archive, "three"));
+        }
+    }
+
+    @Test
+    void partiallyWrittenIndexIsSkipped() throws IOException {
+        Path file = dir.resolve("a.fea");
+        try (EncryptedArchive archive = EncryptedArchive.create(file, SECRET)) {
+            add(archive, "one", "first".getBytes());
+        }
+        // A torn trailer, magic included, after the last complete index
+        Files.write(file, new byte[]{'F', 'E', 'A', 'X', 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (EncryptedArchive archive = EncryptedArchive.open(file, SECRET)) {
+            assertEquals(List.of("one"), names(archive));
+        }
+    }
+
+    @Test
+    void newArchiveOpensBeforeItIsClosed() throws IOException {
+        Path file = dir.resolve("a.fea");
+        Path crashed = dir.resolve("crashed.fea");
+        try (EncryptedArchive archive = EncryptedArchive.create(file, SECRET)) {
+            add(archive, "one", "first".getBytes());
+            Files.copy(file, crashed);
+        }
+
+        try (EncryptedArchive archive = EncryptedArchive.open(crashed, SECRET)) {
+            assertEquals(List.of(), names(archive));
+        }
+    }
+
+    @Test
+    void truncatedArchiveFallsBackToAnEarlierIndex() throws IOException {
+        Path file = dir.resolve("a.fea");
+        try (EncryptedArchive archive = EncryptedArchive.create(file, SECRET)) {
+            add(archive, "one", "first".getBytes());
+        }
+        try (EncryptedArchive archive = EncryptedArchive.open(file, SECRET)) {
+            add(archive, "two", "second".getBytes());
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+
+        try (EncryptedArchive archive = EncryptedArchive.open(file, SECRET)) {
+            assertEquals(List.of("one"), names(archive));
+        }
+        Files.write(file, Arrays.copyOf(bytes, 30));
+        assertThrows(RuntimeException.class, () -> EncryptedArchive.open(file, SECRET));
+    }
+
+    @Test
+    void namesAreLimitedByTheirModifiedUtf8Length() {
+        Path file = dir.resolve("a.fea");
+        // NUL takes two bytes and a supplementary character six in modified UTF-8
+        String nuls = "\0".repeat(30_000);
+        String emoji = new String(Character.toChars(0x1F600)).repeat(10_922);
+        try (EncryptedArchive archive = EncryptedArchive.create(file, SECRET)) {
+            assertThrows(IllegalArgumentException.class, () -> add(archive, "\0".repeat(40_000), new byte[1]));
+            assertThrows(IllegalArgumentException.class, () -> add(archive, emoji + "x".repeat(4), new byte[1]));
+            assertThrows(IllegalArgumentException.class, () -> add(archive, "", new byte[1]));
+            add(archive, nuls, new byte[]{1});
+            add(archive, emoji, new byte[]{2});
+        }
+
+        try (EncryptedArchive archive = EncryptedArchive.open(file, SECRET)) {
+            assertArrayEquals(new byte[]{1}, extract(archive, nuls));
+            assertArrayEquals(new byte[]{2}, extract(archive, emoji));
+        }
+    }
+
+    @Test
+    void existingFileIsNotOverwritten() throws IOException {
+        Path file = Files.write(dir.resolve("a.fea"), "not an archive".getBytes());
+
+        assertThrows(RuntimeException.class, () -> EncryptedArchive.create(file, SECRET));
+        assertThrows(RuntimeException.class, () -> EncryptedArchive.open(file, SECRET));
+        assertArrayEquals("not an archive".getBytes(), Files.readAllBytes(file));
+    }
+}
@@ -0,0 +1,117 @@
+package io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tools.AES256;
+import tools.SeekableCipher;
+import tools.WrongKeyException;
+import util.ContainerHeader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static util.TestData.SECRET;
+import static util.TestData.randomBytes;
+
+class FileOutputParserTest {
+    @TempDir
+    Path dir;
+
+    private static byte[] decrypt(Path encrypted) throws IOException {
+        String decrypted = FileOutputParser.writeDecryptedStream(encrypted.toString(), encrypted.getParent().toString(),
+                SECRET, "decrypted");
+        return Files.readAllBytes(Path.of(decrypted));
+    }
+
+    private String incremental(Path input, String secretKey, byte[] salt) {
+        return FileOutputParser.writeEncryptedIncremental(input.toString(), dir.toString(), secretKey,
+                Base64.getEncoder().encodeToString(salt), "file", bytesRead -> { });
+    }
+
+    private static ContainerHeader header(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return ContainerHeader.read(in);
+        }
+    }
+
+    @Test
+    void decryptsContainer() throws IOException {
+        byte[] plaintext = randomBytes(70_000);
+        ByteArrayOutputStream container = new ByteArrayOutputStream();
+        AES256.encryptContainer(new ByteArrayInputStream(plaintext), container, SECRET, randomBytes(16));
+
+        assertArrayEquals(plaintext, decrypt(Files.write(dir.resolve("container.enc"), container.toByteArray())));
+    }
+
+    @Test
+    void decryptsLegacySaltAndBase64Layout() throws IOException {
+        byte[] plaintext = randomBytes(70_000);
+        byte[] salt = randomBytes(16);
+        ByteArrayOutputStream legacy = new ByteArrayOutputStream();
+        legacy.writeBytes(salt);
+        AES256.encryptStream(new ByteArrayInputStream(plaintext), legacy, SECRET, Base64.getEncoder().encodeToString(salt));
+
+        assertArrayEquals(plaintext, decrypt(Files.write(dir.resolve("legacy.enc"), legacy.toByteArray())));
+    }
+
+    @Test
+    void incrementalEncryptionCreatesAMissingFile() throws IOException {
+        byte[] plaintext = randomBytes(3 * SeekableCipher.DEFAULT_CHUNK_SIZE + 1);
+        Path input = Files.write(dir.resolve("input"), plaintext);
+
+        Path output = Path.of(incremental(input, SECRET, randomBytes(16, 1)));
+
+        assertEquals(ContainerHeader.CIPHER_AES_GCM_SEEKABLE, header(output).getCipher());
+        assertArrayEquals(plaintext, decrypt(output));
+    }
+
+    @Test
+    void incrementalEncryptionUpdatesASeekableFileInPlace() throws IOException {
+        byte[] plaintext = randomBytes(3 * SeekableCipher.DEFAULT_CHUNK_SIZE);
+        Path input = Files.write(dir.resolve("input"), plaintext);
+        Path output = Path.of(incremental(input, SECRET, randomBytes(16, 1)));
+
+        plaintext[SeekableCipher.DEFAULT_CHUNK_SIZE + 7] ^= 1;
+        Files.write(input, plaintext);
+        incremental(input, SECRET, randomBytes(16, 2));
+
+        // The existing file keeps its salt
+        assertArrayEquals(randomBytes(16, 1), header(output).getSalt());
+        assertArrayEquals(plaintext, decrypt(output));
+    }
+
+    @Test
+    void incrementalEncryptionReplacesOtherFormats() throws IOException {
+        byte[] plaintext = randomBytes(100_000);
+        Path input = Files.write(dir.resolve("input"), plaintext);
+        ByteArrayOutputStream chunked = new ByteArrayOutputStream();
+        AES256.encryptParallel(new ByteArrayInputStream(plaintext), chunked, SECRET, randomBytes(16, 1));
+        Files.write(dir.resolve("file.enc"), chunked.toByteArray());
+
+        Path output = Path.of(incremental(input, SECRET, randomBytes(16, 2)));
+
+        assertEquals(ContainerHeader.CIPHER_AES_GCM_SEEKABLE, header(output).getCipher());
+        assertArrayEquals(plaintext, decrypt(output));
+    }
+
+    @Test
+    void incrementalEncryptionNeverOverwritesAFileWithAnotherKey() throws IOException {
+        byte[] plaintext = randomBytes(2 * SeekableCipher.DEFAULT_CHUNK_SIZE);
+        Path input = Files.write(dir.resolve("input"), plaintext);
+        Path output = Path.of(incremental(input, SECRET, randomBytes(16, 1)));
+        byte[] before = Files.readAllBytes(output);
+
+        Files.write(input, randomBytes(plaintext.length, 3));
+        assertThrows(WrongKeyException.class, () -> incremental(input, "wrong", randomBytes(16, 2)));
+        assertArrayEquals(before, Files.readAllBytes(output));
+        assertArrayEquals(plaintext, decrypt(output));
+    }
+}
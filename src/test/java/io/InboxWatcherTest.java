@@ -0,0 +1,165 @@
+package io;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.BatchReport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static util.TestData.SECRET;
+import static util.TestData.randomBytes;
+import static util.TestData.salt;
+
+class InboxWatcherTest {
+    private static final long QUIET_MILLIS = 300;
+
+    @TempDir
+    Path inbox;
+    @TempDir
+    Path output;
+
+    private final BlockingQueue<BatchReport.FileResult> results = new LinkedBlockingQueue<>();
+    private InboxWatcher watcher;
+    private Thread thread;
+
+    private void start(boolean deleteOriginals) {
+        watcher = new InboxWatcher(inbox.toString(), output.toString(), SECRET, Base64.getEncoder().encodeToString(salt()));
+        watcher.setQuietPeriod(QUIET_MILLIS);
+        watcher.setConcurrency(2);
+        watcher.setDeleteOriginals(deleteOriginals);
+        watcher.setResultListener(results::add);
+        thread = new Thread(watcher::run, "inbox-watcher-test");
+        thread.start();
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        if (watcher != null) {
+            watcher.close();
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+            assertFalse(thread.isAlive());
+        }
+    }
+
+    private BatchReport.FileResult nextResult() throws InterruptedException {
+        BatchReport.FileResult result = results.poll(10, TimeUnit.SECONDS);
+        assertNotNull(result, "no file was encrypted");
+        assertEquals(BatchReport.Status.SUCCEEDED, result.getStatus(), result.toString());
+        return result;
+    }
+
+    private void assertNoMoreResults() throws InterruptedException {
+        assertNull(results.poll(3 * QUIET_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    private byte[] decrypt(String name) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = Files.newInputStream(output.resolve(name))) {
+            FileOutputParser.decryptStream(in, out, SECRET);
+        }
+        return out.toByteArray();
+    }
+
+    private List<String> outputNames() throws IOException {
+        try (Stream<Path> files = Files.list(output)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    @Test
+    void encryptsFilesOnceTheyAreQuiet() throws Exception {
+        start(false);
+        Path file = inbox.resolve("a.bin");
+        // Keep the file growing with pauses shorter than the quiet period
+        for (int i = 0; i < 3; i++) {
+            Files.write(file, randomBytes(1000, i), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            Thread.sleep(QUIET_MILLIS / 4);
+        }
+        Files.write(file, randomBytes(1000, 3), StandardOpenOption.APPEND);
+        long lastWrite = System.nanoTime();
+
+        BatchReport.FileResult result = nextResult();
+        assertTrue(System.nanoTime() - lastWrite >= TimeUnit.MILLISECONDS.toNanos(QUIET_MILLIS));
+        assertEquals(4000, result.getBytesIn());
+        assertEquals(4000, decrypt("a.bin.enc").length);
+        assertNoMoreResults();
+    }
+
+    @Test
+    void skipsEncryptedAndHiddenFiles() throws Exception {
+        Files.write(inbox.resolve("old.enc"), randomBytes(100, 1));
+        Files.write(inbox.resolve(".partial"), randomBytes(100, 2));
+        start(false);
+        Files.write(inbox.resolve("b.txt"), "plain text\n".getBytes());
+        Files.write(inbox.resolve(".hidden"), randomBytes(100, 3));
+        Files.write(inbox.resolve("new.enc"), randomBytes(100, 4));
+
+        assertTrue(nextResult().getPath().endsWith("b.txt"));
+        assertNoMoreResults();
+        assertEquals(List.of("b.txt.enc"), outputNames());
+        assertArrayEquals("plain text\n".getBytes(), decrypt("b.txt.enc"));
+    }
+
+    @Test
+    void upToDateFilesAreNotEncryptedAgain() throws Exception {
+        Files.write(inbox.resolve("c.bin"), randomBytes(1000));
+        start(false);
+        nextResult();
+        stop();
+
+        start(false);
+        assertNoMoreResults();
+    }
+
+    @Test
+    void deletesOriginalsOnlyOnceEncrypted() throws Exception {
+        start(true);
+        Files.write(inbox.resolve("d.bin"), randomBytes(1000));
+
+        nextResult();
+        assertFalse(Files.exists(inbox.resolve("d.bin")));
+        assertArrayEquals(randomBytes(1000), decrypt("d.bin.enc"));
+    }
+
+    @Test
+    void reencryptsAFileModifiedWhileItIsEncrypted() throws Exception {
+        Path file = inbox.resolve("e.bin");
+        byte[] original = randomBytes(64 * 1024 * 1024, 1);
+        Files.write(file, original);
+        FileTime written = Files.getLastModifiedTime(file);
+        start(true);
+
+        // The encrypted file's temporary file appears as soon as encryption starts
+        while (outputNames().isEmpty()) {
+            Thread.onSpinWait();
+        }
+        byte[] modified = randomBytes(1000, 2);
+        Files.write(file, modified);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(written.toMillis() + 10_000));
+
+        // The first run leaves the changed original in place, and the change is encrypted in turn
+        assertEquals(original.length, nextResult().getBytesIn());
+        assertEquals(modified.length, nextResult().getBytesIn());
+        assertArrayEquals(modified, decrypt("e.bin.enc"));
+        assertFalse(Files.exists(file));
+    }
+}
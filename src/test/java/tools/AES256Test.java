@@ -0,0 +1,187 @@
+package tools;
+
+import org.junit.jupiter.api.Test;
+import util.ContainerHeader;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static util.TestData.SECRET;
+import static util.TestData.randomBytes;
+import static util.TestData.salt;
+
+class AES256Test {
+    static byte[] encryptContainer(byte[] plaintext) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AES256.encryptContainer(new ByteArrayInputStream(plaintext), out, SECRET, salt());
+        return out.toByteArray();
+    }
+
+    static byte[] decryptContainer(byte[] container, String secretKey) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AES256.decryptContainer(new ByteArrayInputStream(container), out, secretKey);
+        return out.toByteArray();
+    }
+
+    @Test
+    void containerRoundTrips() {
+        for (int length : new int[]{0, 1, 15, 16, 17, 100_000}) {
+            byte[] plaintext = randomBytes(length);
+            assertArrayEquals(plaintext, decryptContainer(encryptContainer(plaintext), SECRET), "length " + length);
+        }
+    }
+
+    @Test
+    void containerHasHeaderAndRawCiphertext() throws IOException {
+        byte[] plaintext = randomBytes(1000);
+        byte[] container = encryptContainer(plaintext);
+        ContainerHeader header = ContainerHeader.read(new ByteArrayInputStream(container));
+
+        assertEquals(ContainerHeader.CIPHER_AES_CBC, header.getCipher());
+        assertArrayEquals(salt(), header.getSalt());
+        // No Base64 envelope: the ciphertext is the plaintext padded to the next block
+        assertEquals(header.toBytes().length + 1008, container.length);
+    }
+
+    @Test
+    void truncatedContainerFails() {
+        byte[] container = encryptContainer(randomBytes(1000));
+        assertThrows(RuntimeException.class, () -> decryptContainer(Arrays.copyOf(container, container.length - 5), SECRET));
+        assertThrows(RuntimeException.class, () -> decryptContainer(Arrays.copyOf(container, 20), SECRET));
+    }
+
+    @Test
+    void stringEncryptionRoundTrips() {
+        String salt = "c2FsdHNhbHRzYWx0c2FsdA==";
+        String encrypted = AES256.encrypt("hello world", SECRET, salt);
+        assertEquals("hello world", AES256.decrypt(encrypted, SECRET, salt));
+    }
+
+    private static byte[] withHeader(byte[] container, ContainerHeader header) throws IOException {
+        int oldLength = ContainerHeader.read(new ByteArrayInputStream(container)).toBytes().length;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(header.toBytes());
+        out.write(container, oldLength, container.length - oldLength);
+        return out.toByteArray();
+    }
+
+    private static ContainerHeader copyWithoutKeyCheck(ContainerHeader header, int iterations) {
+        ContainerHeader copy = new ContainerHeader(header.getKdf(), iterations, header.getSalt(), header.getCipher(),
+                header.getIv());
+        for (int tag = 0; tag < 256; tag++) {
+            byte[] value = header.getExtension(tag);
+            if (value != null && tag != ContainerHeader.EXT_KEY_CHECK) {
+                copy.putExtension(tag, value);
+            }
+        }
+        return copy;
+    }
+
+    @Test
+    void wrongKeyIsRejectedBeforeDecrypting() {
+        byte[] container = encryptContainer(randomBytes(1000));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertThrows(WrongKeyException.class,
+                () -> AES256.decryptContainer(new ByteArrayInputStream(container), out, "wrong"));
+        assertEquals(0, out.size());
+    }
+
+    @Test
+    void wrongKeyIsRejectedForEveryCipher() {
+        byte[] plaintext = randomBytes(1000);
+        ByteArrayOutputStream chunked = new ByteArrayOutputStream();
+        AES256.encryptParallel(new ByteArrayInputStream(plaintext), chunked, SECRET, salt());
+        ByteArrayOutputStream seekable = new ByteArrayOutputStream();
+        AES256.encryptSeekable(new ByteArrayInputStream(plaintext), plaintext.length, seekable,
+                AES256.deriveKey(SECRET, salt()), salt());
+
+        for (byte[] container : new byte[][]{chunked.toByteArray(), seekable.toByteArray()}) {
+            assertThrows(WrongKeyException.class, () -> decryptContainer(container, "wrong"));
+            assertArrayEquals(plaintext, decryptContainer(container, SECRET));
+        }
+    }
+
+    @Test
+    void keyCheckIsBoundToItsContainer() throws IOException {
+        byte[] first = encryptContainer(randomBytes(100));
+        byte[] second = encryptContainer(randomBytes(100));
+        ContainerHeader firstHeader = ContainerHeader.read(new ByteArrayInputStream(first));
+        ContainerHeader secondHeader = ContainerHeader.read(new ByteArrayInputStream(second));
+        // Same key and salt, but a different IV, so the check value differs
+        secondHeader.putExtension(ContainerHeader.EXT_KEY_CHECK, firstHeader.getExtension(ContainerHeader.EXT_KEY_CHECK));
+
+        byte[] tampered = withHeader(second, secondHeader);
+        assertThrows(WrongKeyException.class, () -> decryptContainer(tampered, SECRET));
+    }
+
+    @Test
+    void keyCheckIsKeyedWithASubkey() throws Exception {
+        byte[] container = encryptContainer(randomBytes(100));
+        ContainerHeader header = ContainerHeader.read(new ByteArrayInputStream(container));
+        SecretKeySpec key = AES256.deriveKey(SECRET, salt());
+
+        byte[] subkey = hmac(key.getEncoded(), "kcv".getBytes(StandardCharsets.UTF_8));
+        assertArrayEquals(keyCheck(subkey, header), header.getExtension(ContainerHeader.EXT_KEY_CHECK));
+        // Never a value computed directly with the content key
+        assertFalse(Arrays.equals(keyCheck(key.getEncoded(), header), header.getExtension(ContainerHeader.EXT_KEY_CHECK)));
+    }
+
+    @Test
+    void containersWithoutKeyCheckStillDecrypt() throws IOException {
+        byte[] plaintext = randomBytes(1000);
+        byte[] container = encryptContainer(plaintext);
+        ContainerHeader header = ContainerHeader.read(new ByteArrayInputStream(container));
+        byte[] unchecked = withHeader(container, copyWithoutKeyCheck(header, header.getIterations()));
+
+        assertArrayEquals(plaintext, decryptContainer(unchecked, SECRET));
+    }
+
+    @Test
+    void rejectsIterationCountsOutOfRange() throws IOException {
+        byte[] container = encryptContainer(randomBytes(100));
+        ContainerHeader header = ContainerHeader.read(new ByteArrayInputStream(container));
+        for (int iterations : new int[]{0, 1, ContainerHeader.MIN_ITERATIONS - 1, ContainerHeader.MAX_ITERATIONS + 1,
+                Integer.MAX_VALUE, -1}) {
+            byte[] hostile = withHeader(container, copyWithoutKeyCheck(header, iterations));
+
+            RuntimeException e = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                    () -> assertThrows(RuntimeException.class, () -> decryptContainer(hostile, SECRET)));
+            assertInstanceOf(IOException.class, e.getCause(), "iterations " + iterations);
+            assertThrows(IllegalArgumentException.class,
+                    () -> AES256.deriveKey(SECRET, copyWithoutKeyCheck(header, iterations)));
+        }
+    }
+
+    private static byte[] hmac(byte[] key, byte[] data) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(data);
+    }
+
+    // The key check value as specified: a truncated HMAC over the label and the header fields
+    private static byte[] keyCheck(byte[] macKey, ContainerHeader header) throws Exception {
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        input.write("file-encrypter key check".getBytes(StandardCharsets.UTF_8));
+        input.write(ByteBuffer.allocate(6).put((byte) header.getKdf()).putInt(header.getIterations())
+                .put((byte) header.getCipher()).array());
+        input.write(header.getSalt().length);
+        input.write(header.getSalt());
+        input.write(header.getIv().length);
+        input.write(header.getIv());
+        return Arrays.copyOf(hmac(macKey, input.toByteArray()), 16);
+    }
+}
@@ -0,0 +1,129 @@
+package tools;
+
+import org.junit.jupiter.api.Test;
+import util.ContainerHeader;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static util.TestData.SECRET;
+import static util.TestData.randomBytes;
+import static util.TestData.salt;
+
+class ChunkedCipherTest {
+    private static final int CHUNK_SIZE = 1000;
+    private static final int ENCRYPTED_CHUNK_SIZE = CHUNK_SIZE + ChunkedCipher.TAG_LENGTH;
+    private static final SecretKeySpec KEY = AES256.deriveKey(SECRET, salt());
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // A fresh base nonce per container: GCM refuses to encrypt twice under the same key and nonce
+    private static byte[] nonce() {
+        byte[] nonce = new byte[ChunkedCipher.NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        return nonce;
+    }
+
+    private static ContainerHeader header() {
+        ContainerHeader header = new ContainerHeader(ContainerHeader.KDF_PBKDF2_SHA256, 65536, salt(),
+                ContainerHeader.CIPHER_AES_GCM_CHUNKED, nonce());
+        header.putExtension(ContainerHeader.EXT_CHUNK_SIZE, ByteBuffer.allocate(Integer.BYTES).putInt(CHUNK_SIZE).array());
+        return header;
+    }
+
+    private static byte[] encrypt(ContainerHeader header, byte[] plaintext) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChunkedCipher.encrypt(new ByteArrayInputStream(plaintext), out, KEY, header, CHUNK_SIZE, ForkJoinPool.commonPool());
+        return out.toByteArray();
+    }
+
+    private static byte[] decrypt(byte[] container) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(container);
+        ContainerHeader header = ContainerHeader.read(in);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChunkedCipher.decrypt(in, out, KEY, header, ForkJoinPool.commonPool());
+        return out.toByteArray();
+    }
+
+    @Test
+    void roundTripsAtChunkBoundaries() throws IOException {
+        for (int length : new int[]{0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1, 3 * CHUNK_SIZE, 100 * CHUNK_SIZE + 7}) {
+            byte[] plaintext = randomBytes(length);
+            byte[] container = encrypt(header(), plaintext);
+
+            assertArrayEquals(plaintext, decrypt(container), "length " + length);
+        }
+    }
+
+    @Test
+    void payloadIsChunksWithTags() throws IOException {
+        ContainerHeader header = header();
+        byte[] container = encrypt(header, randomBytes(2 * CHUNK_SIZE + 10));
+        assertEquals(header.toBytes().length + 2 * ENCRYPTED_CHUNK_SIZE + 10 + ChunkedCipher.TAG_LENGTH, container.length);
+    }
+
+    @Test
+    void parallelContainerRoundTripsThroughDecryptContainer() {
+        byte[] plaintext = randomBytes(ChunkedCipher.DEFAULT_CHUNK_SIZE * 2 + 123);
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        AES256.encryptParallel(new ByteArrayInputStream(plaintext), encrypted, SECRET, salt());
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        AES256.decryptContainer(new ByteArrayInputStream(encrypted.toByteArray()), decrypted, SECRET);
+
+        assertArrayEquals(plaintext, decrypted.toByteArray());
+    }
+
+    @Test
+    void truncationAtChunkBoundaryIsDetected() throws IOException {
+        ContainerHeader header = header();
+        byte[] container = encrypt(header, randomBytes(3 * CHUNK_SIZE + 10));
+        int dataStart = header.toBytes().length;
+
+        // Dropping the final chunk leaves a chunk that was not authenticated as final
+        byte[] truncated = Arrays.copyOf(container, dataStart + 3 * ENCRYPTED_CHUNK_SIZE);
+        assertThrows(IOException.class, () -> decrypt(truncated));
+        byte[] headerOnly = Arrays.copyOf(container, dataStart);
+        assertThrows(IOException.class, () -> decrypt(headerOnly));
+    }
+
+    @Test
+    void reorderedChunksAreDetected() throws IOException {
+        ContainerHeader header = header();
+        byte[] container = encrypt(header, randomBytes(3 * CHUNK_SIZE + 10));
+        int first = header.toBytes().length;
+        int second = first + ENCRYPTED_CHUNK_SIZE;
+        byte[] swapped = container.clone();
+        System.arraycopy(container, first, swapped, second, ENCRYPTED_CHUNK_SIZE);
+        System.arraycopy(container, second, swapped, first, ENCRYPTED_CHUNK_SIZE);
+
+        assertThrows(IOException.class, () -> decrypt(swapped));
+    }
+
+    @Test
+    void tamperedChunkIsDetected() throws IOException {
+        ContainerHeader header = header();
+        byte[] container = encrypt(header, randomBytes(3 * CHUNK_SIZE));
+        container[header.toBytes().length + CHUNK_SIZE + 100] ^= 1;
+
+        assertThrows(IOException.class, () -> decrypt(container));
+    }
+
+    @Test
+    void wrongKeyFails() throws IOException {
+        byte[] container = encrypt(header(), randomBytes(CHUNK_SIZE));
+        ByteArrayInputStream in = new ByteArrayInputStream(container);
+        ContainerHeader header = ContainerHeader.read(in);
+        SecretKeySpec wrongKey = AES256.deriveKey("wrong", salt());
+
+        assertThrows(IOException.class,
+                () -> ChunkedCipher.decrypt(in, new ByteArrayOutputStream(), wrongKey, header, ForkJoinPool.commonPool()));
+    }
+}
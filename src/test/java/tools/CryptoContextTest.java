@@ -0,0 +1,80 @@
+package tools;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CryptoContextTest {
+    @Test
+    void reusesInstancesWithinAThread() throws GeneralSecurityException {
+        assertSame(CryptoContext.cipher(CryptoContext.AES_GCM), CryptoContext.cipher(CryptoContext.AES_GCM));
+        assertSame(CryptoContext.mac(CryptoContext.HMAC_SHA256), CryptoContext.mac(CryptoContext.HMAC_SHA256));
+        assertSame(CryptoContext.keyFactory(CryptoContext.PBKDF2), CryptoContext.keyFactory(CryptoContext.PBKDF2));
+    }
+
+    @Test
+    void keepsOneInstancePerAlgorithm() throws GeneralSecurityException {
+        Cipher gcm = CryptoContext.cipher(CryptoContext.AES_GCM);
+        Cipher cbc = CryptoContext.cipher(CryptoContext.AES_CBC);
+
+        assertNotSame(gcm, cbc);
+        assertEquals(CryptoContext.AES_GCM, gcm.getAlgorithm());
+        assertEquals(CryptoContext.AES_CBC, cbc.getAlgorithm());
+    }
+
+    @Test
+    void givesEachThreadItsOwnInstances() throws Exception {
+        Cipher cipher = CryptoContext.cipher(CryptoContext.AES_GCM);
+        Mac mac = CryptoContext.mac(CryptoContext.HMAC_SHA256);
+        SecretKeyFactory factory = CryptoContext.keyFactory(CryptoContext.PBKDF2);
+
+        Object[] other = onAnotherThread();
+        assertNotSame(cipher, other[0]);
+        assertNotSame(mac, other[1]);
+        assertNotSame(factory, other[2]);
+        // The other thread reused its instances as well
+        assertSame(other[0], other[3]);
+    }
+
+    @Test
+    void sharesOneSecureRandom() throws Exception {
+        assertSame(CryptoContext.random(), CompletableFuture.supplyAsync(CryptoContext::random).get());
+        assertEquals(12, CryptoContext.randomBytes(12).length);
+        assertFalse(Arrays.equals(CryptoContext.randomBytes(16), CryptoContext.randomBytes(16)));
+    }
+
+    @Test
+    void reportsUnknownAlgorithms() {
+        assertThrows(GeneralSecurityException.class, () -> CryptoContext.cipher("NoSuchCipher"));
+        assertThrows(NoSuchAlgorithmException.class, () -> CryptoContext.mac("NoSuchMac"));
+    }
+
+    private static Object[] onAnotherThread() throws InterruptedException {
+        Object[] instances = new Object[4];
+        Thread thread = new Thread(() -> {
+            try {
+                instances[0] = CryptoContext.cipher(CryptoContext.AES_GCM);
+                instances[1] = CryptoContext.mac(CryptoContext.HMAC_SHA256);
+                instances[2] = CryptoContext.keyFactory(CryptoContext.PBKDF2);
+                instances[3] = CryptoContext.cipher(CryptoContext.AES_GCM);
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        thread.join();
+        return instances;
+    }
+}
@@ -0,0 +1,107 @@
+package tools;
+
+import org.junit.jupiter.api.Test;
+import util.ContainerHeader;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static util.TestData.SECRET;
+import static util.TestData.randomBytes;
+import static util.TestData.salt;
+
+class DeflateCodecTest {
+    private static final SecretKeySpec KEY = AES256.deriveKey(SECRET, salt());
+
+    private static byte[] text(int lines) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            text.append("Line ").append(i).append(": the quick brown fox jumps over the lazy dog\n");
+        }
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] compress(byte[] plaintext) throws IOException {
+        try (InputStream in = new DeflateCodec().compress(new ByteArrayInputStream(plaintext))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream sink = new DeflateCodec().decompress(out)) {
+            sink.write(compressed);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] encryptContainer(byte[] plaintext, Codec codec) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AES256.encryptContainer(new ByteArrayInputStream(plaintext), out, KEY, salt(), codec);
+        return out.toByteArray();
+    }
+
+    private static byte[] decryptContainer(byte[] container) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AES256.decryptContainer(new ByteArrayInputStream(container), out, SECRET);
+        return out.toByteArray();
+    }
+
+    @Test
+    void roundTripsThroughTheContainer() throws IOException {
+        for (byte[] plaintext : new byte[][]{new byte[0], text(1), text(10_000), randomBytes(100_000)}) {
+            byte[] container = encryptContainer(plaintext, new DeflateCodec());
+
+            ContainerHeader header = ContainerHeader.read(new ByteArrayInputStream(container));
+            assertArrayEquals(new byte[]{DeflateCodec.ID}, header.getExtension(ContainerHeader.EXT_CODEC));
+            assertArrayEquals(plaintext, decryptContainer(container));
+        }
+    }
+
+    @Test
+    void compressesTextInTheContainer() throws IOException {
+        byte[] plaintext = text(10_000);
+        byte[] compressed = encryptContainer(plaintext, new DeflateCodec());
+        byte[] uncompressed = encryptContainer(plaintext, null);
+
+        assertTrue(compressed.length < uncompressed.length / 4);
+        assertNull(ContainerHeader.read(new ByteArrayInputStream(uncompressed)).getExtension(ContainerHeader.EXT_CODEC));
+    }
+
+    @Test
+    void picksTheCodecByFileType() {
+        assertInstanceOf(DeflateCodec.class, Codecs.forFileType("txt"));
+        assertInstanceOf(DeflateCodec.class, Codecs.forContent(text(10)));
+        assertNull(Codecs.forFileType("jpg"));
+        assertNull(Codecs.forContent(randomBytes(1000)));
+    }
+
+    @Test
+    void rejectsATruncatedStream() throws IOException {
+        byte[] compressed = compress(text(1000));
+        assertArrayEquals(text(1000), decompress(compressed));
+
+        for (int length : new int[]{0, 1, compressed.length / 2, compressed.length - 1}) {
+            byte[] truncated = Arrays.copyOf(compressed, length);
+            assertThrows(EOFException.class, () -> decompress(truncated), "length " + length);
+        }
+    }
+
+    @Test
+    void rejectsInvalidLevels() {
+        assertThrows(IllegalArgumentException.class, () -> new DeflateCodec(10));
+        assertThrows(IllegalArgumentException.class, () -> new DeflateCodec(-2));
+    }
+}
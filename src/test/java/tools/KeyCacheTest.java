@@ -0,0 +1,90 @@
+package tools;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static util.TestData.SECRET;
+import static util.TestData.randomBytes;
+import static util.TestData.salt;
+
+class KeyCacheTest {
+    private static final long ONE_HOUR = 3_600_000;
+
+    @Test
+    void returnsCopiesOfCachedKeys() {
+        KeyCache cache = new KeyCache(4, ONE_HOUR);
+        byte[] key = randomBytes(32);
+        cache.put("a", key);
+        key[0] ^= 1;
+
+        byte[] cached = cache.get("a");
+        assertArrayEquals(randomBytes(32), cached);
+        cached[0] ^= 1;
+        assertArrayEquals(randomBytes(32), cache.get("a"));
+        assertNotSame(cache.get("a"), cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntry() {
+        KeyCache cache = new KeyCache(2, ONE_HOUR);
+        cache.put("a", randomBytes(32, 1));
+        cache.put("b", randomBytes(32, 2));
+        // Reading "a" makes "b" the least recently used
+        cache.get("a");
+        cache.put("c", randomBytes(32, 3));
+
+        assertEquals(2, cache.size());
+        assertArrayEquals(randomBytes(32, 1), cache.get("a"));
+        assertNull(cache.get("b"));
+        assertArrayEquals(randomBytes(32, 3), cache.get("c"));
+    }
+
+    @Test
+    void expiresEntriesAfterTheirTtl() throws InterruptedException {
+        KeyCache cache = new KeyCache(4, 20);
+        cache.put("a", randomBytes(32));
+        assertArrayEquals(randomBytes(32), cache.get("a"));
+
+        Thread.sleep(50);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void clearRemovesEveryEntry() {
+        KeyCache cache = new KeyCache(4, ONE_HOUR);
+        cache.put("a", randomBytes(32, 1));
+        cache.put("b", randomBytes(32, 2));
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    void fingerprintsDependOnEveryInput() {
+        KeyCache cache = new KeyCache(4, ONE_HOUR);
+        String fingerprint = cache.fingerprint(SECRET, salt(), 65536);
+
+        assertEquals(fingerprint, cache.fingerprint(SECRET, salt(), 65536));
+        assertNotEquals(fingerprint, cache.fingerprint("another secret", salt(), 65536));
+        assertNotEquals(fingerprint, cache.fingerprint(SECRET, randomBytes(16), 65536));
+        assertNotEquals(fingerprint, cache.fingerprint(SECRET, salt(), 65537));
+        // Moving bytes between the secret and the salt changes the fingerprint too
+        assertNotEquals(cache.fingerprint("ab", "c".getBytes(), 1), cache.fingerprint("a", "bc".getBytes(), 1));
+        // Fingerprints are keyed per cache, so they cannot be checked against a guessed secret elsewhere
+        assertNotEquals(fingerprint, new KeyCache(4, ONE_HOUR).fingerprint(SECRET, salt(), 65536));
+    }
+
+    @Test
+    void rejectsInvalidLimits() {
+        assertThrows(IllegalArgumentException.class, () -> new KeyCache(0, ONE_HOUR));
+        assertThrows(IllegalArgumentException.class, () -> new KeyCache(4, 0));
+    }
+}
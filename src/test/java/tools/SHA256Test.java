@@ -0,0 +1,101 @@
+package tools;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.Hex;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static util.TestData.randomBytes;
+
+class SHA256Test {
+    private static final String EMPTY = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+    private static final String ABC = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    @TempDir
+    Path dir;
+
+    // The tree digest as specified: a digest of the prefixed leaf digests, each over a prefixed leaf
+    private static byte[] expectedTreeDigest(byte[] content) {
+        MessageDigest root = SHA256.newDigest();
+        root.update((byte) 0x01);
+        int offset = 0;
+        do {
+            int length = Math.min(SHA256.TREE_LEAF_SIZE, content.length - offset);
+            MessageDigest leaf = SHA256.newDigest();
+            leaf.update((byte) 0x00);
+            leaf.update(content, offset, length);
+            root.update(leaf.digest());
+            offset += length;
+        } while (offset < content.length);
+        return root.digest();
+    }
+
+    @Test
+    void matchesKnownVectors() {
+        assertEquals(EMPTY, SHA256.hash(""));
+        assertEquals(ABC, SHA256.hash("abc"));
+        assertEquals("248d6a61d20638b8e5c026930c3e6039a33ce45964ff2167f6ecedd419db06c1",
+                SHA256.hash("abcdbcdecdefdefgefghfghighijhijkijkljklmklmnlmnomnopnopq"));
+    }
+
+    @Test
+    void digestsAgreeAcrossSources() throws IOException {
+        for (int length : new int[]{0, 1, 64 * 1024, 200_000}) {
+            byte[] content = randomBytes(length);
+            Path file = Files.write(dir.resolve("file" + length), content);
+            byte[] expected = SHA256.newDigest().digest(content);
+
+            assertArrayEquals(expected, SHA256.digest(new ByteArrayInputStream(content)));
+            assertArrayEquals(expected, SHA256.digest(ByteBuffer.wrap(content)));
+            assertArrayEquals(expected, SHA256.digest(file));
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                assertArrayEquals(expected, SHA256.digest(channel));
+            }
+        }
+        assertEquals(ABC, Hex.encode(SHA256.digest(ByteBuffer.wrap("abc".getBytes()))));
+    }
+
+    @Test
+    void treeDigestFollowsItsDefinition() throws IOException {
+        for (int length : new int[]{0, 1, SHA256.TREE_LEAF_SIZE, 2 * SHA256.TREE_LEAF_SIZE + 1}) {
+            byte[] content = randomBytes(length);
+            Path file = Files.write(dir.resolve("file"), content);
+
+            assertArrayEquals(expectedTreeDigest(content), SHA256.treeDigest(file), "length " + length);
+        }
+    }
+
+    @Test
+    void treeDigestIsStable() throws IOException {
+        byte[] content = randomBytes(3 * SHA256.TREE_LEAF_SIZE + 5);
+        Path file = Files.write(dir.resolve("file"), content);
+        byte[] digest = SHA256.treeDigest(file);
+
+        // Whatever the parallelism, and never the plain digest
+        ForkJoinPool single = new ForkJoinPool(1);
+        try {
+            assertArrayEquals(digest, SHA256.treeDigest(file, single));
+        } finally {
+            single.shutdown();
+        }
+        assertArrayEquals(digest, SHA256.treeDigest(file));
+        assertFalse(Arrays.equals(digest, SHA256.digest(file)));
+
+        content[SHA256.TREE_LEAF_SIZE + 1] ^= 1;
+        Files.write(file, content);
+        assertFalse(Arrays.equals(digest, SHA256.treeDigest(file)));
+    }
+}
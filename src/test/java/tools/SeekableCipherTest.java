@@ -0,0 +1,134 @@
+package tools;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static util.TestData.SECRET;
+import static util.TestData.randomBytes;
+import static util.TestData.salt;
+
+class SeekableCipherTest {
+    private static final int CHUNK_SIZE = SeekableCipher.DEFAULT_CHUNK_SIZE;
+
+    @TempDir
+    Path dir;
+
+    private Path encryptSeekable(byte[] plaintext) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AES256.encryptSeekable(new ByteArrayInputStream(plaintext), plaintext.length, out,
+                AES256.deriveKey(SECRET, salt()), salt());
+        return Files.write(dir.resolve("file.enc"), out.toByteArray());
+    }
+
+    private static long update(Path file, byte[] plaintext, String secretKey) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return AES256.updateSeekable(channel, new ByteArrayInputStream(plaintext), plaintext.length, secretKey);
+        }
+    }
+
+    private static byte[] decrypt(Path file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = Files.newInputStream(file)) {
+            AES256.decryptContainer(in, out, SECRET);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void unchangedContentWritesNoChunks() throws IOException {
+        byte[] plaintext = randomBytes(3 * CHUNK_SIZE + 10, 1);
+        Path file = encryptSeekable(plaintext);
+
+        assertEquals(0, update(file, plaintext, SECRET));
+        assertArrayEquals(plaintext, decrypt(file));
+    }
+
+    @Test
+    void editedChunkIsTheOnlyOneRewritten() throws IOException {
+        byte[] plaintext = randomBytes(5 * CHUNK_SIZE, 2);
+        Path file = encryptSeekable(plaintext);
+        byte[] before = Files.readAllBytes(file);
+        byte[] edited = plaintext.clone();
+        edited[2 * CHUNK_SIZE + 7] ^= 1;
+
+        assertEquals(1, update(file, edited, SECRET));
+        assertArrayEquals(edited, decrypt(file));
+        // The slots of the other chunks are untouched
+        byte[] after = Files.readAllBytes(file);
+        int headerLength = before.length - (5 * (CHUNK_SIZE + SeekableCipher.SLOT_OVERHEAD)
+                + SeekableCipher.NONCE_LENGTH + 5 * SeekableCipher.HASH_LENGTH + SeekableCipher.TAG_LENGTH);
+        int slotSize = CHUNK_SIZE + SeekableCipher.SLOT_OVERHEAD;
+        assertArrayEquals(Arrays.copyOfRange(before, headerLength, headerLength + 2 * slotSize),
+                Arrays.copyOfRange(after, headerLength, headerLength + 2 * slotSize));
+    }
+
+    @Test
+    void growingRewritesTheOldFinalChunk() throws IOException {
+        byte[] plaintext = randomBytes(3 * CHUNK_SIZE, 3);
+        Path file = encryptSeekable(plaintext);
+        byte[] grown = Arrays.copyOf(plaintext, 4 * CHUNK_SIZE + 10);
+        System.arraycopy(randomBytes(CHUNK_SIZE + 10, 4), 0, grown, 3 * CHUNK_SIZE, CHUNK_SIZE + 10);
+
+        // The old final chunk loses its final flag, and two chunks are new
+        assertEquals(3, update(file, grown, SECRET));
+        assertArrayEquals(grown, decrypt(file));
+    }
+
+    @Test
+    void shrinkingTruncatesTheFile() throws IOException {
+        byte[] plaintext = randomBytes(4 * CHUNK_SIZE, 5);
+        Path file = encryptSeekable(plaintext);
+        long size = Files.size(file);
+        byte[] shrunk = Arrays.copyOf(plaintext, 2 * CHUNK_SIZE - 5);
+
+        assertEquals(1, update(file, shrunk, SECRET));
+        assertArrayEquals(shrunk, decrypt(file));
+        assertEquals(size - 2 * (CHUNK_SIZE + SeekableCipher.SLOT_OVERHEAD) - 5 - 2 * SeekableCipher.HASH_LENGTH,
+                Files.size(file));
+    }
+
+    @Test
+    void wrongKeyLeavesTheFileUntouched() throws IOException {
+        byte[] plaintext = randomBytes(2 * CHUNK_SIZE, 6);
+        Path file = encryptSeekable(plaintext);
+        byte[] before = Files.readAllBytes(file);
+
+        assertThrows(WrongKeyException.class, () -> update(file, randomBytes(2 * CHUNK_SIZE, 7), "wrong"));
+        assertArrayEquals(before, Files.readAllBytes(file));
+    }
+
+    @Test
+    void otherContainersCannotBeUpdated() throws IOException {
+        Path file = dir.resolve("cbc.enc");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AES256.encryptContainer(new ByteArrayInputStream(new byte[100]), out, SECRET, salt());
+        Files.write(file, out.toByteArray());
+
+        assertEquals(-1, update(file, new byte[100], SECRET));
+    }
+
+    @Test
+    void tamperedIndexPreventsUpdate() throws IOException {
+        byte[] plaintext = randomBytes(2 * CHUNK_SIZE, 8);
+        Path file = encryptSeekable(plaintext);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 20] ^= 1;
+        Files.write(file, bytes);
+
+        assertThrows(RuntimeException.class, () -> update(file, plaintext, SECRET));
+        assertArrayEquals(bytes, Files.readAllBytes(file));
+    }
+}
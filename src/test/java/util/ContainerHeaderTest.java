@@ -0,0 +1,88 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContainerHeaderTest {
+    private static ContainerHeader header() {
+        ContainerHeader header = new ContainerHeader(ContainerHeader.KDF_PBKDF2_SHA256, 65536,
+                new byte[]{1, 2, 3, 4}, ContainerHeader.CIPHER_AES_CBC, new byte[]{9, 8, 7});
+        header.putExtension(7, new byte[]{1});
+        header.putExtension(200, new byte[0]);
+        return header;
+    }
+
+    @Test
+    void roundTripsAllFields() throws IOException {
+        byte[] bytes = header().toBytes();
+        ByteArrayInputStream in = new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length + 5));
+        ContainerHeader read = ContainerHeader.read(in);
+
+        assertEquals(ContainerHeader.KDF_PBKDF2_SHA256, read.getKdf());
+        assertEquals(65536, read.getIterations());
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, read.getSalt());
+        assertEquals(ContainerHeader.CIPHER_AES_CBC, read.getCipher());
+        assertArrayEquals(new byte[]{9, 8, 7}, read.getIv());
+        assertArrayEquals(new byte[]{1}, read.getExtension(7));
+        assertArrayEquals(new byte[0], read.getExtension(200));
+        assertNull(read.getExtension(1));
+        // Left positioned at the first ciphertext byte
+        assertEquals(5, in.available());
+    }
+
+    @Test
+    void layoutStartsWithMagicAndVersion() {
+        byte[] bytes = header().toBytes();
+        assertArrayEquals(new byte[]{'F', 'E', 'N', 'C', 2}, Arrays.copyOf(bytes, 5));
+        assertTrue(ContainerHeader.isContainer(bytes));
+    }
+
+    @Test
+    void legacySaltIsNotAContainer() {
+        assertFalse(ContainerHeader.isContainer(new byte[]{'F', 'E', 'N', 'C', 1, 0, 0, 0}));
+        assertFalse(ContainerHeader.isContainer(new byte[]{'F', 'E', 'N', 'C'}));
+        assertFalse(ContainerHeader.isContainer(new byte[16]));
+    }
+
+    @Test
+    void rejectsTruncatedHeader() {
+        byte[] bytes = header().toBytes();
+        for (int length = 0; length < bytes.length; length++) {
+            byte[] truncated = Arrays.copyOf(bytes, length);
+            assertThrows(IOException.class, () -> ContainerHeader.read(new ByteArrayInputStream(truncated)));
+        }
+    }
+
+    @Test
+    void rejectsUnknownVersion() {
+        byte[] bytes = header().toBytes();
+        bytes[4] = 3;
+        assertThrows(IOException.class, () -> ContainerHeader.read(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    void rejectsExtensionsOverrunningTheirLength() {
+        byte[] bytes = header().toBytes();
+        // The extension area length is the two bytes before the first tag
+        int lengthOffset = bytes.length - (3 + 1) - 3 - 2;
+        bytes[lengthOffset + 1]--;
+        assertThrows(IOException.class, () -> ContainerHeader.read(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    void rejectsInvalidExtension() {
+        ContainerHeader header = header();
+        assertThrows(IllegalArgumentException.class, () -> header.putExtension(256, new byte[0]));
+        assertThrows(IllegalArgumentException.class, () -> header.putExtension(1, new byte[0x10000]));
+    }
+}
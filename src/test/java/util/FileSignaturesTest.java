@@ -0,0 +1,120 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FileSignaturesTest {
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] at(int offset, byte[] signature, int length) {
+        byte[] header = new byte[length];
+        System.arraycopy(signature, 0, header, offset, signature.length);
+        return header;
+    }
+
+    @Test
+    void detectsSignaturesAtOffsetZero() {
+        assertEquals("pdf", FileSignatures.detect(ascii("%PDF-1.7\n")));
+        assertEquals("png", FileSignatures.detect(new byte[]{(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A}));
+        assertEquals("jpg", FileSignatures.detect(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0}));
+        assertEquals("gz", FileSignatures.detect(new byte[]{0x1F, (byte) 0x8B, 8, 0}));
+        assertEquals("7z", FileSignatures.detect(new byte[]{0x37, 0x7A, (byte) 0xBC, (byte) 0xAF, 0x27, 0x1C, 0, 4}));
+    }
+
+    @Test
+    void detectsSignaturesAtLaterOffsets() {
+        assertEquals("tar", FileSignatures.detect(at(257, ascii("ustar\u000000"), 512)));
+        assertEquals("mp4", FileSignatures.detect(at(4, ascii("ftypisom"), 32)));
+    }
+
+    @Test
+    void refinesContainerFormats() {
+        byte[] docx = at(0, ascii("PK\u0003\u0004...[Content_Types].xml...word/document.xml"), 128);
+        assertEquals("docx", FileSignatures.detect(docx));
+        assertEquals("zip", FileSignatures.detect(at(0, ascii("PK\u0003\u0004...photos/beach.jpg"), 128)));
+        assertEquals("mov", FileSignatures.detect(at(4, ascii("ftypqt  "), 32)));
+        assertEquals("heic", FileSignatures.detect(at(4, ascii("ftypheic"), 32)));
+        assertEquals("webp", FileSignatures.detect(ascii("RIFF\u0000\u0000\u0000\u0000WEBPVP8 ")));
+        assertEquals("wav", FileSignatures.detect(ascii("RIFF\u0000\u0000\u0000\u0000WAVEfmt ")));
+        assertEquals(FileSignatures.UNKNOWN, FileSignatures.detect(ascii("RIFF\u0000\u0000\u0000\u0000XXXX")));
+    }
+
+    @Test
+    void fallsBackToTextOrUnknown() {
+        assertEquals("txt", FileSignatures.detect(ascii("Dear diary,\r\n\ttoday I wrote a test.\n")));
+        assertEquals("txt", FileSignatures.detect(new byte[0]));
+        assertEquals(FileSignatures.UNKNOWN, FileSignatures.detect(new byte[]{'a', 'b', 0, 1, 2}));
+    }
+
+    @Test
+    void shortAsciiSignaturesNeedTheirFormatBytes() {
+        assertEquals("bz2", FileSignatures.detect(ascii("BZh91AY&SY")));
+        assertEquals("mp3", FileSignatures.detect(ascii("ID3\u0004\u0000\u0000")));
+        assertEquals("avi", FileSignatures.detect(ascii("RIFF\u0000\u0000\u0000\u0000AVI LIST")));
+
+        // Text that merely starts with the same letters is still text
+        assertEquals("txt", FileSignatures.detect(ascii("BZh is not a block size\n")));
+        assertEquals("txt", FileSignatures.detect(ascii("ID3 tags are described below.\n")));
+        assertEquals("txt", FileSignatures.detect(ascii("RIFF stands for Resource Interchange File Format\n")));
+        assertEquals("txt", FileSignatures.detect(ascii("RIFF")));
+    }
+
+    @Test
+    void longestSignatureWins() {
+        FileSignatures.register("test-short", 0, ascii("QQZ"));
+        FileSignatures.register("test-long", 0, ascii("QQZ9"));
+
+        assertEquals("test-long", FileSignatures.detect(ascii("QQZ9 rest")));
+        assertEquals("test-short", FileSignatures.detect(ascii("QQZ8 rest")));
+    }
+
+    @Test
+    void rejectsSignaturesBeyondThePeekSize() {
+        assertThrows(IllegalArgumentException.class,
+                () -> FileSignatures.register("test", FileSignatures.PEEK_SIZE - 1, ascii("AB")));
+        assertThrows(IllegalArgumentException.class, () -> FileSignatures.register("test", 0, new byte[0]));
+    }
+
+    @Test
+    void bufferDetectionLeavesPositionUnchanged() {
+        ByteBuffer content = ByteBuffer.wrap(ascii("xx%PDF-1.7"));
+        content.position(2);
+
+        assertEquals("pdf", FileSignatures.detect(content));
+        assertEquals(2, content.position());
+    }
+
+    @Test
+    void streamDetectionDoesNotConsumeTheStream() throws IOException {
+        byte[] content = at(0, ascii("%PDF-1.7"), 10_000);
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(content));
+
+        assertEquals("pdf", FileSignatures.detect(in));
+        assertArrayEquals(content, in.readAllBytes());
+    }
+
+    @Test
+    void detectsFileFromItsLeadingBytes(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("no-extension");
+        byte[] content = Arrays.copyOf(at(257, ascii("ustar"), 512), 1_000_000);
+        Files.write(file, content);
+
+        assertEquals("tar", FileSignatures.detect(file));
+    }
+}
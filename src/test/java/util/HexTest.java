@@ -0,0 +1,48 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static util.TestData.randomBytes;
+
+class HexTest {
+
+    @Test
+    void encodesLowercaseDigits() {
+        assertEquals("", Hex.encode(new byte[0]));
+        assertEquals("00017f80ff", Hex.encode(new byte[]{0, 1, 127, -128, -1}));
+        assertEquals("deadbeef", Hex.encode(new byte[]{(byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF}));
+    }
+
+    @Test
+    void decodesEitherCase() {
+        assertArrayEquals(new byte[]{(byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF}, Hex.decode("DeadBEEF"));
+        assertArrayEquals(new byte[0], Hex.decode(""));
+    }
+
+    @Test
+    void roundTrips() {
+        for (int length : new int[]{1, 2, 31, 32, 1000}) {
+            byte[] bytes = randomBytes(length);
+            assertArrayEquals(bytes, Hex.decode(Hex.encode(bytes)));
+        }
+    }
+
+    @Test
+    void encodesIntoABuffer() {
+        char[] buffer = "xx........yy".toCharArray();
+        assertEquals(8, Hex.encode(new byte[]{1, 35, 69, 103}, buffer, 2));
+        assertEquals("xx01234567yy", new String(buffer));
+        assertThrows(IndexOutOfBoundsException.class, () -> Hex.encode(new byte[6], buffer, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> Hex.encode(new byte[1], buffer, -1));
+    }
+
+    @Test
+    void rejectsInvalidStrings() {
+        assertThrows(IllegalArgumentException.class, () -> Hex.decode("abc"));
+        assertThrows(IllegalArgumentException.class, () -> Hex.decode("0g"));
+        assertThrows(IllegalArgumentException.class, () -> Hex.decode("-1"));
+    }
+}
@@ -0,0 +1,46 @@
+package util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * TestData holds the fixtures shared by the tests: a secret key, a salt and reproducible content.
+ */
+public final class TestData {
+    /** The secret key the tests encrypt with. */
+    public static final String SECRET = "correct horse battery staple";
+
+    private static final String SALT_TEXT = "0123456789abcdef";
+
+    private TestData() {
+    }
+
+    /**
+     * Returns the salt the tests derive keys with, as a fresh copy so tests cannot affect each other.
+     * @return The salt.
+     */
+    public static byte[] salt() {
+        return SALT_TEXT.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Generates reproducible random content, seeded with its length.
+     * @param length The number of bytes.
+     * @return The content.
+     */
+    public static byte[] randomBytes(int length) {
+        return randomBytes(length, length);
+    }
+
+    /**
+     * Generates reproducible random content.
+     * @param length The number of bytes.
+     * @param seed The seed; the same seed and length always give the same content.
+     * @return The content.
+     */
+    public static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,77 @@
+package util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UserDBTest {
+    private static final String DB_PATH = System.getProperty("userdb.path", "target/test-users.db");
+
+    @BeforeEach
+    @AfterEach
+    void deleteDatabase() throws IOException {
+        UserDB.close();
+        for (String suffix : new String[]{"", "-wal", "-shm"}) {
+            Files.deleteIfExists(Path.of(DB_PATH + suffix));
+        }
+    }
+
+    private static Map<String, String> users(int count) {
+        Map<String, String> users = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            users.put("user" + i, "password" + i);
+        }
+        return users;
+    }
+
+    @Test
+    void registersAndValidatesUsers() {
+        assertTrue(UserDB.registerUser("alice", "secret"));
+        assertFalse(UserDB.registerUser("alice", "other"));
+
+        assertTrue(UserDB.validateUser("alice", "secret"));
+        assertFalse(UserDB.validateUser("alice", "other"));
+        assertFalse(UserDB.validateUser("bob", "secret"));
+    }
+
+    @Test
+    void registersUsersInBulk() {
+        assertEquals(100, UserDB.registerUsers(users(100)));
+
+        for (Map.Entry<String, String> user : users(100).entrySet()) {
+            assertTrue(UserDB.validateUser(user.getKey(), user.getValue()), user.getKey());
+        }
+    }
+
+    @Test
+    void bulkRegistrationSkipsExistingUsers() {
+        assertTrue(UserDB.registerUser("user0", "kept"));
+
+        assertEquals(9, UserDB.registerUsers(users(10)));
+        assertEquals(0, UserDB.registerUsers(users(10)));
+        assertTrue(UserDB.validateUser("user0", "kept"));
+        assertFalse(UserDB.validateUser("user0", "password0"));
+    }
+
+    @Test
+    void sharedConnectionKeepsWorkingAfterABulkRegistration() {
+        assertEquals(10, UserDB.registerUsers(users(10)));
+        assertEquals(0, UserDB.registerUsers(Map.of()));
+
+        // Auto-commit is restored, so single registrations are committed on their own
+        assertTrue(UserDB.registerUser("alice", "secret"));
+        UserDB.close();
+        assertTrue(UserDB.validateUser("alice", "secret"));
+        assertTrue(UserDB.validateUser("user9", "password9"));
+    }
+}